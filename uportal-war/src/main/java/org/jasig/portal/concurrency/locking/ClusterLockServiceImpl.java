@@ -116,6 +116,17 @@ public class ClusterLockServiceImpl implements IClusterLockService {
 	public <T> TryLockFunctionResult<T> doInTryLock(String mutexName,
 			LockOptions lockOptions, Function<ClusterMutex, T> lockFunction)
 			throws InterruptedException {
+        return doInTryLock(mutexName, lockOptions, lockFunction, this.updateLockRate);
+    }
+    
+    /**
+     * Same as {@link #doInTryLock(String, LockOptions, Function)} but the database lock is updated at the specified
+     * rate instead of the configured updateLockRate. Used when mutual exclusion is already provided by another
+     * mechanism and the database lock only needs to stay fresh enough to not be considered abandoned.
+     */
+    <T> TryLockFunctionResult<T> doInTryLock(String mutexName,
+            LockOptions lockOptions, Function<ClusterMutex, T> lockFunction, ReadableDuration updateLockRate)
+            throws InterruptedException {
         /*
          * locking strategy requires 2 threads
          * the caller thread is the 'work thread', it executes the lockFunction
@@ -174,7 +185,7 @@ public class ClusterLockServiceImpl implements IClusterLockService {
             }
             
             final Thread currentThread = Thread.currentThread();
-            final DatabaseLockWorker databaseLockWorker = new DatabaseLockWorker(currentThread, mutexRef, mutexName, dbLockLatch, workCompleteLatch);
+            final DatabaseLockWorker databaseLockWorker = new DatabaseLockWorker(currentThread, mutexRef, mutexName, updateLockRate, dbLockLatch, workCompleteLatch);
             lockFuture = this.lockMonitorExecutorService.submit(databaseLockWorker);
             
             //Wait for DB lock acquisition
@@ -262,14 +273,16 @@ public class ClusterLockServiceImpl implements IClusterLockService {
         private final Thread worker;
         private final AtomicReference<ClusterMutex> mutexRef;
         private final String mutexName;
+        private final ReadableDuration updateLockRate;
         private final CountDownLatch dbLockLatch;
         private final CountDownLatch workCompleteLatch;
 
-        private DatabaseLockWorker(Thread worker, AtomicReference<ClusterMutex> mutexRef, String mutexName, CountDownLatch dbLockLatch,
-                CountDownLatch workCompleteLatch) {
+        private DatabaseLockWorker(Thread worker, AtomicReference<ClusterMutex> mutexRef, String mutexName, ReadableDuration updateLockRate,
+                CountDownLatch dbLockLatch, CountDownLatch workCompleteLatch) {
             this.worker = worker;
             this.mutexRef = mutexRef;
             this.mutexName = mutexName;
+            this.updateLockRate = updateLockRate;
             this.dbLockLatch = dbLockLatch;
             this.workCompleteLatch = workCompleteLatch;
         }
@@ -303,7 +316,7 @@ public class ClusterLockServiceImpl implements IClusterLockService {
                 //wait for the work to complete using the updateLockRate as the wait duration, if the wait time
                 //passes without the work thread signaling completion update the mutex (signal we still have the lock)
                 //and wait again
-                while (!this.workCompleteLatch.await(updateLockRate.getMillis(), TimeUnit.MILLISECONDS)) {
+                while (!this.workCompleteLatch.await(this.updateLockRate.getMillis(), TimeUnit.MILLISECONDS)) {
                     clusterLockDao.updateLock(this.mutexName);
                     
                     if (lockTimeout < System.currentTimeMillis()) {
@@ -0,0 +1,200 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import java.util.concurrent.locks.Lock;
+
+import org.jgroups.JChannel;
+import org.jgroups.blocks.locking.LockService;
+import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Function;
+
+/**
+ * Cluster lock service that uses a JGroups lock to decide which server tries to get the database lock. Servers
+ * that don't get the JGroups lock return immediately without polling the database. The server that does get it
+ * still acquires the database lock through {@link ClusterLockServiceImpl} so {@link ClusterMutex} reporting, the
+ * {@link LockOptions} checks and mutual exclusion with servers that fall back to database locking work as before,
+ * the database lock is just updated at the much lower clusterUpdateLockRate.
+ * <p>
+ * The JGroups channel needs a locking protocol such as CENTRAL_LOCK in its stack. If JGroups locking is disabled or
+ * the channel can't be connected all calls fall back to {@link ClusterLockServiceImpl}.
+ * 
+ * @version $Revision$
+ */
+@Service
+@Primary
+public class JGroupsClusterLockServiceImpl implements IClusterLockService, InitializingBean, DisposableBean {
+    private static final LockOptions DEFAULT_LOCK_OPTIONS = new LockOptions();
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private ClusterLockServiceImpl clusterLockService;
+    private boolean enabled = false;
+    private String channelConfig = "properties/jgroups-locking.xml";
+    private String clusterName = "uPortal-ClusterLock";
+    private ReadableDuration clusterUpdateLockRate = Duration.standardSeconds(20);
+    
+    private volatile JChannel channel;
+    private volatile LockService lockService;
+
+    @Autowired
+    public void setClusterLockService(ClusterLockServiceImpl clusterLockService) {
+        this.clusterLockService = clusterLockService;
+    }
+
+    /**
+     * If JGroups locking should be used, if false all calls are handled by {@link ClusterLockServiceImpl}
+     */
+    @Value("${org.jasig.portal.concurrency.locking.JGroupsClusterLockService.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * JGroups stack configuration file, must include a locking protocol
+     */
+    @Value("${org.jasig.portal.concurrency.locking.JGroupsClusterLockService.channelConfig:properties/jgroups-locking.xml}")
+    public void setChannelConfig(String channelConfig) {
+        this.channelConfig = channelConfig;
+    }
+
+    /**
+     * Name of the JGroups cluster used for locking, must be different from the cache replication cluster
+     */
+    @Value("${org.jasig.portal.concurrency.locking.JGroupsClusterLockService.clusterName:uPortal-ClusterLock}")
+    public void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    /**
+     * Rate at which the database lock is updated while the JGroups lock is held, must be less than the
+     * abandonedLockAge of the database lock
+     */
+    @Value("${org.jasig.portal.concurrency.locking.JGroupsClusterLockService.updateLockRate:PT20S}")
+    public void setClusterUpdateLockRate(ReadableDuration clusterUpdateLockRate) {
+        this.clusterUpdateLockRate = clusterUpdateLockRate;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!this.enabled) {
+            return;
+        }
+        
+        JChannel channel = null;
+        try {
+            channel = new JChannel(this.channelConfig);
+            channel.connect(this.clusterName);
+            this.lockService = new LockService(channel);
+            this.channel = channel;
+            this.logger.info("Connected to JGroups cluster {} for cluster locking", this.clusterName);
+        }
+        catch (Exception e) {
+            this.logger.warn("Failed to connect to JGroups cluster " + this.clusterName + ", cluster locking will only use the database", e);
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        final JChannel channel = this.channel;
+        this.lockService = null;
+        this.channel = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public ClusterMutex getClusterMutex(String mutexName) {
+        return this.clusterLockService.getClusterMutex(mutexName);
+    }
+
+    @Override
+    public <T> TryLockFunctionResult<T> doInTryLock(String mutexName, Function<ClusterMutex, T> lockFunction) throws InterruptedException {
+        return this.doInTryLock(mutexName, DEFAULT_LOCK_OPTIONS, lockFunction);
+    }
+
+    @Override
+    public <T> TryLockFunctionResult<T> doInTryLock(String mutexName, LockOptions lockOptions,
+            Function<ClusterMutex, T> lockFunction) throws InterruptedException {
+        
+        final Lock clusterLock = this.getClusterLock(mutexName);
+        if (clusterLock == null) {
+            return this.clusterLockService.doInTryLock(mutexName, lockOptions, lockFunction);
+        }
+        
+        final boolean locked;
+        try {
+            locked = clusterLock.tryLock();
+        }
+        catch (RuntimeException e) {
+            this.logger.warn("Failed to check JGroups lock for " + mutexName + ", falling back to database locking", e);
+            return this.clusterLockService.doInTryLock(mutexName, lockOptions, lockFunction);
+        }
+        
+        if (!locked) {
+            this.logger.trace("JGroups lock already held for {}", mutexName);
+            return ClusterLockServiceImpl.TryLockFunctionResultImpl.getSkippedInstance(LockStatus.SKIPPED_LOCKED);
+        }
+        
+        try {
+            this.logger.trace("acquired JGroups lock for {}", mutexName);
+            return this.clusterLockService.doInTryLock(mutexName, lockOptions, lockFunction, this.clusterUpdateLockRate);
+        }
+        finally {
+            clusterLock.unlock();
+            this.logger.trace("released JGroups lock for {}", mutexName);
+        }
+    }
+
+    @Override
+    public boolean isLockOwner(String mutexName) {
+        return this.clusterLockService.isLockOwner(mutexName);
+    }
+
+    @Override
+    public boolean isLocked(String mutexName) {
+        return this.clusterLockService.isLocked(mutexName);
+    }
+
+    /**
+     * @return The JGroups lock for the mutex, null if JGroups locking is not available
+     */
+    protected Lock getClusterLock(String mutexName) {
+        final LockService lockService = this.lockService;
+        final JChannel channel = this.channel;
+        if (lockService == null || channel == null || !channel.isConnected()) {
+            return null;
+        }
+        return lockService.getLock(mutexName);
+    }
+}
@@ -26,6 +26,7 @@ import org.jasig.portal.concurrency.IEntityLock;
 import org.jasig.portal.concurrency.IEntityLockService;
 import org.jasig.portal.concurrency.LockingException;
 import org.jasig.portal.properties.PropertiesManager;
+import org.jasig.portal.spring.locator.ReplicatedEntityLockStoreLocator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 /**
@@ -159,9 +160,16 @@ private void initialize() throws LockingException
     {
         multiServer = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.concurrency.multiServer", false);
 
-        lockStore = ( multiServer )
-            ? RDBMEntityLockStore.singleton()
-            : MemoryEntityLockStore.singleton();
+        boolean replicated = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.concurrency.replicatedLockStore", false);
+
+        if ( multiServer && replicated )
+            { lockStore = ReplicatedEntityLockStoreLocator.getReplicatedEntityLockStore(); }
+        else
+        {
+            lockStore = ( multiServer )
+                ? RDBMEntityLockStore.singleton()
+                : MemoryEntityLockStore.singleton();
+        }
     }
     catch ( Exception e )
     {
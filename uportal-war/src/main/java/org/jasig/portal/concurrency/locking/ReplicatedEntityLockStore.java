@@ -0,0 +1,810 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.jasig.portal.EntityTypes;
+import org.jasig.portal.IBasicEntity;
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.IEntityLockService;
+import org.jasig.portal.concurrency.LockingException;
+import org.jasig.portal.jpa.BasePortalJpaDao;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.MessageListener;
+import org.jgroups.blocks.MessageDispatcher;
+import org.jgroups.blocks.RequestHandler;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.locking.LockService;
+import org.jgroups.util.Rsp;
+import org.jgroups.util.RspList;
+import org.jgroups.util.Util;
+import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Cluster aware store for <code>IEntityLocks</code>. Each server keeps a copy of every lock as a lease in a local
+ * cache, so lock checks never touch the database. Changes to the leases of an entity are made while holding a
+ * JGroups lock on the entity and are applied on every server in the cluster before that lock is released, so the
+ * server making the next change always sees the current leases. {@link #add(IEntityLock)} and
+ * {@link #update(IEntityLock, Date, Integer)} refuse a lock that conflicts with an unexpired lock held by anyone
+ * else, a write lock conflicts with every other lock and a read lock conflicts with write locks.
+ * <p>
+ * Changes are queued per entity and written to UP_ENTITY_LOCK in batches by {@link #flush()}. The table is only
+ * read by the first server to join the cluster, to recover the leases that were held before a restart, servers
+ * that join later receive the current leases from the cluster. Expired leases are removed from the cache and the
+ * table by the periodic {@link #sweepExpired()} instead of on each lock operation.
+ * <p>
+ * The JGroups channel is connected the first time the store is used and needs a locking protocol such as
+ * CENTRAL_LOCK and a state transfer protocol in its stack. Like {@link RDBMEntityLockStore} a lock is identified
+ * by its entity, owner, lock type and expiration.
+ * 
+ * @version $Revision$
+ */
+@Service("replicatedEntityLockStore")
+public class ReplicatedEntityLockStore implements IEntityLockStore, DisposableBean {
+    static final String INSERT_SQL = "INSERT INTO UP_ENTITY_LOCK (ENTITY_TYPE_ID, ENTITY_KEY, LOCK_TYPE, EXPIRATION_TIME, LOCK_OWNER) VALUES (?, ?, ?, ?, ?)";
+    static final String DELETE_ENTITY_SQL = "DELETE FROM UP_ENTITY_LOCK WHERE ENTITY_TYPE_ID = ? AND ENTITY_KEY = ?";
+    static final String DELETE_EXPIRED_SQL = "DELETE FROM UP_ENTITY_LOCK WHERE EXPIRATION_TIME < ?";
+    static final String DELETE_ALL_SQL = "DELETE FROM UP_ENTITY_LOCK";
+    static final String SELECT_UNEXPIRED_SQL = "SELECT ENTITY_TYPE_ID, ENTITY_KEY, LOCK_TYPE, EXPIRATION_TIME, LOCK_OWNER FROM UP_ENTITY_LOCK WHERE EXPIRATION_TIME > ?";
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final Set<LeaseKey> dirtyEntities = Collections.newSetFromMap(new ConcurrentHashMap<LeaseKey, Boolean>());
+    private volatile boolean recovered = false;
+    
+    private Ehcache leaseCache;
+    private JdbcOperations jdbcOperations;
+    private TransactionOperations transactionOperations;
+    private EntityTypes entityTypes;
+    private String channelConfig = "properties/jgroups-locking.xml";
+    private String clusterName = "uPortal-EntityLock";
+    private ReadableDuration clusterTimeout = Duration.standardSeconds(10);
+    
+    private volatile JChannel channel;
+    private volatile MessageDispatcher dispatcher;
+    private volatile LockService lockService;
+
+    @Autowired
+    public void setLeaseCache(@Qualifier("org.jasig.portal.concurrency.locking.ReplicatedEntityLockStore.leaseCache") Ehcache leaseCache) {
+        this.leaseCache = leaseCache;
+    }
+
+    @Autowired
+    public void setJdbcOperations(@Qualifier(BasePortalJpaDao.PERSISTENCE_UNIT_NAME) JdbcOperations jdbcOperations) {
+        this.jdbcOperations = jdbcOperations;
+    }
+
+    @Autowired
+    public void setTransactionOperations(@Qualifier(BasePortalJpaDao.PERSISTENCE_UNIT_NAME) TransactionOperations transactionOperations) {
+        this.transactionOperations = transactionOperations;
+    }
+
+    @Autowired
+    public void setEntityTypes(EntityTypes entityTypes) {
+        this.entityTypes = entityTypes;
+    }
+
+    /**
+     * JGroups stack configuration file, must include a locking protocol and a state transfer protocol
+     */
+    @Value("${org.jasig.portal.concurrency.locking.ReplicatedEntityLockStore.channelConfig:properties/jgroups-locking.xml}")
+    public void setChannelConfig(String channelConfig) {
+        this.channelConfig = channelConfig;
+    }
+
+    /**
+     * Name of the JGroups cluster used for entity locks, must be different from the other JGroups clusters
+     */
+    @Value("${org.jasig.portal.concurrency.locking.ReplicatedEntityLockStore.clusterName:uPortal-EntityLock}")
+    public void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    /**
+     * How long to wait for the JGroups lock on an entity, for the other servers to apply a change and for the
+     * current leases when joining the cluster
+     */
+    @Value("${org.jasig.portal.concurrency.locking.ReplicatedEntityLockStore.clusterTimeout:PT10S}")
+    public void setClusterTimeout(ReadableDuration clusterTimeout) {
+        this.clusterTimeout = clusterTimeout;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        this.flush();
+        
+        final JChannel channel = this.channel;
+        this.lockService = null;
+        this.dispatcher = null;
+        this.channel = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void add(IEntityLock lock) throws LockingException {
+        final Lease lease = new Lease(lock.getLockType(), lock.getExpirationTime().getTime(), lock.getLockOwner());
+        if (lease.isExpired(System.currentTimeMillis())) {
+            //Already expired, nothing to store
+            return;
+        }
+        
+        this.updateLeases(getLeaseKey(lock), new LeaseChange() {
+            @Override
+            public List<Lease> apply(LeaseKey leaseKey, List<Lease> leases) throws LockingException {
+                if (leases.contains(lease)) {
+                    return leases;
+                }
+                checkConflicts(leaseKey, leases, lease, null);
+                return ImmutableList.<Lease>builder().addAll(leases).add(lease).build();
+            }
+        });
+    }
+
+    @Override
+    public void delete(IEntityLock lock) throws LockingException {
+        final Lease lease = new Lease(lock.getLockType(), lock.getExpirationTime().getTime(), lock.getLockOwner());
+        
+        this.updateLeases(getLeaseKey(lock), new LeaseChange() {
+            @Override
+            public List<Lease> apply(LeaseKey leaseKey, List<Lease> leases) {
+                return replaceLease(leases, lease, null);
+            }
+        });
+    }
+
+    @Override
+    public void deleteAll() throws LockingException {
+        this.recoverLeases();
+        
+        this.replicate(new LeaseUpdate(null, null));
+        this.leaseCache.removeAll();
+        this.dirtyEntities.clear();
+        this.jdbcOperations.update(DELETE_ALL_SQL);
+    }
+
+    /**
+     * Expired leases are removed by {@link #sweepExpired()}
+     */
+    @Override
+    public void deleteExpired(Date expiration) throws LockingException {
+        // let sweepExpired handle it.
+    }
+
+    @Override
+    public IEntityLock[] find(Class entityType, String entityKey, Integer lockType, Date expiration, String lockOwner)
+            throws LockingException {
+        return this.find(entityType, entityKey, lockType, expiration, null, lockOwner);
+    }
+
+    @Override
+    public IEntityLock[] findUnexpired(Date expiration, Class entityType, String entityKey, Integer lockType,
+            String lockOwner) throws LockingException {
+        return this.find(entityType, entityKey, lockType, null, expiration, lockOwner);
+    }
+
+    @Override
+    public void update(IEntityLock lock, Date newExpiration) throws LockingException {
+        this.update(lock, newExpiration, null);
+    }
+
+    @Override
+    public void update(IEntityLock lock, Date newExpiration, Integer newLockType) throws LockingException {
+        final Lease lease = new Lease(lock.getLockType(), lock.getExpirationTime().getTime(), lock.getLockOwner());
+        final Lease newLease = new Lease(newLockType != null ? newLockType : lock.getLockType(), newExpiration.getTime(), lock.getLockOwner());
+        
+        final boolean updated = this.updateLeases(getLeaseKey(lock), new LeaseChange() {
+            @Override
+            public List<Lease> apply(LeaseKey leaseKey, List<Lease> leases) throws LockingException {
+                final List<Lease> newLeases = replaceLease(leases, lease, newLease);
+                if (newLeases != null && newLease.lockType != lease.lockType) {
+                    checkConflicts(leaseKey, leases, newLease, lease);
+                }
+                return newLeases;
+            }
+        });
+        
+        if (!updated) {
+            throw new LockingException("Problem updating " + lock + " : not found in store.");
+        }
+    }
+    
+    /**
+     * Write the entity lock changes made on this server since the last flush to the database. Multiple changes
+     * to the leases of an entity are written as a single delete of the entity's rows followed by inserts of
+     * its current leases. Entities that fail to be written are retried on the next flush.
+     */
+    public void flush() {
+        if (this.dirtyEntities.isEmpty()) {
+            return;
+        }
+        
+        final List<LeaseKey> flushedEntities = new ArrayList<LeaseKey>(this.dirtyEntities.size());
+        for (final Iterator<LeaseKey> dirtyItr = this.dirtyEntities.iterator(); dirtyItr.hasNext(); ) {
+            flushedEntities.add(dirtyItr.next());
+            dirtyItr.remove();
+        }
+        
+        final long now = System.currentTimeMillis();
+        final List<Object[]> deletes = new ArrayList<Object[]>(flushedEntities.size());
+        final List<Object[]> inserts = new ArrayList<Object[]>(flushedEntities.size());
+        for (final LeaseKey leaseKey : flushedEntities) {
+            final Integer entityTypeId = this.entityTypes.getEntityIDFromType(leaseKey.entityType);
+            deletes.add(new Object[] { entityTypeId, leaseKey.entityKey });
+            
+            for (final Lease lease : this.getLeases(leaseKey)) {
+                if (!lease.isExpired(now)) {
+                    inserts.add(new Object[] { entityTypeId, leaseKey.entityKey, lease.lockType, new Timestamp(lease.expiration), lease.owner });
+                }
+            }
+        }
+        
+        try {
+            this.transactionOperations.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    jdbcOperations.batchUpdate(DELETE_ENTITY_SQL, deletes);
+                    if (!inserts.isEmpty()) {
+                        jdbcOperations.batchUpdate(INSERT_SQL, inserts);
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            this.dirtyEntities.addAll(flushedEntities);
+            this.logger.warn("Failed to write entity locks for " + flushedEntities.size() + " entities to the database, they will be retried on the next flush", e);
+            return;
+        }
+        
+        this.logger.debug("Wrote {} entity locks for {} entities to the database", inserts.size(), flushedEntities.size());
+    }
+    
+    /**
+     * Remove expired leases from the cache and expired locks from the database. Does nothing until the store
+     * has been used.
+     */
+    public void sweepExpired() {
+        if (!this.recovered) {
+            return;
+        }
+        
+        this.leaseCache.evictExpiredElements();
+        
+        final int deleted = this.jdbcOperations.update(DELETE_EXPIRED_SQL, new Timestamp(System.currentTimeMillis()));
+        this.logger.debug("Deleted {} expired entity locks from the database", deleted);
+    }
+    
+    /**
+     * Join the cluster and load the current leases the first time the store is used. If another server is
+     * already in the cluster the leases are received from it, otherwise the unexpired locks are loaded from
+     * the database.
+     */
+    protected void recoverLeases() throws LockingException {
+        if (this.recovered) {
+            return;
+        }
+        
+        synchronized (this) {
+            if (this.recovered) {
+                return;
+            }
+            
+            if (this.joinCluster()) {
+                this.logger.info("Received {} entities with entity locks from the {} cluster", this.leaseCache.getSize(), this.clusterName);
+                this.recovered = true;
+                return;
+            }
+            
+            final List<IEntityLock> locks = this.jdbcOperations.query(SELECT_UNEXPIRED_SQL, new RowMapper<IEntityLock>() {
+                @Override
+                public IEntityLock mapRow(ResultSet rs, int rowNum) throws SQLException {
+                    final Class<? extends IBasicEntity> entityType = entityTypes.getEntityTypeFromID(rs.getInt(1));
+                    return new EntityLockImpl(entityType, rs.getString(2), rs.getInt(3), rs.getTimestamp(4), rs.getString(5));
+                }
+            }, new Timestamp(System.currentTimeMillis()));
+            
+            final Map<LeaseKey, ImmutableList.Builder<Lease>> recoveredLeases = new LinkedHashMap<LeaseKey, ImmutableList.Builder<Lease>>();
+            for (final IEntityLock lock : locks) {
+                final LeaseKey leaseKey = getLeaseKey(lock);
+                ImmutableList.Builder<Lease> leases = recoveredLeases.get(leaseKey);
+                if (leases == null) {
+                    leases = ImmutableList.builder();
+                    recoveredLeases.put(leaseKey, leases);
+                }
+                leases.add(new Lease(lock.getLockType(), lock.getExpirationTime().getTime(), lock.getLockOwner()));
+            }
+            
+            int recoveredEntities = 0;
+            for (final Map.Entry<LeaseKey, ImmutableList.Builder<Lease>> leasesEntry : recoveredLeases.entrySet()) {
+                final LeaseKey leaseKey = leasesEntry.getKey();
+                if (this.leaseCache.get(leaseKey) == null) {
+                    this.leaseCache.put(createElement(leaseKey, leasesEntry.getValue().build()));
+                    recoveredEntities++;
+                }
+            }
+            
+            this.logger.info("Recovered {} entity locks for {} entities from the database", locks.size(), recoveredEntities);
+            this.recovered = true;
+        }
+    }
+    
+    /**
+     * Connect to the JGroups cluster, receiving the current leases from the coordinator if there is one
+     * 
+     * @return true if the leases were received from another server, false if this is the only server in the cluster
+     */
+    protected boolean joinCluster() throws LockingException {
+        JChannel channel = null;
+        try {
+            channel = new JChannel(this.channelConfig);
+            final MessageDispatcher dispatcher = new MessageDispatcher(channel, new LeaseStateListener(), null, new LeaseUpdateHandler());
+            channel.connect(this.clusterName, null, this.clusterTimeout.getMillis());
+            
+            this.lockService = new LockService(channel);
+            this.dispatcher = dispatcher;
+            this.channel = channel;
+        }
+        catch (Exception e) {
+            if (channel != null) {
+                channel.close();
+            }
+            throw new LockingException("Failed to connect to JGroups cluster " + this.clusterName + " for entity locks", e);
+        }
+        
+        this.logger.info("Connected to JGroups cluster {} for entity locks", this.clusterName);
+        return channel.getView().size() > 1;
+    }
+    
+    /**
+     * @return The JGroups lock for the leases of an entity
+     */
+    protected Lock getClusterLock(LeaseKey leaseKey) throws LockingException {
+        final LockService lockService = this.lockService;
+        if (lockService == null) {
+            throw new LockingException("Not connected to JGroups cluster " + this.clusterName + " for entity locks");
+        }
+        return lockService.getLock(leaseKey.getLockName());
+    }
+    
+    /**
+     * Apply a change to the leases on every other server in the cluster, returns once they have all applied
+     * it. Servers that leave the cluster while the change is sent are ignored.
+     */
+    protected void replicate(LeaseUpdate leaseUpdate) throws LockingException {
+        final MessageDispatcher dispatcher = this.dispatcher;
+        final JChannel channel = this.channel;
+        if (dispatcher == null || channel == null) {
+            throw new LockingException("Not connected to JGroups cluster " + this.clusterName + " for entity locks");
+        }
+        if (channel.getView().size() <= 1) {
+            return;
+        }
+        
+        final RspList<Object> responses;
+        try {
+            final Message message = new Message(null, null, Util.objectToByteBuffer(leaseUpdate));
+            final RequestOptions options = RequestOptions.SYNC().setTimeout(this.clusterTimeout.getMillis()).setExclusionList(channel.getAddress());
+            responses = dispatcher.castMessage(null, message, options);
+        }
+        catch (Exception e) {
+            throw new LockingException("Failed to replicate " + leaseUpdate + " to JGroups cluster " + this.clusterName, e);
+        }
+        
+        for (final Rsp<Object> response : responses.values()) {
+            if (response.wasSuspected()) {
+                continue;
+            }
+            if (!response.wasReceived() || response.hasException()) {
+                throw new LockingException("Server " + response.getSender() + " did not apply " + leaseUpdate, response.getException());
+            }
+        }
+    }
+    
+    /**
+     * Apply a change to the leases made on this or another server
+     */
+    void applyLeaseUpdate(LeaseUpdate leaseUpdate) {
+        if (leaseUpdate.leaseKey == null) {
+            this.leaseCache.removeAll();
+        }
+        else if (leaseUpdate.leases.isEmpty()) {
+            this.leaseCache.remove(leaseUpdate.leaseKey);
+        }
+        else {
+            this.leaseCache.put(createElement(leaseUpdate.leaseKey, leaseUpdate.leases));
+        }
+    }
+    
+    /**
+     * Write the unexpired leases on this server
+     */
+    @SuppressWarnings("unchecked")
+    void writeLeases(OutputStream output) throws Exception {
+        final long now = System.currentTimeMillis();
+        final HashMap<LeaseKey, List<Lease>> leases = new HashMap<LeaseKey, List<Lease>>();
+        for (final LeaseKey leaseKey : (List<LeaseKey>) this.leaseCache.getKeysWithExpiryCheck()) {
+            final List<Lease> unexpiredLeases = removeExpired(this.getLeases(leaseKey), now);
+            if (!unexpiredLeases.isEmpty()) {
+                leases.put(leaseKey, unexpiredLeases);
+            }
+        }
+        
+        final ObjectOutputStream objectOutput = new ObjectOutputStream(output);
+        objectOutput.writeObject(leases);
+        objectOutput.flush();
+    }
+    
+    /**
+     * Replace the leases on this server with leases written by {@link #writeLeases(OutputStream)}
+     */
+    @SuppressWarnings("unchecked")
+    void readLeases(InputStream input) throws Exception {
+        final Map<LeaseKey, List<Lease>> leases = (Map<LeaseKey, List<Lease>>) new ObjectInputStream(input).readObject();
+        
+        this.leaseCache.removeAll();
+        for (final Map.Entry<LeaseKey, List<Lease>> leasesEntry : leases.entrySet()) {
+            this.leaseCache.put(createElement(leasesEntry.getKey(), leasesEntry.getValue()));
+        }
+    }
+    
+    private IEntityLock[] find(Class entityType, String entityKey, Integer lockType, Date expiration, Date unexpiredAsOf, String lockOwner) throws LockingException {
+        this.recoverLeases();
+        
+        final List<LeaseKey> leaseKeys;
+        if (entityType != null && entityKey != null) {
+            leaseKeys = Collections.singletonList(new LeaseKey(entityType, entityKey));
+        }
+        else {
+            @SuppressWarnings("unchecked")
+            final List<LeaseKey> allKeys = this.leaseCache.getKeys();
+            leaseKeys = new ArrayList<LeaseKey>(allKeys.size());
+            for (final LeaseKey leaseKey : allKeys) {
+                if ((entityType == null || entityType.equals(leaseKey.entityType)) &&
+                        (entityKey == null || entityKey.equals(leaseKey.entityKey))) {
+                    leaseKeys.add(leaseKey);
+                }
+            }
+        }
+        
+        final List<IEntityLock> locks = new ArrayList<IEntityLock>();
+        for (final LeaseKey leaseKey : leaseKeys) {
+            for (final Lease lease : this.getLeases(leaseKey)) {
+                if ((lockType == null || lockType.intValue() == lease.lockType) &&
+                        (lockOwner == null || lockOwner.equals(lease.owner)) &&
+                        (expiration == null || expiration.getTime() == lease.expiration) &&
+                        (unexpiredAsOf == null || lease.expiration > unexpiredAsOf.getTime())) {
+                    locks.add(new EntityLockImpl(leaseKey.entityType, leaseKey.entityKey, lease.lockType, new Date(lease.expiration), lease.owner));
+                }
+            }
+        }
+        
+        return locks.toArray(new IEntityLock[locks.size()]);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<Lease> getLeases(LeaseKey leaseKey) {
+        final Element element = this.leaseCache.get(leaseKey);
+        if (element == null) {
+            return Collections.emptyList();
+        }
+        return (List<Lease>) element.getObjectValue();
+    }
+    
+    /**
+     * Change the leases of an entity while holding the JGroups lock on the entity. The change is applied on
+     * every other server before it is applied on this server and the lock is released. Expired leases are
+     * dropped each time the leases are updated.
+     * 
+     * @return true if the leases were updated, false if the change returned null
+     */
+    private boolean updateLeases(LeaseKey leaseKey, LeaseChange leaseChange) throws LockingException {
+        this.recoverLeases();
+        
+        final Lock clusterLock = this.getClusterLock(leaseKey);
+        final boolean locked;
+        try {
+            locked = clusterLock.tryLock(this.clusterTimeout.getMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LockingException("Interrupted waiting for the JGroups lock on " + leaseKey);
+        }
+        if (!locked) {
+            throw new LockingException("Timed out waiting for the JGroups lock on " + leaseKey);
+        }
+        
+        try {
+            final List<Lease> existingLeases = this.getLeases(leaseKey);
+            final List<Lease> newLeases = leaseChange.apply(leaseKey, existingLeases);
+            if (newLeases == null) {
+                return false;
+            }
+            if (newLeases == existingLeases) {
+                return true;
+            }
+            
+            final LeaseUpdate leaseUpdate = new LeaseUpdate(leaseKey, removeExpired(newLeases, System.currentTimeMillis()));
+            this.replicate(leaseUpdate);
+            this.applyLeaseUpdate(leaseUpdate);
+            this.dirtyEntities.add(leaseKey);
+            return true;
+        }
+        finally {
+            clusterLock.unlock();
+        }
+    }
+    
+    /**
+     * Throw a LockingException if the lease conflicts with an unexpired lease on the entity, ignoring the
+     * lease it replaces. A write lock conflicts with every lock and a read lock conflicts with write locks.
+     */
+    private static void checkConflicts(LeaseKey leaseKey, List<Lease> leases, Lease lease, Lease replacedLease) throws LockingException {
+        final long now = System.currentTimeMillis();
+        for (final Lease existingLease : leases) {
+            if (existingLease.equals(replacedLease) || existingLease.isExpired(now)) {
+                continue;
+            }
+            if (lease.lockType == IEntityLockService.WRITE_LOCK || existingLease.lockType == IEntityLockService.WRITE_LOCK) {
+                throw new LockingException("Could not store " + lease + " for " + leaseKey + ": conflicts with " + existingLease);
+            }
+        }
+    }
+    
+    /**
+     * Replace the lease with the new lease, if newLease is null the lease is removed. Returns null if the lease
+     * doesn't exist.
+     */
+    private static List<Lease> replaceLease(List<Lease> leases, Lease lease, Lease newLease) {
+        final int index = leases.indexOf(lease);
+        if (index < 0) {
+            return null;
+        }
+        
+        final List<Lease> newLeases = new ArrayList<Lease>(leases);
+        if (newLease == null) {
+            newLeases.remove(index);
+        }
+        else {
+            newLeases.set(index, newLease);
+        }
+        return ImmutableList.copyOf(newLeases);
+    }
+    
+    private static List<Lease> removeExpired(List<Lease> leases, long now) {
+        final ImmutableList.Builder<Lease> unexpiredLeases = ImmutableList.builder();
+        for (final Lease lease : leases) {
+            if (!lease.isExpired(now)) {
+                unexpiredLeases.add(lease);
+            }
+        }
+        return unexpiredLeases.build();
+    }
+    
+    /**
+     * Create a cache element that expires along with the last of its leases
+     */
+    private static Element createElement(LeaseKey leaseKey, List<Lease> leases) {
+        long lastExpiration = 0;
+        for (final Lease lease : leases) {
+            lastExpiration = Math.max(lastExpiration, lease.expiration);
+        }
+        
+        final Element element = new Element(leaseKey, leases);
+        final long ttlMillis = lastExpiration - System.currentTimeMillis();
+        element.setTimeToLive((int) Math.max(1, (ttlMillis + 999) / 1000));
+        return element;
+    }
+    
+    private static LeaseKey getLeaseKey(IEntityLock lock) {
+        return new LeaseKey(lock.getEntityType(), lock.getEntityKey());
+    }
+    
+    /**
+     * A change to the leases of an entity, called while holding the JGroups lock on the entity
+     */
+    private static abstract class LeaseChange {
+        /**
+         * @return The new leases, the same list if nothing changed or null if the lease to change doesn't exist
+         */
+        public abstract List<Lease> apply(LeaseKey leaseKey, List<Lease> leases) throws LockingException;
+    }
+    
+    /**
+     * Applies lease changes sent by other servers
+     */
+    private class LeaseUpdateHandler implements RequestHandler {
+        @Override
+        public Object handle(Message message) throws Exception {
+            applyLeaseUpdate((LeaseUpdate) Util.objectFromByteBuffer(message.getBuffer()));
+            return null;
+        }
+    }
+    
+    /**
+     * Sends the current leases to servers joining the cluster
+     */
+    private class LeaseStateListener implements MessageListener {
+        @Override
+        public void receive(Message message) {
+            //Lease changes are handled by LeaseUpdateHandler
+        }
+
+        @Override
+        public void getState(OutputStream output) throws Exception {
+            writeLeases(output);
+        }
+
+        @Override
+        public void setState(InputStream input) throws Exception {
+            readLeases(input);
+        }
+    }
+    
+    /**
+     * The new leases of an entity, a null leaseKey removes the leases of all entities
+     */
+    static final class LeaseUpdate implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private final LeaseKey leaseKey;
+        private final List<Lease> leases;
+        
+        public LeaseUpdate(LeaseKey leaseKey, List<Lease> leases) {
+            this.leaseKey = leaseKey;
+            this.leases = leases;
+        }
+
+        @Override
+        public String toString() {
+            return "LeaseUpdate [leaseKey=" + this.leaseKey + ", leases=" + this.leases + "]";
+        }
+    }
+    
+    /**
+     * Cache key for the leases of an entity
+     */
+    static final class LeaseKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private final Class entityType;
+        private final String entityKey;
+        private final int hash;
+        
+        public LeaseKey(Class entityType, String entityKey) {
+            this.entityType = entityType;
+            this.entityKey = entityKey;
+            this.hash = 31 * entityType.getName().hashCode() + entityKey.hashCode();
+        }
+        
+        /**
+         * @return Name of the JGroups lock for the leases of the entity
+         */
+        public String getLockName() {
+            return this.entityType.getName() + ":" + this.entityKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof LeaseKey))
+                return false;
+            final LeaseKey other = (LeaseKey) obj;
+            return this.hash == other.hash && this.entityType.equals(other.entityType) && this.entityKey.equals(other.entityKey);
+        }
+
+        @Override
+        public String toString() {
+            return "LeaseKey [entityType=" + this.entityType.getName() + ", entityKey=" + this.entityKey + "]";
+        }
+    }
+    
+    /**
+     * A lock held on an entity
+     */
+    static final class Lease implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private final int lockType;
+        private final long expiration;
+        private final String owner;
+        
+        public Lease(int lockType, long expiration, String owner) {
+            this.lockType = lockType;
+            this.expiration = expiration;
+            this.owner = owner;
+        }
+        
+        public boolean isExpired(long now) {
+            return this.expiration <= now;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (this.expiration ^ (this.expiration >>> 32));
+            result = prime * result + this.lockType;
+            result = prime * result + ((this.owner == null) ? 0 : this.owner.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Lease))
+                return false;
+            final Lease other = (Lease) obj;
+            return this.expiration == other.expiration && this.lockType == other.lockType
+                    && (this.owner == null ? other.owner == null : this.owner.equals(other.owner));
+        }
+
+        @Override
+        public String toString() {
+            return "Lease [lockType=" + this.lockType + ", expiration=" + this.expiration + ", owner=" + this.owner + "]";
+        }
+    }
+}
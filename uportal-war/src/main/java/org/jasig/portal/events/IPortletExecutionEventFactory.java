@@ -48,6 +48,13 @@ public interface IPortletExecutionEventFactory {
     void publishPortletEventExecutionEvent(HttpServletRequest request, Object source, IPortletWindowId portletWindowId,
             long executionTime, QName eventName);
 
+    /**
+     * @param routingTime Time spent resolving the windows the event was dispatched to, in nanoseconds
+     * @param fanOut Number of windows the event was dispatched to
+     */
+    void publishPortletEventExecutionEvent(HttpServletRequest request, Object source, IPortletWindowId portletWindowId,
+            long executionTime, QName eventName, long routingTime, int fanOut);
+
     void publishPortletRenderHeaderExecutionEvent(HttpServletRequest request, Object source,
             IPortletWindowId portletWindowId, long executionTime, boolean targeted, boolean cached);
 
@@ -61,4 +68,11 @@ public interface IPortletExecutionEventFactory {
     
     void publishPortalRenderEvent(HttpServletRequest request, Object source, String requestPathInfo, long executionTime,
             IPortalRequestInfo portalRequestInfo);
+
+    /**
+     * @param flushCount Number of times output was flushed to the client during the render
+     * @param flushedBytes Total number of bytes flushed to the client during the render
+     */
+    void publishPortalRenderEvent(HttpServletRequest request, Object source, String requestPathInfo, long executionTime,
+            IPortalRequestInfo portalRequestInfo, int flushCount, long flushedBytes);
 }
\ No newline at end of file
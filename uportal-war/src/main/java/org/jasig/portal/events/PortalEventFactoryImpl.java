@@ -336,6 +336,17 @@ public class PortalEventFactoryImpl implements IPortalEventFactory, ApplicationE
         final PortletEventExecutionEvent portletEventExecutionEvent = new PortletEventExecutionEvent(portletEventBuilder, eventName);
         this.applicationEventPublisher.publishEvent(portletEventExecutionEvent);
     }
+
+    @Override
+    public void publishPortletEventExecutionEvent(HttpServletRequest request, Object source,
+            IPortletWindowId portletWindowId, long executionTime, QName eventName, long routingTime, int fanOut) {
+        
+        final PortalEventBuilder eventBuilder = this.createPortalEventBuilder(source, request);
+        final PortletExecutionEventBuilder portletEventBuilder = this.createPortletExecutionEventBuilder(eventBuilder, portletWindowId, executionTime, false);
+        
+        final PortletEventExecutionEvent portletEventExecutionEvent = new PortletEventExecutionEvent(portletEventBuilder, eventName, routingTime, fanOut);
+        this.applicationEventPublisher.publishEvent(portletEventExecutionEvent);
+    }
     
     @Override
     public void publishPortletRenderHeaderExecutionEvent(HttpServletRequest request, Object source,
@@ -388,6 +399,19 @@ public class PortalEventFactoryImpl implements IPortalEventFactory, ApplicationE
         this.applicationEventPublisher.publishEvent(portalRenderEvent);
     }
 
+    @Override
+    public void publishPortalRenderEvent(HttpServletRequest request, Object source, String requestPathInfo, long executionTimeNano, 
+            IPortalRequestInfo portalRequestInfo, int flushCount, long flushedBytes) {
+        final PortalEventBuilder eventBuilder = this.createPortalEventBuilder(source, request);
+        
+        final Map<String, List<String>> portalParameters = this.pruneParameters(portalRequestInfo.getPortalParameters());
+        final PortalRenderEvent portalRenderEvent = new PortalRenderEvent(eventBuilder, requestPathInfo, executionTimeNano,
+                portalRequestInfo.getUrlState(), portalRequestInfo.getUrlType(), portalParameters,
+                portalRequestInfo.getTargetedLayoutNodeId(), flushCount, flushedBytes);
+        
+        this.applicationEventPublisher.publishEvent(portalRenderEvent);
+    }
+
     /*
      * Tenant Events
      */
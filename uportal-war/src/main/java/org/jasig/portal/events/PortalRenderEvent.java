@@ -53,6 +53,13 @@ public final class PortalRenderEvent extends PortalEvent {
     @Deprecated
     private Long executionTime;
     private long executionTimeNano;
+    /**
+     * Only set when the render tracked output flushing
+     */
+    @JsonInclude(Include.NON_NULL)
+    private Integer flushCount;
+    @JsonInclude(Include.NON_NULL)
+    private Long flushedBytes;
 
     PortalRenderEvent() {
         super();
@@ -79,6 +86,14 @@ public final class PortalRenderEvent extends PortalEvent {
         this.executionTimeNano = executionTimeNano;
     }
 
+    PortalRenderEvent(PortalEventBuilder eventBuilder, String requestPathInfo, long executionTimeNano, UrlState urlState,
+            UrlType urlType, Map<String, List<String>> parameters, String targetedLayoutNodeId, int flushCount, long flushedBytes) {
+        this(eventBuilder, requestPathInfo, executionTimeNano, urlState, urlType, parameters, targetedLayoutNodeId);
+        
+        this.flushCount = flushCount;
+        this.flushedBytes = flushedBytes;
+    }
+
     /**
      * @return the executionTime in milliseconds
      */
@@ -101,6 +116,33 @@ public final class PortalRenderEvent extends PortalEvent {
         return this.executionTimeNano;
     }
     
+    /**
+     * @return the number of times output was flushed to the client, -1 if not tracked
+     */
+    public int getFlushCount() {
+        return this.flushCount != null ? this.flushCount : -1;
+    }
+
+    /**
+     * @return the total number of bytes flushed to the client, -1 if not tracked
+     */
+    public long getFlushedBytes() {
+        return this.flushedBytes != null ? this.flushedBytes : -1;
+    }
+
+    /**
+     * @return the average number of bytes per flush, -1 if not tracked
+     */
+    public long getBytesPerFlush() {
+        if (this.flushCount == null || this.flushedBytes == null) {
+            return -1;
+        }
+        if (this.flushCount == 0) {
+            return 0;
+        }
+        return this.flushedBytes / this.flushCount;
+    }
+    
     /**
      * @return the requestPathInfo
      */
@@ -147,6 +189,8 @@ public final class PortalRenderEvent extends PortalEvent {
                 ", urlType=" + this.urlType +
                 ", parameters=" + this.parameters.size() +
                 ", targetedLayoutNodeId=" + this.targetedLayoutNodeId +
-                ", executionTimeNano=" + this.getExecutionTimeNano() + "]";
+                ", executionTimeNano=" + this.getExecutionTimeNano() + 
+                ", flushCount=" + this.getFlushCount() + 
+                ", flushedBytes=" + this.getFlushedBytes() + "]";
     }
 }
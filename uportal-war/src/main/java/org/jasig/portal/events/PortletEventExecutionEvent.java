@@ -24,6 +24,9 @@ import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.Validate;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 /**
  * @author Eric Dalquist
  * @version $Revision$
@@ -32,16 +35,32 @@ public final class PortletEventExecutionEvent extends PortletExecutionEvent {
     private static final long serialVersionUID = 1L;
 
     private final QName eventName;
+    @JsonInclude(Include.NON_NULL)
+    private final Long routingTimeNano;
+    @JsonInclude(Include.NON_NULL)
+    private final Integer fanOut;
     
     @SuppressWarnings("unused")
     private PortletEventExecutionEvent() {
         this.eventName = null;
+        this.routingTimeNano = null;
+        this.fanOut = null;
     }
 
     PortletEventExecutionEvent(PortletExecutionEventBuilder eventBuilder, QName eventName) {
         super(eventBuilder);
         Validate.notNull(eventName, "eventName");
         this.eventName = eventName;
+        this.routingTimeNano = null;
+        this.fanOut = null;
+    }
+
+    PortletEventExecutionEvent(PortletExecutionEventBuilder eventBuilder, QName eventName, long routingTimeNano, int fanOut) {
+        super(eventBuilder);
+        Validate.notNull(eventName, "eventName");
+        this.eventName = eventName;
+        this.routingTimeNano = routingTimeNano;
+        this.fanOut = fanOut;
     }
 
     /**
@@ -52,9 +71,25 @@ public final class PortletEventExecutionEvent extends PortletExecutionEvent {
         return this.eventName;
     }
     
+    /**
+     * @return Time spent resolving the portlet windows the event was dispatched to in nanoseconds, null if not known
+     */
+    public Long getRoutingTimeNano() {
+        return this.routingTimeNano;
+    }
+
+    /**
+     * @return Number of portlet windows the event was dispatched to, null if not known
+     */
+    public Integer getFanOut() {
+        return this.fanOut;
+    }
+    
     @Override
     public String toString() {
         return super.toString() + 
-                ", eventName=" + this.eventName + "]";
+                ", eventName=" + this.eventName + 
+                ", routingTimeNano=" + this.routingTimeNano + 
+                ", fanOut=" + this.fanOut + "]";
     }
 }
@@ -25,6 +25,7 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Embedded;
+import javax.persistence.Lob;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
@@ -32,6 +33,7 @@ import javax.persistence.Transient;
 
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
 
 /**
  * Base for aggregate entities that track timed statistics
@@ -41,7 +43,7 @@ import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
 @Access(AccessType.FIELD)
 @MappedSuperclass
 public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey, D extends BaseGroupedAggregationDiscriminator>
-        extends BaseAggregationImpl<K,D> implements TimedAggregationStatistics, Serializable {
+        extends BaseAggregationImpl<K,D> implements TimedAggregationStatistics, TimedAggregationPercentiles, Serializable {
     private static final long serialVersionUID = 1L;
         
     @Column(name = "TIME_COUNT", nullable = false)
@@ -83,6 +85,16 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
     @Embedded
     private JpaStatisticalSummary statisticalSummary;
     
+    /**
+     * Encoded {@link LatencyHistogram}, kept after the interval is complete so percentiles can still be reported
+     */
+    @Lob
+    @Column(name = "TIME_HISTOGRAM", length = 10000)
+    private byte[] histogramData;
+    
+    @Transient
+    private LatencyHistogram histogram;
+    
     @Column(name = "STATS_COMPLETE", nullable = false)
     private boolean complete = false;
 
@@ -160,6 +172,25 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         return this.secondMoment;
     }
 
+    @Override
+    public final double getPercentile(double percentile) {
+        return this.getHistogram().getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public final LatencyHistogram getLatencyHistogram() {
+        final LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(this.getHistogram());
+        return copy;
+    }
+    
+    private LatencyHistogram getHistogram() {
+        if (this.histogram == null) {
+            this.histogram = LatencyHistogram.fromByteArray(this.histogramData);
+        }
+        return this.histogram;
+    }
+
     /**
      * Check if the interval is complete, must be called by super classes if overridden
      */
@@ -194,12 +225,13 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         }
         
         this.statisticalSummary.addValue(v);
+        this.getHistogram().recordValue(v);
         
         this.modified = true;
     }
 
     /**
-     * Update the individual statistic fields if the {@link JpaStatisticalSummary} has been modified, called
+     * Update the individual statistic fields and the encoded histogram if the {@link JpaStatisticalSummary} has been modified, called
      * automatically by the getter of each field
      */
     @PrePersist
@@ -222,6 +254,7 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         this.geometricMean = this.statisticalSummary.getGeometricMean();
         this.sumOfLogs = this.statisticalSummary.getSumOfLogs();
         this.secondMoment = this.statisticalSummary.getSecondMoment();
+        this.histogramData = this.getHistogram().toByteArray();
         
         this.modified = false;
     }
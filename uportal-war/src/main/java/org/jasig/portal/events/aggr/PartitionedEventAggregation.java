@@ -0,0 +1,371 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Runs the work of the event aggregators on a pool of worker threads during a single aggregation run.
+ * <p>
+ * Each aggregator type is assigned to exactly one partition. A partition runs its work on one thread, in the order
+ * the work was submitted, so every aggregator sees the same sequence of events and interval boundaries as it does
+ * during serial aggregation. Each partition has its own {@link EventAggregationContext} and its own transaction,
+ * aggregators of the same type share a partition since they share state in the context.
+ * <p>
+ * Partitions run in separate transactions from the aggregation thread so the entities they reference, dimensions
+ * and group mappings, must be committed before work using them is submitted and must be re-loaded by the partition.
+ * <p>
+ * The partition transactions are held open until {@link #complete(boolean)} is called. The aggregation thread calls
+ * {@link #awaitProcessed()} before its own transaction commits, which fails if any partition failed to process or
+ * flush its work, and calls {@link #complete(boolean)} once its transaction has committed or rolled back. The
+ * partitions are not committed atomically with the aggregation transaction: if a partition fails to commit after the
+ * aggregation transaction committed the aggregation results of that partition for the run are lost. The caller must
+ * not let that failure roll back the raw events transaction, the raw events would be aggregated again otherwise.
+ */
+class PartitionedEventAggregation {
+    private static final long OFFER_WAIT = 100;
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final Runnable endOfWork = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+    
+    private final TransactionOperations transactionOperations;
+    private final List<Partition> partitions;
+    private final Map<Class<?>, Partition> aggregatorPartitions;
+    private final CountDownLatch commitDecision = new CountDownLatch(1);
+    private volatile boolean commit = false;
+    private boolean endOfWorkSignaled = false;
+    
+    /**
+     * @param executorService Executor to run the partitions with, must be able to run all partitions concurrently
+     * @param transactionOperations Used to create the transaction for each partition
+     * @param aggregatorTypes The aggregator types to partition
+     * @param partitionCount The number of partitions to create, limited to the number of aggregator types
+     * @param queueCapacity Max number of tasks queued for each partition before {@link #submit(Class, Runnable)} blocks 
+     */
+    PartitionedEventAggregation(ExecutorService executorService, TransactionOperations transactionOperations, 
+            Collection<? extends Class<?>> aggregatorTypes, int partitionCount, int queueCapacity) {
+        
+        this.transactionOperations = transactionOperations;
+        
+        partitionCount = Math.max(1, Math.min(partitionCount, aggregatorTypes.size()));
+        this.partitions = new ArrayList<Partition>(partitionCount);
+        for (int index = 0; index < partitionCount; index++) {
+            this.partitions.add(new Partition(index, queueCapacity));
+        }
+        
+        //Assign aggregator types to partitions round-robin
+        this.aggregatorPartitions = new HashMap<Class<?>, Partition>();
+        int index = 0;
+        for (final Class<?> aggregatorType : aggregatorTypes) {
+            if (!this.aggregatorPartitions.containsKey(aggregatorType)) {
+                this.aggregatorPartitions.put(aggregatorType, this.partitions.get(index++ % partitionCount));
+            }
+        }
+        
+        for (final Partition partition : this.partitions) {
+            try {
+                partition.future = executorService.submit(partition);
+            }
+            catch (RuntimeException e) {
+                //Release any partitions that already started
+                this.complete(false);
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * @return The number of partitions work is split across
+     */
+    public int getPartitionCount() {
+        return this.partitions.size();
+    }
+    
+    /**
+     * @return The context the aggregator type must be given when its work is submitted
+     */
+    public EventAggregationContext getEventAggregationContext(Class<?> aggregatorType) {
+        return this.getPartition(aggregatorType).eventAggregationContext;
+    }
+    
+    /**
+     * Queue work for the partition of the aggregator type, blocks if the partition's queue is full.
+     * 
+     * @throws IllegalStateException if any partition has failed
+     */
+    public void submit(Class<?> aggregatorType, Runnable task) {
+        final Partition partition = this.getPartition(aggregatorType);
+        try {
+            while (!partition.queue.offer(task, OFFER_WAIT, TimeUnit.MILLISECONDS)) {
+                this.checkPartitions();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queuing aggregation work for " + aggregatorType, e);
+        }
+        this.checkPartitions();
+    }
+    
+    /**
+     * Wait for every partition to process and flush all of the work queued so far. Must be called before the
+     * aggregation transaction commits so that a partition failure rolls back the aggregation run.
+     * 
+     * @throws IllegalStateException if any partition failed
+     */
+    public void awaitProcessed() {
+        this.signalEndOfWork();
+        
+        try {
+            for (final Partition partition : this.partitions) {
+                partition.processed.await();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for partitioned event aggregation", e);
+        }
+        
+        for (final Partition partition : this.partitions) {
+            final Throwable failure = partition.failure;
+            if (failure != null) {
+                throw new IllegalStateException("Partition " + partition.index + " failed, aborting partitioned event aggregation", failure);
+            }
+        }
+    }
+    
+    /**
+     * Wait for every partition to finish its queued work then commit all of the partition transactions if commit is
+     * true and no partition failed, otherwise roll all of them back. Should be called after the aggregation
+     * transaction has completed, commit must only be true if it committed.
+     * 
+     * @throws IllegalStateException if commit is true and any partition failed to commit
+     */
+    public void complete(boolean commit) {
+        boolean interrupted = false;
+        
+        //Signal the end of work and wait for all partitions to process their queued work
+        this.signalEndOfWork();
+        for (final Partition partition : this.partitions) {
+            if (partition.future == null) {
+                continue;
+            }
+            try {
+                partition.processed.await();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        
+        Throwable failure = null;
+        for (final Partition partition : this.partitions) {
+            if (failure == null) {
+                failure = partition.failure;
+            }
+        }
+        
+        //Release the partitions to commit or rollback their transactions
+        this.commit = commit && failure == null && !interrupted;
+        this.commitDecision.countDown();
+        
+        for (final Partition partition : this.partitions) {
+            if (partition.future == null) {
+                continue;
+            }
+            
+            try {
+                partition.future.get();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        
+        if (commit) {
+            if (failure != null) {
+                throw new IllegalStateException("Partitioned event aggregation failed after the aggregation transaction committed, the results of the failed partitions are lost for this run", failure);
+            }
+            if (interrupted) {
+                throw new IllegalStateException("Interrupted while completing partitioned event aggregation after the aggregation transaction committed, the results of some partitions may be lost for this run");
+            }
+        }
+        else if (failure != null) {
+            this.logger.warn("Partitioned event aggregation failed while rolling back", failure);
+        }
+    }
+    
+    /**
+     * Queue the end of work marker on every running partition, only done once
+     */
+    private void signalEndOfWork() {
+        if (this.endOfWorkSignaled) {
+            return;
+        }
+        this.endOfWorkSignaled = true;
+        
+        boolean interrupted = false;
+        for (final Partition partition : this.partitions) {
+            try {
+                while (!partition.queue.offer(this.endOfWork, OFFER_WAIT, TimeUnit.MILLISECONDS)) {
+                    if (partition.future == null || partition.future.isDone()) {
+                        break;
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private Partition getPartition(Class<?> aggregatorType) {
+        final Partition partition = this.aggregatorPartitions.get(aggregatorType);
+        if (partition == null) {
+            throw new IllegalArgumentException("No partition exists for aggregator type " + aggregatorType);
+        }
+        return partition;
+    }
+    
+    private void checkPartitions() {
+        for (final Partition partition : this.partitions) {
+            final Throwable failure = partition.failure;
+            if (failure != null) {
+                throw new IllegalStateException("Partition " + partition.index + " failed, aborting partitioned event aggregation", failure);
+            }
+            if (partition.future.isDone()) {
+                throw new IllegalStateException("Partition " + partition.index + " stopped before aggregation completed");
+            }
+        }
+    }
+    
+    private final class Partition implements Callable<Object> {
+        private final int index;
+        private final BlockingQueue<Runnable> queue;
+        private final EventAggregationContext eventAggregationContext = new EventAggregationContextImpl();
+        private final CountDownLatch processed = new CountDownLatch(1);
+        private volatile Future<Object> future;
+        private volatile Throwable failure;
+        
+        public Partition(int index, int queueCapacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+        }
+
+        @Override
+        public Object call() throws Exception {
+            try {
+                return transactionOperations.execute(new TransactionCallback<Object>() {
+                    @Override
+                    public Object doInTransaction(TransactionStatus status) {
+                        processQueue();
+                        
+                        //Flush while the aggregation thread can still roll back so only the commit is left to fail 
+                        if (failure == null) {
+                            try {
+                                status.flush();
+                            }
+                            catch (Throwable t) {
+                                logger.warn("Flushing aggregation failed in partition " + index, t);
+                                failure = t;
+                            }
+                        }
+                        processed.countDown();
+                        
+                        try {
+                            commitDecision.await();
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            status.setRollbackOnly();
+                            return null;
+                        }
+                        
+                        if (!commit) {
+                            status.setRollbackOnly();
+                        }
+                        return null;
+                    }
+                });
+            }
+            finally {
+                //Make sure the aggregation thread is never left waiting on a partition that failed to start
+                this.processed.countDown();
+            }
+        }
+        
+        private void processQueue() {
+            try {
+                for (Runnable task = this.queue.take(); task != endOfWork; task = this.queue.take()) {
+                    //After a failure keep draining the queue so the aggregation thread never blocks
+                    if (this.failure == null) {
+                        try {
+                            task.run();
+                        }
+                        catch (Throwable t) {
+                            logger.warn("Aggregation failed in partition " + this.index, t);
+                            this.failure = t;
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.failure = e;
+            }
+        }
+    }
+}
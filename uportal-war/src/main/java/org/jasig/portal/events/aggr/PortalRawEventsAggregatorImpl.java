@@ -25,11 +25,14 @@ import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
@@ -49,6 +52,9 @@ import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.dao.DateDimensionDao;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.jasig.portal.events.aggr.dao.TimeDimensionDao;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupLookupDao;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.jasig.portal.events.aggr.session.EventSessionDao;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
@@ -62,10 +68,14 @@ import org.joda.time.ReadablePeriod;
 import org.springframework.aop.framework.AopProxyUtils;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
@@ -77,6 +87,8 @@ import com.google.common.collect.Sets;
 @Service
 public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implements PortalRawEventsAggregator, DisposableBean {
     private static final String EVENT_SESSION_CACHE_KEY_SOURCE = AggregateEventsHandler.class.getName() + "-EventSession";
+    private static final String PARTITION_ENTITIES_KEY_SOURCE = PartitionEntities.class.getName();
+    private static final int PARTITION_QUEUE_CAPACITY = 1000;
 
     private IClusterLockService clusterLockService;
     private IPortalEventProcessingManager portalEventAggregationManager;
@@ -87,15 +99,21 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
     private AggregationIntervalHelper intervalHelper;
     private EventSessionDao eventSessionDao;
     private DateDimensionDao dateDimensionDao;
+    private TimeDimensionDao timeDimensionDao;
+    private AggregatedGroupLookupDao aggregatedGroupLookupDao;
+    private TransactionTemplate newTransactionTemplate;
     private Set<IntervalAwarePortalEventAggregator<PortalEvent>> intervalAwarePortalEventAggregators = Collections.emptySet();
     private Set<SimplePortalEventAggregator<PortalEvent>> simplePortalEventAggregators = Collections.emptySet();
     private List<ApplicationEventFilter<PortalEvent>> applicationEventFilters = Collections.emptyList();
+    private RawEventsAggregationStatsBean rawEventsAggregationStats = new RawEventsAggregationStatsBean();
+    private ExecutorService aggregationExecutor;
     
     private int eventAggregationBatchSize = 10000;
     private int intervalAggregationBatchSize = 5;
     private int cleanUnclosedAggregationsBatchSize = 1000;
     private int cleanUnclosedIntervalsBatchSize = 315;
     private ReadablePeriod aggregationDelay = Period.seconds(30);
+    private int aggregationPartitions = 1;
     
     private final Map<Class<?>, List<String>> entityCollectionRoles = new HashMap<Class<?>, List<String>>();
     private volatile boolean shutdown = false;
@@ -105,6 +123,23 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
 		this.dateDimensionDao = dateDimensionDao;
 	}
 
+    @Autowired
+    public void setTimeDimensionDao(TimeDimensionDao timeDimensionDao) {
+        this.timeDimensionDao = timeDimensionDao;
+    }
+
+    @Autowired
+    public void setAggregatedGroupLookupDao(AggregatedGroupLookupDao aggregatedGroupLookupDao) {
+        this.aggregatedGroupLookupDao = aggregatedGroupLookupDao;
+    }
+
+    @Autowired
+    public void setPlatformTransactionManager(@Qualifier(PERSISTENCE_UNIT_NAME) PlatformTransactionManager platformTransactionManager) {
+        this.newTransactionTemplate = new TransactionTemplate(platformTransactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.newTransactionTemplate.afterPropertiesSet();
+    }
+
 	@Autowired
     public void setPortalEventAggregationManager(IPortalEventProcessingManager portalEventAggregationManager) {
         this.portalEventAggregationManager = portalEventAggregationManager;
@@ -164,6 +199,17 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         this.simplePortalEventAggregators = simplePortalEventAggregatorsBuilder.build();
     }
 
+    @Autowired(required = false)
+    public void setRawEventsAggregationStats(RawEventsAggregationStatsBean rawEventsAggregationStats) {
+        this.rawEventsAggregationStats = rawEventsAggregationStats;
+    }
+
+    @Autowired(required = false)
+    @Qualifier("uPortalAggregationExecutor")
+    public void setAggregationExecutor(ExecutorService aggregationExecutor) {
+        this.aggregationExecutor = aggregationExecutor;
+    }
+
     @Resource(name="aggregatorEventFilters")
     public void setApplicationEventFilters(List<ApplicationEventFilter<PortalEvent>> applicationEventFilters) {
         this.applicationEventFilters = applicationEventFilters;
@@ -194,6 +240,15 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
 		this.cleanUnclosedIntervalsBatchSize = cleanUnclosedIntervalsBatchSize;
 	}
 
+    /**
+     * Number of partitions the aggregators are split across during raw event aggregation, each partition runs on its own
+     * thread from the uPortalAggregationExecutor. 1 or less aggregates on the calling thread, defaults to 1.
+     */
+    @Value("${org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl.aggregationPartitions:1}")
+    public void setAggregationPartitions(int aggregationPartitions) {
+        this.aggregationPartitions = aggregationPartitions;
+    }
+
 	public void setShutdown(boolean shutdown) {
 		this.shutdown = shutdown;
 	}
@@ -214,13 +269,40 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
     @RawEventsTransactional
     @Override
     public EventProcessingResult doAggregateRawEvents() {
-        //Do RawTX around AggrTX. The AggrTX is MUCH more likely to fail than the RawTX and this results in both rolling back
-        return this.getTransactionOperations().execute(new TransactionCallback<EventProcessingResult>() {
-            @Override
-            public EventProcessingResult doInTransaction(TransactionStatus status) {
-                return doAggregateRawEventsInternal();
+        //Split the aggregators across worker threads if configured, null for serial aggregation
+        final PartitionedEventAggregation partitionedAggregation = this.createPartitionedAggregation();
+        
+        boolean committed = false;
+        try {
+            //Do RawTX around AggrTX. The AggrTX is MUCH more likely to fail than the RawTX and this results in both rolling back
+            final EventProcessingResult result = this.getTransactionOperations().execute(new TransactionCallback<EventProcessingResult>() {
+                @Override
+                public EventProcessingResult doInTransaction(TransactionStatus status) {
+                    return doAggregateRawEventsInternal(partitionedAggregation);
+                }
+            });
+            committed = true;
+            return result;
+        }
+        finally {
+            //The partition transactions are only committed once the AggrTX has committed, a partition that fails to
+            //commit at that point must not fail the RawTX or the events would be aggregated again by the next run
+            if (partitionedAggregation != null) {
+                if (committed) {
+                    try {
+                        partitionedAggregation.complete(true);
+                    }
+                    catch (RuntimeException e) {
+                        logger.error("Partitioned event aggregation failed to commit after the aggregation transaction committed, " +
+                                "the results of the failed partitions are lost for this run. The raw events are still marked as " +
+                                "aggregated so they are not counted twice", e);
+                    }
+                }
+                else {
+                    partitionedAggregation.complete(false);
+                }
             }
-        });
+        }
     }
     
     @AggrEventsTransactional
@@ -410,14 +492,26 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         return collectionRoles;
     }
     
-    private EventProcessingResult doAggregateRawEventsInternal() {
+    private EventProcessingResult doAggregateRawEventsInternal(PartitionedEventAggregation partitionedAggregation) {
         if (!this.clusterLockService.isLockOwner(AGGREGATION_LOCK_NAME)) {
             throw new IllegalStateException("The cluster lock " + AGGREGATION_LOCK_NAME + " must be owned by the current thread and server");
         }
         
         if (!this.portalEventDimensionPopulator.isCheckedDimensions()) {
             //First time aggregation has happened, run populateDimensions to ensure enough dimension data exists
-            final boolean populatedDimensions = this.portalEventAggregationManager.populateDimensions();
+            final boolean populatedDimensions;
+            if (partitionedAggregation == null) {
+                populatedDimensions = this.portalEventAggregationManager.populateDimensions();
+            }
+            else {
+                //Partitions reference the dimensions from their own transactions, they must be committed first
+                populatedDimensions = this.newTransactionTemplate.execute(new TransactionCallback<Boolean>() {
+                    @Override
+                    public Boolean doInTransaction(TransactionStatus status) {
+                        return portalEventAggregationManager.populateDimensions();
+                    }
+                });
+            }
             if (!populatedDimensions) {
                 this.logger.warn("Aborting raw event aggregation, populateDimensions returned false so the state of date/time dimensions is unknown");
                 return null;
@@ -476,24 +570,163 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             //Do aggregation, capturing the start and end dates
             eventAggregatorStatus.setLastStart(DateTime.now());
             
+            final AggregateEventsHandler aggregateEventsHandler = new AggregateEventsHandler(events, lastEventDate, eventAggregatorStatus, partitionedAggregation);
+            final long start = System.nanoTime();
             complete = portalEventDao.aggregatePortalEvents(
             		lastAggregated, newestEventTime, this.eventAggregationBatchSize, 
-            		new AggregateEventsHandler(events, lastEventDate, eventAggregatorStatus));
+            		aggregateEventsHandler);
+            final long runTime = System.nanoTime() - start;
+            
+            //Track throughput and the time spent in each phase of aggregation
+            this.rawEventsAggregationStats.aggregationComplete(events.intValue(), runTime, aggregateEventsHandler.handlerTime, aggregateEventsHandler.intervalBoundaryTime);
+            logger.debug("Aggregated {} events in {}ms, {}ms handling events and {}ms handling interval boundaries", 
+                    new Object[] { events.intValue(), runTime / 1000000, aggregateEventsHandler.handlerTime / 1000000, aggregateEventsHandler.intervalBoundaryTime / 1000000 });
+            
+            //Wait for all partitions to process their work, a partition failure rolls back the run
+            if (partitionedAggregation != null) {
+                partitionedAggregation.awaitProcessed();
+            }
             
             eventAggregatorStatus.setLastEventDate((DateTime)lastEventDate.getValue());
             eventAggregatorStatus.setLastEnd(DateTime.now());
+            
+            //Store the results of the aggregation
+            eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
         }
         finally {
             currentThread.setName(currentName);
         }
         
-        //Store the results of the aggregation
-        eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
-        
         complete = complete && (this.eventAggregationBatchSize <= 0 || events.intValue() < this.eventAggregationBatchSize);
         return new EventProcessingResult(events.intValue(), lastAggregated, eventAggregatorStatus.getLastEventDate(), complete);
     }
     
+    /**
+     * @return The partitioned aggregation to use for an aggregation run, null if aggregation should be done serially
+     */
+    private PartitionedEventAggregation createPartitionedAggregation() {
+        if (this.aggregationPartitions <= 1 || this.aggregationExecutor == null) {
+            return null;
+        }
+        
+        final Set<Class<?>> aggregatorTypes = new LinkedHashSet<Class<?>>();
+        for (final IntervalAwarePortalEventAggregator<PortalEvent> portalEventAggregator : this.intervalAwarePortalEventAggregators) {
+            aggregatorTypes.add(this.getClass(portalEventAggregator));
+        }
+        for (final SimplePortalEventAggregator<PortalEvent> portalEventAggregator : this.simplePortalEventAggregators) {
+            aggregatorTypes.add(this.getClass(portalEventAggregator));
+        }
+        if (aggregatorTypes.size() <= 1) {
+            return null;
+        }
+        
+        final PartitionedEventAggregation partitionedAggregation = new PartitionedEventAggregation(
+                this.aggregationExecutor, this.getTransactionOperations(), aggregatorTypes, this.aggregationPartitions, PARTITION_QUEUE_CAPACITY);
+        logger.debug("Aggregating events with {} partitions", partitionedAggregation.getPartitionCount());
+        return partitionedAggregation;
+    }
+    
+    /**
+     * @return The entities re-loaded by the partition that owns the context, must be called from the partition's thread
+     */
+    private PartitionEntities getPartitionEntities(EventAggregationContext partitionContext) {
+        final CacheKey key = CacheKey.build(PARTITION_ENTITIES_KEY_SOURCE);
+        PartitionEntities partitionEntities = partitionContext.getAttribute(key);
+        if (partitionEntities == null) {
+            partitionEntities = new PartitionEntities();
+            partitionContext.setAttribute(key, partitionEntities);
+        }
+        return partitionEntities;
+    }
+    
+    /**
+     * Copies of the interval info and event sessions created by the aggregation thread with their dimensions and group
+     * mappings re-loaded in the partition's transaction. Entities loaded by the aggregation thread are never used by a
+     * partition. The copies are cached by the identity of the original, which the aggregation thread reuses until the
+     * interval or session changes.
+     */
+    private final class PartitionEntities {
+        private final Map<Map<AggregationInterval, AggregationIntervalInfo>, Map<AggregationInterval, AggregationIntervalInfo>> intervalInfos = 
+                new IdentityHashMap<Map<AggregationInterval, AggregationIntervalInfo>, Map<AggregationInterval, AggregationIntervalInfo>>();
+        private final Map<EventSession, EventSession> eventSessions = new IdentityHashMap<EventSession, EventSession>();
+        
+        public Map<AggregationInterval, AggregationIntervalInfo> getIntervalInfo(Map<AggregationInterval, AggregationIntervalInfo> intervalInfo) {
+            Map<AggregationInterval, AggregationIntervalInfo> partitionIntervalInfo = this.intervalInfos.get(intervalInfo);
+            if (partitionIntervalInfo != null) {
+                return partitionIntervalInfo;
+            }
+            
+            final Builder<AggregationInterval, AggregationIntervalInfo> intervalInfoBuilder = ImmutableMap.builder();
+            for (final Map.Entry<AggregationInterval, AggregationIntervalInfo> intervalInfoEntry : intervalInfo.entrySet()) {
+                final AggregationIntervalInfo info = intervalInfoEntry.getValue();
+                final DateDimension dateDimension = info.getDateDimension() != null ? dateDimensionDao.getDateDimensionById(info.getDateDimension().getId()) : null;
+                final TimeDimension timeDimension = info.getTimeDimension() != null ? timeDimensionDao.getTimeDimensionById(info.getTimeDimension().getId()) : null;
+                intervalInfoBuilder.put(intervalInfoEntry.getKey(), 
+                        new AggregationIntervalInfo(info.getAggregationInterval(), info.getStart(), info.getEnd(), dateDimension, timeDimension));
+            }
+            
+            partitionIntervalInfo = intervalInfoBuilder.build();
+            this.intervalInfos.put(intervalInfo, partitionIntervalInfo);
+            return partitionIntervalInfo;
+        }
+        
+        public EventSession getEventSession(EventSession eventSession) {
+            if (eventSession == null) {
+                return null;
+            }
+            
+            EventSession partitionEventSession = this.eventSessions.get(eventSession);
+            if (partitionEventSession != null) {
+                return partitionEventSession;
+            }
+            
+            final ImmutableSet.Builder<AggregatedGroupMapping> groupMappingsBuilder = ImmutableSet.builder();
+            for (final AggregatedGroupMapping groupMapping : eventSession.getGroupMappings()) {
+                groupMappingsBuilder.add(aggregatedGroupLookupDao.getGroupMapping(groupMapping.getId()));
+            }
+            
+            partitionEventSession = new PartitionEventSession(eventSession.getEventSessionId(), groupMappingsBuilder.build());
+            this.eventSessions.put(eventSession, partitionEventSession);
+            return partitionEventSession;
+        }
+    }
+    
+    /**
+     * Read only {@link EventSession} with group mappings loaded by a partition, session access is recorded by the
+     * aggregation thread.
+     */
+    private static final class PartitionEventSession implements EventSession {
+        private static final long serialVersionUID = 1L;
+        
+        private final String eventSessionId;
+        private final Set<AggregatedGroupMapping> groupMappings;
+        
+        public PartitionEventSession(String eventSessionId, Set<AggregatedGroupMapping> groupMappings) {
+            this.eventSessionId = eventSessionId;
+            this.groupMappings = groupMappings;
+        }
+
+        @Override
+        public void recordAccess(DateTime eventDate) {
+            //Access is recorded by the aggregation thread
+        }
+
+        @Override
+        public String getEventSessionId() {
+            return this.eventSessionId;
+        }
+
+        @Override
+        public Set<AggregatedGroupMapping> getGroupMappings() {
+            return this.groupMappings;
+        }
+
+        @Override
+        public String toString() {
+            return "PartitionEventSession [eventSessionId=" + this.eventSessionId + ", groupMappings=" + this.groupMappings + "]";
+        }
+    }
+    
     /**
      * Helper class that loads and caches the interval configuration for each aggregator as well as the union of intervals handled by the set of aggregators.
      */
@@ -557,7 +790,12 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         private final MutableInt eventCounter;
         private final MutableObject lastEventDate;
         private final IEventAggregatorStatus eventAggregatorStatus;
+        private final PartitionedEventAggregation partitionedAggregation;
         private int intervalsCrossed = 0;
+        
+        //Nanoseconds spent handling events and the portion of that spent handling interval boundaries
+        private long handlerTime = 0;
+        private long intervalBoundaryTime = 0;
 
         //Local tracking of the current aggregation interval and info about said interval
         private final Map<AggregationInterval, AggregationIntervalInfo> currentIntervalInfo = new EnumMap<AggregationInterval, AggregationIntervalInfo>(AggregationInterval.class);
@@ -568,15 +806,27 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         private final Map<Class<? extends IPortalEventAggregator<?>>, Map<AggregationInterval, AggregationIntervalInfo>> aggregatorReadOnlyIntervalInfo = new HashMap<Class<? extends IPortalEventAggregator<?>>, Map<AggregationInterval,AggregationIntervalInfo>>();
         private final AggregatedGroupConfig defaultAggregatedGroupConfig;
         
-        private AggregateEventsHandler(MutableInt eventCounter, MutableObject lastEventDate, IEventAggregatorStatus eventAggregatorStatus) {
+        private AggregateEventsHandler(MutableInt eventCounter, MutableObject lastEventDate, IEventAggregatorStatus eventAggregatorStatus, 
+                PartitionedEventAggregation partitionedAggregation) {
             this.eventCounter = eventCounter;
             this.lastEventDate = lastEventDate;
             this.eventAggregatorStatus = eventAggregatorStatus;
+            this.partitionedAggregation = partitionedAggregation;
             this.defaultAggregatedGroupConfig = eventAggregationManagementDao.getDefaultAggregatedGroupConfig();
         }
 
         @Override
 		public Boolean apply(PortalEvent event) {
+            final long start = System.nanoTime();
+            try {
+                return this.handleEvent(event);
+            }
+            finally {
+                this.handlerTime += System.nanoTime() - start;
+            }
+        }
+        
+        private boolean handleEvent(PortalEvent event) {
             if (shutdown) {
                 //Mark ourselves as interupted and throw an exception
                 Thread.currentThread().interrupt();
@@ -597,7 +847,9 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
                 AggregationIntervalInfo intervalInfo = this.currentIntervalInfo.get(interval);
                 if (intervalInfo != null && !intervalInfo.getEnd().isAfter(eventDate)) { //if there is no IntervalInfo that interval must not be supported in the current environment 
                     logger.debug("Crossing {} Interval, triggered by {}", interval, event);
+                    final long start = System.nanoTime();
                     this.doHandleIntervalBoundary(interval, this.currentIntervalInfo);
+                    this.intervalBoundaryTime += System.nanoTime() - start;
                     
                     intervalInfo = intervalHelper.getIntervalInfo(interval, eventDate); 
                     this.currentIntervalInfo.put(interval, intervalInfo);
@@ -649,7 +901,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             }
         }
         
-        private void doAggregateEvent(PortalEvent item) {
+        private void doAggregateEvent(final PortalEvent item) {
             checkShutdown();
             
             eventCounter.increment();
@@ -688,14 +940,42 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
                     }
                     
                     //Aggregation magic happens here!
-                    portalEventAggregator.aggregateEvent(item, eventSession, eventAggregationContext, aggregatorIntervalInfo);
+                    if (this.partitionedAggregation == null) {
+                        portalEventAggregator.aggregateEvent(item, eventSession, eventAggregationContext, aggregatorIntervalInfo);
+                    }
+                    else {
+                        final EventSession aggregatorEventSession = eventSession;
+                        final EventAggregationContext partitionContext = this.partitionedAggregation.getEventAggregationContext(aggregatorType);
+                        this.partitionedAggregation.submit(aggregatorType, new Runnable() {
+                            @Override
+                            public void run() {
+                                final PartitionEntities partitionEntities = getPartitionEntities(partitionContext);
+                                portalEventAggregator.aggregateEvent(item, partitionEntities.getEventSession(aggregatorEventSession), 
+                                        partitionContext, partitionEntities.getIntervalInfo(aggregatorIntervalInfo));
+                            }
+                        });
+                    }
                 }
             }
             
             //Give each simple aggregator a chance at the event
             for (final SimplePortalEventAggregator<PortalEvent> portalEventAggregator : simplePortalEventAggregators) {
                 if (checkSupports(portalEventAggregator, item)) {
-                    portalEventAggregator.aggregateEvent(item, eventSession);
+                    if (this.partitionedAggregation == null) {
+                        portalEventAggregator.aggregateEvent(item, eventSession);
+                    }
+                    else {
+                        final Class<? extends IPortalEventAggregator<?>> aggregatorType = PortalRawEventsAggregatorImpl.this.getClass(portalEventAggregator);
+                        final EventSession aggregatorEventSession = eventSession;
+                        final EventAggregationContext partitionContext = this.partitionedAggregation.getEventAggregationContext(aggregatorType);
+                        this.partitionedAggregation.submit(aggregatorType, new Runnable() {
+                            @Override
+                            public void run() {
+                                final PartitionEntities partitionEntities = getPartitionEntities(partitionContext);
+                                portalEventAggregator.aggregateEvent(item, partitionEntities.getEventSession(aggregatorEventSession));
+                            }
+                        });
+                    }
                 }
             }
         }
@@ -732,7 +1012,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             return eventSession;
         }
         
-        private void doHandleIntervalBoundary(AggregationInterval interval, Map<AggregationInterval, AggregationIntervalInfo> intervals) {
+        private void doHandleIntervalBoundary(final AggregationInterval interval, Map<AggregationInterval, AggregationIntervalInfo> intervals) {
             for (final IntervalAwarePortalEventAggregator<PortalEvent> portalEventAggregator : intervalAwarePortalEventAggregators) {
                 
                 final Class<? extends IPortalEventAggregator<?>> aggregatorType = PortalRawEventsAggregatorImpl.this.getClass(portalEventAggregator);
@@ -741,7 +1021,20 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
                 //If the aggreagator is configured to use the interval notify it of the interval boundary
                 if (aggregatorIntervalConfig.isIncluded(interval)) {
                     final Map<AggregationInterval, AggregationIntervalInfo> aggregatorIntervalInfo = this.getAggregatorIntervalInfo(aggregatorType);
-                    portalEventAggregator.handleIntervalBoundary(interval, eventAggregationContext, aggregatorIntervalInfo);
+                    if (this.partitionedAggregation == null) {
+                        portalEventAggregator.handleIntervalBoundary(interval, eventAggregationContext, aggregatorIntervalInfo);
+                    }
+                    else {
+                        //Queued behind all earlier events for the aggregator so the boundary is handled in order
+                        final EventAggregationContext partitionContext = this.partitionedAggregation.getEventAggregationContext(aggregatorType);
+                        this.partitionedAggregation.submit(aggregatorType, new Runnable() {
+                            @Override
+                            public void run() {
+                                final PartitionEntities partitionEntities = getPartitionEntities(partitionContext);
+                                portalEventAggregator.handleIntervalBoundary(interval, partitionContext, partitionEntities.getIntervalInfo(aggregatorIntervalInfo));
+                            }
+                        });
+                    }
                 }
             }
         }
@@ -0,0 +1,172 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the throughput of raw event aggregation runs and the time spent in each phase of a run. Exposed via JMX.
+ * <p>
+ * Run time is split into the time spent by the raw event store loading, deserializing and marking events, the time spent
+ * passing events to the aggregators and the time spent handling interval boundaries.
+ */
+public class RawEventsAggregationStatsBean {
+    private long runCount = 0;
+    private long totalEventCount = 0;
+    private long totalRunTime = 0;
+    private long totalEventStoreTime = 0;
+    private long totalEventAggregationTime = 0;
+    private long totalIntervalBoundaryTime = 0;
+    
+    private int lastEventCount = 0;
+    private long lastRunTime = 0;
+    private long lastEventStoreTime = 0;
+    private long lastEventAggregationTime = 0;
+    private long lastIntervalBoundaryTime = 0;
+    
+    /**
+     * Record the results of an aggregation run, all times are in nanoseconds
+     * 
+     * @param events Number of events aggregated
+     * @param runTime Total time spent in the raw event store, includes the handler time
+     * @param handlerTime Time spent in the aggregation handler
+     * @param intervalBoundaryTime Time spent handling interval boundaries, included in the handler time
+     */
+    synchronized void aggregationComplete(int events, long runTime, long handlerTime, long intervalBoundaryTime) {
+        this.runCount++;
+        
+        this.lastEventCount = events;
+        this.lastRunTime = runTime;
+        this.lastEventStoreTime = Math.max(0, runTime - handlerTime);
+        this.lastEventAggregationTime = Math.max(0, handlerTime - intervalBoundaryTime);
+        this.lastIntervalBoundaryTime = intervalBoundaryTime;
+        
+        this.totalEventCount += events;
+        this.totalRunTime += this.lastRunTime;
+        this.totalEventStoreTime += this.lastEventStoreTime;
+        this.totalEventAggregationTime += this.lastEventAggregationTime;
+        this.totalIntervalBoundaryTime += this.lastIntervalBoundaryTime;
+    }
+    
+    /**
+     * @return Number of aggregation runs
+     */
+    public synchronized long getRunCount() {
+        return this.runCount;
+    }
+    
+    /**
+     * @return Number of events aggregated by all runs
+     */
+    public synchronized long getTotalEventCount() {
+        return this.totalEventCount;
+    }
+    
+    /**
+     * @return Events aggregated per second over all runs
+     */
+    public synchronized double getEventsPerSecond() {
+        return eventsPerSecond(this.totalEventCount, this.totalRunTime);
+    }
+    
+    /**
+     * @return Total milliseconds spent loading, deserializing and marking raw events
+     */
+    public synchronized long getTotalEventStoreTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalEventStoreTime);
+    }
+    
+    /**
+     * @return Total milliseconds spent passing events to the aggregators
+     */
+    public synchronized long getTotalEventAggregationTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalEventAggregationTime);
+    }
+    
+    /**
+     * @return Total milliseconds spent handling interval boundaries
+     */
+    public synchronized long getTotalIntervalBoundaryTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalIntervalBoundaryTime);
+    }
+    
+    /**
+     * @return Number of events aggregated by the last run
+     */
+    public synchronized int getLastEventCount() {
+        return this.lastEventCount;
+    }
+    
+    /**
+     * @return Events aggregated per second by the last run
+     */
+    public synchronized double getLastEventsPerSecond() {
+        return eventsPerSecond(this.lastEventCount, this.lastRunTime);
+    }
+    
+    /**
+     * @return Milliseconds the last run spent aggregating events
+     */
+    public synchronized long getLastRunTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.lastRunTime);
+    }
+    
+    /**
+     * @return Milliseconds the last run spent loading, deserializing and marking raw events
+     */
+    public synchronized long getLastEventStoreTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.lastEventStoreTime);
+    }
+    
+    /**
+     * @return Milliseconds the last run spent passing events to the aggregators
+     */
+    public synchronized long getLastEventAggregationTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.lastEventAggregationTime);
+    }
+    
+    /**
+     * @return Milliseconds the last run spent handling interval boundaries
+     */
+    public synchronized long getLastIntervalBoundaryTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.lastIntervalBoundaryTime);
+    }
+    
+    public synchronized void reset() {
+        this.runCount = 0;
+        this.totalEventCount = 0;
+        this.totalRunTime = 0;
+        this.totalEventStoreTime = 0;
+        this.totalEventAggregationTime = 0;
+        this.totalIntervalBoundaryTime = 0;
+        this.lastEventCount = 0;
+        this.lastRunTime = 0;
+        this.lastEventStoreTime = 0;
+        this.lastEventAggregationTime = 0;
+        this.lastIntervalBoundaryTime = 0;
+    }
+    
+    private static double eventsPerSecond(long events, long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return events / (nanos / 1000000000d);
+    }
+}
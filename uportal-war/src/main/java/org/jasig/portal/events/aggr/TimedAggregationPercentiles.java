@@ -0,0 +1,45 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+import org.jasig.portal.events.aggr.stat.LatencyHistogram;
+
+/**
+ * Latency percentiles of an aggregation that includes timing info. All values are
+ * returned in nanoseconds
+ */
+public interface TimedAggregationPercentiles {
+    /**
+     * Returns the estimated value at the percentile of the values that have been added.
+     * <p>
+     * Double.NaN is returned if no values have been added or the aggregation was
+     * created before percentiles were tracked.
+     * </p>
+     * @param percentile The percentile, between 0 and 100
+     * @return The estimated value at the percentile
+     */
+    double getPercentile(double percentile);
+
+    /**
+     * @return A copy of the histogram of the values that have been added, can be merged with the
+     *      histograms of other aggregations to get the percentiles of the combined values
+     */
+    LatencyHistogram getLatencyHistogram();
+}
@@ -32,6 +32,7 @@ import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
 import javax.persistence.OneToMany;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
@@ -42,6 +43,7 @@ import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
+import org.jasig.portal.events.aggr.stat.HyperLogLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +52,10 @@ import org.slf4j.LoggerFactory;
  * maintain a set of unique strings over time can add a new {@link UniqueStrings} in each jpa session. This
  * will result in the set of UniqueStringsSegments being reloaded for the parent entity but the contents of each
  * UniqueStringsSegment will not need to be modified.
+ * <p>
+ * Created with {@link #UniqueStrings(int)} the strings are not stored, they are counted in a fixed size
+ * {@link HyperLogLog} sketch instead. The sketch is kept after the owning aggregation is complete with {@link #close()}
+ * so that the estimated counts of different intervals can be merged.
  * 
  * @author Eric Dalquist
  */
@@ -90,11 +96,89 @@ public final class UniqueStrings {
     @Transient
     private UniqueStringsSegment currentUniqueUsernamesSegment;
     
+    @Lob
+    @Column(name = "SKETCH_DATA", length = 70000)
+    private byte[] sketchData;
+    @Column(name = "SKETCH_CLOSED")
+    private Boolean sketchClosed;
+    @Transient
+    private HyperLogLog sketch;
+    
+    /**
+     * Track unique strings exactly
+     */
     public UniqueStrings() {
         this.id = -1;
     }
+    
+    /**
+     * Estimate the number of unique strings with a {@link HyperLogLog} sketch of the specified precision
+     */
+    public UniqueStrings(int sketchPrecision) {
+        this.id = -1;
+        this.sketch = new HyperLogLog(sketchPrecision);
+        this.sketchData = this.sketch.toByteArray();
+    }
+    
+    /**
+     * @return true if the strings are counted in a {@link HyperLogLog} sketch instead of being stored
+     */
+    public boolean isEstimated() {
+        return this.sketchData != null;
+    }
+    
+    /**
+     * @return true if {@link #close()} has been called, only estimated strings are kept once the owning aggregation is complete
+     */
+    public boolean isClosed() {
+        return Boolean.TRUE.equals(this.sketchClosed);
+    }
+    
+    /**
+     * Mark an estimated set of strings as closed, no more strings can be added after this call
+     */
+    public void close() {
+        if (!this.isEstimated()) {
+            throw new IllegalStateException("Only estimated unique strings can be closed");
+        }
+        this.sketchClosed = Boolean.TRUE;
+    }
+    
+    /**
+     * @return The estimated number of unique strings added
+     * @throws IllegalStateException if the strings are tracked exactly
+     */
+    public int getEstimatedCount() {
+        return (int) this.getSketch().getCardinality();
+    }
+    
+    /**
+     * @return A copy of the sketch the strings are counted in, can be merged with the sketches of other intervals
+     * @throws IllegalStateException if the strings are tracked exactly
+     */
+    public HyperLogLog getSketchCopy() {
+        return HyperLogLog.fromByteArray(this.getSketch().toByteArray());
+    }
 
+    /**
+     * Add a string
+     * 
+     * @return true if the string was not already in the set. If the strings are estimated true if the estimated
+     *          count may have changed.
+     */
     public boolean add(String e) {
+        if (this.isEstimated()) {
+            if (this.isClosed()) {
+                throw new IllegalStateException("UniqueStrings is already closed");
+            }
+            if (this.getSketch().offer(e)) {
+                //Only transient state changed, replace the persistent copy so hibernate sees the change
+                this.sketchData = this.sketch.toByteArray();
+                return true;
+            }
+            return false;
+        }
+        
         int stringCount = 0;
         int smallSegments = 0;
         //Check if the username exists in any segment
@@ -153,6 +237,16 @@ public final class UniqueStrings {
         
         return this.currentUniqueUsernamesSegment.add(e);
     }
+    
+    private HyperLogLog getSketch() {
+        if (this.sketchData == null) {
+            throw new IllegalStateException("UniqueStrings is not estimated");
+        }
+        if (this.sketch == null) {
+            this.sketch = HyperLogLog.fromByteArray(this.sketchData);
+        }
+        return this.sketch;
+    }
 
     @Override
     public int hashCode() {
@@ -180,6 +274,9 @@ public final class UniqueStrings {
 
     @Override
     public String toString() {
+        if (this.isEstimated()) {
+            return "UniqueStrings [id=" + id + ", estimatedCount=" + this.getEstimatedCount() + ", closed=" + this.isClosed() + "]";
+        }
         return "UniqueStrings [id=" + id + ", size=" + uniqueStringSegments.size() + "]";
     }
 }
@@ -21,6 +21,7 @@ package org.jasig.portal.events.aggr.concuser;
 
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.aggr.BaseAggregation;
+import org.jasig.portal.events.aggr.stat.HyperLogLog;
 
 /**
  * Tracks the number of concurrent users. Measured by unique {@link PortalEvent#getEventSessionId()} values
@@ -34,4 +35,10 @@ public interface ConcurrentUserAggregation extends BaseAggregation<ConcurrentUse
      * @return Total number of users that were active for the duration of this aggregation.
      */
     int getConcurrentUsers();
+    
+    /**
+     * @return A copy of the sketch the concurrent users are estimated with, can be merged with the sketches of other
+     *          intervals. null if concurrent users are counted exactly.
+     */
+    HyperLogLog getConcurrentUserSketch();
 }
@@ -48,6 +48,7 @@ import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.UniqueStrings;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.stat.HyperLogLog;
 
 /**
  * @author Eric Dalquist
@@ -142,28 +143,55 @@ public final class ConcurrentUserAggregationImpl
         return discriminator;
     }
 
+    @Override
+    public HyperLogLog getConcurrentUserSketch() {
+        if (this.uniqueStrings == null || !this.uniqueStrings.isEstimated()) {
+            return null;
+        }
+        return this.uniqueStrings.getSketchCopy();
+    }
+
     @Override
     protected boolean isComplete() {
-        return this.concurrentUsers > 0 && this.uniqueStrings == null;
+        return this.concurrentUsers > 0 && (this.uniqueStrings == null || this.uniqueStrings.isClosed());
     }
 
     @Override
     protected void completeInterval() {
-        this.uniqueStrings = null;
+        if (this.uniqueStrings != null && this.uniqueStrings.isEstimated()) {
+            //The sketch is small, keep it so the concurrent users of completed intervals can be merged
+            this.uniqueStrings.close();
+        }
+        else {
+            this.uniqueStrings = null;
+        }
     }
     
     void countSession(String eventSessionId) {
+        this.countSession(eventSessionId, 0);
+    }
+    
+    /**
+     * @param sketchPrecision If greater than 0 concurrent users are estimated with a {@link HyperLogLog} sketch of
+     *          this precision, used when the unique strings for the interval are first created
+     */
+    void countSession(String eventSessionId, int sketchPrecision) {
         if (isComplete()) {
             this.getLogger().warn("{} is already closed, the event session {} will be ignored on: {}", this.getClass().getSimpleName(), eventSessionId, this);
             return;
         }
         
         if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+            this.uniqueStrings = sketchPrecision > 0 ? new UniqueStrings(sketchPrecision) : new UniqueStrings();
         }
         
         if (this.uniqueStrings.add(eventSessionId)) {
-            this.concurrentUsers++;
+            if (this.uniqueStrings.isEstimated()) {
+                this.concurrentUsers = this.uniqueStrings.getEstimatedCount();
+            }
+            else {
+                this.concurrentUsers++;
+            }
         }
     }
 
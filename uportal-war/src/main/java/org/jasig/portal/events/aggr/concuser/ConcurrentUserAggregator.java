@@ -28,7 +28,9 @@ import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.EventAggregationContext;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.stat.HyperLogLog;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Event aggregator that uses {@link ConcurrentUserAggregationPrivateDao} to aggregate concurrent user data 
@@ -38,12 +40,24 @@ import org.springframework.beans.factory.annotation.Autowired;
  */
 public class ConcurrentUserAggregator extends BaseIntervalAwarePortalEventAggregator<PortalEvent, ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> {
     private ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao;
+    private boolean estimateUniqueCounts = false;
+    private int sketchPrecision = HyperLogLog.getPrecision(0.02);
 
     @Autowired
     public void setConcurrentUserAggregationDao(ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao) {
         this.concurrentUserAggregationDao = concurrentUserAggregationDao;
     }
 
+    @Value("${org.jasig.portal.events.aggr.UniqueStrings.estimateUniqueCounts:false}")
+    public void setEstimateUniqueCounts(boolean estimateUniqueCounts) {
+        this.estimateUniqueCounts = estimateUniqueCounts;
+    }
+
+    @Value("${org.jasig.portal.events.aggr.UniqueStrings.estimatedCountError:0.02}")
+    public void setEstimatedCountError(double estimatedCountError) {
+        this.sketchPrecision = HyperLogLog.getPrecision(estimatedCountError);
+    }
+
     @Override
     protected BaseAggregationPrivateDao<ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> getAggregationDao() {
         return this.concurrentUserAggregationDao;
@@ -60,7 +74,7 @@ public class ConcurrentUserAggregator extends BaseIntervalAwarePortalEventAggreg
         final String eventSessionId = e.getEventSessionId();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countSession(eventSessionId);
+        aggregation.countSession(eventSessionId, this.estimateUniqueCounts ? this.sketchPrecision : 0);
     }
     
     @Override
@@ -22,7 +22,9 @@ package org.jasig.portal.events.aggr.concuser;
 import java.util.List;
 
 import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Join;
 import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
@@ -30,6 +32,8 @@ import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.JpaBaseAggregationDao;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.UniqueStrings;
+import org.jasig.portal.events.aggr.UniqueStrings_;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.stereotype.Repository;
 
@@ -55,7 +59,10 @@ public class JpaConcurrentUserAggregationDao extends
     @Override
     protected void addUnclosedPredicate(CriteriaBuilder cb, Root<ConcurrentUserAggregationImpl> root,
             List<Predicate> keyPredicates) {
-        keyPredicates.add(cb.isNotNull(root.get(ConcurrentUserAggregationImpl_.uniqueStrings)));
+        //Estimated unique strings are kept but closed when the interval is complete
+        final Join<ConcurrentUserAggregationImpl, UniqueStrings> uniqueStrings = root.join(ConcurrentUserAggregationImpl_.uniqueStrings);
+        final Path<Boolean> sketchClosed = uniqueStrings.get(UniqueStrings_.sketchClosed);
+        keyPredicates.add(cb.or(cb.isNull(sketchClosed), cb.isFalse(sketchClosed)));
     }
 
     @Override
@@ -37,9 +37,13 @@ import org.jasig.portal.jpa.OpenEntityManager;
 import org.jasig.portal.jpa.cache.EntityManagerCache;
 import org.jasig.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.google.common.base.Function;
 
@@ -56,6 +60,14 @@ public class JpaAggregatedGroupLookupDao extends BaseAggrEventsJpaDao implements
 
     private EntityManagerCache entityManagerCache;
     private ICompositeGroupService compositeGroupService;
+    private TransactionTemplate newTransactionTemplate;
+
+    @Autowired
+    public void setPlatformTransactionManager(@Qualifier(PERSISTENCE_UNIT_NAME) PlatformTransactionManager platformTransactionManager) {
+        this.newTransactionTemplate = new TransactionTemplate(platformTransactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.newTransactionTemplate.afterPropertiesSet();
+    }
 
     @Autowired
     public void setEntityManagerCache(EntityManagerCache entityManagerCache) {
@@ -99,18 +111,22 @@ public class JpaAggregatedGroupLookupDao extends BaseAggrEventsJpaDao implements
             return groupMapping;
         }
         
-        return this.getTransactionOperations().execute(new TransactionCallback<AggregatedGroupMapping>() {
+        //Create the mapping in its own transaction so it is committed before anything that references it, partitioned
+        //aggregation references the mapping from other transactions before the aggregation transaction commits
+        final Long groupMappingId = this.newTransactionTemplate.execute(new TransactionCallback<Long>() {
             @Override
-            public AggregatedGroupMapping doInTransaction(TransactionStatus status) {
+            public Long doInTransaction(TransactionStatus status) {
                 final AggregatedGroupMappingImpl aggregatedGroupMapping = new AggregatedGroupMappingImpl(groupService, groupName);
                 getEntityManager().persist(aggregatedGroupMapping);
                 
                 logger.debug("Created {}", aggregatedGroupMapping);
-                entityManagerCache.put(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME, key, aggregatedGroupMapping);
-                
-                return aggregatedGroupMapping;
+                return aggregatedGroupMapping.getId();
             }
         });
+        
+        groupMapping = this.getEntityManager().find(AggregatedGroupMappingImpl.class, groupMappingId);
+        this.entityManagerCache.put(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME, key, groupMapping);
+        return groupMapping;
     }
     
     private final Set<String> warnedGroupKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
@@ -22,7 +22,9 @@ package org.jasig.portal.events.aggr.login;
 import java.util.List;
 
 import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Join;
 import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
@@ -30,6 +32,8 @@ import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.JpaBaseAggregationDao;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.UniqueStrings;
+import org.jasig.portal.events.aggr.UniqueStrings_;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.stereotype.Repository;
 
@@ -53,7 +57,10 @@ public class JpaLoginAggregationDao extends JpaBaseAggregationDao<LoginAggregati
     @Override
     protected void addUnclosedPredicate(CriteriaBuilder cb, Root<LoginAggregationImpl> root,
             List<Predicate> keyPredicates) {
-        keyPredicates.add(cb.isNotNull(root.get(LoginAggregationImpl_.uniqueStrings)));
+        //Estimated unique strings are kept but closed when the interval is complete
+        final Join<LoginAggregationImpl, UniqueStrings> uniqueStrings = root.join(LoginAggregationImpl_.uniqueStrings);
+        final Path<Boolean> sketchClosed = uniqueStrings.get(UniqueStrings_.sketchClosed);
+        keyPredicates.add(cb.or(cb.isNull(sketchClosed), cb.isFalse(sketchClosed)));
     }
     
     @Override
@@ -21,6 +21,7 @@ package org.jasig.portal.events.aggr.login;
 
 import org.jasig.portal.events.LoginEvent;
 import org.jasig.portal.events.aggr.BaseAggregation;
+import org.jasig.portal.events.aggr.stat.HyperLogLog;
 
 /**
  * @author Eric Dalquist
@@ -36,4 +37,10 @@ public interface LoginAggregation extends BaseAggregation<LoginAggregationKey, L
      * @return Unique number of {@link LoginEvent}s that occurred in the interval, uniqueness is determined by {@link LoginEvent#getUserName()}
      */
     int getUniqueLoginCount();
+    
+    /**
+     * @return A copy of the sketch the unique logins are estimated with, can be merged with the sketches of other
+     *          intervals. null if unique logins are counted exactly.
+     */
+    HyperLogLog getUniqueLoginSketch();
 }
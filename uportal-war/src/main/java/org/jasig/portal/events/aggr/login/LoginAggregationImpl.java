@@ -48,6 +48,7 @@ import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.UniqueStrings;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.stat.HyperLogLog;
 
 /**
  * @author Eric Dalquist
@@ -148,28 +149,55 @@ public final class LoginAggregationImpl
         return discriminator;
     }
 
+    @Override
+    public HyperLogLog getUniqueLoginSketch() {
+        if (this.uniqueStrings == null || !this.uniqueStrings.isEstimated()) {
+            return null;
+        }
+        return this.uniqueStrings.getSketchCopy();
+    }
+
     @Override
     protected boolean isComplete() {
-        return this.loginCount > 0 && this.uniqueStrings == null;
+        return this.loginCount > 0 && (this.uniqueStrings == null || this.uniqueStrings.isClosed());
     }
 
     @Override
     protected void completeInterval() {
-        this.uniqueStrings = null;
+        if (this.uniqueStrings != null && this.uniqueStrings.isEstimated()) {
+            //The sketch is small, keep it so the unique logins of completed intervals can be merged
+            this.uniqueStrings.close();
+        }
+        else {
+            this.uniqueStrings = null;
+        }
     }
 
     void countUser(String userName) {
+        this.countUser(userName, 0);
+    }
+
+    /**
+     * @param sketchPrecision If greater than 0 unique logins are estimated with a {@link HyperLogLog} sketch of this
+     *          precision, used when the unique strings for the interval are first created
+     */
+    void countUser(String userName, int sketchPrecision) {
         if (isComplete()) {
             this.getLogger().warn("{} is already closed, the user name {} will be ignored on: {}", this.getClass().getSimpleName(), userName, this);
             return;
         }
         
         if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+            this.uniqueStrings = sketchPrecision > 0 ? new UniqueStrings(sketchPrecision) : new UniqueStrings();
         }
         
         if (this.uniqueStrings.add(userName)) {
-            this.uniqueLoginCount++;
+            if (this.uniqueStrings.isEstimated()) {
+                this.uniqueLoginCount = this.uniqueStrings.getEstimatedCount();
+            }
+            else {
+                this.uniqueLoginCount++;
+            }
         }
         this.loginCount++;
     }
@@ -29,7 +29,9 @@ import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.EventAggregationContext;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.stat.HyperLogLog;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events 
@@ -39,12 +41,24 @@ import org.springframework.beans.factory.annotation.Autowired;
  */
 public class LoginPortalEventAggregator extends BaseIntervalAwarePortalEventAggregator<LoginEvent, LoginAggregationImpl, LoginAggregationKey> {
     private LoginAggregationPrivateDao loginAggregationDao;
+    private boolean estimateUniqueCounts = false;
+    private int sketchPrecision = HyperLogLog.getPrecision(0.02);
 
     @Autowired
     public void setLoginAggregationDao(LoginAggregationPrivateDao loginAggregationDao) {
         this.loginAggregationDao = loginAggregationDao;
     }
 
+    @Value("${org.jasig.portal.events.aggr.UniqueStrings.estimateUniqueCounts:false}")
+    public void setEstimateUniqueCounts(boolean estimateUniqueCounts) {
+        this.estimateUniqueCounts = estimateUniqueCounts;
+    }
+
+    @Value("${org.jasig.portal.events.aggr.UniqueStrings.estimatedCountError:0.02}")
+    public void setEstimatedCountError(double estimatedCountError) {
+        this.sketchPrecision = HyperLogLog.getPrecision(estimatedCountError);
+    }
+
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey> getAggregationDao() {
         return this.loginAggregationDao;
@@ -70,6 +84,6 @@ public class LoginPortalEventAggregator extends BaseIntervalAwarePortalEventAggr
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countUser(userName);
+        aggregation.countUser(userName, this.estimateUniqueCounts ? this.sketchPrecision : 0);
     }
 }
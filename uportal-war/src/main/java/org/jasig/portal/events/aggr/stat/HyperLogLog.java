@@ -0,0 +1,255 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.stat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Fixed size, mergeable HyperLogLog sketch used to estimate the number of distinct strings seen in an aggregation
+ * without storing the strings. The sketch uses 2^precision one byte registers and has a relative standard error of
+ * about 1.04 / sqrt(2^precision), small cardinalities are estimated with linear counting.
+ * <p>
+ * The sketch is stored with {@link #toByteArray()} and {@link #fromByteArray(byte[])}, sketches with few non-zero
+ * registers are encoded sparsely. Sketches from different intervals or groups with the same precision can be
+ * combined with {@link #merge(HyperLogLog)}.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class HyperLogLog implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final int ENCODING_VERSION = 1;
+    private static final int DENSE_ENCODING = 0;
+    private static final int SPARSE_ENCODING = 1;
+    
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+    private double inverseSum;
+    private int zeroRegisters;
+    
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+        this.inverseSum = this.registers.length;
+        this.zeroRegisters = this.registers.length;
+    }
+    
+    /**
+     * @param relativeError The acceptable relative standard error of the estimate, for example 0.01 for 1%
+     * @return The smallest precision with a standard error no larger than the specified error, limited to
+     *          {@link #MIN_PRECISION} and {@link #MAX_PRECISION}
+     */
+    public static int getPrecision(double relativeError) {
+        if (!(relativeError > 0)) {
+            throw new IllegalArgumentException("relativeError must be greater than 0: " + relativeError);
+        }
+        
+        final double registerCount = Math.pow(1.04 / relativeError, 2);
+        final int precision = (int) Math.ceil(Math.log(registerCount) / Math.log(2));
+        return Math.min(MAX_PRECISION, Math.max(MIN_PRECISION, precision));
+    }
+
+    public int getPrecision() {
+        return this.precision;
+    }
+    
+    /**
+     * @return The relative standard error of estimates made by this sketch
+     */
+    public double getRelativeError() {
+        return 1.04 / Math.sqrt(this.registers.length);
+    }
+
+    /**
+     * Add a string to the sketch
+     * 
+     * @return true if the sketch changed, false if the string, or one with the same hash, has already been added
+     */
+    public boolean offer(String value) {
+        final long hash = HASH_FUNCTION.hashString(value, Charsets.UTF_8).asLong();
+        final int index = (int) (hash >>> (64 - this.precision));
+        //The guard bit bounds the rank to 64 - precision + 1
+        final int rank = Long.numberOfLeadingZeros((hash << this.precision) | (1L << (this.precision - 1))) + 1;
+        return this.updateRegister(index, rank);
+    }
+
+    /**
+     * Add all of the strings counted in the other sketch to this sketch
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("Cannot merge sketch with precision " + other.precision + " into sketch with precision " + this.precision);
+        }
+        
+        for (int i = 0; i < this.registers.length; i++) {
+            this.updateRegister(i, other.registers[i]);
+        }
+    }
+
+    /**
+     * @return The estimated number of distinct strings added to the sketch
+     */
+    public long getCardinality() {
+        final int m = this.registers.length;
+        final double estimate = getAlpha(m) * m * m / this.inverseSum;
+        if (estimate <= 2.5 * m && this.zeroRegisters > 0) {
+            //Linear counting is more accurate for small cardinalities
+            return Math.round(m * Math.log((double) m / this.zeroRegisters));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return Binary encoding of the sketch, sparse if few registers are set
+     */
+    public byte[] toByteArray() {
+        final int setRegisters = this.registers.length - this.zeroRegisters;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(this.registers.length, setRegisters * 3) + 3);
+        out.write(ENCODING_VERSION);
+        out.write(this.precision);
+        
+        //Sparse entries are at most 3 bytes of index delta plus 1 byte of register value
+        if (setRegisters * 4 < this.registers.length) {
+            out.write(SPARSE_ENCODING);
+            int previousIndex = -1;
+            for (int i = 0; i < this.registers.length; i++) {
+                if (this.registers[i] != 0) {
+                    writeVarInt(out, i - previousIndex);
+                    out.write(this.registers[i]);
+                    previousIndex = i;
+                }
+            }
+        }
+        else {
+            out.write(DENSE_ENCODING);
+            out.write(this.registers, 0, this.registers.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return Sketch decoded from data created by {@link #toByteArray()}
+     */
+    public static HyperLogLog fromByteArray(byte[] data) {
+        if (data == null || data.length < 3) {
+            throw new IllegalArgumentException("Sketch data must contain at least the 3 byte header");
+        }
+        if (data[0] != ENCODING_VERSION) {
+            throw new IllegalArgumentException("Unsupported sketch encoding version: " + data[0]);
+        }
+        
+        final HyperLogLog sketch = new HyperLogLog(data[1]);
+        if (data[2] == DENSE_ENCODING) {
+            for (int i = 0; i < sketch.registers.length; i++) {
+                sketch.updateRegister(i, data[i + 3]);
+            }
+        }
+        else {
+            final int[] position = new int[] { 3 };
+            int index = -1;
+            while (position[0] < data.length) {
+                index += readVarInt(data, position);
+                sketch.updateRegister(index, data[position[0]++]);
+            }
+        }
+        return sketch;
+    }
+    
+    private boolean updateRegister(int index, int rank) {
+        final int current = this.registers[index];
+        if (rank <= current) {
+            return false;
+        }
+        
+        this.registers[index] = (byte) rank;
+        this.inverseSum += Math.scalb(1.0, -rank) - Math.scalb(1.0, -current);
+        if (current == 0) {
+            this.zeroRegisters--;
+        }
+        return true;
+    }
+
+    private static double getAlpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.registers);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof HyperLogLog))
+            return false;
+        final HyperLogLog other = (HyperLogLog) obj;
+        return this.precision == other.precision && Arrays.equals(this.registers, other.registers);
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + this.precision + ", cardinality=" + this.getCardinality() + "]";
+    }
+}
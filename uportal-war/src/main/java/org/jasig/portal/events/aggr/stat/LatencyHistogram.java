@@ -0,0 +1,242 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.stat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Fixed size, mergeable histogram of nanosecond latencies used to estimate percentiles of a timed aggregation.
+ * Values below 64 are counted exactly, larger values are counted in log-linear buckets of 32 sub-buckets per power
+ * of two so any reported percentile is within about 3% of the recorded value. Values larger than
+ * {@link #MAX_VALUE} (about 2.4 hours) are counted in the highest bucket.
+ * <p>
+ * The histogram is stored as a sparse byte array with {@link #toByteArray()} and {@link #fromByteArray(byte[])}.
+ * Histograms from different intervals or groups can be combined with {@link #merge(LatencyHistogram)}.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class LatencyHistogram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+    private static final int MAX_MAGNITUDE = 43;
+    private static final int ENCODING_VERSION = 1;
+    
+    /**
+     * Largest value tracked with full precision
+     */
+    public static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+    
+    static final int BUCKET_COUNT = getBucketIndex(MAX_VALUE) + 1;
+
+    private int[] counts;
+    private long totalCount;
+
+    /**
+     * Record a single value, negative values are recorded as 0
+     */
+    public void recordValue(double value) {
+        final long longValue;
+        if (!(value > 0)) {
+            longValue = 0;
+        }
+        else if (value >= MAX_VALUE) {
+            longValue = MAX_VALUE;
+        }
+        else {
+            longValue = Math.round(value);
+        }
+        
+        this.getCounts()[getBucketIndex(longValue)]++;
+        this.totalCount++;
+    }
+
+    /**
+     * Add all of the values recorded in the other histogram to this histogram
+     */
+    public void merge(LatencyHistogram other) {
+        if (other.counts == null) {
+            return;
+        }
+        
+        final int[] counts = this.getCounts();
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        this.totalCount += other.totalCount;
+    }
+
+    /**
+     * @return Number of values that have been recorded
+     */
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    /**
+     * @param percentile The percentile to get, between 0 and 100
+     * @return The estimated value at the percentile, Double.NaN if no values have been recorded
+     */
+    public double getValueAtPercentile(double percentile) {
+        if (this.totalCount == 0) {
+            return Double.NaN;
+        }
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        
+        final long targetCount = Math.max(1, (long) Math.ceil(percentile / 100 * this.totalCount));
+        long count = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            count += this.counts[i];
+            if (count >= targetCount) {
+                return getBucketValue(i);
+            }
+        }
+        
+        return getBucketValue(this.counts.length - 1);
+    }
+
+    /**
+     * @return Sparse binary encoding of the histogram
+     */
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeVarLong(out, ENCODING_VERSION);
+        if (this.counts != null) {
+            int previousIndex = -1;
+            for (int i = 0; i < this.counts.length; i++) {
+                if (this.counts[i] != 0) {
+                    writeVarLong(out, i - previousIndex);
+                    writeVarLong(out, this.counts[i]);
+                    previousIndex = i;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return Histogram decoded from data created by {@link #toByteArray()}, an empty histogram if the data is null
+     */
+    public static LatencyHistogram fromByteArray(byte[] data) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        if (data == null || data.length == 0) {
+            return histogram;
+        }
+        
+        final int[] position = new int[1];
+        final long version = readVarLong(data, position);
+        if (version != ENCODING_VERSION) {
+            throw new IllegalArgumentException("Unsupported histogram encoding version: " + version);
+        }
+        
+        int index = -1;
+        while (position[0] < data.length) {
+            index += (int) readVarLong(data, position);
+            final int count = (int) readVarLong(data, position);
+            histogram.getCounts()[index] = count;
+            histogram.totalCount += count;
+        }
+        return histogram;
+    }
+
+    private int[] getCounts() {
+        if (this.counts == null) {
+            this.counts = new int[BUCKET_COUNT];
+        }
+        return this.counts;
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The middle of the range of values counted by the bucket
+     */
+    static double getBucketValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long lowestValue = (long) ((index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT) << shift;
+        return lowestValue + ((1L << shift) - 1) / 2.0;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(byte[] data, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public int hashCode() {
+        if (this.totalCount == 0) {
+            return 0;
+        }
+        return Arrays.hashCode(this.counts) * 31 + (int) (this.totalCount ^ (this.totalCount >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof LatencyHistogram))
+            return false;
+        final LatencyHistogram other = (LatencyHistogram) obj;
+        if (this.totalCount != other.totalCount)
+            return false;
+        if (this.totalCount == 0)
+            return true;
+        return Arrays.equals(this.counts, other.counts);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram [totalCount=" + this.totalCount + ", p50=" + this.getValueAtPercentile(50) + 
+                ", p95=" + this.getValueAtPercentile(95) + ", p99=" + this.getValueAtPercentile(99) + "]";
+    }
+}
@@ -20,6 +20,7 @@
 package org.jasig.portal.events.aggr.tabrender;
 
 import org.jasig.portal.events.aggr.BaseAggregation;
+import org.jasig.portal.events.aggr.TimedAggregationPercentiles;
 import org.jasig.portal.events.aggr.TimedAggregationStatistics;
 import org.jasig.portal.events.aggr.tabs.AggregatedTabMapping;
 
@@ -29,7 +30,7 @@ import org.jasig.portal.events.aggr.tabs.AggregatedTabMapping;
  * @author Eric Dalquist
  */
 public interface TabRenderAggregation
-        extends BaseAggregation<TabRenderAggregationKey, TabRenderAggregationDiscriminator>, TimedAggregationStatistics {
+        extends BaseAggregation<TabRenderAggregationKey, TabRenderAggregationDiscriminator>, TimedAggregationStatistics, TimedAggregationPercentiles {
     
     /**
      * @return Number of times the tab was rendered
@@ -0,0 +1,107 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.io.IOException;
+
+import org.jasig.portal.events.PortalEvent;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Compact binary encoding of {@link PortalEvent}s using Jackson Smile. The same Jackson mappings used for the JSON
+ * encoding describe the fields of each {@link PortalEvent} subclass. Repeated property names and short string values
+ * are written as back references and short string values are interned when decoded, so values repeated across
+ * events such as user names, fnames and server names share a single instance while events are aggregated.
+ * <p>
+ * The encoded data is prefixed with a format version byte to allow the encoding to change in the future.
+ */
+class BinaryPortalEventCodec {
+    static final byte FORMAT_VERSION = 1;
+    
+    /**
+     * Longer string values are assumed to be unique and are not interned
+     */
+    private static final int MAX_INTERNED_LENGTH = 128;
+    
+    private final Interner<String> stringInterner = Interners.newWeakInterner();
+    private final ObjectMapper mapper;
+    
+    BinaryPortalEventCodec() {
+        final SmileFactory smileFactory = new SmileFactory();
+        smileFactory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+        smileFactory.disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT);
+        
+        this.mapper = new ObjectMapper(smileFactory);
+        this.mapper.findAndRegisterModules();
+        
+        final SimpleModule internModule = new SimpleModule("BinaryPortalEventCodec");
+        internModule.addDeserializer(String.class, new InterningStringDeserializer());
+        this.mapper.registerModule(internModule);
+    }
+    
+    public byte[] encode(PortalEvent event) throws IOException {
+        final byte[] data = this.mapper.writeValueAsBytes(event);
+        
+        final byte[] versionedData = new byte[data.length + 1];
+        versionedData[0] = FORMAT_VERSION;
+        System.arraycopy(data, 0, versionedData, 1, data.length);
+        return versionedData;
+    }
+    
+    public <E extends PortalEvent> E decode(byte[] data, Class<E> eventType) throws IOException {
+        if (data.length == 0 || data[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported binary PortalEvent data format version: " + (data.length == 0 ? "none" : data[0]));
+        }
+        
+        return this.mapper.readValue(data, 1, data.length - 1, eventType);
+    }
+    
+    private final class InterningStringDeserializer extends StdScalarDeserializer<String> {
+        private static final long serialVersionUID = 1L;
+
+        public InterningStringDeserializer() {
+            super(String.class);
+        }
+
+        @Override
+        public String deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+            if (jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+                final String value = jp.getText();
+                if (value.length() <= MAX_INTERNED_LENGTH) {
+                    return stringInterner.intern(value);
+                }
+                return value;
+            }
+            
+            return StringDeserializer.instance.deserialize(jp, ctxt);
+        }
+    }
+}
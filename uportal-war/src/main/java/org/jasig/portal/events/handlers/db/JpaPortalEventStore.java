@@ -20,6 +20,8 @@
 package org.jasig.portal.events.handlers.db;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.persistence.Query;
@@ -46,6 +48,7 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.collect.Lists;
 
 /**
  * Stores portal events using JPA/Hibenate no internal batch segmentation is done to the passed list
@@ -57,12 +60,25 @@ import com.google.common.base.Function;
  */
 @Repository
 public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
+    /**
+     * Max number of event ids bound to a single IN clause
+     */
+    private static final int MAX_IN_PARAMETERS = 1000;
+    /**
+     * Min length of a run of consecutive event ids that is marked with a range update instead of an IN clause
+     */
+    private static final int MIN_RANGE_UPDATE_SIZE = 10;
 
     private ObjectMapper mapper;
     private String deleteQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
+    private String markAggregatedRangeQuery;
+    private String markAggregatedQuery;
+    private String markErrorAggregatingQuery;
     private int flushPeriod = 1000;
+    private PortalEventDataFormat eventDataFormat = PortalEventDataFormat.JSON;
+    private final BinaryPortalEventCodec binaryCodec = new BinaryPortalEventCodec();
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
@@ -75,13 +91,21 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     }
 
     /**
-     * Frequency that updated events should be flushed during a call to {@link #aggregatePortalEvents(DateTime, DateTime, int, FunctionWithoutResult)}, defaults to 1000.
+     * Number of aggregated events to mark with bulk updates at a time during a call to {@link #aggregatePortalEvents(DateTime, DateTime, int, Function)}, defaults to 1000.
      */
     @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.aggregationFlushPeriod:1000}")
     public void setAggregationFlushPeriod(int flushPeriod) {
         this.flushPeriod = flushPeriod;
     }
     
+    /**
+     * Format new events are stored in, events stored in any format can always be read. Defaults to {@link PortalEventDataFormat#JSON}
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.eventDataFormat:JSON}")
+    public void setEventDataFormat(PortalEventDataFormat eventDataFormat) {
+        this.eventDataFormat = eventDataFormat;
+    }
+    
     @Override
     public void afterPropertiesSet() throws Exception {
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
@@ -95,7 +119,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         		"ORDER BY e." + PersistentPortalEvent_.timestamp.getName() + " ASC";
         
         this.selectUnaggregatedQuery = 
-                "SELECT e " +
+                "SELECT e." + PersistentPortalEvent_.id.getName() + ", e." + PersistentPortalEvent_.eventType.getName() + ", e." + PersistentPortalEvent_.eventData.getName() + ", e." + PersistentPortalEvent_.binaryEventData.getName() + " " +
                 "FROM " + PersistentPortalEvent.class.getName() + " e " +
                 "WHERE e." + PersistentPortalEvent_.timestamp.getName() + " >= :" + this.startTimeParameter.getName() + " " +
                      "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName() + " " +
@@ -103,6 +127,21 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                      "AND (e." + PersistentPortalEvent_.errorAggregating.getName() + " is null OR e." + PersistentPortalEvent_.errorAggregating.getName() + " = false) " +
                 "ORDER BY e." + PersistentPortalEvent_.timestamp.getName() + " ASC";
         
+        this.markAggregatedRangeQuery = 
+                "UPDATE " + PersistentPortalEvent.class.getName() + " e " +
+                "SET e." + PersistentPortalEvent_.aggregated.getName() + " = true " +
+                "WHERE e." + PersistentPortalEvent_.id.getName() + " >= :minEventId AND e." + PersistentPortalEvent_.id.getName() + " <= :maxEventId";
+        
+        this.markAggregatedQuery = 
+                "UPDATE " + PersistentPortalEvent.class.getName() + " e " +
+                "SET e." + PersistentPortalEvent_.aggregated.getName() + " = true " +
+                "WHERE e." + PersistentPortalEvent_.id.getName() + " IN (:eventIds)";
+        
+        this.markErrorAggregatingQuery = 
+                "UPDATE " + PersistentPortalEvent.class.getName() + " e " +
+                "SET e." + PersistentPortalEvent_.errorAggregating.getName() + " = true " +
+                "WHERE e." + PersistentPortalEvent_.id.getName() + " IN (:eventIds)";
+        
         this.deleteQuery = 
                 "DELETE FROM " + PersistentPortalEvent.class.getName() + " e " +
         		"WHERE e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName();
@@ -196,52 +235,119 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         if (maxEvents > 0) {
             query.setMaxResults(maxEvents);
         }
+        
+        //Only the ids of the processed events are tracked, the events are marked using bulk updates
+        final List<Long> aggregatedEventIds = new ArrayList<Long>(this.flushPeriod);
+        final List<Long> erroredEventIds = new ArrayList<Long>();
 
-        int resultCount = 0;
-        for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
-            final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
-            final PortalEvent portalEvent;
-            try {
-                portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
-            }
-            catch (RuntimeException e) {
-                this.logger.warn("Failed to convert PersistentPortalEvent to PortalEvent: " + persistentPortalEvent, e);
+        final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                final Long eventId = (Long)results.get(0);
+                @SuppressWarnings("unchecked")
+                final Class<PortalEvent> eventType = (Class<PortalEvent>)results.get(1);
+                final String eventData = (String)results.get(2);
+                final byte[] binaryEventData = (byte[])results.get(3);
                 
-                //Mark the event as error and store the mark to prevent trying to reprocess the broken event data
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+                final PortalEvent portalEvent;
+                try {
+                    portalEvent = this.toPortalEvent(eventData, binaryEventData, eventType);
+                }
+                catch (RuntimeException e) {
+                    this.logger.warn("Failed to convert PersistentPortalEvent to PortalEvent: " + eventData, e);
+                    
+                    //Mark the event as error to prevent trying to reprocess the broken event data
+                    erroredEventIds.add(eventId);
+                    continue;
+                }
                 
-                continue;
+                try {
+                    final Boolean eventHandled = handler.apply(portalEvent);
+                    if (!eventHandled) {
+                        this.logger.debug("Aggregation stop requested before processing event {}", portalEvent);
+                        this.markEvents(session, aggregatedEventIds, erroredEventIds);
+                        return false;
+                    }
+                    
+                    aggregatedEventIds.add(eventId);
+                    
+                    //periodic marking of aggregated events to keep the id lists and update statements small
+                    if (aggregatedEventIds.size() >= this.flushPeriod) {
+                        this.markEvents(session, aggregatedEventIds, erroredEventIds);
+                    }
+                } 
+                catch (Exception e) {
+                    this.logger.warn("Failed to aggregate portal event: " + eventData, e);
+                    //mark the event as erred and move on. This will not be picked up by processing again
+                    erroredEventIds.add(eventId);
+                }
             }
+        }
+        finally {
+            results.close();
+        }
+        
+        this.markEvents(session, aggregatedEventIds, erroredEventIds);
+        return true;
+    }
+    
+    /**
+     * Mark the aggregated and errored events using bulk updates and clear the id lists. Runs of consecutive aggregated
+     * ids are marked with a single range update, all other ids are marked using IN clauses.
+     */
+    protected void markEvents(Session session, List<Long> aggregatedEventIds, List<Long> erroredEventIds) {
+        if (aggregatedEventIds.isEmpty() && erroredEventIds.isEmpty()) {
+            return;
+        }
+        
+        final long start = System.nanoTime();
+        int statements = 0;
+        
+        if (!aggregatedEventIds.isEmpty()) {
+            Collections.sort(aggregatedEventIds);
             
-            try {
-            
-                final Boolean eventHandled = handler.apply(portalEvent);
-                if (!eventHandled) {
-                    this.logger.debug("Aggregation stop requested before processing event {}", portalEvent);
-                    return false;
+            final List<Long> remainingIds = new ArrayList<Long>();
+            int runStart = 0;
+            for (int index = 1; index <= aggregatedEventIds.size(); index++) {
+                if (index < aggregatedEventIds.size() && aggregatedEventIds.get(index) == aggregatedEventIds.get(index - 1) + 1) {
+                    continue;
                 }
                 
-                //Mark the event as aggregated and store the mark
-                persistentPortalEvent.setAggregated(true);
-                session.persist(persistentPortalEvent);
-                
-                //periodic flush and clear of session to manage memory demands
-                if (++resultCount % this.flushPeriod == 0) {
-                    this.logger.debug("Aggregated {} events, flush and clear {} EntityManager.", resultCount, PERSISTENCE_UNIT_NAME);
-                    session.flush();
-                    session.clear();
+                //Every id between the first and last id of the run has been aggregated
+                if (index - runStart >= MIN_RANGE_UPDATE_SIZE) {
+                    final org.hibernate.Query query = session.createQuery(this.markAggregatedRangeQuery);
+                    query.setParameter("minEventId", aggregatedEventIds.get(runStart));
+                    query.setParameter("maxEventId", aggregatedEventIds.get(index - 1));
+                    query.executeUpdate();
+                    statements++;
                 }
-            
-            } catch (Exception e) {
-                this.logger.warn("Failed to aggregate portal event: " + persistentPortalEvent, e);
-                //mark the event as erred and move on. This will not be picked up by processing again
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+                else {
+                    remainingIds.addAll(aggregatedEventIds.subList(runStart, index));
+                }
+                runStart = index;
             }
+            
+            statements += this.executeInUpdate(session, this.markAggregatedQuery, remainingIds);
         }
         
-        return true;
+        statements += this.executeInUpdate(session, this.markErrorAggregatingQuery, erroredEventIds);
+
+        this.logger.debug("Marked {} aggregated and {} errored events with {} statements in {}ms", 
+                new Object[] { aggregatedEventIds.size(), erroredEventIds.size(), statements, (System.nanoTime() - start) / 1000000 });
+        
+        aggregatedEventIds.clear();
+        erroredEventIds.clear();
+    }
+    
+    private int executeInUpdate(Session session, String queryString, List<Long> eventIds) {
+        int statements = 0;
+        for (final List<Long> eventIdsPartition : Lists.partition(eventIds, MAX_IN_PARAMETERS)) {
+            final org.hibernate.Query query = session.createQuery(queryString);
+            query.setParameterList("eventIds", eventIdsPartition);
+            query.executeUpdate();
+            statements++;
+        }
+        return statements;
     }
     
     @Override
@@ -261,7 +367,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
         for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
             final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
-            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
+            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getBinaryEventData(), persistentPortalEvent.getEventType());
             handler.apply(portalEvent);
             persistentPortalEvent.setAggregated(true);
             session.evict(persistentPortalEvent);
@@ -277,8 +383,32 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     }
     
     protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
-        final String portalEventData = this.toString(event);
-        return new PersistentPortalEvent(event, portalEventData);
+        switch (this.eventDataFormat) {
+            case SMILE: {
+                final byte[] binaryEventData = this.toBytes(event);
+                return new PersistentPortalEvent(event, this.eventDataFormat, binaryEventData);
+            }
+            default: {
+                final String portalEventData = this.toString(event);
+                return new PersistentPortalEvent(event, portalEventData);
+            }
+        }
+    }
+    
+    /**
+     * Read the event from its stored data, binary data is used if not null
+     */
+    protected <E extends PortalEvent> E toPortalEvent(final String eventData, final byte[] binaryEventData, Class<E> eventType) {
+        if (binaryEventData == null) {
+            return this.toPortalEvent(eventData, eventType);
+        }
+        
+        try {
+            return this.binaryCodec.decode(binaryEventData, eventType);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize binary PortalEvent data", e);
+        }
     }
 
     protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
@@ -296,6 +426,15 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         }
     }
     
+    protected byte[] toBytes(PortalEvent event) {
+        try {
+            return this.binaryCodec.encode(event);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to serialize binary PortalEvent data", e);
+        }
+    }
+    
     protected String toString(PortalEvent event) {
         try {
             return mapper.writeValueAsString(event);
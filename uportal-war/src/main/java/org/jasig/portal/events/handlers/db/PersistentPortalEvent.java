@@ -94,6 +94,10 @@ public class PersistentPortalEvent implements Serializable {
     @Lob
     private final String eventData; 
     
+    @Column(name = "EVENT_DATA_BIN", updatable=false, length=10000)
+    @Lob
+    private final byte[] binaryEventData; 
+    
     @Index(name = "IDX_UP_RAW_EVENTS_AGGREGATED")
     @Column(name = "AGGREGATED") 
     private Boolean aggregated = false;
@@ -109,6 +113,7 @@ public class PersistentPortalEvent implements Serializable {
     private PersistentPortalEvent() {
         this.id = -1;
         this.eventData = null;
+        this.binaryEventData = null;
         this.timestamp = null;
         this.serverId = null;
         this.eventSessionId = null;
@@ -116,10 +121,22 @@ public class PersistentPortalEvent implements Serializable {
         this.eventType = null;
     }
     
-    @SuppressWarnings("unchecked")
     PersistentPortalEvent(PortalEvent portalEvent, String eventData) {
+        this(portalEvent, eventData, null);
+    }
+    
+    /**
+     * Store the event in binary form, the event data column is set to the name of the format as it cannot be null.
+     */
+    PersistentPortalEvent(PortalEvent portalEvent, PortalEventDataFormat format, byte[] binaryEventData) {
+        this(portalEvent, format.name(), binaryEventData);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private PersistentPortalEvent(PortalEvent portalEvent, String eventData, byte[] binaryEventData) {
         this.id = -1;
         this.eventData = eventData;
+        this.binaryEventData = binaryEventData;
         this.timestamp = new DateTime(portalEvent.getTimestamp());
         this.serverId = portalEvent.getServerId();
         this.eventSessionId = portalEvent.getEventSessionId();
@@ -138,6 +155,13 @@ public class PersistentPortalEvent implements Serializable {
         return this.eventData;
     }
     
+    /**
+     * @return the binary event data, null if the event was stored as text in {@link #getEventData()}
+     */
+    public byte[] getBinaryEventData() {
+        return this.binaryEventData;
+    }
+    
     public boolean isAggregated() {
         Boolean a = this.aggregated;
         if (a == null) {
@@ -169,6 +193,9 @@ public class PersistentPortalEvent implements Serializable {
      */
     @Override
     public String toString() {
+        if (this.binaryEventData != null) {
+            return this.eventData + "[" + this.binaryEventData.length + " bytes]";
+        }
         return this.eventData;
     }
 }
@@ -0,0 +1,37 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import org.jasig.portal.events.PortalEvent;
+
+/**
+ * Formats the {@link PortalEvent} data of a {@link PersistentPortalEvent} can be stored in. Events stored in any
+ * format can always be read, the format only controls how new events are written.
+ */
+public enum PortalEventDataFormat {
+    /**
+     * Jackson JSON text stored in the EVENT_DATA column
+     */
+    JSON,
+    /**
+     * Versioned Jackson Smile binary stored in the EVENT_DATA_BIN column, see {@link BinaryPortalEventCodec}
+     */
+    SMILE;
+}
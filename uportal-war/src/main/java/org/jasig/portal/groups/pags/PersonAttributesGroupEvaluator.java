@@ -0,0 +1,445 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.pags;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.groups.pags.testers.AlwaysTrueTester;
+import org.jasig.portal.groups.pags.testers.BaseAttributeTester;
+import org.jasig.portal.groups.pags.testers.EagerRegexTester;
+import org.jasig.portal.groups.pags.testers.GuestUserTester;
+import org.jasig.portal.groups.pags.testers.IntegerEQTester;
+import org.jasig.portal.groups.pags.testers.IntegerGETester;
+import org.jasig.portal.groups.pags.testers.IntegerGTTester;
+import org.jasig.portal.groups.pags.testers.IntegerLETester;
+import org.jasig.portal.groups.pags.testers.IntegerLTTester;
+import org.jasig.portal.groups.pags.testers.IntegerTester;
+import org.jasig.portal.groups.pags.testers.InvertedRegexTester;
+import org.jasig.portal.groups.pags.testers.LowercasedRegexTester;
+import org.jasig.portal.groups.pags.testers.RegexTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsTester;
+import org.jasig.portal.groups.pags.testers.StringTester;
+import org.jasig.portal.groups.pags.testers.ValueExistsTester;
+import org.jasig.portal.groups.pags.testers.ValueMissingTester;
+import org.jasig.portal.security.IPerson;
+
+/**
+ * Compiled form of the PAGS {@link GroupDefinition}s, built once per configuration load. Equivalent
+ * testers from different groups are evaluated at most once per person, groups whose testers need an
+ * attribute the person doesn't have fail without running any testers and all of a person's groups
+ * are computed in a single pass.
+ * <p/>
+ * Group results that depend only on person attributes are "pure" and can be cached per set of
+ * attributes. Groups that use other testers, for example {@link org.jasig.portal.groups.pags.testers.ThemeNameEqualsIgnoreCaseTester},
+ * are "volatile" and must be evaluated on every lookup.
+ */
+class PersonAttributesGroupEvaluator {
+    private static final Log log = LogFactory.getLog(PersonAttributesGroupEvaluator.class);
+    
+    private static final byte UNKNOWN = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    
+    /**
+     * Testers that only look at person attributes, their results can be cached per set of attributes
+     */
+    private static final Set<Class<?>> PURE_TESTER_DECLARING_CLASSES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            StringTester.class, IntegerTester.class, ValueMissingTester.class, AlwaysTrueTester.class, GuestUserTester.class));
+    
+    /**
+     * Testers that always fail if the person doesn't have their attribute
+     */
+    private static final Set<Class<?>> ATTRIBUTE_REQUIRED_DECLARING_CLASSES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            StringTester.class, IntegerTester.class));
+    
+    /**
+     * Attribute testers whose only state is their attribute name and test value, instances of these exact classes
+     * with the same attribute and test value always return the same result and can share a slot
+     */
+    private static final Set<Class<?>> SHAREABLE_TESTER_CLASSES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            StringEqualsTester.class, StringEqualsIgnoreCaseTester.class, ValueExistsTester.class, 
+            RegexTester.class, EagerRegexTester.class, InvertedRegexTester.class, LowercasedRegexTester.class,
+            IntegerEQTester.class, IntegerGETester.class, IntegerGTTester.class, IntegerLETester.class, IntegerLTTester.class,
+            ValueMissingTester.class));
+    
+    private final Map<String, Integer> groupIndex;
+    private final String[] groupKeys;
+    private final CompiledGroup[] groups;
+    
+    private final IPersonTester[] testers;
+    private final int[] testerRequiredAttributes;
+    
+    private final String[] attributeNames;
+    
+    private final int[] pureGroups;
+    private final int[] volatileGroups;
+    
+    public PersonAttributesGroupEvaluator(Map<String, GroupDefinition> groupDefinitions) {
+        final Map<String, Integer> groupIndex = new LinkedHashMap<String, Integer>();
+        for (final String key : groupDefinitions.keySet()) {
+            groupIndex.put(key, groupIndex.size());
+        }
+        this.groupIndex = groupIndex;
+        this.groupKeys = groupIndex.keySet().toArray(new String[groupIndex.size()]);
+        
+        //Deduplicate testers and index the attributes they require
+        final Map<Object, Integer> testerIndex = new HashMap<Object, Integer>();
+        final List<IPersonTester> testerList = new ArrayList<IPersonTester>();
+        final List<Integer> testerRequiredAttributeList = new ArrayList<Integer>();
+        final List<Boolean> testerPureList = new ArrayList<Boolean>();
+        final Map<String, Integer> attributeIndex = new LinkedHashMap<String, Integer>();
+        
+        final CompiledTestGroup[][] compiledTestGroups = new CompiledTestGroup[this.groupKeys.length][];
+        final boolean[] impureTests = new boolean[this.groupKeys.length];
+        for (int groupIdx = 0; groupIdx < this.groupKeys.length; groupIdx++) {
+            final GroupDefinition groupDefinition = groupDefinitions.get(this.groupKeys[groupIdx]);
+            final List<TestGroup> testGroups = groupDefinition.getTestGroups();
+            
+            compiledTestGroups[groupIdx] = new CompiledTestGroup[testGroups.size()];
+            for (int testGroupIdx = 0; testGroupIdx < testGroups.size(); testGroupIdx++) {
+                final List<IPersonTester> tests = testGroups.get(testGroupIdx).getTests();
+                
+                final int[] testerSlots = new int[tests.size()];
+                final Set<Integer> requiredAttributes = new LinkedHashSet<Integer>();
+                for (int testIdx = 0; testIdx < tests.size(); testIdx++) {
+                    final IPersonTester tester = tests.get(testIdx);
+                    if (tester == null) {
+                        //A missing tester fails the test group
+                        testerSlots[testIdx] = -1;
+                        continue;
+                    }
+                    
+                    final Object testerKey = getTesterKey(tester);
+                    Integer slot = testerIndex.get(testerKey);
+                    if (slot == null) {
+                        slot = testerList.size();
+                        testerIndex.put(testerKey, slot);
+                        testerList.add(tester);
+                        
+                        final Class<?> declaringClass = getTestDeclaringClass(tester);
+                        testerPureList.add(PURE_TESTER_DECLARING_CLASSES.contains(declaringClass));
+                        if (ATTRIBUTE_REQUIRED_DECLARING_CLASSES.contains(declaringClass)) {
+                            final String attributeName = ((BaseAttributeTester) tester).getAttributeName();
+                            Integer attributeIdx = attributeIndex.get(attributeName);
+                            if (attributeIdx == null) {
+                                attributeIdx = attributeIndex.size();
+                                attributeIndex.put(attributeName, attributeIdx);
+                            }
+                            testerRequiredAttributeList.add(attributeIdx);
+                        }
+                        else {
+                            testerRequiredAttributeList.add(-1);
+                        }
+                    }
+                    
+                    testerSlots[testIdx] = slot;
+                    impureTests[groupIdx] |= !testerPureList.get(slot);
+                    
+                    final int requiredAttribute = testerRequiredAttributeList.get(slot);
+                    if (requiredAttribute >= 0) {
+                        requiredAttributes.add(requiredAttribute);
+                    }
+                }
+                
+                compiledTestGroups[groupIdx][testGroupIdx] = new CompiledTestGroup(testerSlots, toArray(requiredAttributes));
+            }
+        }
+        
+        this.testers = testerList.toArray(new IPersonTester[testerList.size()]);
+        this.testerRequiredAttributes = toArray(testerRequiredAttributeList);
+        this.attributeNames = attributeIndex.keySet().toArray(new String[attributeIndex.size()]);
+        
+        //Resolve the parents of each group, membership requires passing the tests of all ancestors
+        final List<Set<Integer>> parents = new ArrayList<Set<Integer>>(this.groupKeys.length);
+        for (int groupIdx = 0; groupIdx < this.groupKeys.length; groupIdx++) {
+            parents.add(new LinkedHashSet<Integer>());
+        }
+        for (int groupIdx = 0; groupIdx < this.groupKeys.length; groupIdx++) {
+            final GroupDefinition groupDefinition = groupDefinitions.get(this.groupKeys[groupIdx]);
+            for (final String memberKey : groupDefinition.getMembers()) {
+                final Integer memberIdx = groupIndex.get(memberKey);
+                if (memberIdx != null) {
+                    parents.get(memberIdx).add(groupIdx);
+                }
+            }
+        }
+        
+        this.groups = new CompiledGroup[this.groupKeys.length];
+        final List<Integer> pureGroupList = new ArrayList<Integer>();
+        final List<Integer> volatileGroupList = new ArrayList<Integer>();
+        for (int groupIdx = 0; groupIdx < this.groupKeys.length; groupIdx++) {
+            final Set<Integer> ancestors = new LinkedHashSet<Integer>();
+            collectAncestors(groupIdx, parents, ancestors);
+            ancestors.remove(groupIdx);
+            
+            boolean groupVolatile = impureTests[groupIdx];
+            for (final Integer ancestorIdx : ancestors) {
+                groupVolatile |= impureTests[ancestorIdx];
+            }
+            
+            this.groups[groupIdx] = new CompiledGroup(compiledTestGroups[groupIdx], toArray(ancestors), groupVolatile);
+            if (groupVolatile) {
+                volatileGroupList.add(groupIdx);
+            }
+            else {
+                pureGroupList.add(groupIdx);
+            }
+        }
+        
+        this.pureGroups = toArray(pureGroupList);
+        this.volatileGroups = toArray(volatileGroupList);
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Compiled " + this.groupKeys.length + " PAGS groups using " + this.testers.length + 
+                    " unique testers over " + this.attributeNames.length + " required attributes, " + 
+                    this.volatileGroups.length + " groups must be evaluated on every lookup");
+        }
+    }
+    
+    /**
+     * @return true if some groups can not be cached and must be evaluated with {@link #getVolatileGroupKeys(IPerson)} on every lookup
+     */
+    public boolean hasVolatileGroups() {
+        return this.volatileGroups.length > 0;
+    }
+    
+    /**
+     * @return true if membership in the group depends on more than the person's attributes, false for pure or unknown groups
+     */
+    public boolean isVolatileGroup(String groupKey) {
+        final Integer groupIdx = this.groupIndex.get(groupKey);
+        return groupIdx != null && this.groups[groupIdx].volatileGroup;
+    }
+    
+    /**
+     * @return true if the person is a member of the group, only the group and its ancestors are evaluated
+     */
+    public boolean isMember(IPerson person, String groupKey) {
+        final Integer groupIdx = this.groupIndex.get(groupKey);
+        return groupIdx != null && new Evaluation(person).isMember(groupIdx);
+    }
+    
+    /**
+     * @return Keys of the groups the person is a member of whose membership depends only on the person's attributes
+     */
+    public Set<String> getPureGroupKeys(IPerson person) {
+        return new Evaluation(person).evaluate(this.pureGroups);
+    }
+    
+    /**
+     * @return Keys of the groups the person is a member of whose membership depends on more than the person's attributes
+     */
+    public Set<String> getVolatileGroupKeys(IPerson person) {
+        if (this.volatileGroups.length == 0) {
+            return new HashSet<String>();
+        }
+        return new Evaluation(person).evaluate(this.volatileGroups);
+    }
+    
+    /**
+     * @return Keys of all the groups the person is a member of
+     */
+    public Set<String> getGroupKeys(IPerson person) {
+        final Evaluation evaluation = new Evaluation(person);
+        final Set<String> groupKeys = evaluation.evaluate(this.pureGroups);
+        groupKeys.addAll(evaluation.evaluate(this.volatileGroups));
+        return groupKeys;
+    }
+    
+    /**
+     * Known attribute testers with the same type, attribute and test value always return the same result. Any
+     * other tester, including subclasses that may add their own configuration, is only shared with itself.
+     */
+    private static Object getTesterKey(IPersonTester tester) {
+        if (SHAREABLE_TESTER_CLASSES.contains(tester.getClass())) {
+            final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+            return Arrays.asList(tester.getClass(), attributeTester.getAttributeName(), attributeTester.getTestValue());
+        }
+        return tester;
+    }
+    
+    private static Class<?> getTestDeclaringClass(IPersonTester tester) {
+        try {
+            final Method testMethod = tester.getClass().getMethod("test", IPerson.class);
+            return testMethod.getDeclaringClass();
+        }
+        catch (NoSuchMethodException e) {
+            //Can't happen, test(IPerson) is defined by IPersonTester
+            return tester.getClass();
+        }
+    }
+    
+    private static void collectAncestors(int groupIdx, List<Set<Integer>> parents, Set<Integer> ancestors) {
+        for (final Integer parentIdx : parents.get(groupIdx)) {
+            //Guard against membership cycles
+            if (ancestors.add(parentIdx)) {
+                collectAncestors(parentIdx, parents, ancestors);
+            }
+        }
+    }
+    
+    private static int[] toArray(Collection<Integer> values) {
+        final int[] array = new int[values.size()];
+        int idx = 0;
+        for (final Integer value : values) {
+            array[idx++] = value;
+        }
+        return array;
+    }
+    
+    /**
+     * State for evaluating the groups of a single person, tester and group results are shared across all groups
+     */
+    private final class Evaluation {
+        private final IPerson person;
+        private final byte[] attributePresent = new byte[attributeNames.length];
+        private final byte[] testerResults = new byte[testers.length];
+        private final byte[] groupTestResults = new byte[groups.length];
+        
+        public Evaluation(IPerson person) {
+            this.person = person;
+        }
+        
+        public Set<String> evaluate(int[] groupIdxs) {
+            final Set<String> groupKeys = new HashSet<String>();
+            for (final int groupIdx : groupIdxs) {
+                if (this.isMember(groupIdx)) {
+                    groupKeys.add(PersonAttributesGroupEvaluator.this.groupKeys[groupIdx]);
+                }
+            }
+            return groupKeys;
+        }
+        
+        private boolean isMember(int groupIdx) {
+            final CompiledGroup group = groups[groupIdx];
+            if (group.testGroups.length == 0 || !this.testGroup(groupIdx)) {
+                return false;
+            }
+            
+            for (final int ancestorIdx : group.ancestors) {
+                if (!this.testGroup(ancestorIdx)) {
+                    if (log.isWarnEnabled()) {
+                        log.warn("PAGS group=" + groupKeys[groupIdx] + " contained person=" + this.person.getUserName() + 
+                                ", but the person failed to be contained in ancesters of this group (parentGroup=" + 
+                                groupKeys[ancestorIdx] + "). This may indicate a misconfigured PAGS group store. " +
+                                "Please check PAGSGroupStoreConfig.xml.");
+                    }
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        /**
+         * Same as {@link GroupDefinition#test(IPerson)}, a group with no test groups passes
+         */
+        private boolean testGroup(int groupIdx) {
+            final byte cached = this.groupTestResults[groupIdx];
+            if (cached != UNKNOWN) {
+                return cached == TRUE;
+            }
+            
+            final CompiledTestGroup[] testGroups = groups[groupIdx].testGroups;
+            boolean result = testGroups.length == 0;
+            for (int i = 0; i < testGroups.length && !result; i++) {
+                result = this.testTestGroup(testGroups[i]);
+            }
+            
+            this.groupTestResults[groupIdx] = result ? TRUE : FALSE;
+            return result;
+        }
+        
+        private boolean testTestGroup(CompiledTestGroup testGroup) {
+            for (final int attributeIdx : testGroup.requiredAttributes) {
+                if (!this.isAttributePresent(attributeIdx)) {
+                    return false;
+                }
+            }
+            
+            for (final int testerSlot : testGroup.testerSlots) {
+                if (testerSlot < 0 || !this.test(testerSlot)) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        private boolean test(int testerSlot) {
+            final byte cached = this.testerResults[testerSlot];
+            if (cached != UNKNOWN) {
+                return cached == TRUE;
+            }
+            
+            final int attributeIdx = testerRequiredAttributes[testerSlot];
+            final boolean result = (attributeIdx < 0 || this.isAttributePresent(attributeIdx)) && testers[testerSlot].test(this.person);
+            
+            this.testerResults[testerSlot] = result ? TRUE : FALSE;
+            return result;
+        }
+        
+        private boolean isAttributePresent(int attributeIdx) {
+            final byte cached = this.attributePresent[attributeIdx];
+            if (cached != UNKNOWN) {
+                return cached == TRUE;
+            }
+            
+            final boolean present = this.person.getAttributeValues(attributeNames[attributeIdx]) != null;
+            this.attributePresent[attributeIdx] = present ? TRUE : FALSE;
+            return present;
+        }
+    }
+    
+    private static final class CompiledGroup {
+        private final CompiledTestGroup[] testGroups;
+        private final int[] ancestors;
+        private final boolean volatileGroup;
+        
+        public CompiledGroup(CompiledTestGroup[] testGroups, int[] ancestors, boolean volatileGroup) {
+            this.testGroups = testGroups;
+            this.ancestors = ancestors;
+            this.volatileGroup = volatileGroup;
+        }
+    }
+    
+    private static final class CompiledTestGroup {
+        private final int[] testerSlots;
+        private final int[] requiredAttributes;
+        
+        public CompiledTestGroup(int[] testerSlots, int[] requiredAttributes) {
+            this.testerSlots = testerSlots;
+            this.requiredAttributes = requiredAttributes;
+        }
+    }
+}
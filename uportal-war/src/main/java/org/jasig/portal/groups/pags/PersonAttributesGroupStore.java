@@ -51,6 +51,10 @@ import org.jasig.portal.spring.locator.PersonAttributeDaoLocator;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
 
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * The Person Attributes Group Store uses attributes stored in the IPerson object to determine
  * group membership.  It can use attributes from any data source supported by the PersonDirectory
@@ -68,6 +72,8 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
    private Map groupDefinitions;
    private Map<String, IEntityGroup> groups;
    private Map<String, List> containingGroups;
+   private PersonAttributesGroupEvaluator evaluator;
+   private Cache<String, CachedMembership> membershipCache;
       
    public PersonAttributesGroupStore() {
       groups = new HashMap<String, IEntityGroup>();
@@ -77,6 +83,8 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
          props.load(PersonAttributesGroupStore.class.getResourceAsStream("/properties/groups/pags.properties"));
          IPersonAttributesConfiguration config = getConfig(props.getProperty("org.jasig.portal.groups.pags.PersonAttributesGroupStore.configurationClass"));
          groupDefinitions = config.getConfig();
+         int membershipCacheSize = Integer.parseInt(props.getProperty("org.jasig.portal.groups.pags.PersonAttributesGroupStore.membershipCacheSize", "10000"));
+         membershipCache = CacheBuilder.newBuilder().maximumSize(membershipCacheSize).build();
          initGroups(); 
       } catch ( Exception e ) {
          throw new RuntimeException("Problem initializing groups", e);
@@ -106,6 +114,7 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
            cachePut(group);
        }
        cacheContainingGroupsForGroups();
+       evaluator = new PersonAttributesGroupEvaluator(groupDefinitions);
    }
    
    private IEntityGroup cacheGet(String key) {
@@ -128,24 +137,56 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
       {
          if (member.getEntityType() != IPERSON_CLASS) 
              { return false; }
-         IPerson person = null;
-         try {
-             IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
-             final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+         final String groupKey = group.getLocalKey();
+         Set<String> groupKeys = getMemberGroupKeys(member, groupKey);
+         return groupKeys != null && groupKeys.contains(groupKey);
+      }
+   }
 
-             RestrictedPerson rp = PersonFactory.createRestrictedPerson();
-             if (personAttributes != null) {
-                 rp.setAttributes(personAttributes.getAttributes());
-             }
-             
-             person = rp;
-         }
-         catch (Exception ex) { 
-             log.error("Exception acquiring attributes for member " + member + " while checking if group " + group + " contains this member.", ex);
-             return false; 
-         }
-         return testRecursively(groupDef, person, member);
+   /**
+    * Computes the keys of all the groups the member is in with a single pass over the compiled
+    * group definitions. Results that depend only on the person's attributes are cached until
+    * the attributes change.
+    * 
+    * @param groupKey If not null only the membership of this group is needed, other volatile groups are not evaluated
+    * @return The member's group keys, null if the member's attributes could not be retrieved
+    */
+   private Set<String> getMemberGroupKeys(IGroupMember member, String groupKey) {
+      Map<String, List<Object>> attributes = null;
+      RestrictedPerson person = null;
+      try {
+          IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+          final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+
+          person = PersonFactory.createRestrictedPerson();
+          if (personAttributes != null) {
+              attributes = personAttributes.getAttributes();
+              person.setAttributes(attributes);
+          }
+      }
+      catch (Exception ex) { 
+          log.error("Exception acquiring attributes for member " + member + " while computing its containing groups.", ex);
+          return null; 
       }
+      
+      final String memberKey = member.getKey();
+      CachedMembership membership = membershipCache.getIfPresent(memberKey);
+      if (membership == null || !membership.isFor(attributes)) {
+          membership = new CachedMembership(attributes, evaluator.getPureGroupKeys(person));
+          membershipCache.put(memberKey, membership);
+      }
+      
+      if (!evaluator.hasVolatileGroups() || (groupKey != null && !evaluator.isVolatileGroup(groupKey))) {
+          return membership.groupKeys;
+      }
+      
+      if (groupKey != null) {
+          return evaluator.isMember(person, groupKey) ? Collections.singleton(groupKey) : Collections.<String>emptySet();
+      }
+      
+      final Set<String> groupKeys = new HashSet<String>(membership.groupKeys);
+      groupKeys.addAll(evaluator.getVolatileGroupKeys(person));
+      return groupKeys;
    }
 
    public void delete(IEntityGroup group) throws GroupsException {
@@ -183,53 +224,6 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
        }
    }
 
-   private boolean testRecursively(GroupDefinition groupDef, IPerson person,
-       IGroupMember member)
-   throws GroupsException {
-       if ( ! groupDef.contains(person) )
-           { return false;}
-       else
-       {
-           IEntityGroup group = cacheGet(groupDef.getKey());
-           IEntityGroup parentGroup = null;
-           Set<IEntityGroup> allParents = primGetAllContainingGroups(group, new HashSet<IEntityGroup>());
-           boolean testPassed = true;
-           for (Iterator<IEntityGroup> i=allParents.iterator(); i.hasNext() && testPassed;)
-           {
-               parentGroup = i.next();
-               GroupDefinition parentGroupDef = 
-                 (GroupDefinition) groupDefinitions.get(parentGroup.getLocalKey());
-               testPassed = parentGroupDef.test(person);               
-           }
-           
-           if (!testPassed && log.isWarnEnabled()) {
-               StringBuffer sb = new StringBuffer();
-               sb.append("PAGS group=").append(group.getKey());
-               sb.append(" contained person=").append(member.getKey());
-               sb.append(", but the person failed to be contained in ");
-               sb.append("ancesters of this group");
-               sb.append((parentGroup != null ? " (parentGroup="+parentGroup.getKey()+")" : ""));
-               sb.append(". This may indicate a ");
-               sb.append("misconfigured PAGS group ");
-               sb.append("store. Please check PAGSGroupStoreConfig.xml.");
-               log.warn(sb.toString());
-           }
-           return testPassed;
-       }
-   }
-   private java.util.Set<IEntityGroup> primGetAllContainingGroups(IEntityGroup group, Set<IEntityGroup> s)
-   throws GroupsException
-   {
-       Iterator i = findContainingGroups(group);
-       while ( i.hasNext() )
-       {
-           IEntityGroup parentGroup = (IEntityGroup) i.next();
-           s.add(parentGroup);
-           primGetAllContainingGroups(parentGroup, s);
-       }
-       return s;
-   }
-
    public Iterator findContainingGroups(IGroupMember member) 
    throws GroupsException 
    {
@@ -248,10 +242,15 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
    private Iterator<IEntityGroup> findContainingGroupsForEntity(IEntity member)
    throws GroupsException {
        List<IEntityGroup> results = new ArrayList<IEntityGroup>();
-       for (Iterator<IEntityGroup> i = groups.values().iterator(); i.hasNext(); ) {
-          IEntityGroup group = i.next();
-          if ( contains(group, member)) 
-              { results.add(group); }
+       if (member.getEntityType() != IPERSON_CLASS)
+           { return results.iterator(); }
+       Set<String> groupKeys = getMemberGroupKeys(member, null);
+       if (groupKeys != null) {
+          for (Iterator<String> i = groupKeys.iterator(); i.hasNext(); ) {
+             IEntityGroup group = cacheGet(i.next());
+             if (group != null)
+                 { results.add(group); }
+          }
        }
        return results.iterator();
    }
@@ -356,4 +355,20 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
       return EMPTY_SEARCH_RESULTS;
    }
 
-}
\ No newline at end of file
+   /**
+    * Group keys computed for a member along with the attributes they were computed from
+    */
+   private static final class CachedMembership {
+      private final Map<String, List<Object>> attributes;
+      private final Set<String> groupKeys;
+      
+      public CachedMembership(Map<String, List<Object>> attributes, Set<String> groupKeys) {
+         this.attributes = attributes != null ? new HashMap<String, List<Object>>(attributes) : null;
+         this.groupKeys = Collections.unmodifiableSet(groupKeys);
+      }
+      
+      public boolean isFor(Map<String, List<Object>> attributes) {
+         return Objects.equal(this.attributes, attributes);
+      }
+   }
+}
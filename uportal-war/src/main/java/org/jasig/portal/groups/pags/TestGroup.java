@@ -36,6 +36,10 @@ public class TestGroup {
         tests.add(test);
     }
     
+    public List<IPersonTester> getTests() {
+        return tests;
+    }
+    
     public boolean test(IPerson person) {
         for (Iterator<IPersonTester> i = tests.iterator(); i.hasNext(); ) {
             IPersonTester tester = i.next();
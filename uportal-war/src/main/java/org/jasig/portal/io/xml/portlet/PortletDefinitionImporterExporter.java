@@ -40,9 +40,11 @@ import org.jasig.portal.io.xml.AbstractJaxbDataHandler;
 import org.jasig.portal.io.xml.IPortalData;
 import org.jasig.portal.io.xml.IPortalDataType;
 import org.jasig.portal.io.xml.PortalDataKey;
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
 import org.jasig.portal.portlet.dao.jpa.PortletDefinitionParameterImpl;
 import org.jasig.portal.portlet.dao.jpa.PortletPreferenceImpl;
+import org.jasig.portal.portlet.marketplace.IMarketplaceService;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionId;
 import org.jasig.portal.portlet.om.IPortletDefinitionParameter;
@@ -51,6 +53,7 @@ import org.jasig.portal.portlet.om.IPortletPreference;
 import org.jasig.portal.portlet.om.IPortletType;
 import org.jasig.portal.portlet.om.PortletCategory;
 import org.jasig.portal.portlet.registry.IPortletCategoryRegistry;
+import org.jasig.portal.portlet.registry.IPortletDefinitionSearchIndex;
 import org.jasig.portal.portlet.registry.IPortletTypeRegistry;
 import org.jasig.portal.security.*;
 import org.jasig.portal.services.AuthorizationService;
@@ -74,6 +77,9 @@ public class PortletDefinitionImporterExporter
     private IPortletTypeRegistry portletTypeRegistry;
     private IPortletDefinitionDao portletDefinitionDao;
     private IPortletCategoryRegistry portletCategoryRegistry;
+    private IPortletDefinitionSearchIndex portletDefinitionSearchIndex;
+    private IMarketplaceService marketplaceService;
+    private IUserLayoutVersionService userLayoutVersionService;
     private boolean errorOnChannel = true;
 
     @Value("${org.jasig.portal.io.errorOnChannel}")
@@ -100,6 +106,21 @@ public class PortletDefinitionImporterExporter
     public void setPortletCategoryRegistry(IPortletCategoryRegistry portletCategoryRegistry) {
         this.portletCategoryRegistry = portletCategoryRegistry;
     }
+
+    @Autowired(required = false)
+    public void setPortletDefinitionSearchIndex(IPortletDefinitionSearchIndex portletDefinitionSearchIndex) {
+        this.portletDefinitionSearchIndex = portletDefinitionSearchIndex;
+    }
+
+    @Autowired(required = false)
+    public void setMarketplaceService(IMarketplaceService marketplaceService) {
+        this.marketplaceService = marketplaceService;
+    }
+
+    @Autowired
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
     
     @Override
     public Set<PortalDataKey> getImportDataKeys() {
@@ -272,6 +293,13 @@ public class PortletDefinitionImporterExporter
     	
 		ExternalPortletDefinition result = convert(def);
 		this.portletDefinitionDao.deletePortletDefinition(def);
+		if (this.portletDefinitionSearchIndex != null) {
+		    this.portletDefinitionSearchIndex.removePortletDefinition(def);
+		}
+		if (this.marketplaceService != null) {
+		    this.marketplaceService.portletDefinitionChanged(def);
+		}
+		this.userLayoutVersionService.incrementAllLayoutVersions();
 		return result;
 	}
 
@@ -337,6 +365,16 @@ public class PortletDefinitionImporterExporter
             upm.addPermissions(permissions.toArray(new IPermission[permissions.size()]));
         }
 
+        if (this.portletDefinitionSearchIndex != null) {
+            this.portletDefinitionSearchIndex.indexPortletDefinition(definition);
+        }
+        if (this.marketplaceService != null) {
+            this.marketplaceService.portletDefinitionChanged(definition);
+        }
+        
+        //Titles, descriptions and icons of portlets are part of every layout containing them
+        this.userLayoutVersionService.incrementAllLayoutVersions();
+
         if (logger.isDebugEnabled()) {
             logger.debug( "Portlet " + defId + " has been " + 
                     (newChannel ? "published" : "modified") + ".");
@@ -370,6 +408,13 @@ public class PortletDefinitionImporterExporter
 
         // delete the channel
         portletDefinitionDao.deletePortletDefinition(portletDef);
+        if (this.portletDefinitionSearchIndex != null) {
+            this.portletDefinitionSearchIndex.removePortletDefinition(portletDef);
+        }
+        if (this.marketplaceService != null) {
+            this.marketplaceService.portletDefinitionChanged(portletDef);
+        }
+        this.userLayoutVersionService.incrementAllLayoutVersions();
     }
 
     @Override
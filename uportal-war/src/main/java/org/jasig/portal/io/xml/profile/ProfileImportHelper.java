@@ -19,6 +19,7 @@
 
 package org.jasig.portal.io.xml.profile;
 
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.layout.dao.IStylesheetDescriptorDao;
 import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
@@ -33,6 +34,7 @@ import org.jasig.portal.layout.om.IStylesheetUserPreferences;
  */
 public class ProfileImportHelper {
     private final IStylesheetUserPreferencesDao stylesheetUserPreferencesDao;
+    private final IUserLayoutVersionService userLayoutVersionService;
     private final IStylesheetDescriptor structureStylesheetDescriptor;
     private final IStylesheetDescriptor themeStylesheetDescriptor;
     private final int personId;
@@ -43,10 +45,11 @@ public class ProfileImportHelper {
 
     public ProfileImportHelper(
             IStylesheetDescriptorDao stylesheetDescriptorDao, IStylesheetUserPreferencesDao stylesheetUserPreferencesDao, 
-            long structureStylesheetId, long themeStylesheetId, 
+            IUserLayoutVersionService userLayoutVersionService, long structureStylesheetId, long themeStylesheetId, 
             int personId, int profileId) {
         
         this.stylesheetUserPreferencesDao = stylesheetUserPreferencesDao;
+        this.userLayoutVersionService = userLayoutVersionService;
         this.structureStylesheetDescriptor = stylesheetDescriptorDao.getStylesheetDescriptor(structureStylesheetId);
         this.themeStylesheetDescriptor = stylesheetDescriptorDao.getStylesheetDescriptor(themeStylesheetId);
         this.personId = personId;
@@ -77,6 +80,10 @@ public class ProfileImportHelper {
         if (this.themeStylesheetUserPreferences != null) {
             this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(this.themeStylesheetUserPreferences);
         }
+        
+        if (this.structureStylesheetUserPreferences != null || this.themeStylesheetUserPreferences != null) {
+            this.userLayoutVersionService.incrementLayoutVersion(this.personId, this.profileId);
+        }
     }
     
     protected IStylesheetUserPreferences getCreateStylesheetUserPreferences(IStylesheetDescriptor stylesheetDescriptor) {
@@ -39,13 +39,24 @@ import org.jasig.portal.url.IUrlSyntaxProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 public class JsonLayoutRenderingPipeline implements IPortalRenderingPipeline {
     public static final String CHARACTER_SET = "UTF-8";
     
+    /**
+     * Request parameter used to pick the renderer for a single request, one of {@link #XSLT_RENDERER}
+     * or {@link #STREAMING_RENDERER}
+     */
+    public static final String RENDERER_PARAMETER = "renderer";
+    public static final String XSLT_RENDERER = "xslt";
+    public static final String STREAMING_RENDERER = "streaming";
+    
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private CharacterPipelineComponent pipeline;
+    private CharacterPipelineComponent streamingPipeline;
+    private String defaultRenderer = XSLT_RENDERER;
     private IPortletExecutionEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
     
@@ -68,6 +79,38 @@ public class JsonLayoutRenderingPipeline implements IPortalRenderingPipeline {
         this.pipeline = pipeline;
     }
 
+    /**
+     * Optional root element of the pipeline that renders the layout without XSLT, see {@link StreamingJsonLayoutComponent}.
+     * This element MUST only return {@link CharacterEventTypes#CHARACTER} type events.
+     */
+    public void setStreamingPipeline(CharacterPipelineComponent streamingPipeline) {
+        this.streamingPipeline = streamingPipeline;
+    }
+
+    /**
+     * Renderer used when the request doesn't specify one with {@link #RENDERER_PARAMETER}, defaults to {@link #XSLT_RENDERER}
+     */
+    @Value("${org.jasig.portal.json.rendering.JsonLayoutRenderingPipeline.defaultRenderer:xslt}")
+    public void setDefaultRenderer(String defaultRenderer) {
+        this.defaultRenderer = defaultRenderer;
+    }
+
+    /**
+     * @return The pipeline for the renderer selected by the request or the default renderer
+     */
+    protected CharacterPipelineComponent getPipeline(HttpServletRequest req) {
+        String renderer = req.getParameter(RENDERER_PARAMETER);
+        if (renderer == null) {
+            renderer = this.defaultRenderer;
+        }
+        
+        if (STREAMING_RENDERER.equals(renderer) && this.streamingPipeline != null) {
+            return this.streamingPipeline;
+        }
+        
+        return this.pipeline;
+    }
+
     @Override
     public void renderState(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
         //Disable page caching
@@ -77,7 +120,7 @@ public class JsonLayoutRenderingPipeline implements IPortalRenderingPipeline {
         
         final long startTime = System.nanoTime();
 
-        final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader = this.pipeline.getEventReader(req, res);
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader = this.getPipeline(req).getEventReader(req, res);
 
         // set the response mime type
         final String contentType = "application/json; charset=" + CHARACTER_SET;
@@ -92,10 +135,11 @@ public class JsonLayoutRenderingPipeline implements IPortalRenderingPipeline {
             
             final String data = ((CharacterDataEvent)event).getData();
             writer.print(data);
-            writer.flush();
-            res.flushBuffer();
         }
         
+        //Not flushed per event so the entity tag filter can answer 304 for an unchanged layout
+        writer.flush();
+        
         final long executionTime = System.nanoTime() - startTime;
         
         final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(req);
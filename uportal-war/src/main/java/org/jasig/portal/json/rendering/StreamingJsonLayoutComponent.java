@@ -0,0 +1,422 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.json.rendering;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.IUserPreferencesManager;
+import org.jasig.portal.character.stream.CharacterEventBufferReader;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletLinkPlaceholderEventImpl;
+import org.jasig.portal.character.stream.events.PortletNewItemCountPlaceholderEventImpl;
+import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.layout.IUserLayoutManager;
+import org.jasig.portal.layout.dlm.Constants;
+import org.jasig.portal.layout.node.IUserLayoutChannelDescription;
+import org.jasig.portal.layout.node.IUserLayoutFolderDescription;
+import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
+import org.jasig.portal.layout.node.IUserLayoutNodeDescription.LayoutNodeType;
+import org.jasig.portal.portlet.om.IPortletWindow;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.portlet.rendering.IPortletRenderer;
+import org.jasig.portal.rendering.CharacterPipelineComponent;
+import org.jasig.portal.rendering.PipelineEventReader;
+import org.jasig.portal.rendering.PipelineEventReaderImpl;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.IdentitySwapperManager;
+import org.jasig.portal.url.IPortalUrlBuilder;
+import org.jasig.portal.url.IPortalUrlProvider;
+import org.jasig.portal.url.IPortletUrlBuilder;
+import org.jasig.portal.url.UrlType;
+import org.jasig.portal.user.IUserInstance;
+import org.jasig.portal.user.IUserInstanceManager;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.MessageSource;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Renders the layout JSON directly from the user's {@link IUserLayoutManager}, without the
+ * structure and theme XSLT transforms of the StAX based JSON pipeline. Produces the same document
+ * as the DLMMobileColumns structure and JsonLayout theme stylesheets, the portlet link and new item
+ * count are emitted as placeholder events so the character stream only depends on the layout
+ * version and can be cached by a {@link org.jasig.portal.rendering.cache.CachingCharacterPipelineComponent}.
+ * <p>
+ * The portlet filtering rules are hard coded copies of the ones in the structure stylesheet,
+ * layout/structure/mobile-column/mobile-column.xsl, and must be kept in sync with it:
+ * <ul>
+ *  <li>Channels with the hideFromMobile parameter set to true are never rendered.</li>
+ *  <li>While impersonating, tab channels with the blockImpersonation parameter set to true are dropped. The
+ *  stylesheet turns them into blocked-channel elements, which json.xsl does not render. Header and footer
+ *  channels are copied without this check.</li>
+ * </ul>
+ * Changes to those rules in a customized mobile-column.xsl are not picked up by this component, use the xslt
+ * renderer for such layouts.
+ *
+ * @see JsonLayoutRenderingPipeline
+ */
+public class StreamingJsonLayoutComponent implements CharacterPipelineComponent {
+    static final String HIDE_FROM_MOBILE_PARAMETER = "hideFromMobile";
+    static final String BLOCK_IMPERSONATION_PARAMETER = "blockImpersonation";
+    static final String MOBILE_ICON_URL_PARAMETER = "mobileIconUrl";
+    static final String DEFAULT_ICON_PATH = "/media/skins/icons/mobile/default.png";
+    static final String DEFAULT_LOCALE = "en";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private IUserInstanceManager userInstanceManager;
+    private IPortletWindowRegistry portletWindowRegistry;
+    private IPortalUrlProvider portalUrlProvider;
+    private IdentitySwapperManager identitySwapperManager;
+    private MessageSource messageSource;
+
+    @Autowired
+    public void setUserInstanceManager(IUserInstanceManager userInstanceManager) {
+        this.userInstanceManager = userInstanceManager;
+    }
+
+    @Autowired
+    public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
+        this.portletWindowRegistry = portletWindowRegistry;
+    }
+
+    @Autowired
+    public void setPortalUrlProvider(IPortalUrlProvider portalUrlProvider) {
+        this.portalUrlProvider = portalUrlProvider;
+    }
+
+    @Autowired
+    public void setIdentitySwapperManager(IdentitySwapperManager identitySwapperManager) {
+        this.identitySwapperManager = identitySwapperManager;
+    }
+
+    @Autowired
+    public void setMessageSource(MessageSource messageSource) {
+        this.messageSource = messageSource;
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
+        final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
+        final IUserLayoutManager userLayoutManager = this.getUserLayoutManager(userInstance);
+        final String userName = userInstance.getPerson().getUserName();
+        final String locale = this.getLocale(userInstance);
+        final boolean impersonating = this.identitySwapperManager.isImpersonating(request);
+
+        return CacheKey.build(this.getClass().getName(), userLayoutManager.getCacheKey(), userName, locale,
+                impersonating, request.getContextPath());
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.rendering.PipelineComponent#getEventReader(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public PipelineEventReader<CharacterEventReader, CharacterEvent> getEventReader(HttpServletRequest request, HttpServletResponse response) {
+        final List<CharacterEvent> events;
+        try {
+            events = this.renderLayout(request);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Failed to render layout JSON", e);
+        }
+
+        final CharacterEventBufferReader eventReader = new CharacterEventBufferReader(events.listIterator());
+        return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(eventReader);
+    }
+
+    protected List<CharacterEvent> renderLayout(HttpServletRequest request) throws IOException {
+        final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
+        final IPerson person = userInstance.getPerson();
+        final IUserLayoutManager userLayoutManager = this.getUserLayoutManager(userInstance);
+        final String locale = this.getLocale(userInstance);
+        final boolean impersonating = this.identitySwapperManager.isImpersonating(request);
+
+        final CharacterEventWriter eventWriter = new CharacterEventWriter();
+        final JsonGenerator jsonGenerator = JSON_FACTORY.createGenerator(eventWriter);
+
+        //Header and footer folders contribute portlets to the header and footer, all other folders are tabs
+        final List<IUserLayoutFolderDescription> headers = new ArrayList<IUserLayoutFolderDescription>();
+        final List<IUserLayoutFolderDescription> tabs = new ArrayList<IUserLayoutFolderDescription>();
+        final List<IUserLayoutFolderDescription> footers = new ArrayList<IUserLayoutFolderDescription>();
+        final String rootFolderId = userLayoutManager.getRootFolderId();
+        for (final Enumeration<String> childIds = userLayoutManager.getChildIds(rootFolderId); childIds.hasMoreElements();) {
+            final IUserLayoutNodeDescription node = userLayoutManager.getNode(childIds.nextElement());
+            if (node.getType() != LayoutNodeType.FOLDER) {
+                continue;
+            }
+
+            final IUserLayoutFolderDescription folder = (IUserLayoutFolderDescription) node;
+            final String folderType = folder.getFolderType();
+            if (IUserLayoutFolderDescription.HEADER_TYPE.equals(folderType)) {
+                headers.add(folder);
+            }
+            else if (IUserLayoutFolderDescription.FOOTER_TYPE.equals(folderType)) {
+                footers.add(folder);
+            }
+            else {
+                tabs.add(folder);
+            }
+        }
+
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeStringField("user", person.getUserName());
+        jsonGenerator.writeStringField("locale", locale);
+
+        jsonGenerator.writeObjectFieldStart("layout");
+
+        jsonGenerator.writeObjectFieldStart("header");
+        this.writePortlets(request, userLayoutManager, headers, false, jsonGenerator, eventWriter);
+        jsonGenerator.writeEndObject();
+
+        jsonGenerator.writeArrayFieldStart("folders");
+        for (final IUserLayoutFolderDescription tab : tabs) {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeStringField("id", tab.getId());
+            jsonGenerator.writeStringField("title", this.getTitle(tab, locale));
+            this.writePortlets(request, userLayoutManager, tab, impersonating, jsonGenerator, eventWriter);
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndArray();
+
+        jsonGenerator.writeObjectFieldStart("footer");
+        this.writePortlets(request, userLayoutManager, footers, false, jsonGenerator, eventWriter);
+        jsonGenerator.writeEndObject();
+
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeEndObject();
+        jsonGenerator.close();
+
+        return eventWriter.getEvents();
+    }
+
+    /**
+     * Write the "portlets" array for the channels in the folders
+     */
+    protected void writePortlets(HttpServletRequest request, IUserLayoutManager userLayoutManager,
+            List<IUserLayoutFolderDescription> folders, boolean impersonating,
+            JsonGenerator jsonGenerator, CharacterEventWriter eventWriter) throws IOException {
+
+        final List<IUserLayoutChannelDescription> channels = new ArrayList<IUserLayoutChannelDescription>();
+        for (final IUserLayoutFolderDescription folder : folders) {
+            this.collectChannels(userLayoutManager, folder.getId(), impersonating, channels);
+        }
+
+        this.writePortlets(request, channels, jsonGenerator, eventWriter);
+    }
+
+    /**
+     * Write the "portlets" array for the channels in the folder
+     */
+    protected void writePortlets(HttpServletRequest request, IUserLayoutManager userLayoutManager,
+            IUserLayoutFolderDescription folder, boolean impersonating,
+            JsonGenerator jsonGenerator, CharacterEventWriter eventWriter) throws IOException {
+
+        final List<IUserLayoutChannelDescription> channels = new ArrayList<IUserLayoutChannelDescription>();
+        this.collectChannels(userLayoutManager, folder.getId(), impersonating, channels);
+
+        this.writePortlets(request, channels, jsonGenerator, eventWriter);
+    }
+
+    private void writePortlets(HttpServletRequest request, List<IUserLayoutChannelDescription> channels,
+            JsonGenerator jsonGenerator, CharacterEventWriter eventWriter) throws IOException {
+
+        jsonGenerator.writeArrayFieldStart("portlets");
+        for (final IUserLayoutChannelDescription channel : channels) {
+            final String channelId = channel.getId();
+            final IPortletWindow portletWindow = this.portletWindowRegistry.getOrCreateDefaultPortletWindowByLayoutNodeId(request, channelId);
+            if (portletWindow == null) {
+                this.logger.warn("No portlet window found for layout node {}, it will not be included in the layout JSON", channelId);
+                continue;
+            }
+            final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
+
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeStringField("fname", channel.getFunctionalName());
+            jsonGenerator.writeStringField("title", channel.getTitle());
+
+            final String defaultPortletUrl = this.getDefaultPortletUrl(request, channelId, portletWindowId);
+            this.writePlaceholderField("url", new PortletLinkPlaceholderEventImpl(portletWindowId, defaultPortletUrl), jsonGenerator, eventWriter);
+
+            jsonGenerator.writeStringField("description", channel.getDescription());
+
+            this.writePlaceholderField("newItemCount", new PortletNewItemCountPlaceholderEventImpl(portletWindowId), jsonGenerator, eventWriter);
+
+            final String mobileIconUrl = channel.getParameterValue(MOBILE_ICON_URL_PARAMETER);
+            if (mobileIconUrl != null && mobileIconUrl.length() > 0) {
+                jsonGenerator.writeStringField("iconUrl", mobileIconUrl);
+            }
+            else {
+                jsonGenerator.writeStringField("iconUrl", request.getContextPath() + DEFAULT_ICON_PATH);
+            }
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndArray();
+    }
+
+    /**
+     * Write a string field whose value is filled in by a placeholder event when the stream is incorporated
+     */
+    private void writePlaceholderField(String name, CharacterEvent placeholderEvent,
+            JsonGenerator jsonGenerator, CharacterEventWriter eventWriter) throws IOException {
+
+        jsonGenerator.writeFieldName(name);
+        jsonGenerator.writeRawValue("\"");
+        jsonGenerator.flush();
+        eventWriter.addEvent(placeholderEvent);
+        jsonGenerator.writeRaw('"');
+    }
+
+    /**
+     * Collect the visible channels under the node in document order, applying the hideFromMobile and
+     * blockImpersonation rules of mobile-column.xsl
+     * 
+     * @param impersonating true to drop blockImpersonation channels, false for header and footer folders
+     */
+    protected void collectChannels(IUserLayoutManager userLayoutManager, String nodeId, boolean impersonating,
+            List<IUserLayoutChannelDescription> channels) {
+
+        for (final Enumeration<String> childIds = userLayoutManager.getChildIds(nodeId); childIds.hasMoreElements();) {
+            final String childId = childIds.nextElement();
+            final IUserLayoutNodeDescription node = userLayoutManager.getNode(childId);
+            if (node.getType() == LayoutNodeType.FOLDER) {
+                this.collectChannels(userLayoutManager, childId, impersonating, channels);
+                continue;
+            }
+
+            final IUserLayoutChannelDescription channel = (IUserLayoutChannelDescription) node;
+            if ("true".equals(channel.getParameterValue(HIDE_FROM_MOBILE_PARAMETER))) {
+                continue;
+            }
+            if (impersonating && "true".equals(channel.getParameterValue(BLOCK_IMPERSONATION_PARAMETER))) {
+                continue;
+            }
+            channels.add(channel);
+        }
+    }
+
+    /**
+     * Build the URL to the portlet in the detached window state, used if the portlet doesn't provide a link
+     */
+    protected String getDefaultPortletUrl(HttpServletRequest request, String channelId, IPortletWindowId portletWindowId) {
+        try {
+            final IPortalUrlBuilder portalUrlBuilder = this.portalUrlProvider.getPortalUrlBuilderByLayoutNode(request, channelId, UrlType.RENDER);
+            final IPortletUrlBuilder portletUrlBuilder = portalUrlBuilder.getPortletUrlBuilder(portletWindowId);
+            portletUrlBuilder.setWindowState(IPortletRenderer.DETACHED);
+            return portalUrlBuilder.getUrlString();
+        }
+        catch (Exception e) {
+            this.logger.error("Failed to create portal URL for layout node " + channelId + ". # will be used instead.", e);
+            return "#";
+        }
+    }
+
+    /**
+     * Localized title of a layout owner's folder, see {@link org.jasig.portal.security.xslt.XalanLayoutElementTitleHelper}
+     */
+    protected String getTitle(IUserLayoutFolderDescription folder, String locale) {
+        final String name = folder.getName();
+        final String id = folder.getId();
+        if (id != null && id.startsWith(Constants.FRAGMENT_ID_USER_PREFIX)) {
+            return this.messageSource.getMessage(name, new Object[] {}, name, LocaleManager.parseLocale(locale));
+        }
+        return name;
+    }
+
+    protected String getLocale(IUserInstance userInstance) {
+        final Locale[] locales = userInstance.getLocaleManager().getLocales();
+        if (locales != null && locales.length > 0 && locales[0] != null) {
+            return locales[0].toString().replace('_', '-');
+        }
+        return DEFAULT_LOCALE;
+    }
+
+    protected IUserLayoutManager getUserLayoutManager(IUserInstance userInstance) {
+        final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
+        return preferencesManager.getUserLayoutManager();
+    }
+
+    /**
+     * Collects the generated JSON into {@link CharacterEvent}s, character data between placeholders
+     * becomes a single event.
+     */
+    static final class CharacterEventWriter extends Writer {
+        private final List<CharacterEvent> events = new ArrayList<CharacterEvent>();
+        private final StringBuilder data = new StringBuilder();
+
+        /**
+         * Add a non-character event, the generator must be flushed first so all data written before
+         * the event is in the buffer
+         */
+        public void addEvent(CharacterEvent event) {
+            this.flushData();
+            this.events.add(event);
+        }
+
+        public List<CharacterEvent> getEvents() {
+            this.flushData();
+            return this.events;
+        }
+
+        private void flushData() {
+            if (this.data.length() > 0) {
+                this.events.add(CharacterDataEventImpl.create(this.data.toString()));
+                this.data.setLength(0);
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            this.data.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            this.data.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
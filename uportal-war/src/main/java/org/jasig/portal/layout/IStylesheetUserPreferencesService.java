@@ -207,6 +207,14 @@ public interface IStylesheetUserPreferencesService {
      * @see IStylesheetUserPreferences#getAllLayoutAttributeNodeIds()
      */
     public Iterable<String> getAllLayoutAttributeNodeIds(HttpServletRequest request, PreferencesScope prefScope);
+    
+    /**
+     * @return An iterable of the layout nodeIds that have session or request scoped layout attributes. Persistent
+     *      and distributed layout attributes are reflected in the {@link IUserLayoutVersionService} layout version.
+     * @param request The current request
+     * @param prefScope The stylesheet preferences scope
+     */
+    public Iterable<String> getTransientLayoutAttributeNodeIds(HttpServletRequest request, PreferencesScope prefScope);
       
     /**
       * Get all layout node ids that have the specified attribute applied to them
@@ -0,0 +1,51 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout;
+
+/**
+ * Tracks a monotonically increasing version stamp for each user layout and profile pair. The stamp changes
+ * whenever something that contributes to the user's rendered layout changes (the stored layout, a fragment the
+ * layout incorporates or the user's persistent stylesheet preferences) and can be used as an HTTP entity tag or
+ * as part of a cache key in place of hashing the layout itself.
+ */
+public interface IUserLayoutVersionService {
+    /**
+     * @return The current layout version for the user and profile, never the same value for two different states
+     *      of the layout
+     */
+    public long getLayoutVersion(int userId, int profileId);
+    
+    /**
+     * Record a change to the layout for the user and profile
+     * 
+     * @return The new layout version
+     */
+    public long incrementLayoutVersion(int userId, int profileId);
+    
+    /**
+     * Record a change that may affect every user's layout, such as a fragment being re-activated
+     */
+    public void incrementAllLayoutVersions();
+    
+    /**
+     * @return The layout version formatted as a quoted HTTP entity tag
+     */
+    public String getLayoutEntityTag(int userId, int profileId);
+}
@@ -73,6 +73,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
     private IUserInstanceManager userInstanceManager;
     private IStylesheetDescriptorDao stylesheetDescriptorDao;
     private IStylesheetUserPreferencesDao stylesheetUserPreferencesDao;
+    private IUserLayoutVersionService userLayoutVersionService;
 
     @Autowired
     public void setUserInstanceManager(IUserInstanceManager userInstanceManager) {
@@ -88,6 +89,11 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
     public void setStylesheetUserPreferencesDao(IStylesheetUserPreferencesDao stylesheetUserPreferencesDao) {
         this.stylesheetUserPreferencesDao = stylesheetUserPreferencesDao;
     }
+
+    @Autowired
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
     
     
     protected static final class StylesheetPreferencesKey {
@@ -305,7 +311,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
                 }
                 
                 final String oldValue = stylesheetUserPreferences.setOutputProperty(name, value);
-                this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+                this.storeStylesheetUserPreferences(stylesheetUserPreferences);
                 return oldValue;
             }
             default: {
@@ -334,7 +340,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
                 }
                 
                 final String oldValue = stylesheetUserPreferences.removeOutputProperty(name);
-                this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+                this.storeStylesheetUserPreferences(stylesheetUserPreferences);
                 this.clearStylesheetUserPreferencesCache(request, stylesheetPreferencesKey);
                 return oldValue;
             }
@@ -429,7 +435,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
         final IStylesheetUserPreferences stylesheetUserPreferences = this.getStylesheetUserPreferences(request, stylesheetPreferencesKey);
         if (stylesheetUserPreferences != null) {
             stylesheetUserPreferences.clearOutputProperties();
-            this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+            this.storeStylesheetUserPreferences(stylesheetUserPreferences);
         }
         
         final HttpSession session = request.getSession(false);
@@ -513,7 +519,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
                 }
                 
                 final String oldValue = stylesheetUserPreferences.setStylesheetParameter(name, value);
-                this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+                this.storeStylesheetUserPreferences(stylesheetUserPreferences);
                 return oldValue;
             }
             default: {
@@ -542,7 +548,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
                 }
                 
                 final String oldValue = stylesheetUserPreferences.removeStylesheetParameter(name);
-                this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+                this.storeStylesheetUserPreferences(stylesheetUserPreferences);
                 return oldValue;
             }
             default: {
@@ -648,7 +654,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
         final IStylesheetUserPreferences stylesheetUserPreferences = this.getStylesheetUserPreferences(request, stylesheetPreferencesKey);
         if (stylesheetUserPreferences != null) {
             stylesheetUserPreferences.clearStylesheetParameters();
-            this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+            this.storeStylesheetUserPreferences(stylesheetUserPreferences);
         }
         
         final HttpSession session = request.getSession(false);
@@ -753,6 +759,11 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
         return stylesheetUserPreferences;
     }
     
+    private void storeStylesheetUserPreferences(IStylesheetUserPreferences stylesheetUserPreferences) {
+        this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+        this.userLayoutVersionService.incrementLayoutVersion(stylesheetUserPreferences.getUserId(), stylesheetUserPreferences.getProfileId());
+    }
+    
     private void clearStylesheetUserPreferencesCache(HttpServletRequest request, StylesheetPreferencesKey stylesheetPreferencesKey) {
         final String key = getCacheKey(stylesheetPreferencesKey);
         
@@ -813,7 +824,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
                 }
                 
                 final String oldValue = stylesheetUserPreferences.setLayoutAttribute(nodeId, name, value);
-                this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+                this.storeStylesheetUserPreferences(stylesheetUserPreferences);
                 return oldValue;
             }
             default: {
@@ -872,7 +883,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
                 
                 final String oldValue = stylesheetUserPreferences.removeLayoutAttribute(nodeId, name);
                 if (oldValue != null) {
-                    this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+                    this.storeStylesheetUserPreferences(stylesheetUserPreferences);
                     return oldValue;
                 }
             }
@@ -891,7 +902,11 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
         
         final IStylesheetUserPreferences distributedStylesheetUserPreferences = this.getDistributedStylesheetUserPreferences(request, prefScope);
         if (distributedStylesheetUserPreferences != null) {
-            return distributedStylesheetUserPreferences.removeLayoutAttribute(nodeId, name);
+            final String oldValue = distributedStylesheetUserPreferences.removeLayoutAttribute(nodeId, name);
+            if (oldValue != null) {
+                this.userLayoutVersionService.incrementLayoutVersion(stylesheetPreferencesKey.person.getID(), stylesheetPreferencesKey.userProfile.getProfileId());
+            }
+            return oldValue;
         }
         
         return null;
@@ -930,6 +945,28 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
         return allNodeIds;
     }
     
+    @Override
+    public Iterable<String> getTransientLayoutAttributeNodeIds(HttpServletRequest request, PreferencesScope prefScope) {
+        final StylesheetPreferencesKey stylesheetPreferencesKey = this.getStylesheetPreferencesKey(request, prefScope);
+        
+        final LinkedHashSet<String> transientNodeIds = new LinkedHashSet<String>();
+        
+        final HttpSession session = request.getSession(false);
+        if (session != null) {
+            final Map<String, Map<String, String>> sessionLayoutAttributes = getSessionLayoutAttributes(session, stylesheetPreferencesKey);
+            if (sessionLayoutAttributes != null) {
+                transientNodeIds.addAll(sessionLayoutAttributes.keySet());
+            }
+        }
+
+        final Map<String, Map<String, String>> requestLayoutAttributes = getRequestLayoutAttributes(request, stylesheetPreferencesKey);
+        if (requestLayoutAttributes != null) {
+            transientNodeIds.addAll(requestLayoutAttributes.keySet());
+        }
+        
+        return transientNodeIds;
+    }
+    
     @Override
     public Map<String, String> getAllNodesAndValuesForAttribute(HttpServletRequest request, PreferencesScope prefScope, String name) {
         final StylesheetPreferencesKey stylesheetPreferencesKey = this.getStylesheetPreferencesKey(request, prefScope);
@@ -1079,7 +1116,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
         final IStylesheetUserPreferences stylesheetUserPreferences = this.getStylesheetUserPreferences(request, stylesheetPreferencesKey);
         if (stylesheetUserPreferences != null) {
             stylesheetUserPreferences.clearLayoutAttributes(nodeId);
-            this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+            this.storeStylesheetUserPreferences(stylesheetUserPreferences);
         }
         
         final HttpSession session = request.getSession(false);
@@ -1105,7 +1142,7 @@ public class StylesheetUserPreferencesServiceImpl implements IStylesheetUserPref
         final IStylesheetUserPreferences stylesheetUserPreferences = this.getStylesheetUserPreferences(request, stylesheetPreferencesKey);
         if (stylesheetUserPreferences != null) {
             stylesheetUserPreferences.clearAllLayoutAttributes();
-            this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(stylesheetUserPreferences);
+            this.storeStylesheetUserPreferences(stylesheetUserPreferences);
         }
         
         final HttpSession session = request.getSession(false);
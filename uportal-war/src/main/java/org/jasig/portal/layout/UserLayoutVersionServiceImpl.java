@@ -0,0 +1,106 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.jasig.portal.utils.Tuple;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Layout versions are drawn from a single sequence so a version is never handed out twice. Versions are kept in
+ * a bounded cache, a user with no cached version is assigned a fresh one which only costs clients a full response.
+ * Changes that affect every layout raise a floor that all versions handed out afterwards are at least equal to.
+ * The floor is stored in the same replicated cache, a server that has no floor because it was invalidated by a
+ * change on another server, or because the cache was cleared, raises its floor to a fresh version.
+ * <p>
+ * The sequence is seeded from the clock with random low order bits so versions issued before a restart, or by
+ * another server in the cluster, do not collide with versions issued by this instance.
+ */
+@Service
+public class UserLayoutVersionServiceImpl implements IUserLayoutVersionService {
+    static final String FLOOR_KEY = UserLayoutVersionServiceImpl.class.getName() + ".FLOOR";
+    
+    private final AtomicLong sequence = new AtomicLong((System.currentTimeMillis() << 20) + new Random().nextInt(1 << 20));
+    
+    private Ehcache layoutVersionCache;
+    
+    @Autowired
+    public void setLayoutVersionCache(@Qualifier("org.jasig.portal.layout.UserLayoutVersionServiceImpl.layoutVersionCache") Ehcache layoutVersionCache) {
+        this.layoutVersionCache = layoutVersionCache;
+    }
+
+    @Override
+    public long getLayoutVersion(int userId, int profileId) {
+        final Tuple<Integer, Integer> key = new Tuple<Integer, Integer>(userId, profileId);
+        
+        Element element = this.layoutVersionCache.get(key);
+        if (element == null) {
+            //Quiet put so re-issuing a version doesn't invalidate the entry on other servers
+            element = new Element(key, this.sequence.incrementAndGet());
+            this.layoutVersionCache.putQuiet(element);
+        }
+        
+        final long version = (Long) element.getObjectValue();
+        final long currentFloor = this.getFloor();
+        if (version < currentFloor) {
+            return currentFloor;
+        }
+        return version;
+    }
+
+    @Override
+    public long incrementLayoutVersion(int userId, int profileId) {
+        //Make sure a floor exists so a floor created afterwards doesn't hide the new version
+        this.getFloor();
+        
+        final long version = this.sequence.incrementAndGet();
+        this.layoutVersionCache.put(new Element(new Tuple<Integer, Integer>(userId, profileId), version));
+        return version;
+    }
+
+    @Override
+    public void incrementAllLayoutVersions() {
+        //Non-quiet put so the floor is invalidated on the other servers as well
+        this.layoutVersionCache.put(new Element(FLOOR_KEY, this.sequence.incrementAndGet()));
+    }
+
+    private long getFloor() {
+        Element element = this.layoutVersionCache.get(FLOOR_KEY);
+        if (element == null) {
+            //Any version handed out before the floor was lost may be stale, start a new floor
+            element = new Element(FLOOR_KEY, this.sequence.incrementAndGet());
+            this.layoutVersionCache.putQuiet(element);
+        }
+        
+        return (Long) element.getObjectValue();
+    }
+
+    @Override
+    public String getLayoutEntityTag(int userId, int profileId) {
+        return "\"" + Long.toString(this.getLayoutVersion(userId, profileId), Character.MAX_RADIX) + "\"";
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.groups.GroupsException;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.services.GroupService;
+
+/**
+ * Per-evaluation state shared by all of the {@link Evaluator}s checked for a single person. A single context
+ * is used to evaluate the audiences of every fragment when a layout is built so that the inputs evaluators
+ * depend on are only looked up once. The person's containing and ancestor group keys are loaded together the
+ * first time a group membership check is made, turning every later membership check into a set lookup.
+ * Evaluators that depend on other per-person inputs can store them with {@link #setCachedValue(Object, Object)}.
+ * <p>
+ * Instances are not thread safe and should only be used for a single evaluation pass.
+ * 
+ * @version $Revision$ $Date$
+ */
+public class AudienceEvaluationContext {
+    private final IPerson person;
+    private final Map<Object, Object> cachedValues = new HashMap<Object, Object>();
+    private Set<String> containingGroupKeys;
+    private Set<String> ancestorGroupKeys;
+
+    public AudienceEvaluationContext(IPerson person) {
+        this.person = person;
+    }
+
+    public IPerson getPerson() {
+        return this.person;
+    }
+
+    /**
+     * @return true if the person is a direct member of the group with the specified key
+     */
+    public boolean isMemberOf(String groupKey) {
+        this.loadGroupKeys();
+        return this.containingGroupKeys.contains(groupKey);
+    }
+
+    /**
+     * @return true if the person is a member of the group with the specified key or any of its descendant groups
+     */
+    public boolean isDeepMemberOf(String groupKey) {
+        this.loadGroupKeys();
+        return this.ancestorGroupKeys.contains(groupKey);
+    }
+
+    /**
+     * @return The value stored for the key by an earlier evaluator, null if none has been stored
+     */
+    public Object getCachedValue(Object key) {
+        return this.cachedValues.get(key);
+    }
+
+    public void setCachedValue(Object key, Object value) {
+        this.cachedValues.put(key, value);
+    }
+
+    private void loadGroupKeys() {
+        if (this.ancestorGroupKeys != null) {
+            return;
+        }
+
+        try {
+            final IGroupMember groupMember = this.getGroupMember();
+            this.containingGroupKeys = getGroupKeys(groupMember.getContainingGroups());
+            this.ancestorGroupKeys = getGroupKeys(groupMember.getAllContainingGroups());
+        }
+        catch (GroupsException e) {
+            throw new RuntimeException("Unable to determine the groups user '" + this.person.getUserName() + "' is a member of", e);
+        }
+    }
+
+    /**
+     * @return The group member for the person, groups are loaded from its containing groups
+     */
+    protected IGroupMember getGroupMember() throws GroupsException {
+        final EntityIdentifier ei = this.person.getEntityIdentifier();
+        return GroupService.getGroupMember(ei);
+    }
+
+    private static Set<String> getGroupKeys(Iterator<?> groups) {
+        if (!groups.hasNext()) {
+            return Collections.emptySet();
+        }
+
+        final Set<String> groupKeys = new HashSet<String>();
+        while (groups.hasNext()) {
+            final IGroupMember group = (IGroupMember) groups.next();
+            groupKeys.add(group.getKey());
+        }
+        return groupKeys;
+    }
+}
@@ -80,7 +80,18 @@ public abstract class Evaluator {
     }
 
     public abstract boolean isApplicable( IPerson person );
-    
+
+    /**
+     * Evaluates this {@link Evaluator} using a context shared with the other
+     * evaluators checked for the same person.  Evaluators that depend on
+     * expensive lookups should override this method to use the inputs cached
+     * in the context, the default implementation delegates to
+     * {@link #isApplicable(IPerson)}.
+     */
+    public boolean isApplicable( IPerson person, AudienceEvaluationContext context ) {
+        return isApplicable(person);
+    }
+
     /**
      * Serializes this {@link Evaluator} into the same XML format supported 
      * by dlm.xml.  <b>NOTE:</b>  this method will only yield usable XML if 
@@ -20,9 +20,14 @@
 package org.jasig.portal.layout.dlm;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import net.sf.ehcache.Ehcache;
@@ -37,6 +42,7 @@ import org.jasig.portal.IUserProfile;
 import org.jasig.portal.UserProfile;
 import org.jasig.portal.i18n.LocaleManager;
 import org.jasig.portal.layout.IUserLayoutStore;
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.properties.PropertiesManager;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.security.provider.PersonImpl;
@@ -64,10 +70,10 @@ public class FragmentActivator
     public static final String RCS_ID = "@(#) $Header$";
     private static final Log LOG = LogFactory.getLog(FragmentActivator.class);
 
-    private final LoadingCache<String, List<Locale>> fragmentOwnerLocales = CacheBuilder.newBuilder()
-            .<String, List<Locale>>build(new CacheLoader<String, List<Locale>>() {
+    private final LoadingCache<String, CopyOnWriteArrayList<Locale>> fragmentOwnerLocales = CacheBuilder.newBuilder()
+            .<String, CopyOnWriteArrayList<Locale>>build(new CacheLoader<String, CopyOnWriteArrayList<Locale>>() {
                 @Override
-                public List<Locale> load(String key) throws Exception {
+                public CopyOnWriteArrayList<Locale> load(String key) throws Exception {
                     return new CopyOnWriteArrayList<Locale>();
                 }
             });
@@ -76,7 +82,9 @@ public class FragmentActivator
     private Ehcache userViewErrors;
     private IUserIdentityStore identityStore;
     private IUserLayoutStore userLayoutStore;
+    private IUserLayoutVersionService userLayoutVersionService;
     private ConfigurationLoader configurationLoader;
+    private ExecutorService fragmentActivationExecutor;
 
     private static final String PROPERTY_ALLOW_EXPANDED_CONTENT = "org.jasig.portal.layout.dlm.allowExpandedContent";
     private static final Pattern STANDARD_PATTERN = Pattern.compile("\\A[Rr][Ee][Gg][Uu][Ll][Aa][Rr]\\z");
@@ -125,6 +133,16 @@ public class FragmentActivator
     public void setUserLayoutStore(IUserLayoutStore userLayoutStore) {
         this.userLayoutStore = userLayoutStore;
     }
+
+    @Autowired
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
+
+    @Autowired
+    public void setFragmentActivationExecutor(@Qualifier("fragmentActivationThreadPool") ExecutorService fragmentActivationExecutor) {
+        this.fragmentActivationExecutor = fragmentActivationExecutor;
+    }
     
     private static class UserViewKey implements Serializable {
         private static final long serialVersionUID = 1L;
@@ -194,7 +212,7 @@ public class FragmentActivator
         
         final Locale locale = userViewKey.getLocale();
         
-        fragmentOwnerLocales.getUnchecked(ownerId).add(locale);
+        fragmentOwnerLocales.getUnchecked(ownerId).addIfAbsent(locale);
         
         if (fd.isNoAudienceIncluded()) {
             if (LOG.isDebugEnabled()) {
@@ -229,6 +247,9 @@ public class FragmentActivator
 
         loadPreferences(view, fd);
         fragmentizeLayout(view, fd);
+        if (view.layout != null) {
+            view.template = FragmentTemplate.create(view.layout);
+        }
         
         if (LOG.isInfoEnabled()) {
             LOG.info("Activated FragmentDefinition " + fd.getName() + " with locale " + locale);
@@ -236,6 +257,28 @@ public class FragmentActivator
         return view;
     }
     
+    /**
+     * Activates the fragments that are not active yet for the locale in parallel and waits for them to complete.
+     * Failures are logged and left for {@link #getUserView(FragmentDefinition, Locale)} to report.
+     */
+    public void activateFragments(final Collection<FragmentDefinition> fragments, final Locale locale) {
+        final List<Future<?>> activations = new ArrayList<Future<?>>(fragments.size());
+        for (final FragmentDefinition fd : fragments) {
+            if (fd.isNoAudienceIncluded() || this.userViews.getQuiet(new UserViewKey(fd.getOwnerId(), locale)) != null) {
+                continue;
+            }
+
+            activations.add(this.fragmentActivationExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    getUserView(fd, locale);
+                }
+            }));
+        }
+
+        waitForActivations(activations);
+    }
+
     public UserView getUserView(final FragmentDefinition fd, final Locale locale) {
         final UserViewKey userViewKey = new UserViewKey(fd.getOwnerId(), locale);
         final net.sf.ehcache.Element userViewElement = this.userViews.get(userViewKey);
@@ -521,16 +564,50 @@ public class FragmentActivator
         return userViews.get(new Tuple<String, String>(ownerId, locale.toString()));
     }
     
+    /**
+     * Reactivates the views of a republished fragment. The current views are served until their replacements are
+     * ready so user logins are not blocked by the reactivation. If a view fails to reactivate the current view is
+     * kept. Reactivation runs on the calling thread so it sees the republished layout even if the caller's
+     * transaction has not committed yet.
+     */
     public void clearChacheForOwner(final String ownerId) {
         final List<Locale> locales = fragmentOwnerLocales.getIfPresent(ownerId);
-        if (locales == null) {
-            //Nothing to purge
+        if (locales != null) {
+            for (final Locale locale : locales) {
+                reactivateFragment(new UserViewKey(ownerId, locale));
+            }
+        }
+        
+        //Any layout incorporating the fragment may change, even if no views are currently cached
+        this.userLayoutVersionService.incrementAllLayoutVersions();
+    }
+    
+    private void reactivateFragment(UserViewKey userViewKey) {
+        final UserView userView;
+        try {
+            userView = activateFragment(userViewKey);
+        }
+        catch (RuntimeException e) {
+            LOG.error("Failed to reactivate " + userViewKey + ", the previously activated view will continue to be used", e);
             return;
         }
         
-        for (final Locale locale : locales) {
-            final UserViewKey userViewKey = new UserViewKey(ownerId, locale);
-            userViews.remove(userViewKey);
+        this.userViewErrors.remove(userViewKey);
+        this.userViews.put(new net.sf.ehcache.Element(userViewKey, userView));
+    }
+    
+    private void waitForActivations(List<Future<?>> activations) {
+        for (final Future<?> activation : activations) {
+            try {
+                activation.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException e) {
+                LOG.warn("Fragment activation failed", e.getCause());
+            }
         }
     }
 }
@@ -313,6 +313,11 @@ public class FragmentDefinition extends EvaluatorGroup
 
     @Override
     public boolean isApplicable(IPerson p) {
+        return isApplicable(p, new AudienceEvaluationContext(p));
+    }
+
+    @Override
+    public boolean isApplicable(IPerson p, AudienceEvaluationContext context) {
 
         boolean isApplicable = false;
         if (LOG.isInfoEnabled())
@@ -323,7 +328,7 @@ public class FragmentDefinition extends EvaluatorGroup
                 LOG.debug("isApplicable()=false due to evaluators collection being null");
             } else {
                 for (Evaluator v : evaluators) {
-                    if (v.isApplicable(p)) {
+                    if (v.isApplicable(p, context)) {
                         isApplicable = true;
                         break;
                     }
@@ -0,0 +1,156 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jasig.portal.AuthorizationException;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Immutable, pre-processed copy of an activated fragment layout. It is built once when the fragment is activated
+ * and shared by every user the fragment is applicable to. {@link ILFBuilder} creates the user's own copy of each
+ * node from the template while merging, so the shared fragment DOM is never read or written concurrently.
+ *
+ * @version $Revision$ $Date$
+ */
+public final class FragmentTemplate {
+    private static final TemplateElement[] NO_CHILDREN = new TemplateElement[0];
+
+    private final TemplateElement root;
+
+    private FragmentTemplate(TemplateElement root) {
+        this.root = root;
+    }
+
+    /**
+     * Create a template of the children of the root folder of an activated fragment layout
+     */
+    public static FragmentTemplate create(Document fragmentLayout) {
+        final Element layout = fragmentLayout.getDocumentElement();
+        final Element root = (Element) layout.getFirstChild();
+        return new FragmentTemplate(createElement(root));
+    }
+
+    /**
+     * Append a copy of the children of the fragment's root folder to the specified element, skipping channels
+     * the principal can't render.
+     */
+    public void mergeInto(Element dest, IAuthorizationPrincipal ap) throws AuthorizationException {
+        mergeChildren(this.root, dest, ap);
+    }
+
+    private static void mergeChildren(TemplateElement source, Element dest, IAuthorizationPrincipal ap) throws AuthorizationException {
+        final Document destDoc = dest.getOwnerDocument();
+        for (final TemplateElement child : source.children) {
+            if (child.channelPublishId != null && !ap.canRender(child.channelPublishId)) {
+                continue;
+            }
+
+            final Element newChild = child.toElement(destDoc);
+            dest.appendChild(newChild);
+            mergeChildren(child, newChild, ap);
+        }
+    }
+
+    private static TemplateElement createElement(Element element) {
+        final NamedNodeMap attributes = element.getAttributes();
+        final int attributeCount = attributes.getLength();
+        final String[] attributeData = new String[attributeCount * 3];
+        final boolean[] attributeNamespaceAware = new boolean[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            final Attr attribute = (Attr) attributes.item(i);
+            //A null local name marks a DOM Level 1 node, which importNode copies without namespace information
+            attributeNamespaceAware[i] = attribute.getLocalName() != null;
+            attributeData[i * 3] = attribute.getNamespaceURI();
+            attributeData[i * 3 + 1] = attribute.getName();
+            attributeData[i * 3 + 2] = attribute.getValue();
+        }
+
+        final List<TemplateElement> children = new ArrayList<TemplateElement>();
+        for (Node item = element.getFirstChild(); item != null; item = item.getNextSibling()) {
+            if (item instanceof Element) {
+                children.add(createElement((Element) item));
+            }
+        }
+
+        final String tagName = element.getTagName();
+        final String channelPublishId = Constants.ELM_CHANNEL.equals(tagName) ? element.getAttribute("chanID") : null;
+
+        return new TemplateElement(element.getLocalName() != null, element.getNamespaceURI(), tagName,
+                attributeData, attributeNamespaceAware, !"".equals(element.getAttribute(Constants.ATT_ID)), channelPublishId,
+                children.isEmpty() ? NO_CHILDREN : children.toArray(new TemplateElement[children.size()]));
+    }
+
+    private static final class TemplateElement {
+        private final boolean namespaceAware;
+        private final String namespaceUri;
+        private final String tagName;
+        /** namespace, name, value triples */
+        private final String[] attributes;
+        private final boolean[] attributeNamespaceAware;
+        private final boolean hasId;
+        private final String channelPublishId;
+        private final TemplateElement[] children;
+
+        public TemplateElement(boolean namespaceAware, String namespaceUri, String tagName, String[] attributes,
+                boolean[] attributeNamespaceAware, boolean hasId, String channelPublishId, TemplateElement[] children) {
+            this.namespaceAware = namespaceAware;
+            this.namespaceUri = namespaceUri;
+            this.tagName = tagName;
+            this.attributes = attributes;
+            this.attributeNamespaceAware = attributeNamespaceAware;
+            this.hasId = hasId;
+            this.channelPublishId = channelPublishId;
+            this.children = children;
+        }
+
+        public Element toElement(Document document) {
+            final Element element;
+            if (this.namespaceAware) {
+                element = document.createElementNS(this.namespaceUri, this.tagName);
+            }
+            else {
+                element = document.createElement(this.tagName);
+            }
+
+            for (int i = 0; i < this.attributeNamespaceAware.length; i++) {
+                if (this.attributeNamespaceAware[i]) {
+                    element.setAttributeNS(this.attributes[i * 3], this.attributes[i * 3 + 1], this.attributes[i * 3 + 2]);
+                }
+                else {
+                    element.setAttribute(this.attributes[i * 3 + 1], this.attributes[i * 3 + 2]);
+                }
+            }
+
+            if (this.hasId) {
+                element.setIdAttribute(Constants.ATT_ID, true);
+            }
+
+            return element;
+        }
+    }
+}
@@ -20,8 +20,6 @@
 package org.jasig.portal.layout.dlm;
 
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -60,12 +58,14 @@ import org.jasig.portal.PortalException;
 import org.jasig.portal.RDBMServices;
 import org.jasig.portal.i18n.LocaleManager;
 import org.jasig.portal.io.xml.IPortalDataHandlerService;
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.layout.LayoutStructure;
 import org.jasig.portal.layout.StructureParameter;
 import org.jasig.portal.layout.StylesheetUserPreferencesImpl;
 import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
+import org.jasig.portal.layout.simple.LayoutStructureRows;
 import org.jasig.portal.layout.simple.RDBMUserLayoutStore;
 import org.jasig.portal.portlet.dao.IPortletEntityDao;
 import org.jasig.portal.portlet.dao.jpa.PortletPreferenceImpl;
@@ -155,6 +155,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     private IPortletEntityRegistry portletEntityRegistry;
     private IPortletEntityDao portletEntityDao;
     private IPortalDataHandlerService portalDataHandlerService;
+    private IUserLayoutVersionService userLayoutVersionService;
 
     @Autowired
     private NodeReferenceFactory nodeReferenceFactory;
@@ -195,6 +196,11 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         this.stylesheetUserPreferencesDao = stylesheetUserPreferencesDao;
     }
 
+    @Autowired
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
+
     @Autowired
     public void setFragmentNodeInfoCache(
             @Qualifier("org.jasig.portal.layout.dlm.RDBMDistributedLayoutStore.fragmentNodeInfoCache")
@@ -228,6 +234,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         final Map<String, Document> layouts = new HashMap<String, Document>();
 
         final List<FragmentDefinition> definitions = this.configurationLoader.getFragments();
+        activator.activateFragments(definitions, defaultLocale);
         for (final FragmentDefinition fragmentDefinition : definitions) {
             final Document layout = DocumentFactory.getThreadDocument();
             final UserView userView = activator.getUserView(fragmentDefinition, defaultLocale);
@@ -963,6 +970,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         if (structureAttributes.isEmpty()) {
             if (ssup != null) {
                 this.stylesheetUserPreferencesDao.deleteStylesheetUserPreferences(ssup);
+                this.userLayoutVersionService.incrementLayoutVersion(person.getID(), profile.getProfileId());
             }
         }
         else {
@@ -1019,6 +1027,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             }
 
             this.stylesheetUserPreferencesDao.storeStylesheetUserPreferences(ssup);
+            this.userLayoutVersionService.incrementLayoutVersion(person.getID(), profile.getProfileId());
         }
     }
 
@@ -1315,7 +1324,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
 
     {
         final Set<String> fragmentNames = new LinkedHashSet<String>();
-        final List<Document> applicables = new LinkedList<Document>();
+        final List<FragmentTemplate> applicables = new LinkedList<FragmentTemplate>();
         final Locale locale = profile.getLocaleManager().getLocales()[0];
 
         final List<FragmentDefinition> definitions = this.configurationLoader.getFragments();
@@ -1325,16 +1334,26 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         final FragmentActivator activator = this.getFragmentActivator();
 
         if (definitions != null) {
+            //Share one context across all of the fragments so group memberships and other inputs are only looked up once
+            final AudienceEvaluationContext audienceContext = new AudienceEvaluationContext(person);
+            final List<FragmentDefinition> applicableDefinitions = new ArrayList<FragmentDefinition>();
             for (final FragmentDefinition fragmentDefinition : definitions) {
                 logger.debug("Checking applicability of the following fragment: {}", fragmentDefinition.getName());
 
-                if (fragmentDefinition.isApplicable(person)) {
-                    final UserView userView = activator.getUserView(fragmentDefinition, locale);
-                    if (userView != null) {
-                        applicables.add(userView.layout);
-                    }
-                    fragmentNames.add(fragmentDefinition.getName());
+                if (fragmentDefinition.isApplicable(person, audienceContext)) {
+                    applicableDefinitions.add(fragmentDefinition);
+                }
+            }
+            
+            //Activate any applicable fragments that aren't active yet in parallel
+            activator.activateFragments(applicableDefinitions, locale);
+            
+            for (final FragmentDefinition fragmentDefinition : applicableDefinitions) {
+                final UserView userView = activator.getUserView(fragmentDefinition, locale);
+                if (userView != null && userView.template != null) {
+                    applicables.add(userView.template);
                 }
+                fragmentNames.add(fragmentDefinition.getName());
             }
         }
 
@@ -1404,6 +1423,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             logger.debug("PLF for {}\n{}", person.getAttribute(IPerson.USERNAME), XmlUtilitiesImpl.toString(plf));
         }
         super.setUserLayout(person, profile, plf, channelsAdded);
+        this.userLayoutVersionService.incrementLayoutVersion(person.getID(), profile.getProfileId());
 
         if (updateFragmentCache) {
             final FragmentDefinition fragment = this.getOwnedFragment(person);
@@ -1656,14 +1676,13 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, LayoutStructureRows layoutRows) {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             //parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), layoutRows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1705,38 +1724,18 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         }
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), layoutRows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
+        nextStructId = this.saveStructure(node.getNextSibling(), layoutRows);
 
         final String externalId = structure.getAttribute("external_id");
-        if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
-        }
-        else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-
-        }
-        if (isChannel) {
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
-        }
-        else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
-        }
+        final Integer structChanId = isChannel ? chanId : null;
+        final String structName = isChannel ? null : structure.getAttribute("name");
         final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
-        logger.debug(structStmt.toString());
-        structStmt.executeUpdate();
+        layoutRows.addStruct(new LayoutStructureRows.StructRow(saveStructId, nextStructId, childStructId, externalId, structChanId, structName, structType,
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable")))));
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
@@ -1747,12 +1746,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             if (name.startsWith(Constants.NS) && !name.equals(Constants.ATT_PLF_ID)
                     && !name.equals(Constants.ATT_FRAGMENT) && !name.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
-                logger.debug(parmStmt.toString());
-                parmStmt.executeUpdate();
+                layoutRows.addParam(saveStructId, name, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1773,12 +1767,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = portletDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
-                            logger.debug(parmStmt.toString());
-                            parmStmt.executeUpdate();
+                            layoutRows.addParam(saveStructId, parmName, parmValue);
                         }
                     }
                 }
@@ -33,6 +33,7 @@ class UserView
 
     private final int userId;
     Document layout = null;
+    FragmentTemplate template = null;
     int layoutId = 0;
     int profileId = 1;
     String profileFname = "default"; /* Was 1 when profileId was the key. */
@@ -32,6 +32,7 @@ import org.jasig.portal.groups.GroupsException;
 import org.jasig.portal.groups.IEntityGroup;
 import org.jasig.portal.groups.IGroupConstants;
 import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
 import org.jasig.portal.layout.dlm.Evaluator;
 import org.jasig.portal.layout.dlm.EvaluatorFactory;
 import org.jasig.portal.security.IPerson;
@@ -91,10 +92,10 @@ public class GroupMembershipEvaluator extends Evaluator
                     + "supported at this time.");
         }
         this.groupName = name;
-        this.groupKey = getGroupKey();
+        this.groupKey = getGroupKey(name);
     }
 
-    private String getGroupKey()
+    protected String getGroupKey(String groupName)
     {
         EntityIdentifier[] groups = null;
         try
@@ -114,7 +115,7 @@ public class GroupMembershipEvaluator extends Evaluator
         return groups[0].getKey();
     }
         
-      private IEntityGroup getGroup(String key)
+      protected IEntityGroup getGroup(String key)
       {
         try
         {
@@ -137,7 +138,7 @@ public class GroupMembershipEvaluator extends Evaluator
           
           try
           {
-              IGroupMember groupMember = GroupService.getGroupMember(ei);
+              IGroupMember groupMember = getGroupMember(ei);
               boolean isMember =false;
               
               if (evaluatorMode == MEMBER_OF_MODE)
@@ -156,6 +157,36 @@ public class GroupMembershipEvaluator extends Evaluator
           }
       }
 
+    protected IGroupMember getGroupMember(EntityIdentifier ei) throws GroupsException
+    {
+        return GroupService.getGroupMember(ei);
+    }
+
+    /**
+     * Checks membership against the group keys loaded once by the context
+     * rather than resolving the group and the person's group member for
+     * each evaluator.
+     */
+    @Override
+    public boolean isApplicable(IPerson p, AudienceEvaluationContext context)
+    {
+        if (groupKey == null || p == null)
+            return false;
+
+        try
+        {
+            if (evaluatorMode == MEMBER_OF_MODE)
+            {
+                return context.isMemberOf(groupKey);
+            }
+            return context.isDeepMemberOf(groupKey);
+        } catch (Exception e)
+        {
+            throw new RuntimeException("Unable to determine if user '"
+                    + p.getFullName() + "' is in group '" + groupName + "'", e);
+        }
+    }
+
     @Override
     public void toElement(Element parent) {
 
@@ -30,6 +30,7 @@ import org.dom4j.Element;
 import org.dom4j.QName;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
 import org.jasig.portal.layout.dlm.Evaluator;
 import org.jasig.portal.layout.dlm.EvaluatorFactory;
 import org.jasig.portal.layout.dlm.FragmentDefinition;
@@ -65,6 +66,12 @@ public class Paren extends EvaluatorGroup {
 
     @Override
     public boolean isApplicable( IPerson toPerson )
+    {
+        return isApplicable( toPerson, new AudienceEvaluationContext( toPerson ) );
+    }
+
+    @Override
+    public boolean isApplicable( IPerson toPerson, AudienceEvaluationContext context )
     {
         boolean rslt = false;
         if (LOG.isDebugEnabled())
@@ -75,7 +82,7 @@ public class Paren extends EvaluatorGroup {
             case OR: {
                 rslt = false;   // presume false in this case...
                 for(Evaluator v : this.evaluators) {
-                    if ( v.isApplicable( toPerson ) )
+                    if ( v.isApplicable( toPerson, context ) )
                     {
                         rslt = true;
                         break;
@@ -86,7 +93,7 @@ public class Paren extends EvaluatorGroup {
             case AND: {
                 rslt = true;   // presume true in this case...
                 for(Evaluator v : this.evaluators) {
-                    if ( v.isApplicable( toPerson ) == false )
+                    if ( v.isApplicable( toPerson, context ) == false )
                     {
                         rslt = false;
                         break;
@@ -97,7 +104,7 @@ public class Paren extends EvaluatorGroup {
             case NOT: {
                 rslt = false;   // presume false in this case... until later...
                 for(Evaluator v : this.evaluators) {
-                    if ( v.isApplicable( toPerson ) )
+                    if ( v.isApplicable( toPerson, context ) )
                     {
                         rslt = true;
                         break;
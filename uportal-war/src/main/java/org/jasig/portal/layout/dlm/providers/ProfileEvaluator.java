@@ -29,6 +29,7 @@ import org.dom4j.Element;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.jasig.portal.layout.profile.IProfileMapper;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
 import org.jasig.portal.layout.dlm.Evaluator;
 import org.jasig.portal.layout.dlm.EvaluatorFactory;
 import org.jasig.portal.security.IPerson;
@@ -52,13 +53,26 @@ public class ProfileEvaluator extends Evaluator {
     
     @Override
     public boolean isApplicable(IPerson person) {
+        return isApplicable(person, new AudienceEvaluationContext(person));
+    }
+
+    @Override
+    public boolean isApplicable(IPerson person, AudienceEvaluationContext context) {
         
-        final ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
-        final IPortalRequestUtils portalRequestUtils = applicationContext.getBean(IPortalRequestUtils.class);
-        final IProfileMapper profileMapper = applicationContext.getBean("profileMapper", IProfileMapper.class);
-        
-        final HttpServletRequest request = portalRequestUtils.getCurrentPortalRequest();
-        final String currentFname = profileMapper.getProfileFname(person, request);
+        //The current profile is the same for every profile evaluator, only map it once per context
+        String currentFname = (String) context.getCachedValue(ProfileEvaluator.class);
+        if (currentFname == null) {
+            final ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
+            final IPortalRequestUtils portalRequestUtils = applicationContext.getBean(IPortalRequestUtils.class);
+            final IProfileMapper profileMapper = applicationContext.getBean("profileMapper", IProfileMapper.class);
+            
+            final HttpServletRequest request = portalRequestUtils.getCurrentPortalRequest();
+            currentFname = profileMapper.getProfileFname(person, request);
+            if (currentFname == null) {
+                currentFname = "";
+            }
+            context.setCachedValue(ProfileEvaluator.class, currentFname);
+        }
         
         return profileFname.equals(currentFname);
     }
@@ -19,7 +19,9 @@
 
 package org.jasig.portal.layout.dlm.providers;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.Cacheable;
 import javax.persistence.Column;
@@ -32,6 +34,7 @@ import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.jasig.portal.fragment.subscribe.IUserFragmentSubscription;
 import org.jasig.portal.fragment.subscribe.dao.IUserFragmentSubscriptionDao;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
 import org.jasig.portal.layout.dlm.Evaluator;
 import org.jasig.portal.layout.dlm.EvaluatorFactory;
 import org.jasig.portal.layout.dlm.FragmentDefinition;
@@ -76,23 +79,37 @@ public class SubscribedTabEvaluator extends Evaluator {
 
     @Override
     public boolean isApplicable(IPerson person) {
-        
-        IUserFragmentSubscriptionDao userFragmentInfoDao = UserFragmentSubscriptionDaoLocator.getUserIdentityStore();
+        return isApplicable(person, new AudienceEvaluationContext(person));
+    }
 
-        // get the list of current fragment subscriptions for this person
-        List<IUserFragmentSubscription> fragments = userFragmentInfoDao
-                .getUserFragmentInfo(person);
+    @Override
+    public boolean isApplicable(IPerson person, AudienceEvaluationContext context) {
         
-        // iterate through the subscription list to determine if the 
-        // specified person is actively subscribed to the fragment associated
-        // with this evaluator instance
-        for (IUserFragmentSubscription fragment : fragments) {
-            if (fragment.isActive() && fragment.getFragmentOwner().equals(ownerId)) {
-                return true;
+        // the subscriptions are shared by every subscribed tab evaluator, only 
+        // load them once per context
+        @SuppressWarnings("unchecked")
+        Set<String> subscribedOwners = (Set<String>) context.getCachedValue(SubscribedTabEvaluator.class);
+        if (subscribedOwners == null) {
+            IUserFragmentSubscriptionDao userFragmentInfoDao = UserFragmentSubscriptionDaoLocator.getUserIdentityStore();
+
+            // get the list of current fragment subscriptions for this person
+            List<IUserFragmentSubscription> fragments = userFragmentInfoDao
+                    .getUserFragmentInfo(person);
+            
+            // collect the owners of the fragments the person is actively 
+            // subscribed to
+            subscribedOwners = new HashSet<String>();
+            for (IUserFragmentSubscription fragment : fragments) {
+                if (fragment.isActive()) {
+                    subscribedOwners.add(fragment.getFragmentOwner());
+                }
             }
+            context.setCachedValue(SubscribedTabEvaluator.class, subscribedOwners);
         }
         
-        return false;
+        // determine if the specified person is actively subscribed to the 
+        // fragment associated with this evaluator instance
+        return subscribedOwners.contains(ownerId);
     }
 
     @Override
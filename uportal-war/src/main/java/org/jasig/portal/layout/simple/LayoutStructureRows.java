@@ -0,0 +1,281 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.simple;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.portal.utils.Tuple;
+
+import com.google.common.base.Objects;
+
+/**
+ * The UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a single user layout. Used by {@link RDBMUserLayoutStore}
+ * to compare the rows for a layout being saved with the rows that are already persisted so only changed rows
+ * have to be written.
+ */
+public final class LayoutStructureRows {
+    private final Map<Integer, StructRow> structs = new LinkedHashMap<Integer, StructRow>();
+    private final Map<Tuple<Integer, String>, String> params = new LinkedHashMap<Tuple<Integer, String>, String>();
+    
+    public void addStruct(StructRow struct) {
+        this.structs.put(struct.getStructId(), struct);
+    }
+    
+    public void addParam(int structId, String name, String value) {
+        this.params.put(new Tuple<Integer, String>(structId, name, true), value);
+    }
+    
+    public Collection<StructRow> getStructs() {
+        return Collections.unmodifiableCollection(this.structs.values());
+    }
+    
+    public Map<Tuple<Integer, String>, String> getParams() {
+        return Collections.unmodifiableMap(this.params);
+    }
+    
+    /**
+     * @return Total number of struct and param rows
+     */
+    public int getRowCount() {
+        return this.structs.size() + this.params.size();
+    }
+    
+    /**
+     * @return The changes needed to turn the persisted rows into these rows
+     */
+    public Diff diff(LayoutStructureRows persisted) {
+        final Diff diff = new Diff();
+        
+        for (final StructRow struct : this.structs.values()) {
+            final StructRow persistedStruct = persisted.structs.get(struct.getStructId());
+            if (persistedStruct == null) {
+                diff.structInserts.add(struct);
+            }
+            else if (!persistedStruct.equals(struct)) {
+                diff.structUpdates.add(struct);
+            }
+        }
+        for (final Integer structId : persisted.structs.keySet()) {
+            if (!this.structs.containsKey(structId)) {
+                diff.structDeletes.add(structId);
+            }
+        }
+        
+        for (final Map.Entry<Tuple<Integer, String>, String> param : this.params.entrySet()) {
+            final Tuple<Integer, String> key = param.getKey();
+            if (!persisted.params.containsKey(key)) {
+                diff.paramInserts.add(param);
+            }
+            else if (!equal(persisted.params.get(key), param.getValue())) {
+                diff.paramUpdates.add(param);
+            }
+        }
+        for (final Tuple<Integer, String> key : persisted.params.keySet()) {
+            if (!this.params.containsKey(key)) {
+                diff.paramDeletes.add(key);
+            }
+        }
+        
+        return diff;
+    }
+    
+    /**
+     * Databases such as Oracle store empty strings as null, treat the two as equal
+     */
+    static String normalize(String value) {
+        if (value == null || value.length() == 0) {
+            return null;
+        }
+        return value;
+    }
+    
+    static boolean equal(String a, String b) {
+        return Objects.equal(normalize(a), normalize(b));
+    }
+    
+    /**
+     * A row in UP_LAYOUT_STRUCT
+     */
+    public static final class StructRow {
+        private final int structId;
+        private final int nextStructId;
+        private final int childStructId;
+        private final String externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final String hidden;
+        private final String immutable;
+        private final String unremovable;
+        
+        public StructRow(int structId, int nextStructId, int childStructId, String externalId, Integer chanId,
+                String name, String type, String hidden, String immutable, String unremovable) {
+            this.structId = structId;
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = normalize(externalId != null ? externalId.trim() : null);
+            this.chanId = chanId;
+            this.name = name;
+            this.type = type;
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        public int getStructId() {
+            return this.structId;
+        }
+
+        public int getNextStructId() {
+            return this.nextStructId;
+        }
+
+        public int getChildStructId() {
+            return this.childStructId;
+        }
+
+        /**
+         * @return The external id, null if there is none
+         */
+        public String getExternalId() {
+            return this.externalId;
+        }
+
+        /**
+         * @return The portlet id for channel rows, null for folders
+         */
+        public Integer getChanId() {
+            return this.chanId;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public String getHidden() {
+            return this.hidden;
+        }
+
+        public String getImmutable() {
+            return this.immutable;
+        }
+
+        public String getUnremovable() {
+            return this.unremovable;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.structId, this.nextStructId, this.childStructId, this.externalId, this.chanId,
+                    normalize(this.name), normalize(this.type), normalize(this.hidden), normalize(this.immutable), normalize(this.unremovable));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StructRow)) {
+                return false;
+            }
+            final StructRow other = (StructRow) obj;
+            return this.structId == other.structId
+                    && this.nextStructId == other.nextStructId
+                    && this.childStructId == other.childStructId
+                    && Objects.equal(this.externalId, other.externalId)
+                    && Objects.equal(this.chanId, other.chanId)
+                    && equal(this.name, other.name)
+                    && equal(this.type, other.type)
+                    && equal(this.hidden, other.hidden)
+                    && equal(this.immutable, other.immutable)
+                    && equal(this.unremovable, other.unremovable);
+        }
+
+        @Override
+        public String toString() {
+            return "StructRow [structId=" + this.structId + ", nextStructId=" + this.nextStructId + ", childStructId="
+                    + this.childStructId + ", chanId=" + this.chanId + ", name=" + this.name + ", type=" + this.type + "]";
+        }
+    }
+    
+    /**
+     * Inserts, updates and deletes needed to bring the persisted rows of a layout up to date
+     */
+    public static final class Diff {
+        private final List<StructRow> structInserts = new ArrayList<StructRow>();
+        private final List<StructRow> structUpdates = new ArrayList<StructRow>();
+        private final List<Integer> structDeletes = new ArrayList<Integer>();
+        private final List<Map.Entry<Tuple<Integer, String>, String>> paramInserts = new ArrayList<Map.Entry<Tuple<Integer, String>, String>>();
+        private final List<Map.Entry<Tuple<Integer, String>, String>> paramUpdates = new ArrayList<Map.Entry<Tuple<Integer, String>, String>>();
+        private final List<Tuple<Integer, String>> paramDeletes = new ArrayList<Tuple<Integer, String>>();
+        
+        private Diff() {
+        }
+
+        public List<StructRow> getStructInserts() {
+            return this.structInserts;
+        }
+
+        public List<StructRow> getStructUpdates() {
+            return this.structUpdates;
+        }
+
+        public List<Integer> getStructDeletes() {
+            return this.structDeletes;
+        }
+
+        public List<Map.Entry<Tuple<Integer, String>, String>> getParamInserts() {
+            return this.paramInserts;
+        }
+
+        public List<Map.Entry<Tuple<Integer, String>, String>> getParamUpdates() {
+            return this.paramUpdates;
+        }
+
+        public List<Tuple<Integer, String>> getParamDeletes() {
+            return this.paramDeletes;
+        }
+        
+        /**
+         * @return Total number of rows that need to be written
+         */
+        public int getChangeCount() {
+            return this.structInserts.size() + this.structUpdates.size() + this.structDeletes.size()
+                    + this.paramInserts.size() + this.paramUpdates.size() + this.paramDeletes.size();
+        }
+
+        @Override
+        public String toString() {
+            return "Diff [structInserts=" + this.structInserts.size() + ", structUpdates=" + this.structUpdates.size()
+                    + ", structDeletes=" + this.structDeletes.size() + ", paramInserts=" + this.paramInserts.size()
+                    + ", paramUpdates=" + this.paramUpdates.size() + ", paramDeletes=" + this.paramDeletes.size() + "]";
+        }
+    }
+}
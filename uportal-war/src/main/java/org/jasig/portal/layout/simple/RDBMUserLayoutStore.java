@@ -65,6 +65,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcOperations;
@@ -121,6 +122,8 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     // I18n property
     protected static final boolean localeAware = LocaleManager.isLocaleAware();
+    
+    private double maxLayoutDiffRatio = .5;
 
     @Autowired
     public void setLocaleStore(ILocaleStore localeStore) {
@@ -1180,7 +1183,286 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-    protected abstract int saveStructure (Node node, PreparedStatement structStmt, PreparedStatement parmStmt) throws SQLException;
+    /**
+     * Add the UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows for the node, its children and its following siblings to the rows
+     * 
+     * @return The struct id of the node
+     */
+    protected abstract int saveStructure (Node node, LayoutStructureRows layoutRows);
+
+    /**
+     * Ratio of changed rows to total layout rows over which a layout save deletes and re-inserts all rows for the layout
+     * instead of writing only the changed rows. 0 always re-inserts all rows, defaults to .5
+     */
+    @Value("${org.jasig.portal.layout.simple.RDBMUserLayoutStore.maxLayoutDiffRatio:.5}")
+    public void setMaxLayoutDiffRatio(double maxLayoutDiffRatio) {
+        this.maxLayoutDiffRatio = maxLayoutDiffRatio;
+    }
+
+    /**
+     * Write the layout rows, if the layout has already been persisted only the rows that changed are written.
+     * This MUST be called within a transaction.
+     */
+    protected void saveLayoutRows(Connection con, int userId, int layoutId, LayoutStructureRows layoutRows) throws SQLException {
+        if (this.maxLayoutDiffRatio > 0) {
+            final LayoutStructureRows persistedRows = this.loadLayoutRows(con, userId, layoutId);
+            if (persistedRows.getRowCount() > 0) {
+                final LayoutStructureRows.Diff diff = layoutRows.diff(persistedRows);
+                final int changeCount = diff.getChangeCount();
+                if (changeCount <= this.maxLayoutDiffRatio * Math.max(layoutRows.getRowCount(), persistedRows.getRowCount())) {
+                    this.updateLayoutRows(con, userId, layoutId, diff);
+                    logger.debug("Saved {} changed rows of {} for layout {} of user {}: {}", 
+                            new Object[] { changeCount, layoutRows.getRowCount(), layoutId, userId, diff });
+                    return;
+                }
+                
+                logger.debug("{} of {} rows changed for layout {} of user {}, replacing all rows", 
+                        new Object[] { changeCount, layoutRows.getRowCount(), layoutId, userId });
+            }
+        }
+        
+        this.replaceLayoutRows(con, userId, layoutId, layoutRows);
+    }
+    
+    /**
+     * Load the persisted UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a layout
+     */
+    protected LayoutStructureRows loadLayoutRows(Connection con, int userId, int layoutId) throws SQLException {
+        final LayoutStructureRows layoutRows = new LayoutStructureRows();
+        
+        String sql = "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+                + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+        PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    Integer chanId = rs.getInt(5);
+                    if (rs.wasNull()) {
+                        chanId = null;
+                    }
+                    layoutRows.addStruct(new LayoutStructureRows.StructRow(rs.getInt(1), rs.getInt(2), rs.getInt(3), 
+                            rs.getString(4), chanId, rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9), rs.getString(10)));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+        
+        sql = "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+        pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    layoutRows.addParam(rs.getInt(1), rs.getString(2), rs.getString(3));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+        
+        return layoutRows;
+    }
+    
+    /**
+     * Delete all persisted rows of the layout and batch insert the new rows
+     */
+    private void replaceLayoutRows(Connection con, int userId, int layoutId, LayoutStructureRows layoutRows) throws SQLException {
+        String sql = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+        PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+
+        sql = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+        pstmt = con.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug(sql);
+            pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+        
+        this.insertStructRows(con, userId, layoutId, layoutRows.getStructs());
+        this.insertParamRows(con, userId, layoutId, layoutRows.getParams().entrySet());
+    }
+    
+    /**
+     * Batch the inserts, updates and deletes for the changed rows of the layout
+     */
+    private void updateLayoutRows(Connection con, int userId, int layoutId, LayoutStructureRows.Diff diff) throws SQLException {
+        if (!diff.getParamDeletes().isEmpty()) {
+            final String sql = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                logger.debug(sql);
+                for (final Tuple<Integer, String> param : diff.getParamDeletes()) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, param.first);
+                    pstmt.setString(4, param.second);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            } finally {
+                pstmt.close();
+            }
+        }
+        
+        if (!diff.getStructDeletes().isEmpty()) {
+            final String sql = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                logger.debug(sql);
+                for (final Integer structId : diff.getStructDeletes()) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, structId);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            } finally {
+                pstmt.close();
+            }
+        }
+        
+        if (!diff.getStructUpdates().isEmpty()) {
+            final String sql = "UPDATE UP_LAYOUT_STRUCT SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, EXTERNAL_ID=?, CHAN_ID=?, NAME=?, TYPE=?, HIDDEN=?, IMMUTABLE=?, UNREMOVABLE=? "
+                    + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                logger.debug(sql);
+                for (final LayoutStructureRows.StructRow struct : diff.getStructUpdates()) {
+                    setStructColumns(pstmt, 1, struct);
+                    pstmt.setInt(10, userId);
+                    pstmt.setInt(11, layoutId);
+                    pstmt.setInt(12, struct.getStructId());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            } finally {
+                pstmt.close();
+            }
+        }
+        
+        this.insertStructRows(con, userId, layoutId, diff.getStructInserts());
+        
+        if (!diff.getParamUpdates().isEmpty()) {
+            final String sql = "UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?";
+            final PreparedStatement pstmt = con.prepareStatement(sql);
+            try {
+                logger.debug(sql);
+                for (final Map.Entry<Tuple<Integer, String>, String> param : diff.getParamUpdates()) {
+                    pstmt.setString(1, param.getValue());
+                    pstmt.setInt(2, userId);
+                    pstmt.setInt(3, layoutId);
+                    pstmt.setInt(4, param.getKey().first);
+                    pstmt.setString(5, param.getKey().second);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            } finally {
+                pstmt.close();
+            }
+        }
+        
+        this.insertParamRows(con, userId, layoutId, diff.getParamInserts());
+    }
+    
+    private void insertStructRows(Connection con, int userId, int layoutId, Collection<LayoutStructureRows.StructRow> structs) throws SQLException {
+        if (structs.isEmpty()) {
+            return;
+        }
+        
+        final String sql = "INSERT INTO UP_LAYOUT_STRUCT "
+                + "(NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE, USER_ID, LAYOUT_ID, STRUCT_ID) "
+                + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            logger.debug(sql);
+            for (final LayoutStructureRows.StructRow struct : structs) {
+                setStructColumns(pstmt, 1, struct);
+                pstmt.setInt(10, userId);
+                pstmt.setInt(11, layoutId);
+                pstmt.setInt(12, struct.getStructId());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } finally {
+            pstmt.close();
+        }
+    }
+    
+    private void insertParamRows(Connection con, int userId, int layoutId, Collection<Map.Entry<Tuple<Integer, String>, String>> params) throws SQLException {
+        if (params.isEmpty()) {
+            return;
+        }
+        
+        final String sql = "INSERT INTO UP_LAYOUT_PARAM (USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) VALUES (?,?,?,?,?)";
+        final PreparedStatement pstmt = con.prepareStatement(sql);
+        try {
+            logger.debug(sql);
+            for (final Map.Entry<Tuple<Integer, String>, String> param : params) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, layoutId);
+                pstmt.setInt(3, param.getKey().first);
+                pstmt.setString(4, param.getKey().second);
+                pstmt.setString(5, param.getValue());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        } finally {
+            pstmt.close();
+        }
+    }
+    
+    /**
+     * Sets the 9 non-key UP_LAYOUT_STRUCT columns starting at the specified parameter index
+     */
+    private static void setStructColumns(PreparedStatement pstmt, int index, LayoutStructureRows.StructRow struct) throws SQLException {
+        pstmt.setInt(index++, struct.getNextStructId());
+        pstmt.setInt(index++, struct.getChildStructId());
+        if (struct.getExternalId() != null) {
+            pstmt.setInt(index++, Integer.parseInt(struct.getExternalId()));
+        }
+        else {
+            pstmt.setNull(index++, java.sql.Types.NUMERIC);
+        }
+        if (struct.getChanId() != null) {
+            pstmt.setInt(index++, struct.getChanId());
+        }
+        else {
+            pstmt.setNull(index++, java.sql.Types.NUMERIC);
+        }
+        if (struct.getName() != null) {
+            pstmt.setString(index++, struct.getName());
+        }
+        else {
+            pstmt.setNull(index++, java.sql.Types.VARCHAR);
+        }
+        pstmt.setString(index++, struct.getType());
+        pstmt.setString(index++, struct.getHidden());
+        pstmt.setString(index++, struct.getImmutable());
+        pstmt.setString(index++, struct.getUnremovable());
+    }
 
     public void setUserBrowserMapping (final IPerson person, final String userAgentArg, final int profileId) {
         final int userId = person.getID();
@@ -1256,7 +1538,6 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                     public Object doInConnection(Connection con) throws SQLException, DataAccessException {
 
                         int layoutId = 0;
-                        ResultSet rs;
 
                         // Eventually we want to be able to just get layoutId from the
                         // profile, but because of the template user layouts we have to do this for now ...
@@ -1269,48 +1550,15 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                             firstLayout = true;
                         }
 
-                        String sql = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-                        PreparedStatement pstmt = con.prepareStatement(sql);
-                        try {
-                            pstmt.clearParameters();
-                            pstmt.setInt(1, userId);
-                            pstmt.setInt(2, layoutId);
-                                logger.debug(sql);
-                            pstmt.executeUpdate();
-                        } finally {
-                            pstmt.close();
-                        }
-
-                        sql = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-                        pstmt = con.prepareStatement(sql);
-                        try {
-                            pstmt.clearParameters();
-                            pstmt.setInt(1, userId);
-                            pstmt.setInt(2, layoutId);
-                            logger.debug(sql);
-                            pstmt.executeUpdate();
-                        } finally {
-                            pstmt.close();
-                        }
-
-                        PreparedStatement structStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_STRUCT "
-                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                                + "VALUES (" + userId + "," + layoutId + ",?,?,?,?,?,?,?,?,?,?)");
-
-                        PreparedStatement parmStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_PARAM "
-                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) " + "VALUES (" + userId + "," + layoutId + ",?,?,?)");
-
-                        int firstStructId;
-                        try {
-                            firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), structStmt, parmStmt);
-                        } finally {
-                            structStmt.close();
-                            parmStmt.close();
-                        }
+                        //Build the rows for the new layout and write only the changes to the persisted rows
+                        final LayoutStructureRows layoutRows = new LayoutStructureRows();
+                        final int firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), layoutRows);
+                        saveLayoutRows(con, userId, layoutId, layoutRows);
 
                         //Check to see if the user has a matching layout
-                        sql = "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
-                        pstmt = con.prepareStatement(sql);
+                        String sql = "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
+                        PreparedStatement pstmt = con.prepareStatement(sql);
+                        ResultSet rs;
                         try {
                             pstmt.clearParameters();
                             pstmt.setInt(1, userId);
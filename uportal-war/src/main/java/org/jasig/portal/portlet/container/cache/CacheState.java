@@ -32,6 +32,7 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     private boolean useBrowserData = false;
     private boolean browserDataMatches = false;
     private boolean browserSetEtag = false;
+    private boolean stale = false;
     private PublicPortletCacheKey publicPortletCacheKey;
     private PrivatePortletCacheKey privatePortletCacheKey;
     
@@ -74,6 +75,13 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     public boolean isBrowserSetEtag() {
         return browserSetEtag;
     }
+    /**
+     * @return true If the cached portlet data is expired but still inside of the stale-while-revalidate window. If true
+     * {@link #isUseCachedData()} will also be true and a background render is responsible for refreshing the cached data
+     */
+    public boolean isStale() {
+        return stale;
+    }
     /**
      * @return The public cache key for the portlet, will not be null
      */
@@ -91,6 +99,9 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     protected void setBrowserSetEtag(boolean browserSetEtag) {
         this.browserSetEtag = browserSetEtag;
     }
+    protected void setStale(boolean stale) {
+        this.stale = stale;
+    }
     protected void setCachedPortletData(D cachedPortletData) {
         this.cachedPortletData = cachedPortletData;
     }
@@ -21,16 +21,26 @@
  */
 package org.jasig.portal.portlet.container.cache;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.portlet.CacheControl;
 
+import org.apache.commons.io.IOUtils;
 import org.jasig.portal.portlet.rendering.PortletOutputHandler;
 
+import com.google.common.base.Charsets;
+
 /**
  * Java bean to represent the data cached for a portlet request via 
  * {@link CacheControl}s.
@@ -39,12 +49,14 @@ import org.jasig.portal.portlet.rendering.PortletOutputHandler;
  * @version $Id$
  */
 public class CachedPortletData<T extends Serializable> implements CachedPortletResultHolder<T>, Serializable {
-	private static final long serialVersionUID = 5509299103587289000L;
+	private static final long serialVersionUID = 5509299103587289001L;
 	
 	private final T portletResult;
 	
 	private final String cachedWriterOutput;
+	private final byte[] cachedWriterBytes;
 	private final byte[] cachedStreamOutput;
+	private final boolean compressed;
 
     private final String contentType;
 
@@ -66,7 +78,9 @@ public class CachedPortletData<T extends Serializable> implements CachedPortletR
         
         this.portletResult = portletResult;
         this.cachedWriterOutput = cachedWriterOutput;
+        this.cachedWriterBytes = null;
         this.cachedStreamOutput = cachedStreamOutput;
+        this.compressed = false;
         
         this.contentType = contentType;
         
@@ -76,6 +90,24 @@ public class CachedPortletData<T extends Serializable> implements CachedPortletR
         this.updateExpirationTime(expirationTime);
     }
     
+    /**
+     * Copy the source data with the output replaced by its stored form
+     */
+    private CachedPortletData(CachedPortletData<T> source, byte[] cachedWriterBytes, byte[] cachedStreamOutput, boolean compressed) {
+        this.portletResult = source.portletResult;
+        this.cachedWriterOutput = null;
+        this.cachedWriterBytes = cachedWriterBytes;
+        this.cachedStreamOutput = cachedStreamOutput;
+        this.compressed = compressed;
+        
+        this.contentType = source.contentType;
+        
+        this.publicScope = source.publicScope;
+        this.etag = source.etag;
+        this.timeStored = source.timeStored;
+        this.expirationTime = source.expirationTime;
+    }
+    
     public void replay(PortletOutputHandler portletOutputHandler) throws IOException {
         if (contentType != null) {
             portletOutputHandler.setContentType(contentType);
@@ -85,9 +117,101 @@ public class CachedPortletData<T extends Serializable> implements CachedPortletR
             final PrintWriter printWriter = portletOutputHandler.getPrintWriter();
             printWriter.write(this.cachedWriterOutput);
         }
+        else if (this.cachedWriterBytes != null) {
+            //Decode straight into the writer, no intermediate String is created
+            final PrintWriter printWriter = portletOutputHandler.getPrintWriter();
+            IOUtils.copy(new InputStreamReader(this.openStoredOutput(this.cachedWriterBytes), Charsets.UTF_8), printWriter);
+        }
         else if (this.cachedStreamOutput != null) {
             final OutputStream outputStream = portletOutputHandler.getOutputStream();
-            outputStream.write(cachedStreamOutput);
+            if (this.compressed) {
+                IOUtils.copy(this.openStoredOutput(this.cachedStreamOutput), outputStream);
+            }
+            else {
+                outputStream.write(cachedStreamOutput);
+            }
+        }
+    }
+    
+    @Override
+    public CachedPortletData<T> encodeOutput(boolean writerOutputAsBytes, int compressionThreshold) {
+        if (this.compressed) {
+            return this;
+        }
+        
+        if (this.cachedWriterOutput != null) {
+            if (!writerOutputAsBytes) {
+                return this;
+            }
+            
+            final byte[] writerBytes = this.cachedWriterOutput.getBytes(Charsets.UTF_8);
+            final byte[] deflatedBytes = deflate(writerBytes, compressionThreshold);
+            if (deflatedBytes != null) {
+                return new CachedPortletData<T>(this, deflatedBytes, null, true);
+            }
+            return new CachedPortletData<T>(this, writerBytes, null, false);
+        }
+        
+        final byte[] outputBytes = this.cachedWriterBytes != null ? this.cachedWriterBytes : this.cachedStreamOutput;
+        final byte[] deflatedBytes = deflate(outputBytes, compressionThreshold);
+        if (deflatedBytes == null) {
+            return this;
+        }
+        
+        if (this.cachedWriterBytes != null) {
+            return new CachedPortletData<T>(this, deflatedBytes, null, true);
+        }
+        return new CachedPortletData<T>(this, null, deflatedBytes, true);
+    }
+    
+    /**
+     * @return The deflated bytes, null if the data is under the threshold or did not get smaller
+     */
+    private static byte[] deflate(byte[] data, int compressionThreshold) {
+        if (data == null || compressionThreshold < 0 || data.length <= compressionThreshold) {
+            return null;
+        }
+        
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final ByteArrayOutputStream deflatedStream = new ByteArrayOutputStream(data.length / 2);
+            final DeflaterOutputStream deflaterStream = new DeflaterOutputStream(deflatedStream, deflater);
+            deflaterStream.write(data);
+            deflaterStream.close();
+            
+            if (deflatedStream.size() >= data.length) {
+                return null;
+            }
+            return deflatedStream.toByteArray();
+        }
+        catch (IOException e) {
+            //Can't happen writing to a byte array
+            throw new IllegalStateException("Failed to deflate cached portlet output", e);
+        }
+        finally {
+            deflater.end();
+        }
+    }
+    
+    private InputStream openStoredOutput(byte[] data) {
+        final InputStream inputStream = new ByteArrayInputStream(data);
+        if (this.compressed) {
+            return new InflaterInputStream(inputStream);
+        }
+        return inputStream;
+    }
+    
+    private byte[] readStoredOutput(byte[] data) {
+        if (!this.compressed) {
+            return data;
+        }
+        
+        try {
+            return IOUtils.toByteArray(this.openStoredOutput(data));
+        }
+        catch (IOException e) {
+            //Can't happen reading from a byte array
+            throw new IllegalStateException("Failed to inflate cached portlet output", e);
         }
     }
 
@@ -114,13 +238,30 @@ public class CachedPortletData<T extends Serializable> implements CachedPortletR
         return portletResult;
     }
 
+    /**
+     * @return The writer output, decoded if it is stored as bytes. Use {@link #replay(PortletOutputHandler)} to
+     * write the output without creating a String.
+     */
     public String getCachedWriterOutput() {
+        if (cachedWriterBytes != null) {
+            return new String(this.readStoredOutput(cachedWriterBytes), Charsets.UTF_8);
+        }
         return cachedWriterOutput;
     }
 
     public byte[] getCachedStreamOutput() {
+        if (cachedStreamOutput != null) {
+            return this.readStoredOutput(cachedStreamOutput);
+        }
         return cachedStreamOutput;
     }
+    
+    /**
+     * @return true if the stored output is deflated
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
 
     public String getContentType() {
         return contentType;
@@ -71,6 +71,15 @@ public class CachedPortletResourceData<T extends Serializable> implements Cached
         this.locale = locale;
     }
 
+    private CachedPortletResourceData(CachedPortletData<T> cachedPortletData, CachedPortletResourceData<T> source) {
+        this.cachedPortletData = cachedPortletData;
+        this.headers = source.headers;
+        this.status = source.status;
+        this.characterEncoding = source.characterEncoding;
+        this.contentLength = source.contentLength;
+        this.locale = source.locale;
+    }
+
     public final void replay(PortletResourceOutputHandler portletOutputHandler) throws IOException {
         //Write status
         if (status != null) {
@@ -130,6 +139,16 @@ public class CachedPortletResourceData<T extends Serializable> implements Cached
         return this.cachedPortletData.getTimeStored();
     }
 
+    @Override
+    public CachedPortletResourceData<T> encodeOutput(boolean writerOutputAsBytes, int compressionThreshold) {
+        final CachedPortletData<T> encodedPortletData = this.cachedPortletData.encodeOutput(writerOutputAsBytes, compressionThreshold);
+        if (encodedPortletData == this.cachedPortletData) {
+            return this;
+        }
+        
+        return new CachedPortletResourceData<T>(encodedPortletData, this);
+    }
+
     public CachedPortletData<T> getCachedPortletData() {
         return cachedPortletData;
     }
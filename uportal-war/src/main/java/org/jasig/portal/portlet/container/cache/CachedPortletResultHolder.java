@@ -47,4 +47,13 @@ public interface CachedPortletResultHolder<T extends Serializable> {
      * @return The time the result was cached
      */
     long getTimeStored();
+    
+    /**
+     * Convert the cached output to the form it is stored in the cache as.
+     * 
+     * @param writerOutputAsBytes If character output should be stored as UTF-8 bytes instead of a String
+     * @param compressionThreshold Byte output larger than this is deflated, -1 disables compression
+     * @return The holder with the converted output, may be this holder if no conversion was needed
+     */
+    CachedPortletResultHolder<T> encodeOutput(boolean writerOutputAsBytes, int compressionThreshold);
 }
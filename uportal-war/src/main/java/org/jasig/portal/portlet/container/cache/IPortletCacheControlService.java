@@ -21,6 +21,8 @@
  */
 package org.jasig.portal.portlet.container.cache;
 
+import java.util.Set;
+
 import javax.portlet.CacheControl;
 import javax.servlet.http.HttpServletRequest;
 
@@ -33,6 +35,11 @@ import org.jasig.portal.portlet.rendering.PortletRenderResult;
  * @author Nicholas Blair
  */
 public interface IPortletCacheControlService {
+    /**
+     * Request attribute that marks a request as a background revalidation render. Stale cached data is never
+     * replayed for a revalidating request, the portlet is always executed and its output re-cached.
+     */
+    public static final String ATTRIBUTE__REVALIDATE_CACHED_DATA = IPortletCacheControlService.class.getName() + ".REVALIDATE_CACHED_DATA";
 
 	/**
 	 * @return the maximum size of cached portlet output, in bytes
@@ -53,6 +60,24 @@ public interface IPortletCacheControlService {
      * Get the render cache state for the specified portlet 
      */
     CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> getPortletRenderState(HttpServletRequest request, IPortletWindowId portletWindowId);
+    
+    /**
+     * Get the portlets whose stale render-header output was replayed for the request and whose refresh was claimed
+     * by it. Only one request is granted the claim for a cache entry until the entry is refreshed or the
+     * stale-while-revalidate window passes, the claiming request should start a revalidating render for each portlet.
+     * 
+     * @return The portlet windows to revalidate, never null
+     */
+    Set<IPortletWindowId> getPortletRenderHeaderRevalidations(HttpServletRequest request);
+    
+    /**
+     * Get the portlets whose stale render output was replayed for the request and whose refresh was claimed
+     * by it. Only one request is granted the claim for a cache entry until the entry is refreshed or the
+     * stale-while-revalidate window passes, the claiming request should start a revalidating render for each portlet.
+     * 
+     * @return The portlet windows to revalidate, never null
+     */
+    Set<IPortletWindowId> getPortletRenderRevalidations(HttpServletRequest request);
 	
 	/**
 	 * This method checks the {@link CacheControl} to determine if the output should be captured
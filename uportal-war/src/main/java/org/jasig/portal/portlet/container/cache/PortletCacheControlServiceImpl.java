@@ -19,8 +19,12 @@
 package org.jasig.portal.portlet.container.cache;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.portlet.CacheControl;
 import javax.portlet.MimeResponse;
@@ -43,6 +47,7 @@ import org.jasig.portal.portlet.rendering.PortletRenderResult;
 import org.jasig.portal.url.IPortalRequestInfo;
 import org.jasig.portal.url.IUrlSyntaxProvider;
 import org.jasig.portal.utils.cache.TaggedCacheEntryPurger;
+import org.jasig.portal.utils.web.PortalWebUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -51,6 +56,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.support.RequestContextUtils;
 
+import com.google.common.cache.CacheBuilder;
+
 
 /**
  * Default implementation of {@link IPortletCacheControlService}.
@@ -63,6 +70,8 @@ import org.springframework.web.servlet.support.RequestContextUtils;
 public class PortletCacheControlServiceImpl implements IPortletCacheControlService {
     private static final String IF_NONE_MATCH = "If-None-Match";
     private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String PORTLET_RENDER_HEADER_REVALIDATIONS = PortletCacheControlServiceImpl.class.getName() + ".PORTLET_RENDER_HEADER_REVALIDATIONS";
+    private static final String PORTLET_RENDER_REVALIDATIONS = PortletCacheControlServiceImpl.class.getName() + ".PORTLET_RENDER_REVALIDATIONS";
     
 	protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
@@ -84,6 +93,14 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     // default to 100 KB
     private int cacheSizeThreshold = 102400;
     
+    private boolean storeWriterOutputAsBytes = false;
+    // default to disabled
+    private int compressionThreshold = -1;
+    
+    // default to disabled
+    private int staleWhileRevalidateTime = 0;
+    private ConcurrentMap<Serializable, Boolean> revalidatingCacheKeys = createRevalidatingCacheKeys(0);
+    
     @Autowired
     public void setTaggedCacheEntryPurger(TaggedCacheEntryPurger taggedCacheEntryPurger) {
         this.taggedCacheEntryPurger = taggedCacheEntryPurger;
@@ -138,6 +155,44 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 	public int getCacheSizeThreshold() {
 		return cacheSizeThreshold;
 	}
+	
+	/**
+	 * @param storeWriterOutputAsBytes If character output should be stored in the caches as UTF-8 bytes instead of a String
+	 */
+	@Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.storeWriterOutputAsBytes:false}")
+	public void setStoreWriterOutputAsBytes(boolean storeWriterOutputAsBytes) {
+	    this.storeWriterOutputAsBytes = storeWriterOutputAsBytes;
+	}
+	
+	/**
+	 * @param compressionThreshold Cached byte output larger than this many bytes is deflated, -1 disables compression
+	 */
+	@Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.compressionThreshold:-1}")
+	public void setCompressionThreshold(int compressionThreshold) {
+	    this.compressionThreshold = compressionThreshold;
+	}
+	
+	/**
+	 * Number of seconds after expiration that cached render, render-header and resource output is still
+	 * served while a single render refreshes it. Defaults to 0 which disables stale-while-revalidate.
+	 */
+	@Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.staleWhileRevalidateTime:0}")
+	public void setStaleWhileRevalidateTime(int staleWhileRevalidateTime) {
+	    this.staleWhileRevalidateTime = staleWhileRevalidateTime;
+	    this.revalidatingCacheKeys = createRevalidatingCacheKeys(staleWhileRevalidateTime);
+	}
+	
+	/**
+	 * Revalidation claims are dropped after the stale window passes so a failed refresh is retried by
+	 * a later request instead of leaving the claim behind forever.
+	 */
+	private static ConcurrentMap<Serializable, Boolean> createRevalidatingCacheKeys(int staleWhileRevalidateTime) {
+	    return CacheBuilder.newBuilder()
+	            .expireAfterWrite(Math.max(1, staleWhileRevalidateTime), TimeUnit.SECONDS)
+	            .<Serializable, Boolean>build()
+	            .asMap();
+	}
+	
 	@Autowired
 	public void setPortletWindowRegistry(
 			IPortletWindowRegistry portletWindowRegistry) {
@@ -173,7 +228,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletRenderHeaderOutputCache,
                 this.privateScopePortletRenderHeaderOutputCache,
-                false);
+                false,
+                PORTLET_RENDER_HEADER_REVALIDATIONS);
     }
     
     @Override
@@ -196,7 +252,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletRenderOutputCache,
                 this.privateScopePortletRenderOutputCache,
-                false);
+                false,
+                PORTLET_RENDER_REVALIDATIONS);
     }
     
     @Override
@@ -219,7 +276,62 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 this.publicScopePortletResourceOutputCache,
                 this.privateScopePortletResourceOutputCache,
-                true);
+                true,
+                null);
+    }
+    
+    @Override
+    public Set<IPortletWindowId> getPortletRenderHeaderRevalidations(HttpServletRequest request) {
+        return getPortletRevalidations(request, PORTLET_RENDER_HEADER_REVALIDATIONS);
+    }
+    
+    @Override
+    public Set<IPortletWindowId> getPortletRenderRevalidations(HttpServletRequest request) {
+        return getPortletRevalidations(request, PORTLET_RENDER_REVALIDATIONS);
+    }
+    
+    /**
+     * @return The portlet windows recorded in the request attribute by {@link #getPortletState}, never null
+     */
+    protected static Set<IPortletWindowId> getPortletRevalidations(HttpServletRequest request, String revalidationsAttribute) {
+        final Map<IPortletWindowId, Boolean> portletRevalidations = PortalWebUtils.getMapRequestAttribute(request, revalidationsAttribute, false);
+        if (portletRevalidations == null) {
+            return Collections.emptySet();
+        }
+        return portletRevalidations.keySet();
+    }
+    
+    /**
+     * @return true if no other caller has claimed revalidation of the cache key
+     */
+    protected boolean claimRevalidation(Serializable cacheKey) {
+        final boolean claimed = this.revalidatingCacheKeys.putIfAbsent(cacheKey, Boolean.TRUE) == null;
+        logger.debug("Revalidation claim for stale cached output with key {}: {}", cacheKey, claimed);
+        return claimed;
+    }
+    
+    /**
+     * @return The key the cached data in the cache state was found under
+     */
+    protected static Serializable getCacheKey(CacheState<?, ?> cacheState) {
+        final PrivatePortletCacheKey privateCacheKey = cacheState.getPrivatePortletCacheKey();
+        if (privateCacheKey != null) {
+            return privateCacheKey;
+        }
+        return cacheState.getPublicPortletCacheKey();
+    }
+    
+    /**
+     * @return true if the cached data has expired but is still within the stale-while-revalidate window
+     */
+    protected boolean isStaleWithinWindow(HttpServletRequest request, CachedPortletResultHolder<?> cachedPortletData) {
+        if (this.staleWhileRevalidateTime <= 0 || request.getAttribute(ATTRIBUTE__REVALIDATE_CACHED_DATA) != null) {
+            return false;
+        }
+        
+        final long expirationTime = cachedPortletData.getExpirationTime();
+        return expirationTime != -1 && 
+                expirationTime + TimeUnit.SECONDS.toMillis(this.staleWhileRevalidateTime) > System.currentTimeMillis();
     }
     
     private <D extends CachedPortletResultHolder<T>, T extends Serializable> CacheState<D, T> getPortletState(
@@ -228,7 +340,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             PublicPortletCacheKey publicCacheKey, 
             Ehcache publicOutputCache, 
             Ehcache privateOutputCache, 
-            boolean useHttpHeaders) {
+            boolean useHttpHeaders,
+            String revalidationsAttribute) {
         
         //See if there is any cached data for the portlet header request
         final CacheState<D, T> cacheState = this.<D, T> getPortletCacheState(request,
@@ -269,6 +382,24 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 //No browser side data to be used, return the cached data for replay
                 return cacheState;
             }
+            
+            //Expired data inside the stale window is replayed while a single render refreshes it. Render
+            //output is refreshed by a background worker that the claiming request starts once it completes,
+            //other output is refreshed by the claiming request itself
+            if (this.isStaleWithinWindow(request, cachedPortletData)) {
+                final boolean claimed = this.claimRevalidation(getCacheKey(cacheState));
+                if (claimed && revalidationsAttribute != null) {
+                    final ConcurrentMap<IPortletWindowId, Boolean> portletRevalidations = PortalWebUtils.getMapRequestAttribute(request, revalidationsAttribute);
+                    portletRevalidations.put(portletWindow.getPortletWindowId(), Boolean.TRUE);
+                }
+                
+                if (!claimed || revalidationsAttribute != null) {
+                    cacheState.setUseCachedData(true);
+                    cacheState.setStale(true);
+                    cacheState.setUseBrowserData(cacheState.isBrowserDataMatches());
+                    return cacheState;
+                }
+            }
         }
         
         //Build CacheControl structure
@@ -433,6 +564,7 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         if (cacheControl.isPublicScope()) {
             final PublicPortletCacheKey publicCacheKey = cacheState.getPublicPortletCacheKey();
             this.cacheElement(publicOutputCache, publicCacheKey, cachedPortletData, cacheControl);
+            this.revalidatingCacheKeys.remove(publicCacheKey);
             logger.debug("Cached public data under key {} for {}", publicCacheKey, portletWindow);
         }
         else {
@@ -448,6 +580,7 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             }
             
             this.cacheElement(privateOutputCache, privateCacheKey, cachedPortletData, cacheControl);
+            this.revalidatingCacheKeys.remove(privateCacheKey);
             logger.debug("Cached private data under key {} for {}", privateCacheKey, portletWindow);
         }
     }
@@ -457,6 +590,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 	 * The element's ttl will be set depending on whether expiration or validation method is indicated from the CacheControl and the cache's configuration.
 	 */
 	protected void cacheElement(Ehcache cache, Serializable cacheKey, CachedPortletResultHolder<?> data, CacheControl cacheControl) {
+	    data = data.encodeOutput(this.storeWriterOutputAsBytes, this.compressionThreshold);
+	    
 		// using validation method, ignore expirationTime and defer to cache configuration
         if (cacheControl.getETag() != null) {
             final Element element = new Element(cacheKey, data);
@@ -473,11 +608,13 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 		}
 
 		// using expiration method with a positive expiration, set that value as the element's TTL if it is lower than the configured cache TTL
+		// the element is kept through the stale-while-revalidate window so expired data can still be replayed
 		final CacheConfiguration cacheConfiguration = cache.getCacheConfiguration();
 		final Element element = new Element(cacheKey, data);
         final long cacheTTL = cacheConfiguration.getTimeToLiveSeconds();
-        if (expirationTime < cacheTTL) {
-            element.setTimeToLive(expirationTime);
+        final int timeToLive = expirationTime + Math.max(0, this.staleWhileRevalidateTime);
+        if (timeToLive < cacheTTL) {
+            element.setTimeToLive(timeToLive);
         }
 		cache.put(element);
 	}
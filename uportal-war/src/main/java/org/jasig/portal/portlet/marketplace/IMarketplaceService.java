@@ -138,4 +138,15 @@ public interface IMarketplaceService {
      */
     MarketplacePortletDefinition getOrCreateMarketplacePortletDefinitionIfTheFnameExists(String fname);
 
+    /**
+     * Notifies the service that a portlet definition was saved or deleted, including changes to its
+     * permissions, lifecycle state or categories. Cached browseable entries are updated for just that
+     * portlet the next time they are requested.
+     *
+     * @param portletDefinition the non-null portlet definition that changed
+     * @throws IllegalArgumentException if portletDefinition is null
+     * @since uPortal 4.2
+     */
+    void portletDefinitionChanged(IPortletDefinition portletDefinition);
+
 }
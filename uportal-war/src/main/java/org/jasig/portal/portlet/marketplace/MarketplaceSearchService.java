@@ -19,6 +19,7 @@
 
 package org.jasig.portal.portlet.marketplace;
 
+import java.util.EnumSet;
 import java.util.List;
 
 import javax.portlet.PortletRequest;
@@ -26,10 +27,12 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.jasig.portal.portlet.PortletUtils;
 import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
 import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.om.IPortletWindowId;
-import org.jasig.portal.portlet.registry.IPortletCategoryRegistry;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.portlet.registry.IPortletDefinitionSearchIndex;
+import org.jasig.portal.portlet.registry.IPortletDefinitionSearchIndex.SearchField;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
 import org.jasig.portal.portlets.search.IPortalSearchService;
 import org.jasig.portal.search.SearchResult;
@@ -56,8 +59,7 @@ public class MarketplaceSearchService implements IPortalSearchService {
     private IPortalUrlProvider portalUrlProvider;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortalRequestUtils portalRequestUtils;
-    private IMarketplaceService marketplaceService;
-    private IPortletCategoryRegistry portletCategoryRegistry;
+    private IPortletDefinitionSearchIndex portletDefinitionSearchIndex;
 
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
@@ -80,34 +82,28 @@ public class MarketplaceSearchService implements IPortalSearchService {
     }
     
     @Autowired
-    public void setPortletCategoryRegistry(IPortletCategoryRegistry portletCategoryRegistry) {
-        this.portletCategoryRegistry = portletCategoryRegistry;
-    }
-
-    @Autowired
-    public void setMarketplaceService(final IMarketplaceService marketplaceService) {
-        this.marketplaceService = marketplaceService;
+    public void setPortletDefinitionSearchIndex(IPortletDefinitionSearchIndex portletDefinitionSearchIndex) {
+        this.portletDefinitionSearchIndex = portletDefinitionSearchIndex;
     }
     
     /**
      * Returns a list of search results that pertain to the marketplace
      * query is the query to search
-     * will search name, title, description, fname, and captions
+     * will search name, title, description, fname, keywords, categories, captions and release notes
      */
     @Override
     public SearchResults getSearchResults(PortletRequest request,
             SearchRequest query) {
         
-        final String queryString = query.getSearchTerms().toLowerCase();
-        final List<IPortletDefinition> portlets = portletDefinitionRegistry.getAllPortletDefinitions();
+        final List<IPortletDefinitionId> portletIds = this.portletDefinitionSearchIndex.search(
+                query.getSearchTerms(), EnumSet.allOf(SearchField.class), -1);
         
         final HttpServletRequest httpServletRequest = this.portalRequestUtils.getPortletHttpRequest(request);
         
         final SearchResults results =  new SearchResults();
-        for (IPortletDefinition portlet : portlets) {
-            if (this.matches(queryString,
-                new MarketplacePortletDefinition(portlet,
-                    this.marketplaceService, this.portletCategoryRegistry))) {
+        for (final IPortletDefinitionId portletId : portletIds) {
+            final IPortletDefinition portlet = this.portletDefinitionRegistry.getPortletDefinition(portletId);
+            if (portlet != null) {
                 final SearchResult result = new SearchResult();
                 result.setTitle(portlet.getTitle());
                 result.setSummary(portlet.getDescription());
@@ -141,51 +137,4 @@ public class MarketplaceSearchService implements IPortalSearchService {
     	}
         return results;
     }
-    
-    /**
-     * @param query
-     * @param portlet
-     * @return boolean whether query matched criteria in the marketplace portlet definition
-     */
-    protected boolean matches(String query, MarketplacePortletDefinition portlet) {
-        return portlet.getTitle().contains(query) ||
-                portlet.getName().contains(query) ||
-                (portlet.getDescription() != null && portlet.getDescription().contains(query)) ||
-                portlet.getFName().contains(query) ||
-                this.captionMatches(query, portlet.getScreenShots()) ||
-                this.releaseNotesMatches(query, portlet.getPortletReleaseNotes())	
-                ;
-    }
-    
-    /**
-     * @param query
-     * @param screenShots
-     * @return boolean whether caption matches.  Used by matches method
-     */
-    protected boolean captionMatches(String query, List<ScreenShot> screenShots){
-    	for(ScreenShot screenShot: screenShots){
-    		for(String caption: screenShot.getCaptions()){
-    			if(caption.contains(query)){
-    				return true;
-    			}
-    		}
-    	}
-    	return false;
-    }
-    
-    /**
-     * @param query
-     * @param portletReleaseNotes
-     * @return boolean whether releaseNotes notes matches.  Used by matches method
-     */
-    protected boolean releaseNotesMatches(String query, PortletReleaseNotes portletReleaseNotes){
-    	if(portletReleaseNotes.getReleaseNotes()!=null){
-    		for(String notes : portletReleaseNotes.getReleaseNotes()){
-    			if(notes.contains(query)){
-    				return true;
-    			}
-    		}
-    	}
-    	return false;
-    }
 }
@@ -18,13 +18,17 @@
  */
 package org.jasig.portal.portlet.marketplace;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
 
 import org.apache.commons.lang3.Validate;
 import org.jasig.portal.concurrency.caching.RequestCache;
 import org.jasig.portal.events.LoginEvent;
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.groups.IGroupMember;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.PortletCategory;
 import org.jasig.portal.portlet.registry.IPortletCategoryRegistry;
@@ -41,10 +45,16 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Service;
 
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Future;
 
 /**
@@ -64,21 +74,60 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
     private IAuthorizationService authorizationService;
     private boolean enableMarketplacePreloading = false;
 
-    @Autowired
-    @Qualifier(value = "org.jasig.portal.portlet.marketplace.MarketplaceService.marketplacePortletDefinitionCache")
+    /**
+     * Number of portlet definition changes remembered for incrementally updating cached entry sets
+     */
+    private static final int MAX_TRACKED_PORTLET_CHANGES = 1000;
+
+    /**
+     * Key of the change stamp in the equivalence class cache. The stamp is invalidated on the other servers in the
+     * cluster when a portlet changes, a server without a stamp rebuilds all of its entry sets.
+     */
+    static final String PORTLET_CHANGE_STAMP_KEY = MarketplaceService.class.getName() + ".PORTLET_CHANGE_STAMP";
+
+    /**
+     * Version of the most recent portlet definition change, and the ids of the portlets changed by version. Both
+     * are only modified while holding portletChangesLock.
+     */
+    private final Object portletChangesLock = new Object();
+    private volatile long portletChangeVersion = 0;
+    private final ConcurrentNavigableMap<Long, String> portletChanges = new ConcurrentSkipListMap<>();
+    private volatile long prunedChangeVersion = 0;
+
     private Cache marketplacePortletDefinitionCache;
-    
+
+    /**
+     * Cache of Username -> authorization equivalence key
+     */
+    private Cache marketplaceUserPortletDefinitionCache;
+
+    /**
+     * Cache of authorization equivalence key -> MarketplaceEntrySet
+     */
+    private Cache marketplaceEquivalenceClassEntriesCache;
+
     @Autowired
     public void setAuthorizationService(IAuthorizationService service) {
         this.authorizationService = service;
     }
 
-    /**
-     * Cache of Username -> Future<Set<MarketplaceEntry>
-     */
     @Autowired
-    @Qualifier(value = "org.jasig.portal.portlet.marketplace.MarketplaceService.marketplaceUserPortletDefinitionCache")
-    private Cache marketplaceUserPortletDefinitionCache;
+    public void setMarketplacePortletDefinitionCache(
+            @Qualifier("org.jasig.portal.portlet.marketplace.MarketplaceService.marketplacePortletDefinitionCache") Cache marketplacePortletDefinitionCache) {
+        this.marketplacePortletDefinitionCache = marketplacePortletDefinitionCache;
+    }
+
+    @Autowired
+    public void setMarketplaceUserPortletDefinitionCache(
+            @Qualifier("org.jasig.portal.portlet.marketplace.MarketplaceService.marketplaceUserPortletDefinitionCache") Cache marketplaceUserPortletDefinitionCache) {
+        this.marketplaceUserPortletDefinitionCache = marketplaceUserPortletDefinitionCache;
+    }
+
+    @Autowired
+    public void setMarketplaceEquivalenceClassEntriesCache(
+            @Qualifier("org.jasig.portal.portlet.marketplace.MarketplaceService.marketplaceEquivalenceClassEntriesCache") Cache marketplaceEquivalenceClassEntriesCache) {
+        this.marketplaceEquivalenceClassEntriesCache = marketplaceEquivalenceClassEntriesCache;
+    }
 
     @Value("${org.jasig.portal.portlets.marketplacePortlet.loadMarketplaceOnLogin:false}")
     public void setLoadMarketplaceOnLogin(final boolean enableMarketplacePreloading) {
@@ -103,53 +152,170 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
 
     @Async
     public Future<ImmutableSet<MarketplaceEntry>> loadMarketplaceEntriesFor(final IPerson user) {
-        final List<IPortletDefinition> allPortletDefinitions =
-                this.portletDefinitionRegistry.getAllPortletDefinitions();
+        return new AsyncResult<>(browseableMarketplaceEntriesFor(user));
+    }
 
-        final Set<MarketplaceEntry> visiblePortletDefinitions = new HashSet<>();
+    @Override
+    public ImmutableSet<MarketplaceEntry> browseableMarketplaceEntriesFor(final IPerson user) {
+        Validate.notNull(user, "Cannot determine browseable marketplace entries for null user.");
 
-        for (final IPortletDefinition portletDefinition : allPortletDefinitions) {
+        final Serializable equivalenceKey = getAuthorizationEquivalenceKey(user);
+        final long currentVersion = getPortletChangeVersion();
 
-            if (mayBrowsePortlet(user, portletDefinition)) {
-                final MarketplacePortletDefinition marketplacePortletDefinition = getOrCreateMarketplacePortletDefinition(portletDefinition);
-                final MarketplaceEntry entry =
-                    new MarketplaceEntry(marketplacePortletDefinition, user);
+        final Element cacheElement = marketplaceEquivalenceClassEntriesCache.get(equivalenceKey);
+        MarketplaceEntrySet entrySet = cacheElement != null ? (MarketplaceEntrySet) cacheElement.getObjectValue() : null;
+        if (entrySet == null || entrySet.version < this.prunedChangeVersion) {
+            entrySet = loadMarketplaceEntrySet(user, currentVersion);
+            //Quiet put, entry sets are rebuilt independently on each server
+            marketplaceEquivalenceClassEntriesCache.putQuiet(new Element(equivalenceKey, entrySet));
+        }
+        else if (entrySet.version < currentVersion) {
+            entrySet = updateMarketplaceEntrySet(user, entrySet, currentVersion);
+            marketplaceEquivalenceClassEntriesCache.putQuiet(new Element(equivalenceKey, entrySet));
+        }
 
-                // flag whether this use can add the portlet...
-                boolean canAdd = mayAddPortlet(user, portletDefinition);
-                entry.setCanAdd(canAdd);
+        //Entries reference the user they are for so each user gets their own
+        final ImmutableSet.Builder<MarketplaceEntry> entries = ImmutableSet.builder();
+        for (final BrowseablePortlet browseablePortlet : entrySet.portletsById.values()) {
+            final MarketplaceEntry entry = new MarketplaceEntry(browseablePortlet.marketplacePortletDefinition, user);
+            entry.setCanAdd(browseablePortlet.canAdd);
+            entries.add(entry);
+        }
+        return entries.build();
+    }
 
-                visiblePortletDefinitions.add(entry);
+    @Override
+    public void portletDefinitionChanged(final IPortletDefinition portletDefinition) {
+        Validate.notNull(portletDefinition, "Cannot handle a change to a null portlet definition.");
+
+        marketplacePortletDefinitionCache.remove(portletDefinition.getFName());
+
+        final long version;
+        synchronized (this.portletChangesLock) {
+            version = this.portletChangeVersion + 1;
+            this.portletChanges.put(version, portletDefinition.getPortletDefinitionId().getStringId());
+            this.portletChangeVersion = version;
+
+            //Bound the change log, entry sets older than the oldest retained change are rebuilt. The pruned
+            //version is raised before the change is removed so a concurrent update never misses a change.
+            while (this.portletChanges.size() > MAX_TRACKED_PORTLET_CHANGES) {
+                final Long oldestChange = this.portletChanges.firstKey();
+                this.prunedChangeVersion = oldestChange;
+                this.portletChanges.remove(oldestChange);
             }
         }
 
-        logger.trace("These portlet definitions {} are browseable by {}.", visiblePortletDefinitions, user);
+        //Non-quiet put so the stamp is invalidated on the other servers
+        marketplaceEquivalenceClassEntriesCache.put(new Element(PORTLET_CHANGE_STAMP_KEY, version));
+    }
 
-        Future<ImmutableSet<MarketplaceEntry>> result = new AsyncResult<>(ImmutableSet.copyOf(visiblePortletDefinitions));
-        Element cacheElement = new Element(user.getUserName(), result);
-        marketplaceUserPortletDefinitionCache.put(cacheElement);
+    /**
+     * @return The current portlet change version, if the change stamp is missing because a portlet changed on
+     *      another server all cached entry sets are treated as out of date.
+     */
+    private long getPortletChangeVersion() {
+        if (marketplaceEquivalenceClassEntriesCache.get(PORTLET_CHANGE_STAMP_KEY) != null) {
+            return this.portletChangeVersion;
+        }
 
-        return result;
+        synchronized (this.portletChangesLock) {
+            final long version = this.portletChangeVersion + 1;
+            this.portletChangeVersion = version;
+            this.prunedChangeVersion = version;
+            marketplaceEquivalenceClassEntriesCache.putQuiet(new Element(PORTLET_CHANGE_STAMP_KEY, version));
+            return version;
+        }
     }
 
-    @Override
-    public ImmutableSet<MarketplaceEntry> browseableMarketplaceEntriesFor(final IPerson user) {
-        Element cacheElement = marketplaceUserPortletDefinitionCache.get(user.getUserName());
-        Future<ImmutableSet<MarketplaceEntry>> future = null;
-        if (cacheElement == null) {
-            // not in cache, load it and cache the results...
-            future = loadMarketplaceEntriesFor(user);
-        } else {
-            future = (Future<ImmutableSet<MarketplaceEntry>>)cacheElement.getObjectValue();
+    /**
+     * Users whose permissions are determined by the same set of groups share marketplace entries. Users with
+     * permissions granted directly to them are their own equivalence class.
+     */
+    protected Serializable getAuthorizationEquivalenceKey(final IPerson user) {
+        final Element cacheElement = marketplaceUserPortletDefinitionCache.get(user.getUserName());
+        if (cacheElement != null) {
+            return (Serializable) cacheElement.getObjectValue();
+        }
+
+        final IAuthorizationPrincipal principal = AuthorizationPrincipalHelper.principalFromUser(user);
+
+        final Serializable equivalenceKey;
+        final IPermission[] directPermissions = authorizationService.getPermissionsForPrincipal(principal, null, null, null);
+        if (directPermissions != null && directPermissions.length > 0) {
+            equivalenceKey = ImmutableList.of(user.isGuest(), user.getUserName());
+        }
+        else {
+            final ImmutableSortedSet.Builder<String> groupKeys = ImmutableSortedSet.naturalOrder();
+            final IGroupMember groupMember = authorizationService.getGroupMember(principal);
+            for (final Iterator<?> groupItr = groupMember.getAllContainingGroups(); groupItr.hasNext();) {
+                groupKeys.add(((IEntityGroup) groupItr.next()).getKey());
+            }
+            equivalenceKey = ImmutableList.of(user.isGuest(), groupKeys.build());
         }
 
-        try {
-            return future.get();
+        marketplaceUserPortletDefinitionCache.put(new Element(user.getUserName(), equivalenceKey));
+        return equivalenceKey;
+    }
+
+    private MarketplaceEntrySet loadMarketplaceEntrySet(final IPerson user, final long version) {
+        final List<IPortletDefinition> allPortletDefinitions =
+                this.portletDefinitionRegistry.getAllPortletDefinitions();
 
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error(e.getMessage(), e);
-            return ImmutableSet.of();
+        final Map<String, BrowseablePortlet> visiblePortletDefinitions = new LinkedHashMap<>();
+        for (final IPortletDefinition portletDefinition : allPortletDefinitions) {
+            final BrowseablePortlet browseablePortlet = createBrowseablePortlet(user, portletDefinition);
+            if (browseablePortlet != null) {
+                visiblePortletDefinitions.put(portletDefinition.getPortletDefinitionId().getStringId(), browseablePortlet);
+            }
         }
+
+        logger.trace("These portlet definitions {} are browseable by {}.", visiblePortletDefinitions.keySet(), user);
+
+        return new MarketplaceEntrySet(version, visiblePortletDefinitions);
+    }
+
+    /**
+     * Re-evaluate only the portlets that changed since the entry set was built
+     */
+    private MarketplaceEntrySet updateMarketplaceEntrySet(final IPerson user, final MarketplaceEntrySet entrySet, final long version) {
+        final Set<String> changedPortletIds = new HashSet<>(this.portletChanges.subMap(entrySet.version, false, version, true).values());
+        if (entrySet.version < this.prunedChangeVersion) {
+            //Changes were pruned while reading the change log
+            return loadMarketplaceEntrySet(user, version);
+        }
+
+        final Map<String, BrowseablePortlet> visiblePortletDefinitions = new LinkedHashMap<>(entrySet.portletsById);
+        for (final String portletDefinitionId : changedPortletIds) {
+            visiblePortletDefinitions.remove(portletDefinitionId);
+
+            final IPortletDefinition portletDefinition = this.portletDefinitionRegistry.getPortletDefinition(portletDefinitionId);
+            if (portletDefinition != null) {
+                final BrowseablePortlet browseablePortlet = createBrowseablePortlet(user, portletDefinition);
+                if (browseablePortlet != null) {
+                    visiblePortletDefinitions.put(portletDefinitionId, browseablePortlet);
+                }
+            }
+        }
+
+        logger.trace("Re-evaluated changed portlet definitions {} for {}.", changedPortletIds, user);
+
+        return new MarketplaceEntrySet(version, visiblePortletDefinitions);
+    }
+
+    /**
+     * @return The browseable portlet, null if the user may not browse it
+     */
+    private BrowseablePortlet createBrowseablePortlet(final IPerson user, final IPortletDefinition portletDefinition) {
+        if (!mayBrowsePortlet(user, portletDefinition)) {
+            return null;
+        }
+
+        final MarketplacePortletDefinition marketplacePortletDefinition = getOrCreateMarketplacePortletDefinition(portletDefinition);
+
+        // flag whether this use can add the portlet...
+        final boolean canAdd = mayAddPortlet(user, portletDefinition);
+
+        return new BrowseablePortlet(marketplacePortletDefinition, canAdd);
     }
 
     @Override
@@ -311,4 +477,30 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
         this.portletCategoryRegistry = portletCategoryRegistry;
     }
 
+    /**
+     * Browseable portlets shared by an authorization equivalence class, current as of a portlet change version
+     */
+    private static final class MarketplaceEntrySet {
+        private final long version;
+        private final Map<String, BrowseablePortlet> portletsById;
+
+        public MarketplaceEntrySet(long version, Map<String, BrowseablePortlet> portletsById) {
+            this.version = version;
+            this.portletsById = Collections.unmodifiableMap(portletsById);
+        }
+    }
+
+    /**
+     * A portlet browseable by an authorization equivalence class, holds nothing specific to a single user
+     */
+    private static final class BrowseablePortlet {
+        private final MarketplacePortletDefinition marketplacePortletDefinition;
+        private final boolean canAdd;
+
+        public BrowseablePortlet(MarketplacePortletDefinition marketplacePortletDefinition, boolean canAdd) {
+            this.marketplacePortletDefinition = marketplacePortletDefinition;
+            this.canAdd = canAdd;
+        }
+    }
+
 }
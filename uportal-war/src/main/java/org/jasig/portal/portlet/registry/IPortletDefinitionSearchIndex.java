@@ -0,0 +1,86 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.registry;
+
+import java.util.List;
+import java.util.Set;
+
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
+
+/**
+ * In-memory inverted index over the tokenized text of all {@link IPortletDefinition}s, used to answer
+ * portlet searches without scanning the whole registry.
+ */
+public interface IPortletDefinitionSearchIndex {
+    /**
+     * The portlet definition text that is indexed, along with the relative weight of a match in each field
+     */
+    public enum SearchField {
+        TITLE(8),
+        NAME(6),
+        FNAME(4),
+        KEYWORDS(4),
+        CATEGORIES(2),
+        DESCRIPTION(2),
+        /**
+         * Marketplace screen shot captions and release notes
+         */
+        MARKETPLACE_TEXT(1);
+        
+        private final int weight;
+        
+        private SearchField(int weight) {
+            this.weight = weight;
+        }
+        
+        public int getWeight() {
+            return this.weight;
+        }
+    }
+    
+    /**
+     * Find the portlet definitions that match every term in the query. Each query term matches indexed
+     * terms that it is equal to or a prefix of, exact matches and matches in more heavily weighted fields
+     * rank higher.
+     * 
+     * @param query The user's search terms
+     * @param fields The fields to match the query against
+     * @param maxResults Maximum number of results to return, -1 for no limit
+     * @return The ids of the matching portlet definitions, best match first
+     */
+    public List<IPortletDefinitionId> search(String query, Set<SearchField> fields, int maxResults);
+    
+    /**
+     * Add or replace the indexed text for the portlet definition, call after a definition or its
+     * categories are saved.
+     */
+    public void indexPortletDefinition(IPortletDefinition portletDefinition);
+    
+    /**
+     * Remove the portlet definition from the index, call after a definition is deleted.
+     */
+    public void removePortletDefinition(IPortletDefinition portletDefinition);
+    
+    /**
+     * Rebuild the index from all portlet definitions in the registry
+     */
+    public void rebuildIndex();
+}
@@ -32,6 +32,7 @@ import org.apache.pluto.container.driver.PortletRegistryService;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.concurrency.caching.RequestCache;
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionId;
@@ -56,6 +57,7 @@ public class PortletDefinitionRegistryImpl implements IPortletDefinitionRegistry
     private IPortletDefinitionDao portletDefinitionDao;
     private PortalDriverContainerServices portalDriverContainerServices;
     private ServletContext servletContext;
+    private IUserLayoutVersionService userLayoutVersionService;
     
     /**
      * @return the portletDefinitionDao
@@ -87,6 +89,11 @@ public class PortletDefinitionRegistryImpl implements IPortletDefinitionRegistry
 		this.portalDriverContainerServices = portalDriverContainerServices;
 	}
     
+    @Autowired
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
+    
     /* (non-Javadoc)
      * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
      */
@@ -155,6 +162,7 @@ public class PortletDefinitionRegistryImpl implements IPortletDefinitionRegistry
     public void deletePortletDefinition(IPortletDefinition portletDefinition) {
         Validate.notNull(portletDefinition, "portletDefinition can not be null");
         this.portletDefinitionDao.deletePortletDefinition(portletDefinition);
+        this.userLayoutVersionService.incrementAllLayoutVersions();
     }
     
     /* (non-Javadoc)
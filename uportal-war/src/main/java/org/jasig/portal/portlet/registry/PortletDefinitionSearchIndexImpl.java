@@ -0,0 +1,520 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.registry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.driver.PortalDriverContainerServices;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.container.om.portlet.PortletInfo;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
+import org.jasig.portal.portlet.om.IPortletPreference;
+import org.jasig.portal.portlet.om.PortletCategory;
+import org.jasig.portal.utils.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Inverted index from lower-cased terms to the portlet definitions and fields that contain them. The
+ * index is built from the registry on first use, updated incrementally as definitions are saved and
+ * deleted and rebuilt in the background once it is older than {@link #setMaxIndexAge(long)} to pick up
+ * changes made by other servers or directly in the database.
+ */
+@Service
+public class PortletDefinitionSearchIndexImpl implements IPortletDefinitionSearchIndex {
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern CAPTION_PREFERENCE_NAME = Pattern.compile("screen_shot\\d+_caption", Pattern.CASE_INSENSITIVE);
+    private static final String RELEASE_NOTES_PREFERENCE_NAME = "Release_Notes";
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final Lock rebuildLock = new ReentrantLock();
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    
+    /**
+     * term -> (portlet definition id -> bit mask of the {@link SearchField}s containing the term)
+     */
+    private NavigableMap<String, Map<String, Integer>> postings = new TreeMap<String, Map<String, Integer>>();
+    private Map<String, IndexedPortletDefinition> portletDefinitions = new HashMap<String, IndexedPortletDefinition>();
+    private volatile long lastRebuild = -1;
+    /**
+     * portlet definition id -> re-indexed definition, null if removed. Records changes made while a rebuild
+     * reads the registry so they can be applied to the rebuilt index. Null when no rebuild is running.
+     */
+    private volatile Map<String, IndexedPortletDefinition> rebuildChanges;
+    
+    private ExecutorService executorService;
+    private IPortletDefinitionRegistry portletDefinitionRegistry;
+    private IPortletCategoryRegistry portletCategoryRegistry;
+    private PortalDriverContainerServices portalDriverContainerServices;
+    private long maxIndexAge = 300000;
+    
+    @Autowired
+    @Qualifier("uPortalTaskExecutor")
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    @Autowired
+    public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
+        this.portletDefinitionRegistry = portletDefinitionRegistry;
+    }
+
+    @Autowired
+    public void setPortletCategoryRegistry(IPortletCategoryRegistry portletCategoryRegistry) {
+        this.portletCategoryRegistry = portletCategoryRegistry;
+    }
+
+    @Autowired
+    public void setPortalDriverContainerServices(PortalDriverContainerServices portalDriverContainerServices) {
+        this.portalDriverContainerServices = portalDriverContainerServices;
+    }
+
+    /**
+     * Maximum age in milliseconds of the index before it is rebuilt from the registry, 0 or less to never
+     * rebuild the index after it is first built.
+     */
+    @Value("${org.jasig.portal.portlet.registry.PortletDefinitionSearchIndexImpl.maxIndexAge:300000}")
+    public void setMaxIndexAge(long maxIndexAge) {
+        this.maxIndexAge = maxIndexAge;
+    }
+
+    @Override
+    public List<IPortletDefinitionId> search(String query, Set<SearchField> fields, int maxResults) {
+        final Set<String> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty() || fields.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        this.ensureIndexCurrent();
+        
+        int fieldMask = 0;
+        for (final SearchField field : fields) {
+            fieldMask |= 1 << field.ordinal();
+        }
+        
+        final List<IndexedPortletDefinition> results;
+        final Map<String, Integer> scores;
+        final Lock readLock = this.indexLock.readLock();
+        readLock.lock();
+        try {
+            scores = this.scoreMatches(queryTerms, fieldMask);
+            
+            results = new ArrayList<IndexedPortletDefinition>(scores.size());
+            for (final String portletDefinitionId : scores.keySet()) {
+                results.add(this.portletDefinitions.get(portletDefinitionId));
+            }
+        }
+        finally {
+            readLock.unlock();
+        }
+        
+        Collections.sort(results, new Comparator<IndexedPortletDefinition>() {
+            @Override
+            public int compare(IndexedPortletDefinition o1, IndexedPortletDefinition o2) {
+                final int scoreCompare = scores.get(o2.id).compareTo(scores.get(o1.id));
+                if (scoreCompare != 0) {
+                    return scoreCompare;
+                }
+                return o1.sortKey.compareTo(o2.sortKey);
+            }
+        });
+        
+        final int resultCount = maxResults < 0 ? results.size() : Math.min(maxResults, results.size());
+        final List<IPortletDefinitionId> portletDefinitionIds = new ArrayList<IPortletDefinitionId>(resultCount);
+        for (int i = 0; i < resultCount; i++) {
+            portletDefinitionIds.add(results.get(i).portletDefinitionId);
+        }
+        return portletDefinitionIds;
+    }
+
+    @Override
+    public void indexPortletDefinition(IPortletDefinition portletDefinition) {
+        if (this.lastRebuild < 0 && this.rebuildChanges == null) {
+            //Not built yet, the first search will pick up the change
+            return;
+        }
+        
+        final IndexedPortletDefinition indexedPortletDefinition = this.createIndexedPortletDefinition(portletDefinition);
+        
+        final Lock writeLock = this.indexLock.writeLock();
+        writeLock.lock();
+        try {
+            if (this.rebuildChanges != null) {
+                this.rebuildChanges.put(indexedPortletDefinition.id, indexedPortletDefinition);
+            }
+            
+            removeIndexedPortletDefinition(this.postings, this.portletDefinitions, indexedPortletDefinition.id);
+            addIndexedPortletDefinition(this.postings, this.portletDefinitions, indexedPortletDefinition);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removePortletDefinition(IPortletDefinition portletDefinition) {
+        final String portletDefinitionId = portletDefinition.getPortletDefinitionId().getStringId();
+        
+        final Lock writeLock = this.indexLock.writeLock();
+        writeLock.lock();
+        try {
+            if (this.rebuildChanges != null) {
+                this.rebuildChanges.put(portletDefinitionId, null);
+            }
+            
+            removeIndexedPortletDefinition(this.postings, this.portletDefinitions, portletDefinitionId);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void rebuildIndex() {
+        this.rebuildLock.lock();
+        try {
+            final long start = System.currentTimeMillis();
+            
+            final Lock writeLock = this.indexLock.writeLock();
+            writeLock.lock();
+            try {
+                this.rebuildChanges = new LinkedHashMap<String, IndexedPortletDefinition>();
+            }
+            finally {
+                writeLock.unlock();
+            }
+            
+            try {
+                final NavigableMap<String, Map<String, Integer>> newPostings = new TreeMap<String, Map<String, Integer>>();
+                final Map<String, IndexedPortletDefinition> newPortletDefinitions = new HashMap<String, IndexedPortletDefinition>();
+                for (final IPortletDefinition portletDefinition : this.portletDefinitionRegistry.getAllPortletDefinitions()) {
+                    addIndexedPortletDefinition(newPostings, newPortletDefinitions, this.createIndexedPortletDefinition(portletDefinition));
+                }
+                
+                writeLock.lock();
+                try {
+                    //The registry may have been read before these changes were made
+                    for (final Map.Entry<String, IndexedPortletDefinition> changeEntry : this.rebuildChanges.entrySet()) {
+                        removeIndexedPortletDefinition(newPostings, newPortletDefinitions, changeEntry.getKey());
+                        
+                        final IndexedPortletDefinition indexedPortletDefinition = changeEntry.getValue();
+                        if (indexedPortletDefinition != null) {
+                            addIndexedPortletDefinition(newPostings, newPortletDefinitions, indexedPortletDefinition);
+                        }
+                    }
+                    
+                    this.postings = newPostings;
+                    this.portletDefinitions = newPortletDefinitions;
+                    this.lastRebuild = System.currentTimeMillis();
+                }
+                finally {
+                    writeLock.unlock();
+                }
+                
+                logger.debug("Indexed {} portlet definitions with {} terms in {}ms", 
+                        newPortletDefinitions.size(), newPostings.size(), this.lastRebuild - start);
+            }
+            finally {
+                writeLock.lock();
+                try {
+                    this.rebuildChanges = null;
+                }
+                finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+        finally {
+            this.rebuildLock.unlock();
+        }
+    }
+    
+    /**
+     * Build the index if it has never been built. If it is older than maxIndexAge schedule a rebuild on the
+     * executor unless one is already scheduled, searches use the existing index until the rebuild is done.
+     */
+    protected void ensureIndexCurrent() {
+        if (this.lastRebuild < 0) {
+            //Nothing to search yet, build the index on this thread
+            this.rebuildLock.lock();
+            try {
+                if (this.lastRebuild < 0) {
+                    this.rebuildIndex();
+                }
+            }
+            finally {
+                this.rebuildLock.unlock();
+            }
+        }
+        else if (this.maxIndexAge > 0 && System.currentTimeMillis() - this.lastRebuild > this.maxIndexAge 
+                && this.rebuildScheduled.compareAndSet(false, true)) {
+            
+            try {
+                this.executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            rebuildIndex();
+                        }
+                        catch (RuntimeException e) {
+                            logger.warn("Failed to rebuild the portlet definition search index, a later search will retry", e);
+                        }
+                        finally {
+                            rebuildScheduled.set(false);
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                this.rebuildScheduled.set(false);
+                logger.debug("No thread available to rebuild the portlet definition search index, a later search will retry", e);
+            }
+        }
+    }
+    
+    /**
+     * @return portlet definition id -> score for the definitions that match all of the query terms
+     */
+    private Map<String, Integer> scoreMatches(Set<String> queryTerms, int fieldMask) {
+        Map<String, Integer> scores = null;
+        for (final String queryTerm : queryTerms) {
+            final Map<String, Integer> termScores = new HashMap<String, Integer>();
+            
+            //All indexed terms the query term is a prefix of
+            final NavigableMap<String, Map<String, Integer>> matchingTerms = 
+                    this.postings.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false);
+            for (final Map.Entry<String, Map<String, Integer>> termEntry : matchingTerms.entrySet()) {
+                final int matchMultiplier = queryTerm.equals(termEntry.getKey()) ? 2 : 1;
+                
+                for (final Map.Entry<String, Integer> postingEntry : termEntry.getValue().entrySet()) {
+                    final int matchedFields = postingEntry.getValue() & fieldMask;
+                    if (matchedFields == 0) {
+                        continue;
+                    }
+                    
+                    final int score = getWeight(matchedFields) * matchMultiplier;
+                    final Integer existingScore = termScores.get(postingEntry.getKey());
+                    if (existingScore == null || existingScore < score) {
+                        termScores.put(postingEntry.getKey(), score);
+                    }
+                }
+            }
+            
+            if (scores == null) {
+                scores = termScores;
+            }
+            else {
+                for (final Iterator<Map.Entry<String, Integer>> scoreItr = scores.entrySet().iterator(); scoreItr.hasNext();) {
+                    final Map.Entry<String, Integer> scoreEntry = scoreItr.next();
+                    final Integer termScore = termScores.get(scoreEntry.getKey());
+                    if (termScore == null) {
+                        scoreItr.remove();
+                    }
+                    else {
+                        scoreEntry.setValue(scoreEntry.getValue() + termScore);
+                    }
+                }
+            }
+            
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+        
+        return scores;
+    }
+    
+    protected IndexedPortletDefinition createIndexedPortletDefinition(IPortletDefinition portletDefinition) {
+        final Map<String, Integer> terms = new HashMap<String, Integer>();
+        
+        addTerms(terms, SearchField.TITLE, portletDefinition.getTitle());
+        addTerms(terms, SearchField.NAME, portletDefinition.getName());
+        addTerms(terms, SearchField.DESCRIPTION, portletDefinition.getDescription());
+        
+        final String fname = portletDefinition.getFName();
+        addTerms(terms, SearchField.FNAME, fname);
+        if (fname != null) {
+            //Index the whole fname as well so fname prefixes containing separators match
+            addTerm(terms, SearchField.FNAME, fname.toLowerCase());
+        }
+        
+        addTerms(terms, SearchField.KEYWORDS, this.getKeywords(portletDefinition));
+        
+        final Set<PortletCategory> categories = new HashSet<PortletCategory>();
+        for (final PortletCategory category : this.portletCategoryRegistry.getParentCategories(portletDefinition)) {
+            categories.add(category);
+            categories.addAll(this.portletCategoryRegistry.getAllParentCategories(category));
+        }
+        for (final PortletCategory category : categories) {
+            addTerms(terms, SearchField.CATEGORIES, category.getName());
+        }
+        
+        for (final IPortletPreference portletPreference : portletDefinition.getPortletPreferences()) {
+            final String preferenceName = portletPreference.getName();
+            if (RELEASE_NOTES_PREFERENCE_NAME.equalsIgnoreCase(preferenceName) 
+                    || CAPTION_PREFERENCE_NAME.matcher(preferenceName).matches()) {
+                for (final String value : portletPreference.getValues()) {
+                    addTerms(terms, SearchField.MARKETPLACE_TEXT, value);
+                }
+            }
+        }
+        
+        final String title = portletDefinition.getTitle();
+        return new IndexedPortletDefinition(portletDefinition.getPortletDefinitionId(), 
+                title != null ? title.toLowerCase() : fname, terms);
+    }
+    
+    /**
+     * @return The keywords from the portlet's portlet.xml, null if the portlet is not deployed
+     */
+    protected String getKeywords(IPortletDefinition portletDefinition) {
+        final Tuple<String, String> portletDescriptorKeys = this.portletDefinitionRegistry.getPortletDescriptorKeys(portletDefinition);
+        
+        final PortletDefinition portletDescriptor;
+        try {
+            portletDescriptor = this.portalDriverContainerServices.getPortletRegistryService()
+                    .getPortlet(portletDescriptorKeys.first, portletDescriptorKeys.second);
+        }
+        catch (PortletContainerException e) {
+            logger.debug("No portlet descriptor found for {}, its keywords will not be indexed", portletDefinition.getFName());
+            return null;
+        }
+        
+        if (portletDescriptor == null) {
+            return null;
+        }
+        
+        final PortletInfo portletInfo = portletDescriptor.getPortletInfo();
+        return portletInfo != null ? portletInfo.getKeywords() : null;
+    }
+
+    /**
+     * Split text into unique lower-cased terms on any character that isn't a letter or digit
+     */
+    static Set<String> tokenize(String text) {
+        if (text == null) {
+            return Collections.emptySet();
+        }
+        
+        final Set<String> terms = new LinkedHashSet<String>();
+        for (final String token : TOKEN_SEPARATOR.split(text.toLowerCase())) {
+            if (token.length() > 0) {
+                terms.add(token);
+            }
+        }
+        return terms;
+    }
+    
+    private static void addTerms(Map<String, Integer> terms, SearchField field, String text) {
+        for (final String term : tokenize(text)) {
+            addTerm(terms, field, term);
+        }
+    }
+
+    private static void addTerm(Map<String, Integer> terms, SearchField field, String term) {
+        final Integer fields = terms.get(term);
+        terms.put(term, (fields != null ? fields : 0) | (1 << field.ordinal()));
+    }
+    
+    private static int getWeight(int fieldMask) {
+        int weight = 0;
+        for (final SearchField field : SearchField.values()) {
+            if ((fieldMask & (1 << field.ordinal())) != 0) {
+                weight += field.getWeight();
+            }
+        }
+        return weight;
+    }
+    
+    private static void addIndexedPortletDefinition(NavigableMap<String, Map<String, Integer>> postings, 
+            Map<String, IndexedPortletDefinition> portletDefinitions, IndexedPortletDefinition indexedPortletDefinition) {
+        
+        portletDefinitions.put(indexedPortletDefinition.id, indexedPortletDefinition);
+        for (final Map.Entry<String, Integer> termEntry : indexedPortletDefinition.terms.entrySet()) {
+            Map<String, Integer> termPostings = postings.get(termEntry.getKey());
+            if (termPostings == null) {
+                termPostings = new HashMap<String, Integer>();
+                postings.put(termEntry.getKey(), termPostings);
+            }
+            termPostings.put(indexedPortletDefinition.id, termEntry.getValue());
+        }
+    }
+    
+    private static void removeIndexedPortletDefinition(NavigableMap<String, Map<String, Integer>> postings, 
+            Map<String, IndexedPortletDefinition> portletDefinitions, String portletDefinitionId) {
+        
+        final IndexedPortletDefinition existing = portletDefinitions.remove(portletDefinitionId);
+        if (existing == null) {
+            return;
+        }
+        
+        for (final String term : existing.terms.keySet()) {
+            final Map<String, Integer> termPostings = postings.get(term);
+            if (termPostings != null) {
+                termPostings.remove(portletDefinitionId);
+                if (termPostings.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+    
+    protected static final class IndexedPortletDefinition {
+        private final IPortletDefinitionId portletDefinitionId;
+        private final String id;
+        private final String sortKey;
+        private final Map<String, Integer> terms;
+        
+        public IndexedPortletDefinition(IPortletDefinitionId portletDefinitionId, String sortKey, Map<String, Integer> terms) {
+            this.portletDefinitionId = portletDefinitionId;
+            this.id = portletDefinitionId.getStringId();
+            this.sortKey = sortKey != null ? sortKey : this.id;
+            this.terms = terms;
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package org.jasig.portal.portlet.rendering;
 
 import java.io.Writer;
+import java.util.Collection;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -109,6 +110,18 @@ public interface IPortletExecutionManager {
      */
     public boolean isPortletRenderRequested(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
 
+    /**
+     * @return true if the specified portlet's HEAD output is available without blocking, either because the header
+     *  worker has completed or because the portlet does not render header output.
+     */
+    public boolean isPortletRenderHeaderComplete(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+
+    /**
+     * @return true if the specified portlet has been requested to render it's output for the BODY during this request
+     *  and the rendering worker has completed.
+     */
+    public boolean isPortletRenderComplete(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+
     /**
      * @see #getPortletHeadOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)
      * @param subscribeId
@@ -139,6 +152,22 @@ public interface IPortletExecutionManager {
      */
     public String getPortletOutput(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
     
+    /**
+     * @return The maximum time in milliseconds to wait for the specified portlet to render its BODY output
+     */
+    public long getPortletRenderTimeout(IPortletWindowId portletWindowId, HttpServletRequest request);
+    
+    /**
+     * Wait for the first of the portlets to complete rendering its BODY output. A portlet that has not been
+     * started is treated as complete. Completions are tracked for the whole request, each portlet is only
+     * watched once no matter how often this is called with the remaining portlets.
+     * 
+     * @param timeout The maximum time in milliseconds to wait
+     * @return The first portlet to complete, null if none completed within the timeout
+     */
+    public IPortletWindowId waitForPortletRender(Collection<IPortletWindowId> portletWindowIds, long timeout,
+            HttpServletRequest request, HttpServletResponse response) throws InterruptedException;
+    
     /**
      * Get the duration it took for the portlet to render.
      */
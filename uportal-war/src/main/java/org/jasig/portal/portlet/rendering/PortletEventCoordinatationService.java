@@ -22,17 +22,19 @@ package org.jasig.portal.portlet.rendering;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -49,7 +51,10 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.PortletContainer;
 import org.apache.pluto.container.PortletContainerException;
 import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.PortalDriverContainerServices;
 import org.apache.pluto.container.driver.PortletContextService;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.EventDefinition;
 import org.apache.pluto.container.om.portlet.EventDefinitionReference;
@@ -57,7 +62,9 @@ import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.IUserPreferencesManager;
+import org.jasig.portal.IUserProfile;
 import org.jasig.portal.layout.IUserLayoutManager;
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.portlet.container.EventImpl;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionId;
@@ -79,6 +86,7 @@ import org.jasig.portal.utils.web.PortalWebUtils;
 import org.jasig.portal.xml.XmlUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
@@ -98,16 +106,23 @@ import com.google.common.collect.Lists;
  * @version $Revision$
  */
 @Service("eventCoordinationService")
-public class PortletEventCoordinatationService implements IPortletEventCoordinationService {
+public class PortletEventCoordinatationService implements IPortletEventCoordinationService, PortletRegistryListener, InitializingBean {
     /**
 	 * 
 	 */
 	public static final String GLOBAL_EVENT__CONTAINER_OPTION = "org.jasig.portal.globalEvent";
 
 	private static final String PORTLET_EVENT_QUEUE = PortletEventCoordinatationService.class.getName() + ".PORTLET_EVENT_QUEUE";
+	private static final String EVENT_ROUTING_TABLE = PortletEventCoordinatationService.class.getName() + ".EVENT_ROUTING_TABLE";
     
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
     
+    /**
+     * Incremented each time a portlet application is registered or removed on this server. Starts at a random value
+     * so a routing table built on another server is not mistaken as current after session failover.
+     */
+    private final AtomicLong descriptorVersion = new AtomicLong(new Random().nextLong());
+    
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEntityRegistry portletEntityRegistry;
     private IPortletDefinitionRegistry portletDefinitionRegistry;
@@ -116,6 +131,18 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
     private IPortalRequestUtils portalRequestUtils;
     private XmlUtilities xmlUtilities;
     private PortletContextService portletContextService;
+    private IUserLayoutVersionService userLayoutVersionService;
+    private PortalDriverContainerServices portalDriverContainerServices;
+    
+    @Autowired
+    public void setPortalDriverContainerServices(PortalDriverContainerServices portalDriverContainerServices) {
+        this.portalDriverContainerServices = portalDriverContainerServices;
+    }
+    
+    @Autowired
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
     
     @Autowired
     public void setPortletContextService(PortletContextService portletContextService) {
@@ -158,6 +185,31 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         this.portletEntityRegistry = portletEntityRegistry;
     }
 
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.portalDriverContainerServices.getPortletRegistryService().addPortletRegistryListener(this);
+    }
+
+    @Override
+    public void portletApplicationRegistered(PortletRegistryEvent event) {
+        this.portletApplicationChanged(event);
+    }
+
+    @Override
+    public void portletApplicationRemoved(PortletRegistryEvent event) {
+        this.portletApplicationChanged(event);
+    }
+    
+    /**
+     * Event subscriptions come from the portlet descriptors, invalidate every routing table and cached event support
+     * check when a portlet application is deployed, redeployed or undeployed.
+     */
+    protected void portletApplicationChanged(PortletRegistryEvent event) {
+        this.descriptorVersion.incrementAndGet();
+        this.supportedEventCache.removeAll();
+        this.logger.debug("Portlet application {} changed, event routing tables will be rebuilt", event.getPortletApplication());
+    }
+
     /**
      * Returns a request scoped PortletEventQueue used to track events to process and events to dispatch
      */
@@ -209,11 +261,7 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         
         //Get all the portlets the user is subscribed to
         final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
-        final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
-        final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
-        
-        //Make a local copy so we can remove data from it
-        final Set<String> allLayoutNodeIds = new LinkedHashSet<String>(userLayoutManager.getAllSubscribedChannels());
+        final PortletEventRoutingTable routingTable = this.getPortletEventRoutingTable(request, userInstance);
         
         final Map<String, IPortletEntity> portletEntityCache = new LinkedHashMap<String, IPortletEntity>();
         
@@ -224,6 +272,8 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
                 return;
             }
             
+            final long routingStart = System.nanoTime();
+            
             final IPortletWindowId sourceWindowId = queuedEvent.getPortletWindowId();
             final Event event = queuedEvent.getEvent();
             
@@ -233,63 +283,35 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         	if (globalEvent) {
         		portletDefinitions.addAll(this.portletDefinitionRegistry.getAllPortletDefinitions());
         	}
+        	
+        	final Set<IPortletWindow> targetWindows = new LinkedHashSet<IPortletWindow>();
             
-            //Check each subscription to see what events it is registered to see
-            for (final Iterator<String> layoutNodeIdItr = allLayoutNodeIds.iterator(); layoutNodeIdItr.hasNext(); ) {
-                final String layoutNodeId = layoutNodeIdItr.next();
-                
+            //Only the subscriptions registered to see the event are checked
+            for (final String layoutNodeId : routingTable.getSubscribers(event.getQName())) {
                 IPortletEntity portletEntity = portletEntityCache.get(layoutNodeId);
                 if (portletEntity == null) {
                     portletEntity = this.portletEntityRegistry.getOrCreatePortletEntity(request, userInstance, layoutNodeId);
                     
-                    // if portlet entity registry returned null, then portlet has been deleted - remove it (see UP-3378)
+                    // if portlet entity registry returned null, then portlet has been deleted (see UP-3378)
                     if (portletEntity == null) {
-                    	layoutNodeIdItr.remove();
                     	continue;
                     }
                     
-                    final IPortletDefinitionId portletDefinitionId = portletEntity.getPortletDefinitionId();
-                    final PortletDefinition portletDescriptor = this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
-                    if (portletDescriptor == null) {
-                        //Missconfigured portlet, remove it from the list so we don't check again and ignore it
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
-                    
-                    final List<? extends EventDefinitionReference> supportedProcessingEvents = portletDescriptor.getSupportedProcessingEvents();
-                    //Skip portlets that don't handle any events and remove them from the set so they are not checked again
-                    if (supportedProcessingEvents == null || supportedProcessingEvents.size() == 0) {
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
-                    
                     portletEntityCache.put(layoutNodeId, portletEntity);
                 }
                 
                 final IPortletDefinition portletDefinition = portletEntity.getPortletDefinition();
                 final IPortletDefinitionId portletDefinitionId = portletDefinition.getPortletDefinitionId();
-                if (this.supportsEvent(event, portletDefinitionId)) {
-                	this.logger.debug("{} supports event {}", portletDefinition, event);
-                	
-                	//If this is the default portlet entity remove the definition from the all defs set to avoid duplicate processing
-                	final IPortletEntity defaultPortletEntity = this.portletEntityRegistry.getOrCreateDefaultPortletEntity(request, portletDefinitionId);
-                	if (defaultPortletEntity.equals(portletEntity)) {
-                		portletDefinitions.remove(portletDefinition);
-                	}
-                	
-                    final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
-                    final Set<IPortletWindow> portletWindows = this.portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId);
-                    
-                    for (final IPortletWindow portletWindow : portletWindows) {
-                        this.logger.debug("{} resolved target {}", event, portletWindow);
-                        final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
-                        final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
-                        portletEventQueue.offerEvent(portletWindowId, new QueuedEvent(sourceWindowId, unmarshalledEvent) );
-                    }
-                }
-                else {
-                	portletDefinitions.remove(portletDefinition);
-                }
+            	this.logger.debug("{} supports event {}", portletDefinition, event);
+            	
+            	//If this is the default portlet entity remove the definition from the all defs set to avoid duplicate processing
+            	final IPortletEntity defaultPortletEntity = this.portletEntityRegistry.getOrCreateDefaultPortletEntity(request, portletDefinitionId);
+            	if (defaultPortletEntity.equals(portletEntity)) {
+            		portletDefinitions.remove(portletDefinition);
+            	}
+            	
+                final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
+                targetWindows.addAll(this.portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId));
             }
             
             if (!portletDefinitions.isEmpty()) {
@@ -307,20 +329,71 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
 		                	
 		                	final IPortletEntity portletEntity = this.portletEntityRegistry.getOrCreateDefaultPortletEntity(request, portletDefinitionId);
 		                    final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
-		                    final Set<IPortletWindow> portletWindows = this.portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId);
-		                    
-		                    for (final IPortletWindow portletWindow : portletWindows) {
-		                        this.logger.debug("{} resolved target {}", event, portletWindow);
-		                        final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
-		                        final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
-		                        portletEventQueue.offerEvent(portletWindowId, new QueuedEvent(sourceWindowId, unmarshalledEvent) );
-		                    }
+		                    targetWindows.addAll(this.portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId));
 		            	}
 	            	}
 	            }
             }
+            
+            final long routingTime = System.nanoTime() - routingStart;
+            final int fanOut = targetWindows.size();
+            
+            for (final IPortletWindow portletWindow : targetWindows) {
+                this.logger.debug("{} resolved target {}", event, portletWindow);
+                final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
+                final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
+                portletEventQueue.offerEvent(portletWindowId, new QueuedEvent(sourceWindowId, new RoutedEvent(unmarshalledEvent, routingTime, fanOut)));
+            }
         }
     }
+    
+    /**
+     * Get the event routing table for the user's current layout, the table is stored in the user's session and only
+     * rebuilt when the layout version, the deployed portlet applications or the set of portlets in the layout changes.
+     */
+    protected PortletEventRoutingTable getPortletEventRoutingTable(HttpServletRequest request, IUserInstance userInstance) {
+        final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
+        final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
+        final Set<String> allLayoutNodeIds = userLayoutManager.getAllSubscribedChannels();
+        
+        final IPerson person = userInstance.getPerson();
+        final IUserProfile userProfile = preferencesManager.getUserProfile();
+        final long layoutVersion = this.userLayoutVersionService.getLayoutVersion(person.getID(), userProfile.getProfileId());
+        final long descriptorVersion = this.descriptorVersion.get();
+        
+        final HttpSession session = request.getSession(false);
+        if (session != null) {
+            final PortletEventRoutingTable routingTable = (PortletEventRoutingTable) session.getAttribute(EVENT_ROUTING_TABLE);
+            if (routingTable != null && routingTable.isCurrent(layoutVersion, descriptorVersion, allLayoutNodeIds)) {
+                return routingTable;
+            }
+        }
+        
+        final PortletEventRoutingTable.Builder routingTableBuilder = new PortletEventRoutingTable.Builder(layoutVersion, descriptorVersion, allLayoutNodeIds);
+        for (final String layoutNodeId : allLayoutNodeIds) {
+            final IPortletEntity portletEntity = this.portletEntityRegistry.getOrCreatePortletEntity(request, userInstance, layoutNodeId);
+            
+            // if portlet entity registry returned null, then portlet has been deleted - skip it (see UP-3378)
+            if (portletEntity == null) {
+                continue;
+            }
+            
+            final IPortletDefinitionId portletDefinitionId = portletEntity.getPortletDefinitionId();
+            final Set<QName> supportedEventNames = this.getSupportedEventNames(portletDefinitionId);
+            if (!supportedEventNames.isEmpty()) {
+                routingTableBuilder.addSubscriber(layoutNodeId, supportedEventNames);
+            }
+        }
+        
+        final PortletEventRoutingTable routingTable = routingTableBuilder.build();
+        this.logger.debug("Built {} for {}", routingTable, person.getUserName());
+        
+        if (session != null) {
+            session.setAttribute(EVENT_ROUTING_TABLE, routingTable);
+        }
+        
+        return routingTable;
+    }
 
 	protected boolean isGlobalEvent(HttpServletRequest request, IPortletWindowId sourceWindowId, Event event) {
 		final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, sourceWindowId);
@@ -434,6 +507,68 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         return Collections.emptySet();
     }
     
+    /**
+     * Get every event name that {@link #supportsEvent(Event, IPortletDefinitionId)} would accept for the portlet
+     * definition: the supported processing events, those names in the application's default namespace when they are
+     * declared without one and the names of any event declaring a supported event as an alias.
+     */
+    protected Set<QName> getSupportedEventNames(IPortletDefinitionId portletDefinitionId) {
+        final PortletApplicationDefinition portletApplicationDescriptor = this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(portletDefinitionId);
+        if (portletApplicationDescriptor == null) {
+            return Collections.emptySet();
+        }
+        
+        final PortletDefinition portletDescriptor = this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
+        if (portletDescriptor == null) {
+            return Collections.emptySet();
+        }
+        
+        final List<? extends EventDefinitionReference> supportedProcessingEvents = portletDescriptor.getSupportedProcessingEvents();
+        if (supportedProcessingEvents == null || supportedProcessingEvents.isEmpty()) {
+            return Collections.emptySet();
+        }
+        
+        final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
+        
+        final Set<QName> supportedNames = new LinkedHashSet<QName>();
+        final Set<QName> eventNames = new LinkedHashSet<QName>();
+        for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
+            final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
+            if (qualifiedName == null) {
+                continue;
+            }
+            
+            supportedNames.add(qualifiedName);
+            eventNames.add(qualifiedName);
+            
+            //Namespace-less events match the application's default namespace
+            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
+                eventNames.add(new QName(defaultNamespace, qualifiedName.getLocalPart()));
+            }
+        }
+        
+        //Events that declare a supported event as an alias
+        final List<? extends EventDefinition> eventDefinitions = portletApplicationDescriptor.getEventDefinitions();
+        if (eventDefinitions != null) {
+            for (final EventDefinition eventDefinition : eventDefinitions) {
+                final QName defQName = eventDefinition.getQualifiedName(defaultNamespace);
+                final List<QName> aliases = eventDefinition.getAliases();
+                if (defQName == null || aliases == null || eventNames.contains(defQName)) {
+                    continue;
+                }
+                
+                for (final QName alias : aliases) {
+                    if (supportedNames.contains(alias)) {
+                        eventNames.add(defQName);
+                        break;
+                    }
+                }
+            }
+        }
+        
+        return eventNames;
+    }
+    
     protected boolean supportsEvent(Event event, IPortletDefinitionId portletDefinitionId) {
         final QName eventName = event.getQName();
         
@@ -0,0 +1,126 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Maps portlet event names to the layout nodes of the portlets in a user's layout that process them. The table is
+ * built once for a layout version, portlet descriptor version and set of subscribed layout nodes and then used to resolve the targets of each
+ * queued event with a single lookup. Event names include the aliases declared by the target's portlet application
+ * and the default namespace applied to processing events that are declared without one.
+ * 
+ * @version $Revision$
+ */
+public final class PortletEventRoutingTable implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private final long layoutVersion;
+    private final long descriptorVersion;
+    private final Set<String> layoutNodeIds;
+    private final Map<QName, List<String>> subscribers;
+
+    private PortletEventRoutingTable(long layoutVersion, long descriptorVersion, Set<String> layoutNodeIds, Map<QName, List<String>> subscribers) {
+        this.layoutVersion = layoutVersion;
+        this.descriptorVersion = descriptorVersion;
+        this.layoutNodeIds = layoutNodeIds;
+        this.subscribers = subscribers;
+    }
+
+    /**
+     * @return true if the table was built for the specified layout version, portlet descriptor version and subscribed layout nodes
+     */
+    public boolean isCurrent(long layoutVersion, long descriptorVersion, Set<String> layoutNodeIds) {
+        return this.layoutVersion == layoutVersion && this.descriptorVersion == descriptorVersion
+                && this.layoutNodeIds.equals(layoutNodeIds);
+    }
+
+    /**
+     * @return The IDs of the layout nodes whose portlets process the event, in layout order. Never null.
+     */
+    public List<String> getSubscribers(QName eventName) {
+        final List<String> layoutNodeIds = this.subscribers.get(eventName);
+        if (layoutNodeIds == null) {
+            return Collections.emptyList();
+        }
+        return layoutNodeIds;
+    }
+
+    /**
+     * @return The number of distinct event names in the table
+     */
+    public int size() {
+        return this.subscribers.size();
+    }
+
+    @Override
+    public String toString() {
+        return "PortletEventRoutingTable [layoutVersion=" + this.layoutVersion + ", descriptorVersion=" + this.descriptorVersion + ", subscribers=" + this.subscribers + "]";
+    }
+
+    /**
+     * Collects the event subscriptions of the portlets in a layout
+     */
+    public static final class Builder {
+        private final long layoutVersion;
+        private final long descriptorVersion;
+        private final Set<String> layoutNodeIds;
+        private final Map<QName, List<String>> subscribers = new HashMap<QName, List<String>>();
+
+        public Builder(long layoutVersion, long descriptorVersion, Set<String> layoutNodeIds) {
+            this.layoutVersion = layoutVersion;
+            this.descriptorVersion = descriptorVersion;
+            this.layoutNodeIds = new LinkedHashSet<String>(layoutNodeIds);
+        }
+
+        /**
+         * Route each of the event names to the layout node
+         */
+        public Builder addSubscriber(String layoutNodeId, Collection<QName> eventNames) {
+            for (final QName eventName : eventNames) {
+                List<String> layoutNodeIds = this.subscribers.get(eventName);
+                if (layoutNodeIds == null) {
+                    layoutNodeIds = new ArrayList<String>(2);
+                    this.subscribers.put(eventName, layoutNodeIds);
+                }
+                layoutNodeIds.add(layoutNodeId);
+            }
+            return this;
+        }
+
+        public PortletEventRoutingTable build() {
+            final Map<QName, List<String>> subscribers = new HashMap<QName, List<String>>(this.subscribers.size() * 2);
+            for (final Map.Entry<QName, List<String>> subscriberEntry : this.subscribers.entrySet()) {
+                subscribers.put(subscriberEntry.getKey(), Collections.unmodifiableList(subscriberEntry.getValue()));
+            }
+            return new PortletEventRoutingTable(this.layoutVersion, this.descriptorVersion, Collections.unmodifiableSet(this.layoutNodeIds), subscribers);
+        }
+    }
+}
@@ -20,6 +20,9 @@
 package org.jasig.portal.portlet.rendering;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -27,9 +30,11 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -43,6 +48,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.events.IPortletExecutionEventFactory;
+import org.jasig.portal.portlet.container.cache.IPortletCacheControlService;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionParameter;
 import org.jasig.portal.portlet.om.IPortletDescriptorKey;
@@ -59,7 +65,11 @@ import org.jasig.portal.portlet.rendering.worker.IPortletFailureExecutionWorker;
 import org.jasig.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
 import org.jasig.portal.portlet.rendering.worker.IPortletWorkerFactory;
 import org.jasig.portal.portlets.error.MaintenanceModeException;
+import org.jasig.portal.url.PortalHttpServletRequestWrapper;
+import org.jasig.portal.user.IUserInstanceManager;
 import org.jasig.portal.utils.ConcurrentMapUtils;
+import org.jasig.portal.utils.web.DetachedHttpServletRequest;
+import org.jasig.portal.utils.web.DetachedHttpServletResponse;
 import org.jasig.portal.utils.web.PortalWebUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,6 +79,9 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 import org.springframework.web.util.WebUtils;
 
@@ -87,6 +100,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     private static final long DEBUG_TIMEOUT = TimeUnit.HOURS.toMillis(1);
     private static final String PORTLET_HEADER_RENDERING_MAP = PortletExecutionManager.class.getName() + ".PORTLET_HEADER_RENDERING_MAP";
 	private static final String PORTLET_RENDERING_MAP = PortletExecutionManager.class.getName() + ".PORTLET_RENDERING_MAP";
+    private static final String PORTLET_RENDER_COMPLETIONS = PortletExecutionManager.class.getName() + ".PORTLET_RENDER_COMPLETIONS";
 
     protected static final String SESSION_ATTRIBUTE__PORTLET_FAILURE_CAUSE_MAP = PortletExecutionManager.class.getName() + ".PORTLET_FAILURE_CAUSE_MAP";
     
@@ -101,6 +115,7 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
      * Queue used to track workers that did not complete in their allotted time.
      */
     private final Queue<IPortletExecutionWorker<?>> hungWorkers = new ConcurrentLinkedQueue<IPortletExecutionWorker<?>>();
+    private final Queue<IPortletExecutionWorker<?>> revalidationWorkers = new ConcurrentLinkedQueue<IPortletExecutionWorker<?>>();
 
     private final ConcurrentMap<IPortletDescriptorKey, AtomicInteger> executionCount = ConcurrentMapUtils.makeDefaultsMap(new Function<IPortletDescriptorKey, AtomicInteger>(){
         public AtomicInteger apply(IPortletDescriptorKey key) {
@@ -116,6 +131,8 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     private IPortletEventCoordinationService eventCoordinationService;
     private IPortletWorkerFactory portletWorkerFactory;
     private IPortletExecutionEventFactory portletExecutionEventFactory;
+    private IPortletCacheControlService portletCacheControlService;
+    private IUserInstanceManager userInstanceManager;
     
     /**
      * @param maxEventIterations The maximum number of iterations to spend dispatching events. Defaults to 100
@@ -196,6 +213,16 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     public void setPortletExecutionEventFactory(IPortletExecutionEventFactory portletExecutionEventFactory) {
         this.portletExecutionEventFactory = portletExecutionEventFactory;
     }
+    
+    @Autowired
+    public void setPortletCacheControlService(IPortletCacheControlService portletCacheControlService) {
+        this.portletCacheControlService = portletCacheControlService;
+    }
+    
+    @Autowired
+    public void setUserInstanceManager(IUserInstanceManager userInstanceManager) {
+        this.userInstanceManager = userInstanceManager;
+    }
 
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex)
@@ -210,6 +237,8 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         for (final IPortletRenderExecutionWorker portletRenderExecutionWorker : portletRenderingMap.values()) {
             checkWorkerCompletion(request, portletRenderExecutionWorker);
         }
+        
+        startPortletRevalidations(request, response);
     }
 
     /**
@@ -256,6 +285,8 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
     
     @Scheduled(fixedRate=1000)
     public void cleanupHungWorkers() {
+        cleanupRevalidationWorkers();
+        
         if (this.hungWorkers.isEmpty()) {
             return;
         }
@@ -287,6 +318,26 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         
     }
 
+    /**
+     * Nothing waits on revalidation workers, move the ones that run past their timeout to the hung workers queue
+     */
+    protected void cleanupRevalidationWorkers() {
+        for (final Iterator<IPortletExecutionWorker<?>> workerItr = this.revalidationWorkers.iterator(); workerItr.hasNext(); ) {
+            final IPortletExecutionWorker<?> worker = workerItr.next();
+            
+            if (worker.isComplete()) {
+                workerItr.remove();
+            }
+            else if (worker.isStarted() && System.currentTimeMillis() - worker.getStartedTime() > worker.getApplicableTimeout()) {
+                workerItr.remove();
+                this.logger.warn("{} has not completed revalidating stale cached output, adding to hung-worker cleanup queue", worker);
+                
+                worker.cancel();
+                hungWorkers.offer(worker);
+            }
+        }
+    }
+
     @Override
     public void preSubmit(HttpServletRequest request, HttpServletResponse response, IPortletExecutionContext context) {
     }
@@ -611,6 +662,71 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         
         return tracker != null;
     }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderHeaderComplete(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderHeaderComplete(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletHeaderRenderingMap = this.getPortletHeaderRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletHeaderRenderingMap.get(portletWindowId);
+        
+        if (tracker == null) {
+            return !doesPortletNeedHeaderWorker(portletWindowId, request);
+        }
+        //isComplete() is also true for workers that have not started yet, check for a completion time instead
+        return tracker.getCompleteTime() > 0;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderComplete(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderComplete(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+        
+        return tracker != null && tracker.getCompleteTime() > 0;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#waitForPortletRender(java.util.Collection, long, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public IPortletWindowId waitForPortletRender(Collection<IPortletWindowId> portletWindowIds, long timeout,
+            HttpServletRequest request, HttpServletResponse response) throws InterruptedException {
+        
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
+        final PortletRenderCompletions renderCompletions = this.getPortletRenderCompletions(request);
+        final BlockingQueue<IPortletWindowId> completedPortlets = renderCompletions.completedPortlets;
+        for (final IPortletWindowId portletWindowId : portletWindowIds) {
+            final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+            if (tracker == null) {
+                return portletWindowId;
+            }
+            
+            //Only one callback per worker for the request, a worker that is already complete runs it immediately
+            if (renderCompletions.registeredWorkers.add(tracker)) {
+                tracker.addCompletionCallback(new Runnable() {
+                    @Override
+                    public void run() {
+                        completedPortlets.offer(portletWindowId);
+                    }
+                });
+            }
+        }
+        
+        //Skip completions of portlets the caller is no longer waiting on
+        final long deadline = System.currentTimeMillis() + timeout;
+        for (long waitTime = timeout; waitTime > 0; waitTime = deadline - System.currentTimeMillis()) {
+            final IPortletWindowId portletWindowId = completedPortlets.poll(waitTime, TimeUnit.MILLISECONDS);
+            if (portletWindowId == null || portletWindowIds.contains(portletWindowId)) {
+                return portletWindowId;
+            }
+        }
+        
+        return null;
+    }
     
     /* (non-Javadoc)
 	 * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
@@ -855,7 +971,11 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
     }
     
-    protected long getPortletRenderTimeout(IPortletWindowId portletWindowId, HttpServletRequest request) {
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#getPortletRenderTimeout(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest)
+     */
+    @Override
+    public long getPortletRenderTimeout(IPortletWindowId portletWindowId, HttpServletRequest request) {
         if (this.ignoreTimeouts) {
             return DEBUG_TIMEOUT;
         }
@@ -971,6 +1091,61 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return portletRenderExecutionWorker;
     }
 
+    /**
+     * Starts a background render for each portlet whose stale cached output was replayed for the request and whose
+     * refresh the request claimed. The renders only refresh the portlet caches and run after the request is complete,
+     * so they use a detached copy of the request and response and are not waited on.
+     */
+    protected void startPortletRevalidations(HttpServletRequest request, HttpServletResponse response) {
+        final Set<IPortletWindowId> portletHeaderRevalidations = this.portletCacheControlService.getPortletRenderHeaderRevalidations(request);
+        final Set<IPortletWindowId> portletRevalidations = this.portletCacheControlService.getPortletRenderRevalidations(request);
+        if (portletHeaderRevalidations.isEmpty() && portletRevalidations.isEmpty()) {
+            return;
+        }
+        
+        final HttpServletResponse revalidationResponse = new DetachedHttpServletResponse(response);
+        final DetachedHttpServletRequest detachedRequest = new DetachedHttpServletRequest(request);
+        detachedRequest.setAttribute(IPortletCacheControlService.ATTRIBUTE__REVALIDATE_CACHED_DATA, Boolean.TRUE);
+        final HttpServletRequest revalidationRequest = new PortalHttpServletRequestWrapper(detachedRequest, revalidationResponse, this.userInstanceManager);
+        
+        //Workers copy the request context of the submitting thread, use one bound to the detached request
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(revalidationRequest));
+        try {
+            for (final IPortletWindowId portletWindowId : portletHeaderRevalidations) {
+                try {
+                    startPortletRevalidationInternal(this.portletWorkerFactory.createRenderHeaderWorker(revalidationRequest, revalidationResponse, portletWindowId));
+                }
+                catch (RuntimeException e) {
+                    this.logger.warn("Failed to start revalidation of stale cached header output for {}", portletWindowId, e);
+                }
+            }
+            
+            for (final IPortletWindowId portletWindowId : portletRevalidations) {
+                try {
+                    startPortletRevalidationInternal(this.portletWorkerFactory.createRenderWorker(revalidationRequest, revalidationResponse, portletWindowId));
+                }
+                catch (RuntimeException e) {
+                    this.logger.warn("Failed to start revalidation of stale cached output for {}", portletWindowId, e);
+                }
+            }
+        }
+        finally {
+            RequestContextHolder.setRequestAttributes(requestAttributes);
+        }
+    }
+
+    /**
+     * submit a revalidation render job to the thread pool, its output is only used to refresh the portlet cache
+     */
+    protected void startPortletRevalidationInternal(IPortletRenderExecutionWorker portletRevalidationWorker) {
+        this.logger.debug("Starting revalidation of stale cached output for {}", portletRevalidationWorker.getPortletWindowId());
+        
+        portletRevalidationWorker.submit();
+        
+        this.revalidationWorkers.offer(portletRevalidationWorker);
+    }
+
     /**
      * Returns a request attribute scoped Map of portlets that are rendering for the current request.
      */
@@ -1000,6 +1175,21 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
     }
     
+    /**
+     * Returns the request attribute scoped completion callback state used by
+     * {@link #waitForPortletRender(Collection, long, HttpServletRequest, HttpServletResponse)}.
+     */
+    protected PortletRenderCompletions getPortletRenderCompletions(HttpServletRequest request) {
+        synchronized (PortalWebUtils.getRequestAttributeMutex(request)) {
+            PortletRenderCompletions renderCompletions = (PortletRenderCompletions)request.getAttribute(PORTLET_RENDER_COMPLETIONS);
+            if (renderCompletions == null) {
+                renderCompletions = new PortletRenderCompletions();
+                request.setAttribute(PORTLET_RENDER_COMPLETIONS, renderCompletions);
+            }
+            return renderCompletions;
+        }
+    }
+    
     /**
      * Null safe means for retrieving the {@link Map} from the specified session
      * keyed by {@link #SESSION_ATTRIBUTE__PORTLET_FAILURE_CAUSE_MAP}.
@@ -1021,4 +1211,13 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         
     }
     
+    /**
+     * Portlets that completed rendering during the request, in completion order, and the workers that have
+     * a callback registered to add to it. Workers are tracked by identity.
+     */
+    protected static final class PortletRenderCompletions {
+        private final BlockingQueue<IPortletWindowId> completedPortlets = new LinkedBlockingQueue<IPortletWindowId>();
+        private final Set<IPortletRenderExecutionWorker> registeredWorkers = 
+                Collections.newSetFromMap(new IdentityHashMap<IPortletRenderExecutionWorker, Boolean>());
+    }
 }
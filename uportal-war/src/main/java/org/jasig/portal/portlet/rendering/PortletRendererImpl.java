@@ -204,7 +204,14 @@ public class PortletRendererImpl implements IPortletRenderer {
         
         final long executionTime = System.nanoTime() - start;
 
-        this.portalEventFactory.publishPortletEventExecutionEvent(httpServletRequest, this, portletWindowId, executionTime, event.getQName());
+        if (event instanceof RoutedEvent) {
+            final RoutedEvent routedEvent = (RoutedEvent) event;
+            this.portalEventFactory.publishPortletEventExecutionEvent(httpServletRequest, this, portletWindowId, executionTime, 
+                    event.getQName(), routedEvent.getRoutingTime(), routedEvent.getFanOut());
+        }
+        else {
+            this.portalEventFactory.publishPortletEventExecutionEvent(httpServletRequest, this, portletWindowId, executionTime, event.getQName());
+        }
         
         return executionTime;
     }
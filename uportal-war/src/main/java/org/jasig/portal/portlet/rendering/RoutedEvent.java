@@ -0,0 +1,55 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering;
+
+import javax.portlet.Event;
+
+import org.jasig.portal.portlet.container.EventImpl;
+
+/**
+ * An event resolved to a target portlet window, carrying how long it took to find the event's targets and how many
+ * windows it was dispatched to so they can be reported with the event's execution.
+ * 
+ * @version $Revision$
+ */
+public class RoutedEvent extends EventImpl {
+    private final long routingTime;
+    private final int fanOut;
+
+    public RoutedEvent(Event event, long routingTime, int fanOut) {
+        super(event.getQName(), event.getValue());
+        this.routingTime = routingTime;
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * @return Time spent resolving the target windows of the event, in nanoseconds
+     */
+    public long getRoutingTime() {
+        return this.routingTime;
+    }
+
+    /**
+     * @return Number of portlet windows the event was dispatched to
+     */
+    public int getFanOut() {
+        return this.fanOut;
+    }
+}
@@ -0,0 +1,481 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.utils.ConcurrentMapUtils;
+import org.jasig.portal.utils.MovingAverage;
+import org.jasig.portal.utils.MovingAverageSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Maps;
+
+/**
+ * Tracks the moving average render time and timeout rate of each portlet fname and uses them to
+ * limit the number of worker threads slow portlets can occupy. An fname is throttled when its
+ * average execution time or timeout rate is over the configured thresholds. Throttled portlets are
+ * limited to {@link #getPercentPermittedSlowByFname()} of the worker pool, executions over that limit
+ * are queued by the {@link #getExecutorService()} wrapper around the portlet thread pool and started
+ * as earlier executions of the same fname complete. Portlets that are not throttled are never limited
+ * or queued. Hung workers are handled by {@link HungWorkerAnalyzer}, which denies executions of
+ * fnames over its percentPermittedErrantByFname.
+ * <br/>
+ * Throttling is disabled by default, see {@link #setPercentPermittedSlowByFname(double)}.
+ */
+@ManagedResource("uPortal:section=Framework,name=AdaptivePortletSchedulingPolicy")
+@Service("adaptivePortletSchedulingPolicy")
+public class AdaptivePortletSchedulingPolicy implements IPortletExecutionInterceptor, AdaptivePortletSchedulingPolicyMXBean {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ConcurrentMap<String, PortletExecutionStats> portletStats = new ConcurrentHashMap<String, PortletExecutionStats>();
+    private final ExecutorService executorService = new SchedulingExecutorService();
+    
+    //Read only views used for JMX stats
+    private final Map<String, Long> averageExecutionTimesView = Maps.transformValues(this.portletStats, new Function<PortletExecutionStats, Long>() {
+        public Long apply(PortletExecutionStats stats) {
+            return stats.getAverageExecutionTime();
+        }
+    });
+    private final Map<String, Long> timeoutPercentagesView = Maps.transformValues(this.portletStats, new Function<PortletExecutionStats, Long>() {
+        public Long apply(PortletExecutionStats stats) {
+            return stats.getTimeoutPercentage();
+        }
+    });
+    private final Map<String, Integer> activeWorkerCountsView = Maps.transformValues(this.portletStats, new Function<PortletExecutionStats, Integer>() {
+        public Integer apply(PortletExecutionStats stats) {
+            return stats.getScheduledWorkers();
+        }
+    });
+    private final Map<String, Integer> queuedWorkerCountsView = Maps.transformValues(this.portletStats, new Function<PortletExecutionStats, Integer>() {
+        public Integer apply(PortletExecutionStats stats) {
+            return stats.getQueuedWorkers();
+        }
+    });
+    private final Map<String, Long> queuedExecutionCountsView = Maps.transformValues(this.portletStats, new Function<PortletExecutionStats, Long>() {
+        public Long apply(PortletExecutionStats stats) {
+            return stats.queuedExecutions.get();
+        }
+    });
+    private final Map<String, Integer> throttledPortletsView = Maps.transformEntries(
+            Maps.filterKeys(this.portletStats, new Predicate<String>() {
+                public boolean apply(String portletFname) {
+                    return isThrottled(portletFname);
+                }
+            }),
+            new Maps.EntryTransformer<String, PortletExecutionStats, Integer>() {
+                public Integer transformEntry(String portletFname, PortletExecutionStats stats) {
+                    return getWorkerLimit(portletFname);
+                }
+            });
+    
+    private ThreadPoolExecutor portletThreadPool;
+    
+    private double percentPermittedSlowByFname = 0;
+    private long slowExecutionThreshold = 1000;
+    private int slowTimeoutPercentage = 10;
+    private int minimumSamples = 10;
+
+    @Autowired
+    public void setPortletThreadPool(@Qualifier("portletThreadPool") ExecutorService portletThreadPool) {
+        //Note this is injected as a ExecutorService then cast due to the original object being created by a FactoryBean that declares itself as an ExecutorService
+        this.portletThreadPool = (ThreadPoolExecutor)portletThreadPool;
+    }
+    
+    @Value("${org.jasig.portal.portlet.percentPermittedSlowByFname:0}")
+    @Override
+    public void setPercentPermittedSlowByFname(double percentPermittedSlowByFname) {
+        this.percentPermittedSlowByFname = percentPermittedSlowByFname;
+    }
+
+    @Override
+    public double getPercentPermittedSlowByFname() {
+        return this.percentPermittedSlowByFname;
+    }
+
+    @Value("${org.jasig.portal.portlet.slowExecutionThreshold:1000}")
+    @Override
+    public void setSlowExecutionThreshold(long slowExecutionThreshold) {
+        this.slowExecutionThreshold = slowExecutionThreshold;
+    }
+
+    @Override
+    public long getSlowExecutionThreshold() {
+        return this.slowExecutionThreshold;
+    }
+
+    @Value("${org.jasig.portal.portlet.slowTimeoutPercentage:10}")
+    @Override
+    public void setSlowTimeoutPercentage(int slowTimeoutPercentage) {
+        this.slowTimeoutPercentage = slowTimeoutPercentage;
+    }
+
+    @Override
+    public int getSlowTimeoutPercentage() {
+        return this.slowTimeoutPercentage;
+    }
+
+    @Value("${org.jasig.portal.portlet.slowMinimumSamples:10}")
+    @Override
+    public void setMinimumSamples(int minimumSamples) {
+        this.minimumSamples = minimumSamples;
+    }
+
+    @Override
+    public int getMinimumSamples() {
+        return this.minimumSamples;
+    }
+
+    @Override
+    public Map<String, Long> getAverageExecutionTimes() {
+        return this.averageExecutionTimesView;
+    }
+
+    @Override
+    public Map<String, Long> getTimeoutPercentages() {
+        return this.timeoutPercentagesView;
+    }
+
+    @Override
+    public Map<String, Integer> getActiveWorkerCounts() {
+        return this.activeWorkerCountsView;
+    }
+
+    @Override
+    public Map<String, Integer> getQueuedWorkerCounts() {
+        return this.queuedWorkerCountsView;
+    }
+
+    @Override
+    public Map<String, Long> getQueuedExecutionCounts() {
+        return this.queuedExecutionCountsView;
+    }
+
+    @Override
+    public Map<String, Integer> getThrottledPortlets() {
+        return this.throttledPortletsView;
+    }
+    
+    @Override
+    public void resetStatistics() {
+        for (final PortletExecutionStats stats : this.portletStats.values()) {
+            stats.resetStatistics();
+        }
+    }
+    
+    /**
+     * @return Wrapper around the portlet thread pool that queues executions of throttled portlets that are over their worker limit
+     */
+    public ExecutorService getExecutorService() {
+        return this.executorService;
+    }
+
+    /**
+     * @return true if the fname is currently slow or timing out and has a limited number of workers
+     */
+    public boolean isThrottled(String portletFname) {
+        if (this.percentPermittedSlowByFname <= 0) {
+            return false;
+        }
+        
+        final PortletExecutionStats stats = this.portletStats.get(portletFname);
+        if (stats == null) {
+            return false;
+        }
+        
+        final MovingAverageSample executionTimes = stats.executionTimes;
+        if (executionTimes == null || executionTimes.getTotalSamples() < this.minimumSamples) {
+            return false;
+        }
+        
+        return executionTimes.getAverage() > this.slowExecutionThreshold || stats.getTimeoutPercentage() > this.slowTimeoutPercentage;
+    }
+    
+    /**
+     * @return The maximum number of concurrent workers the fname may use, {@link Integer#MAX_VALUE} if it is not throttled
+     */
+    public int getWorkerLimit(String portletFname) {
+        if (!this.isThrottled(portletFname)) {
+            return Integer.MAX_VALUE;
+        }
+        
+        final int maximumPoolSize = this.portletThreadPool.getMaximumPoolSize();
+        return Math.max(1, (int)(this.percentPermittedSlowByFname * maximumPoolSize));
+    }
+
+    @Override
+    public void preSubmit(HttpServletRequest request, HttpServletResponse response, IPortletExecutionContext context) {
+        //Executions over the worker limit are queued by the executor service, nothing to do here
+    }
+
+    @Override
+    public void preExecution(HttpServletRequest request, HttpServletResponse response, IPortletExecutionContext context) {
+    }
+
+    @Override
+    public void postExecution(HttpServletRequest request, HttpServletResponse response, IPortletExecutionContext context, Exception e) {
+        final PortletExecutionStats stats = this.getPortletExecutionStats(context.getPortletFname());
+        final long duration = context.getDuration();
+        final long timeout = context.getApplicableTimeout();
+        stats.addExecution(duration, timeout > 0 && duration > timeout);
+    }
+    
+    /**
+     * Run the task on the thread pool if the fname is under its worker limit, otherwise queue it
+     */
+    private void schedule(PortletExecutionCallable<?> task) {
+        final String portletFname = task.getPortletFname();
+        final PortletExecutionStats stats = this.getPortletExecutionStats(portletFname);
+        final int workerLimit = this.getWorkerLimit(portletFname);
+        
+        synchronized (stats) {
+            if (stats.scheduledWorkers >= workerLimit) {
+                stats.queue(task);
+                logger.debug("Queued worker execution for slow portlet {} that has {} scheduled workers over limit of {}", new Object[] { portletFname, stats.scheduledWorkers, workerLimit });
+                return;
+            }
+            
+            stats.scheduledWorkers++;
+        }
+        
+        try {
+            this.portletThreadPool.execute(new ScheduledExecution(stats, task));
+        }
+        catch (RejectedExecutionException e) {
+            synchronized (stats) {
+                stats.scheduledWorkers--;
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Called when a scheduled execution completes, starts the next queued execution for the fname
+     * if it is under its worker limit.
+     */
+    private void scheduleNext(String portletFname, PortletExecutionStats stats) {
+        final int workerLimit = this.getWorkerLimit(portletFname);
+        
+        final PortletExecutionCallable<?> next;
+        synchronized (stats) {
+            stats.scheduledWorkers--;
+            if (stats.scheduledWorkers >= workerLimit) {
+                return;
+            }
+            
+            next = stats.pollQueued();
+            if (next == null) {
+                return;
+            }
+            
+            stats.scheduledWorkers++;
+        }
+        
+        try {
+            this.portletThreadPool.execute(new ScheduledExecution(stats, next));
+        }
+        catch (RejectedExecutionException e) {
+            synchronized (stats) {
+                stats.scheduledWorkers--;
+            }
+            
+            //Nothing is waiting on the submit call anymore, fail the worker so it doesn't wait for the full timeout
+            logger.warn("Failed to execute queued worker for portlet " + portletFname + ", the worker will be cancelled", e);
+            next.cancel(false);
+        }
+    }
+    
+    private PortletExecutionStats getPortletExecutionStats(String portletFname) {
+        PortletExecutionStats stats = this.portletStats.get(portletFname);
+        if (stats == null) {
+            stats = ConcurrentMapUtils.putIfAbsent(this.portletStats, portletFname, new PortletExecutionStats());
+        }
+        return stats;
+    }
+    
+    /**
+     * Execution statistics for a single portlet fname
+     */
+    private static final class PortletExecutionStats {
+        private volatile MovingAverage executionTimeAverage = new MovingAverage();
+        //Timeouts are tracked as samples of 100 or 0 so the average is the percentage of executions that timed out 
+        private volatile MovingAverage timeoutAverage = new MovingAverage();
+        private final AtomicLong queuedExecutions = new AtomicLong();
+        //Executions waiting for the fname to drop below its worker limit, guarded by this
+        private final Queue<PortletExecutionCallable<?>> queuedWorkers = new LinkedList<PortletExecutionCallable<?>>();
+        //Executions submitted to the thread pool, guarded by this
+        private int scheduledWorkers = 0;
+        private volatile MovingAverageSample executionTimes;
+        private volatile MovingAverageSample timeouts;
+        
+        public void queue(PortletExecutionCallable<?> task) {
+            //Drop executions that timed out while waiting so they don't build up behind a hung worker
+            for (final Iterator<PortletExecutionCallable<?>> queuedItr = this.queuedWorkers.iterator(); queuedItr.hasNext();) {
+                if (queuedItr.next().isCancelled()) {
+                    queuedItr.remove();
+                }
+            }
+            
+            this.queuedWorkers.add(task);
+            this.queuedExecutions.incrementAndGet();
+        }
+        
+        /**
+         * @return The next queued execution that has not been cancelled, null if there are none
+         */
+        public PortletExecutionCallable<?> pollQueued() {
+            PortletExecutionCallable<?> task;
+            do {
+                task = this.queuedWorkers.poll();
+            } while (task != null && task.isCancelled());
+            return task;
+        }
+        
+        public synchronized int getScheduledWorkers() {
+            return this.scheduledWorkers;
+        }
+        
+        public synchronized int getQueuedWorkers() {
+            return this.queuedWorkers.size();
+        }
+        
+        public void resetStatistics() {
+            this.executionTimeAverage = new MovingAverage();
+            this.timeoutAverage = new MovingAverage();
+            this.executionTimes = null;
+            this.timeouts = null;
+            this.queuedExecutions.set(0);
+        }
+        
+        public void addExecution(long duration, boolean timedOut) {
+            this.executionTimes = this.executionTimeAverage.add(duration);
+            this.timeouts = this.timeoutAverage.add(timedOut ? 100 : 0);
+        }
+        
+        public long getAverageExecutionTime() {
+            final MovingAverageSample executionTimes = this.executionTimes;
+            return executionTimes != null ? executionTimes.getAverage() : 0;
+        }
+        
+        public long getTimeoutPercentage() {
+            final MovingAverageSample timeouts = this.timeouts;
+            return timeouts != null ? timeouts.getAverage() : 0;
+        }
+    }
+    
+    /**
+     * Runs a scheduled execution and then starts the next queued execution for the same fname
+     */
+    private final class ScheduledExecution implements Runnable {
+        private final PortletExecutionStats stats;
+        private final PortletExecutionCallable<?> task;
+        
+        public ScheduledExecution(PortletExecutionStats stats, PortletExecutionCallable<?> task) {
+            this.stats = stats;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            }
+            finally {
+                scheduleNext(this.task.getPortletFname(), this.stats);
+            }
+        }
+    }
+    
+    /**
+     * Delegates to the portlet thread pool, {@link PortletExecutionCallable}s are run through
+     * {@link AdaptivePortletSchedulingPolicy#schedule(PortletExecutionCallable)} so they can be queued.
+     */
+    private final class SchedulingExecutorService extends AbstractExecutorService {
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            if (callable instanceof PortletExecutionCallable) {
+                //Already a FutureTask, use it directly so the scheduler can see the portlet fname
+                return (PortletExecutionCallable<T>)callable;
+            }
+            return super.newTaskFor(callable);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (command instanceof PortletExecutionCallable) {
+                schedule((PortletExecutionCallable<?>)command);
+            }
+            else {
+                portletThreadPool.execute(command);
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            portletThreadPool.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return portletThreadPool.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return portletThreadPool.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return portletThreadPool.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return portletThreadPool.awaitTermination(timeout, unit);
+        }
+    }
+}
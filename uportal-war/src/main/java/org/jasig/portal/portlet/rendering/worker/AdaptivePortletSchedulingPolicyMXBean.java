@@ -0,0 +1,104 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import java.util.Map;
+
+/**
+ * JMX stats and settings for AdaptivePortletSchedulingPolicy
+ */
+public interface AdaptivePortletSchedulingPolicyMXBean {
+    
+    /**
+     * @return Moving average execution time in milliseconds by portlet
+     */
+    Map<String, Long> getAverageExecutionTimes();
+    
+    /**
+     * @return Percentage of recent executions that exceeded their timeout by portlet
+     */
+    Map<String, Long> getTimeoutPercentages();
+    
+    /**
+     * @return Number of workers currently submitted to the thread pool by portlet
+     */
+    Map<String, Integer> getActiveWorkerCounts();
+    
+    /**
+     * @return Number of workers currently waiting for the portlet to drop below its worker limit by portlet
+     */
+    Map<String, Integer> getQueuedWorkerCounts();
+    
+    /**
+     * @return Number of executions queued due to the worker limit by portlet
+     */
+    Map<String, Long> getQueuedExecutionCounts();
+    
+    /**
+     * @return The worker limit of each portlet that is currently throttled
+     */
+    Map<String, Integer> getThrottledPortlets();
+    
+    /**
+     * Clear all collected execution statistics
+     */
+    void resetStatistics();
+
+    /**
+     * @param percentPermittedSlowByFname The ratio of the worker pool a slow portlet may use, 0 disables throttling
+     */
+    void setPercentPermittedSlowByFname(double percentPermittedSlowByFname);
+
+    /**
+     * @return The ratio of the worker pool a slow portlet may use
+     */
+    double getPercentPermittedSlowByFname();
+
+    /**
+     * @param slowExecutionThreshold Average execution time in milliseconds over which a portlet is throttled
+     */
+    void setSlowExecutionThreshold(long slowExecutionThreshold);
+
+    /**
+     * @return Average execution time in milliseconds over which a portlet is throttled
+     */
+    long getSlowExecutionThreshold();
+
+    /**
+     * @param slowTimeoutPercentage Percentage of timed out executions over which a portlet is throttled
+     */
+    void setSlowTimeoutPercentage(int slowTimeoutPercentage);
+
+    /**
+     * @return Percentage of timed out executions over which a portlet is throttled
+     */
+    int getSlowTimeoutPercentage();
+
+    /**
+     * @param minimumSamples Number of executions a portlet must have before it can be throttled as slow
+     */
+    void setMinimumSamples(int minimumSamples);
+
+    /**
+     * @return Number of executions a portlet must have before it can be throttled as slow
+     */
+    int getMinimumSamples();
+}
@@ -20,6 +20,7 @@
 package org.jasig.portal.portlet.rendering.worker;
 
 import java.lang.Thread.State;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -70,6 +71,8 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
     private final AtomicInteger cancelCount = new AtomicInteger();
     private final AtomicBoolean canceled = new AtomicBoolean();
     private volatile boolean retrieved = false;
+    private final List<Runnable> completionCallbacks = new ArrayList<Runnable>(0);
+    private boolean completionCallbacksRun = false;
 
     public PortletExecutionWorker(
             ExecutorService executorService, List<IPortletExecutionInterceptor> interceptors, IPortletRenderer portletRenderer, 
@@ -210,6 +213,21 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         }
         
         workerThread = null;
+        
+        final List<Runnable> callbacks;
+        synchronized (this.completionCallbacks) {
+            this.completionCallbacksRun = true;
+            callbacks = new ArrayList<Runnable>(this.completionCallbacks);
+            this.completionCallbacks.clear();
+        }
+        for (final Runnable callback : callbacks) {
+            try {
+                callback.run();
+            }
+            catch (RuntimeException e) {
+                logger.error("Completion callback failed for {}", this, e);
+            }
+        }
     }
     
     private void doPostExecution(Exception e) {
@@ -251,6 +269,17 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         return this.retrieved;
     }
     
+    @Override
+    public void addCompletionCallback(Runnable callback) {
+        synchronized (this.completionCallbacks) {
+            if (!this.completionCallbacksRun) {
+                this.completionCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+    
     @Override
     public final long waitForStart(long timeout) throws InterruptedException {
         //Wait for start Callable to start
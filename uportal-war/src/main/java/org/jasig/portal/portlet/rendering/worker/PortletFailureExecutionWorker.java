@@ -230,6 +230,15 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
     public boolean isRetrieved() {
         return this.retrieved;
     }
+    
+    /**
+     * The error is rendered by the thread that calls {@link #get(long)} so the worker never needs to be
+     * waited on, the callback is run immediately.
+     */
+    @Override
+    public void addCompletionCallback(Runnable callback) {
+        callback.run();
+    }
 
     @Override
     public long getSubmittedTime() {
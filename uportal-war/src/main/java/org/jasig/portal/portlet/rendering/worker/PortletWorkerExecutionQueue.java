@@ -22,7 +22,7 @@ package org.jasig.portal.portlet.rendering.worker;
 import java.util.Iterator;
 import java.util.Set;
 
-import org.jasig.portal.utils.threading.QualityOfServiceBlockingQueue;
+import org.jasig.portal.utils.threading.ConcurrentQualityOfServiceBlockingQueue;
 
 /**
  * QOS based queue that spreads out workers by fname.
@@ -30,7 +30,7 @@ import org.jasig.portal.utils.threading.QualityOfServiceBlockingQueue;
  * @author Eric Dalquist
  * @version $Revision$
  */
-public class PortletWorkerExecutionQueue extends QualityOfServiceBlockingQueue<String, PortletExecutionCallable<?>> {
+public class PortletWorkerExecutionQueue extends ConcurrentQualityOfServiceBlockingQueue<String, PortletExecutionCallable<?>> {
     private Iterator<String> keyIterator;
     
     public PortletWorkerExecutionQueue() {
@@ -38,7 +38,6 @@ import org.jasig.portal.portlet.rendering.IPortletRenderer;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 /**
@@ -79,9 +78,13 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
         this.portletWindowRegistry = portletWindowRegistry;
     }
 
+    /**
+     * Workers are submitted through the scheduling policy's executor service which queues executions
+     * of slow portlets before handing them to the portlet thread pool.
+     */
     @Autowired
-    public void setPortletThreadPool(@Qualifier("portletThreadPool") ExecutorService portletThreadPool) {
-        this.portletThreadPool = portletThreadPool;
+    public void setSchedulingPolicy(AdaptivePortletSchedulingPolicy schedulingPolicy) {
+        this.portletThreadPool = schedulingPolicy.getExecutorService();
     }
 
     @Autowired
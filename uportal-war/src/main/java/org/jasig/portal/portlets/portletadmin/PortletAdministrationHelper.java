@@ -71,6 +71,7 @@ import org.jasig.portal.layout.dlm.remoting.IGroupListHelper;
 import org.jasig.portal.layout.dlm.remoting.JsonEntityBean;
 import org.jasig.portal.portlet.PortletUtils;
 import org.jasig.portal.portlet.dao.jpa.PortletPreferenceImpl;
+import org.jasig.portal.portlet.marketplace.IMarketplaceService;
 import org.jasig.portal.portlet.delegation.jsp.RenderPortletTag;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletPreference;
@@ -80,6 +81,7 @@ import org.jasig.portal.portlet.om.PortletCategory;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
 import org.jasig.portal.portlet.registry.IPortletCategoryRegistry;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.portlet.registry.IPortletDefinitionSearchIndex;
 import org.jasig.portal.portlet.registry.IPortletTypeRegistry;
 import org.jasig.portal.portlet.rendering.IPortletRenderer;
 import org.jasig.portal.portletpublishing.xml.MultiValuedPreferenceInputType;
@@ -140,10 +142,14 @@ public class PortletAdministrationHelper implements ServletContextAware {
     private IChannelPublishingDefinitionDao portletPublishingDefinitionDao;
     @Autowired
     private IGroupListHelper groupListHelper;
+    @Autowired(required = false)
+    private IMarketplaceService marketplaceService;
     @Autowired
     private IPortalUrlProvider urlProvider;
     @Autowired
     private IPortletCategoryRegistry portletCategoryRegistry;
+    @Autowired(required = false)
+    private IPortletDefinitionSearchIndex portletDefinitionSearchIndex;
     @Autowired
     private IPortletDefinitionRegistry portletDefinitionRegistry;
     @Autowired
@@ -412,6 +418,12 @@ public class PortletAdministrationHelper implements ServletContextAware {
 
         IPortletDefinition def = portletDefinitionRegistry.getPortletDefinition(form.getId());
         portletDefinitionRegistry.deletePortletDefinition(def);
+        if (portletDefinitionSearchIndex != null) {
+            portletDefinitionSearchIndex.removePortletDefinition(def);
+        }
+        if (marketplaceService != null) {
+            marketplaceService.portletDefinitionChanged(def);
+        }
 
     }
 
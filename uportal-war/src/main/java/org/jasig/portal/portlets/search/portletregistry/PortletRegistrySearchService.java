@@ -18,16 +18,21 @@
  */
 package org.jasig.portal.portlets.search.portletregistry;
 
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.portlet.PortletRequest;
 import javax.servlet.http.HttpServletRequest;
 
 import org.jasig.portal.portlet.PortletUtils;
 import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
 import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.portlet.registry.IPortletDefinitionSearchIndex;
+import org.jasig.portal.portlet.registry.IPortletDefinitionSearchIndex.SearchField;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
 import org.jasig.portal.portlets.search.IPortalSearchService;
 import org.jasig.portal.search.SearchRequest;
@@ -42,8 +47,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
 public class PortletRegistrySearchService implements IPortalSearchService {
+    private static final Set<SearchField> SEARCH_FIELDS = EnumSet.of(
+            SearchField.TITLE, SearchField.NAME, SearchField.FNAME, SearchField.DESCRIPTION, 
+            SearchField.KEYWORDS, SearchField.CATEGORIES);
 
     private IPortletDefinitionRegistry portletDefinitionRegistry;
+    private IPortletDefinitionSearchIndex portletDefinitionSearchIndex;
     private IPortalUrlProvider portalUrlProvider;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortalRequestUtils portalRequestUtils;
@@ -56,6 +65,11 @@ public class PortletRegistrySearchService implements IPortalSearchService {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
     }
 
+    @Autowired
+    public void setPortletDefinitionSearchIndex(IPortletDefinitionSearchIndex portletDefinitionSearchIndex) {
+        this.portletDefinitionSearchIndex = portletDefinitionSearchIndex;
+    }
+
     @Autowired
     public void setPortalUrlProvider(IPortalUrlProvider urlProvider) {
         this.portalUrlProvider = urlProvider;
@@ -75,14 +89,14 @@ public class PortletRegistrySearchService implements IPortalSearchService {
     public SearchResults getSearchResults(PortletRequest request,
             SearchRequest query) {
         
-        final String queryString = query.getSearchTerms().toLowerCase();
-        final List<IPortletDefinition> portlets = portletDefinitionRegistry.getAllPortletDefinitions();
+        final List<IPortletDefinitionId> portletIds = this.portletDefinitionSearchIndex.search(query.getSearchTerms(), SEARCH_FIELDS, -1);
         
         final HttpServletRequest httpServletRequest = this.portalRequestUtils.getPortletHttpRequest(request);
         
         final SearchResults results =  new SearchResults();
-        for (IPortletDefinition portlet : portlets) {
-            if (matches(queryString, portlet)) {
+        for (final IPortletDefinitionId portletId : portletIds) {
+            final IPortletDefinition portlet = this.portletDefinitionRegistry.getPortletDefinition(portletId);
+            if (portlet != null) {
                 final SearchResult result = new SearchResult();
                 result.setTitle(portlet.getTitle());
                 result.setSummary(portlet.getDescription());
@@ -104,27 +118,4 @@ public class PortletRegistrySearchService implements IPortalSearchService {
         return results;
     }
 
-    /**
-     * Performs a case-insensitive comparison of the user's query against 
-     * several important fields from the {@link IPortletDefinition}.
-     * 
-     * @param query The user's search terms, which seem to be forced lower-case
-     * @param portlet
-     * @return
-     */
-    protected boolean matches(final String query, final IPortletDefinition portlet) {
-        /*
-         * The query parameter is coming in lower case always (even when upper
-         * or mixed case is entered by the user).  We really want a case-
-         * insensitive comparison here anyway;  for safety, we will make certain
-         * it is insensitive.
-         */
-        final String lcQuery = query.toLowerCase();
-        final boolean titleMatch = portlet.getTitle().toLowerCase().contains(lcQuery);
-        final boolean nameMatch = portlet.getName().toLowerCase().contains(lcQuery);
-        final boolean descMatch = portlet.getDescription() != null && portlet.getDescription().toLowerCase().contains(lcQuery);
-        final boolean fnameMatch = portlet.getFName().toLowerCase().contains(lcQuery);
-        return titleMatch || nameMatch || descMatch || fnameMatch;
-    }
-
 }
@@ -0,0 +1,76 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlets.statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.visualization.datasource.datatable.ColumnDescription;
+import com.google.visualization.datasource.datatable.value.NumberValue;
+import com.google.visualization.datasource.datatable.value.Value;
+import com.google.visualization.datasource.datatable.value.ValueType;
+import org.jasig.portal.events.aggr.TimedAggregationPercentiles;
+
+/**
+ * Adds p50/p95/p99 latency columns, in milliseconds, after the columns of timed aggregation reports
+ */
+final class LatencyPercentileColumns {
+    private static final double[] PERCENTILES = { 50, 95, 99 };
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private LatencyPercentileColumns() {
+    }
+
+    /**
+     * @return The column descriptions, each followed by a column for each reported percentile
+     */
+    static List<ColumnDescription> addPercentileColumns(List<ColumnDescription> columnDescriptions) {
+        final List<ColumnDescription> result = new ArrayList<ColumnDescription>(columnDescriptions.size() * (PERCENTILES.length + 1));
+        for (final ColumnDescription columnDescription : columnDescriptions) {
+            result.add(columnDescription);
+            for (final double percentile : PERCENTILES) {
+                final String name = "p" + (int) percentile;
+                result.add(new ColumnDescription(columnDescription.getId() + "-" + name, ValueType.NUMBER,
+                        columnDescription.getLabel() + " - " + name + " (ms)"));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The row values followed by the value of each reported percentile, null values are used when the
+     *      aggregation is missing or has no percentile data
+     */
+    static List<Value> addPercentileValues(List<Value> values, TimedAggregationPercentiles aggr) {
+        final List<Value> result = new ArrayList<Value>(values.size() + PERCENTILES.length);
+        result.addAll(values);
+        for (final double percentile : PERCENTILES) {
+            final double value = aggr != null ? aggr.getPercentile(percentile) : Double.NaN;
+            if (Double.isNaN(value)) {
+                result.add(NumberValue.getNullValue());
+            }
+            else {
+                result.add(new NumberValue(value / NANOS_PER_MILLI));
+            }
+        }
+        return result;
+    }
+}
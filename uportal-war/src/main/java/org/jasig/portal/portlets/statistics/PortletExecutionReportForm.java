@@ -26,6 +26,7 @@ public class PortletExecutionReportForm extends BaseReportForm {
 
     private Set<String> portlets = new HashSet<String>();
     private Set<String> executionTypeNames = new HashSet<String>();
+    private boolean percentiles = false;
 
     public final Set<String> getPortlets() {
         return portlets;
@@ -43,4 +44,12 @@ public class PortletExecutionReportForm extends BaseReportForm {
         this.executionTypeNames = executionTypeNames;
     }
 
+    public boolean isPercentiles() {
+        return percentiles;
+    }
+
+    public void setPercentiles(boolean percentiles) {
+        this.percentiles = percentiles;
+    }
+
 }
@@ -25,6 +25,7 @@ import java.util.List;
 public class TabRenderReportForm extends BaseReportForm {
 
     private List<Long> tabs = new ArrayList<Long>();
+    private boolean percentiles = false;
 
     public final List<Long> getTabs() {
         return tabs;
@@ -33,4 +34,12 @@ public class TabRenderReportForm extends BaseReportForm {
     public final void setTabs(List<Long> tabs) {
         this.tabs = tabs;
     }
+
+    public boolean isPercentiles() {
+        return percentiles;
+    }
+
+    public void setPercentiles(boolean percentiles) {
+        this.percentiles = percentiles;
+    }
 }
@@ -218,13 +218,22 @@ public class TabRenderStatisticsController extends
                 new ReportTitleAndColumnDescriptionStrategy.TitleAndCount(groupName, form.getGroups().size())
         };
 
-        return titleAndColumnDescriptionStrategy.getColumnDescriptions(items, showFullColumnHeaderDescriptions(form), form);
+        final List<ColumnDescription> columnDescriptions = titleAndColumnDescriptionStrategy.getColumnDescriptions(items, showFullColumnHeaderDescriptions(form), form);
+        if (form.isPercentiles()) {
+            //THE ORDER OF RETURNED COLUMNS HERE MUST MATCH THE ORDER OF THE VALUES RETURNED IN createRowValues
+            return LatencyPercentileColumns.addPercentileColumns(columnDescriptions);
+        }
+        return columnDescriptions;
     }
 
     @Override
     protected List<Value> createRowValues(TabRenderAggregation aggr, TabRenderReportForm form) {
         int count = aggr != null ? aggr.getRenderCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        final List<Value> values = Collections.<Value>singletonList(new NumberValue(count));
+        if (form.isPercentiles()) {
+            return LatencyPercentileColumns.addPercentileValues(values, aggr);
+        }
+        return values;
     }
 
 }
@@ -23,8 +23,10 @@ import java.util.List;
 
 import javax.portlet.ResourceRequest;
 
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
 import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.registry.IPortletDefinitionSearchIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -50,12 +52,24 @@ public class PortletEntityTranslationController {
     public static final String ENTITY_TYPE_PORTLET = "protlet";
     
     private IPortletDefinitionDao portletDefinitionDao;
+    private IUserLayoutVersionService userLayoutVersionService;
+    private IPortletDefinitionSearchIndex portletDefinitionSearchIndex;
     
     @Autowired(required = true)
     public void setPortletDefinitionDao(IPortletDefinitionDao portletDefinitionDao) {
         this.portletDefinitionDao = portletDefinitionDao;
     }
     
+    @Autowired(required = false)
+    public void setPortletDefinitionSearchIndex(IPortletDefinitionSearchIndex portletDefinitionSearchIndex) {
+        this.portletDefinitionSearchIndex = portletDefinitionSearchIndex;
+    }
+    
+    @Autowired(required = true)
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
+    
     @ResourceMapping
     @RequestMapping(params = "action=getEntityList")
     public ModelAndView getEntityList() throws Exception {
@@ -96,6 +110,12 @@ public class PortletEntityTranslationController {
             definition.addLocalizedName(locale, request.getParameter("name"));
             definition.addLocalizedDescription(locale, request.getParameter("description"));
             portletDefinitionDao.updatePortletDefinition(definition);
+            if (portletDefinitionSearchIndex != null) {
+                portletDefinitionSearchIndex.indexPortletDefinition(definition);
+            }
+            
+            //Localized titles are part of every layout containing the portlet
+            userLayoutVersionService.incrementAllLayoutVersions();
         }
         
         return new ModelAndView("json");
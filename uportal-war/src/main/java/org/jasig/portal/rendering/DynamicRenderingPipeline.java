@@ -37,6 +37,7 @@ import org.jasig.portal.url.IUrlSyntaxProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Top level class that initiates rendering via a {@link CharacterPipelineComponent}
@@ -53,7 +54,26 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
     private CharacterPipelineComponent pipeline;
     private IPortletExecutionEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
+    private boolean coalesceOutput = false;
+    private int flushThreshold = 8192;
     
+    /**
+     * If true character data is coalesced in a {@link RenderingOutputBuffer} and only flushed at chunk-points,
+     * before blocking on incomplete portlets or when {@link #setFlushThreshold(int)} is reached. If false
+     * the response is flushed after every character event. Defaults to false.
+     */
+    @Value("${org.jasig.portal.rendering.DynamicRenderingPipeline.coalesceOutput:false}")
+    public void setCoalesceOutput(boolean coalesceOutput) {
+        this.coalesceOutput = coalesceOutput;
+    }
+
+    /**
+     * Number of buffered characters that triggers a flush when output coalescing is enabled. Defaults to 8192.
+     */
+    @Value("${org.jasig.portal.rendering.DynamicRenderingPipeline.flushThreshold:8192}")
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
 
     @Autowired
     public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
@@ -90,21 +110,28 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         res.setContentType(contentType);
         
         final PrintWriter writer = res.getWriter();
-        
-        for (final CharacterEvent event : pipelineEventReader) {
-            if (CharacterEventTypes.CHARACTER != event.getEventType()) {
-                throw new RenderingPipelineConfigurationException("Only " + CharacterEventTypes.CHARACTER + " events are supported in the top level renderer. " + event.getEventType() + " is not supported.");
+        final RenderingOutputBuffer outputBuffer = new RenderingOutputBuffer(writer, res, this.coalesceOutput ? this.flushThreshold : 0);
+        outputBuffer.bind(req);
+        try {
+            for (final CharacterEvent event : pipelineEventReader) {
+                if (CharacterEventTypes.CHARACTER != event.getEventType()) {
+                    throw new RenderingPipelineConfigurationException("Only " + CharacterEventTypes.CHARACTER + " events are supported in the top level renderer. " + event.getEventType() + " is not supported.");
+                }
+                
+                final String data = ((CharacterDataEvent)event).getData();
+                outputBuffer.write(data);
             }
             
-            final String data = ((CharacterDataEvent)event).getData();
-            writer.print(data);
-            writer.flush();
-            res.flushBuffer();
+            outputBuffer.flush();
+        }
+        finally {
+            outputBuffer.unbind(req);
         }
         
         final long executionTime = System.nanoTime() - startTime;
         final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(req);
-        this.portalEventFactory.publishPortalRenderEvent(req, this, req.getPathInfo(), executionTime, portalRequestInfo);
+        this.portalEventFactory.publishPortalRenderEvent(req, this, req.getPathInfo(), executionTime, portalRequestInfo,
+                outputBuffer.getFlushCount(), outputBuffer.getFlushedBytes());
     }
 
     /**
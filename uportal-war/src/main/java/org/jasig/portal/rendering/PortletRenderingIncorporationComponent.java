@@ -19,13 +19,21 @@
 
 package org.jasig.portal.rendering;
 
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.CharacterEventReaderDelegate;
 import org.jasig.portal.character.stream.FilteringCharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
 import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
 import org.jasig.portal.character.stream.events.PortletContentPlaceholderEvent;
@@ -40,18 +48,38 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Inserts the results of portlet's rendering into the character stream
+ * <p>
+ * If {@link #setDeferIncompletePortlets(boolean)} is enabled, portlet content that is not done rendering
+ * when its placeholder is reached is replaced with an empty placeholder element and the rest of the page
+ * is streamed to the client. The content of the deferred portlets is then written just before the theme's
+ * closing body tag, or at the end of the output if there is none, in the order the portlets complete along
+ * with a small script that moves it into its placeholder. Only enable deferral for pipelines that produce HTML.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
+    private static final String DEFERRED_PLACEHOLDER_ID_PREFIX = "up-deferred-portlet_";
+    private static final String DEFERRED_CONTENT_ID_PREFIX = "up-deferred-portlet-content_";
+    private static final String BODY_END_TAG = "</body";
+    
     private IPortletExecutionManager portletExecutionManager;
+    private boolean deferIncompletePortlets = false;
     
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
         this.portletExecutionManager = portletExecutionManager;
     }
 
+    /**
+     * If true portlet content that is not complete when its placeholder is reached is streamed at the
+     * end of the page body in completion order instead of blocking the rest of the page. The deferred
+     * content is HTML so this must only be enabled for HTML pipelines. Defaults to false.
+     */
+    public void setDeferIncompletePortlets(boolean deferIncompletePortlets) {
+        this.deferIncompletePortlets = deferIncompletePortlets;
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -72,29 +100,92 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
         final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
         
         final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
-        final PortletIncorporatingEventReader portletIncorporatingEventReader = new PortletIncorporatingEventReader(eventReader, request, response);
+        
+        final CharacterEventReader portletIncorporatingEventReader;
+        if (this.deferIncompletePortlets) {
+            //Portlets that have been deferred, in document order
+            final Set<IPortletWindowId> deferredPortlets = new LinkedHashSet<IPortletWindowId>();
+            portletIncorporatingEventReader = new DeferredPortletContentEventReader(
+                    new PortletIncorporatingEventReader(eventReader, request, response, deferredPortlets), 
+                    request, response, deferredPortlets);
+        }
+        else {
+            portletIncorporatingEventReader = new PortletIncorporatingEventReader(eventReader, request, response, null);
+        }
         
         final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
         return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(portletIncorporatingEventReader, outputProperties);
     }
+    
+    /**
+     * Markup that holds the place of a deferred portlet's content
+     */
+    protected String getDeferredPlaceholder(IPortletWindowId portletWindowId) {
+        final String id = StringEscapeUtils.escapeXml(portletWindowId.getStringId());
+        return "<div id=\"" + DEFERRED_PLACEHOLDER_ID_PREFIX + id + "\" class=\"up-portlet-deferred\"></div>";
+    }
+    
+    /**
+     * Markup that contains a deferred portlet's content and moves it into the placeholder element
+     */
+    protected String getDeferredContent(IPortletWindowId portletWindowId, String output) {
+        final String windowId = portletWindowId.getStringId();
+        final String id = StringEscapeUtils.escapeXml(windowId);
+        final String jsId = StringEscapeUtils.escapeJavaScript(windowId);
+        
+        return new StringBuilder(output.length() + 512)
+            .append("<div id=\"").append(DEFERRED_CONTENT_ID_PREFIX).append(id).append("\" style=\"display:none\">")
+            .append(output)
+            .append("</div><script type=\"text/javascript\">(function(){")
+            .append("var s=document.getElementById('").append(DEFERRED_CONTENT_ID_PREFIX).append(jsId).append("'),")
+            .append("t=document.getElementById('").append(DEFERRED_PLACEHOLDER_ID_PREFIX).append(jsId).append("');")
+            .append("if(s&&t){while(s.firstChild){t.parentNode.insertBefore(s.firstChild,t);}")
+            .append("t.parentNode.removeChild(t);s.parentNode.removeChild(s);}")
+            .append("})();</script>")
+            .toString();
+    }
 
     private class PortletIncorporatingEventReader extends FilteringCharacterEventReader {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
+        private final Set<IPortletWindowId> deferredPortlets;
+        private boolean portletOutput = false;
         
-        public PortletIncorporatingEventReader(CharacterEventReader delegate, HttpServletRequest request, HttpServletResponse response) {
+        /**
+         * @param deferredPortlets If not null incomplete portlet content is deferred and tracked in this set
+         */
+        public PortletIncorporatingEventReader(CharacterEventReader delegate, HttpServletRequest request, HttpServletResponse response, 
+                Set<IPortletWindowId> deferredPortlets) {
             super(delegate);
             this.request = request;
             this.response = response;
+            this.deferredPortlets = deferredPortlets;
+        }
+
+        /**
+         * @return true if the current event, the one returned by the last peek or next, was produced from portlet output
+         */
+        public boolean isPortletOutput() {
+            return this.portletOutput;
         }
 
         @Override
         protected CharacterEvent filterEvent(CharacterEvent event, boolean peek) {
+            final CharacterEvent filteredEvent = this.incorporatePortletOutput(event);
+            this.portletOutput = filteredEvent != event;
+            return filteredEvent;
+        }
+        
+        private CharacterEvent incorporatePortletOutput(CharacterEvent event) {
             switch (event.getEventType()) {
             	case PORTLET_HEADER: {
             		final PortletHeaderPlaceholderEvent headerPlaceholderEvent = (PortletHeaderPlaceholderEvent) event;
             		final IPortletWindowId portletWindowId = headerPlaceholderEvent.getPortletWindowId();
             		
+            		if (!portletExecutionManager.isPortletRenderHeaderComplete(portletWindowId, this.request, this.response)) {
+            		    RenderingOutputBuffer.flushPendingOutput(this.request);
+            		}
+            		
             		final String output = portletExecutionManager.getPortletHeadOutput(portletWindowId, this.request, this.response);
             		
             		return CharacterDataEventImpl.create(output);
@@ -103,6 +194,15 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                     final PortletContentPlaceholderEvent contentPlaceholderEvent = (PortletContentPlaceholderEvent)event;
                     final IPortletWindowId portletWindowId = contentPlaceholderEvent.getPortletWindowId();
                     
+                    if (!portletExecutionManager.isPortletRenderComplete(portletWindowId, this.request, this.response)) {
+                        if (this.deferredPortlets != null && this.deferredPortlets.add(portletWindowId)) {
+                            return CharacterDataEventImpl.create(getDeferredPlaceholder(portletWindowId));
+                        }
+                        
+                        //Send everything rendered so far to the client before blocking on the portlet
+                        RenderingOutputBuffer.flushPendingOutput(this.request);
+                    }
+                    
                     final String output = portletExecutionManager.getPortletOutput(portletWindowId, this.request, this.response);
                     
                     return CharacterDataEventImpl.create(output);
@@ -138,4 +238,142 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
             }
         }
     }
+    
+    /**
+     * When the theme's closing body tag or the end of the wrapped reader is reached returns the content of each
+     * deferred portlet, in the order the portlets complete rendering. All of the deferred portlets share a
+     * single deadline, the longest of their render timeouts from when the first one is written. Portlets
+     * that have not completed by then are returned in document order, which results in the normal timeout
+     * handling of the execution manager. Only the theme's character data is searched for the closing body
+     * tag, a closing body tag in the output of a portlet is never used.
+     */
+    private class DeferredPortletContentEventReader extends CharacterEventReaderDelegate {
+        private final PortletIncorporatingEventReader portletIncorporatingEventReader;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final Set<IPortletWindowId> deferredPortlets;
+        private CharacterEvent deferredEvent = null;
+        private CharacterEvent bodyEndEvent = null;
+        private boolean writingDeferred = false;
+        private long deadline = -1;
+        
+        public DeferredPortletContentEventReader(PortletIncorporatingEventReader delegate, HttpServletRequest request, HttpServletResponse response, 
+                Set<IPortletWindowId> deferredPortlets) {
+            super(delegate);
+            this.portletIncorporatingEventReader = delegate;
+            this.request = request;
+            this.response = response;
+            this.deferredPortlets = deferredPortlets;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.peek() != null;
+        }
+
+        @Override
+        public CharacterEvent next() {
+            final CharacterEvent event = this.peek();
+            if (event == null) {
+                throw new NoSuchElementException();
+            }
+            
+            if (this.deferredEvent != null) {
+                this.deferredEvent = null;
+                return event;
+            }
+            return super.next();
+        }
+
+        @Override
+        public CharacterEvent peek() {
+            if (this.deferredEvent != null) {
+                return this.deferredEvent;
+            }
+            
+            if (!this.writingDeferred) {
+                if (!super.hasNext()) {
+                    if (this.deferredPortlets.isEmpty()) {
+                        return null;
+                    }
+                    this.writingDeferred = true;
+                }
+                else {
+                    final CharacterEvent event = super.peek();
+                    if (this.deferredPortlets.isEmpty() || !(event instanceof CharacterDataEvent) 
+                            || this.portletIncorporatingEventReader.isPortletOutput()) {
+                        return event;
+                    }
+                    
+                    final String data = ((CharacterDataEvent) event).getData();
+                    final int bodyEndIndex = StringUtils.lastIndexOfIgnoreCase(data, BODY_END_TAG);
+                    if (bodyEndIndex < 0) {
+                        return event;
+                    }
+                    
+                    //Split the data around the closing body tag, the deferred content goes in between
+                    super.next();
+                    this.writingDeferred = true;
+                    this.bodyEndEvent = CharacterDataEventImpl.create(data.substring(bodyEndIndex));
+                    if (bodyEndIndex > 0) {
+                        this.deferredEvent = CharacterDataEventImpl.create(data.substring(0, bodyEndIndex));
+                        return this.deferredEvent;
+                    }
+                }
+            }
+            
+            if (!this.deferredPortlets.isEmpty()) {
+                final IPortletWindowId portletWindowId = this.waitForDeferredPortlet();
+                final String output = portletExecutionManager.getPortletOutput(portletWindowId, this.request, this.response);
+                this.deferredEvent = CharacterDataEventImpl.create(getDeferredContent(portletWindowId, output));
+                return this.deferredEvent;
+            }
+            
+            //All deferred portlets written, continue with the rest of the page
+            this.writingDeferred = false;
+            if (this.bodyEndEvent != null) {
+                this.deferredEvent = this.bodyEndEvent;
+                this.bodyEndEvent = null;
+                return this.deferredEvent;
+            }
+            return super.hasNext() ? super.peek() : null;
+        }
+        
+        /**
+         * Remove and return the first deferred portlet to complete, waiting until the deadline if needed
+         */
+        private IPortletWindowId waitForDeferredPortlet() {
+            if (this.deadline < 0) {
+                //Get the page and any completed portlets to the client before waiting
+                RenderingOutputBuffer.flushPendingOutput(this.request);
+                
+                long timeout = 0;
+                for (final IPortletWindowId portletWindowId : this.deferredPortlets) {
+                    timeout = Math.max(timeout, portletExecutionManager.getPortletRenderTimeout(portletWindowId, this.request));
+                }
+                this.deadline = System.currentTimeMillis() + timeout;
+            }
+            
+            final long waitTime = this.deadline - System.currentTimeMillis();
+            if (waitTime > 0) {
+                try {
+                    final IPortletWindowId portletWindowId = portletExecutionManager.waitForPortletRender(this.deferredPortlets, waitTime, this.request, this.response);
+                    if (portletWindowId != null) {
+                        this.deferredPortlets.remove(portletWindowId);
+                        return portletWindowId;
+                    }
+                }
+                catch (InterruptedException e) {
+                    //Stop waiting, remaining portlets will be rendered in document order
+                    Thread.currentThread().interrupt();
+                    this.deadline = 0;
+                }
+            }
+            
+            final Iterator<IPortletWindowId> deferredItr = this.deferredPortlets.iterator();
+            final IPortletWindowId portletWindowId = deferredItr.next();
+            deferredItr.remove();
+            return portletWindowId;
+        }
+    }
 }
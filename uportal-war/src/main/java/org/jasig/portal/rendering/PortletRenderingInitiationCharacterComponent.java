@@ -32,6 +32,7 @@ import org.jasig.portal.character.stream.events.CharacterEvent;
 import org.jasig.portal.character.stream.events.CharacterEventTypes;
 import org.jasig.portal.character.stream.events.PortletContentPlaceholderEvent;
 import org.jasig.portal.character.stream.events.PortletHeaderPlaceholderEvent;
+import org.jasig.portal.character.stream.events.PortletPlaceholderEvent;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
 import org.jasig.portal.utils.cache.CacheKey;
@@ -41,7 +42,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Initiates portlet rendering based each encountered {@link CharacterEventTypes#PORTLET_HEADER} and
- * {@link CharacterEventTypes#PORTLET_CONTENT} element in the event stream
+ * {@link CharacterEventTypes#PORTLET_CONTENT} element in the event stream. If
+ * {@link #setInitiateRenderForPlaceholders(boolean)} is enabled renders are also started for
+ * {@link CharacterEventTypes#PORTLET_LINK} and {@link CharacterEventTypes#PORTLET_NEW_ITEM_COUNT} elements.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -50,7 +53,17 @@ public class PortletRenderingInitiationCharacterComponent extends CharacterPipel
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private IPortletExecutionManager portletExecutionManager;
+    private boolean initiateRenderForPlaceholders = false;
     
+    /**
+     * Start portlet renders for link and new item count placeholders so they run in parallel before incorporation.
+     * Enabled only for the streaming layout JSON pipeline, other pipelines keep rendering these portlets on demand
+     * when the placeholder is incorporated. Defaults to false.
+     */
+    public void setInitiateRenderForPlaceholders(boolean initiateRenderForPlaceholders) {
+        this.initiateRenderForPlaceholders = initiateRenderForPlaceholders;
+    }
+
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
         this.portletExecutionManager = portletExecutionManager;
@@ -97,6 +110,22 @@ public class PortletRenderingInitiationCharacterComponent extends CharacterPipel
                         this.portletExecutionManager.startPortletRender(portletWindowId, request, response);
                     }
                     
+                    break;
+                }
+                //Link and new item count come from the render result, start the render so they don't block on it when incorporated
+                case PORTLET_LINK:
+                case PORTLET_NEW_ITEM_COUNT: {
+                    if (!this.initiateRenderForPlaceholders) {
+                        break;
+                    }
+                    
+                    final PortletPlaceholderEvent placeholderEvent = (PortletPlaceholderEvent)event;
+                    final IPortletWindowId portletWindowId = placeholderEvent.getPortletWindowId();
+                    
+                    if (!this.portletExecutionManager.isPortletRenderRequested(portletWindowId, request, response)) {
+                        this.portletExecutionManager.startPortletRender(portletWindowId, request, response);
+                    }
+                    
                     break;
                 }
             }
@@ -0,0 +1,162 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.character.stream.events.ChunkPointPlaceholderEventSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the character data produced by the rendering pipeline into a single reusable buffer
+ * that is only written to the response at semantic points: when a chunk-point (empty character
+ * data, see {@link ChunkPointPlaceholderEventSource}) is reached, when a pipeline component is
+ * about to block on a portlet that has not completed rendering, or when the buffer grows past
+ * the configured threshold. A threshold of 0 or less flushes after every write.
+ * <p>
+ * The buffer is bound to the request for the duration of the render so that components deeper
+ * in the pipeline can call {@link #flushPendingOutput(HttpServletRequest)}.
+ */
+public class RenderingOutputBuffer {
+    private static final String REQUEST_ATTRIBUTE = RenderingOutputBuffer.class.getName();
+    private static final Logger logger = LoggerFactory.getLogger(RenderingOutputBuffer.class);
+
+    private final PrintWriter writer;
+    private final HttpServletResponse response;
+    private final int flushThreshold;
+    private final StringBuilder buffer;
+
+    private int flushCount = 0;
+    private long flushedBytes = 0;
+
+    public RenderingOutputBuffer(PrintWriter writer, HttpServletResponse response, int flushThreshold) {
+        this.writer = writer;
+        this.response = response;
+        this.flushThreshold = flushThreshold;
+        this.buffer = new StringBuilder(Math.max(flushThreshold, 16));
+    }
+
+    /**
+     * Bind the buffer to the request so that {@link #flushPendingOutput(HttpServletRequest)} can find it
+     */
+    public void bind(HttpServletRequest request) {
+        request.setAttribute(REQUEST_ATTRIBUTE, this);
+    }
+
+    /**
+     * Remove the buffer from the request
+     */
+    public void unbind(HttpServletRequest request) {
+        request.removeAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Flushes any output buffered for the request, used by pipeline components right before they
+     * block waiting on another thread. Does nothing if no buffer is bound to the request.
+     */
+    public static void flushPendingOutput(HttpServletRequest request) {
+        final RenderingOutputBuffer outputBuffer = (RenderingOutputBuffer)request.getAttribute(REQUEST_ATTRIBUTE);
+        if (outputBuffer == null) {
+            return;
+        }
+
+        try {
+            outputBuffer.flush();
+        }
+        catch (IOException e) {
+            //The same failure will be reported to the renderer on its next write
+            logger.debug("Failed to flush pending rendering output", e);
+        }
+    }
+
+    /**
+     * Append the character data to the buffer. Empty data is treated as a chunk-point and flushes the buffer.
+     */
+    public void write(String data) throws IOException {
+        if (data.length() == 0) {
+            this.flush();
+            return;
+        }
+
+        this.buffer.append(data);
+        if (this.buffer.length() >= this.flushThreshold) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Write any buffered data to the response and flush it to the client
+     */
+    public void flush() throws IOException {
+        final int length = this.buffer.length();
+        if (length == 0) {
+            return;
+        }
+
+        this.writer.append(this.buffer);
+        this.writer.flush();
+        this.response.flushBuffer();
+
+        this.flushCount++;
+        this.flushedBytes += utf8Length(this.buffer);
+        this.buffer.setLength(0);
+    }
+
+    /**
+     * @return Number of times data was flushed to the client
+     */
+    public int getFlushCount() {
+        return this.flushCount;
+    }
+
+    /**
+     * @return Total number of UTF-8 encoded bytes flushed to the client
+     */
+    public long getFlushedBytes() {
+        return this.flushedBytes;
+    }
+
+    static int utf8Length(CharSequence data) {
+        final int length = data.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            final char c = data.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c)) {
+                    //Surrogate pair encodes to 4 bytes, 2 chars already counted
+                    bytes += 2;
+                    i++;
+                }
+                else {
+                    bytes += 2;
+                }
+            }
+            else if (c >= 0x80) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+}
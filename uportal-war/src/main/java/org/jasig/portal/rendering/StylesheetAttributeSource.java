@@ -36,6 +36,7 @@ import org.jasig.portal.IUserProfile;
 import org.jasig.portal.layout.IStylesheetUserPreferencesService;
 import org.jasig.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
 import org.jasig.portal.layout.IUserLayoutManager;
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.layout.dao.IStylesheetDescriptorDao;
 import org.jasig.portal.layout.om.ILayoutAttributeDescriptor;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
@@ -59,6 +60,7 @@ public abstract class StylesheetAttributeSource implements AttributeSource, Bean
     protected IUserInstanceManager userInstanceManager;
     protected IStylesheetDescriptorDao stylesheetDescriptorDao;
     protected IStylesheetUserPreferencesService stylesheetUserPreferencesService;
+    protected IUserLayoutVersionService userLayoutVersionService;
 
     @Autowired
     public void setUserInstanceManager(IUserInstanceManager userInstanceManager) {
@@ -75,6 +77,11 @@ public abstract class StylesheetAttributeSource implements AttributeSource, Bean
         this.stylesheetUserPreferencesService = stylesheetUserPreferencesService;
     }
 
+    @Autowired
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.name = name;
@@ -119,7 +126,15 @@ public abstract class StylesheetAttributeSource implements AttributeSource, Bean
         
         final CacheKeyBuilder<String, String> cacheKeyBuilder = CacheKey.builder(this.name);
         
-        final Iterable<String> layoutAttributeNodeIds = this.stylesheetUserPreferencesService.getAllLayoutAttributeNodeIds(request, stylesheetPreferencesScope);
+        //Persistent and distributed attributes are covered by the layout version and the layout manager's cache key
+        final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
+        final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
+        final IUserProfile userProfile = preferencesManager.getUserProfile();
+        cacheKeyBuilder.add(stylesheetPreferencesScope.getStylesheetId(userProfile));
+        cacheKeyBuilder.add(this.userLayoutVersionService.getLayoutVersion(userInstance.getPerson().getID(), userProfile.getProfileId()));
+        cacheKeyBuilder.add(preferencesManager.getUserLayoutManager().getCacheKey());
+        
+        final Iterable<String> layoutAttributeNodeIds = this.stylesheetUserPreferencesService.getTransientLayoutAttributeNodeIds(request, stylesheetPreferencesScope);
         for (final String nodeId : layoutAttributeNodeIds) {
             cacheKeyBuilder.add(nodeId);
             this.stylesheetUserPreferencesService.populateLayoutAttributes(request, stylesheetPreferencesScope, nodeId, cacheKeyBuilder);
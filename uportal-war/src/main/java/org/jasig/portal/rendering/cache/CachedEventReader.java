@@ -20,29 +20,48 @@
 package org.jasig.portal.rendering.cache;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Holder class for an event cache and output properties
+ * Holder class for an event cache and output properties. The events are stored
+ * in an exactly sized array to keep the per-entry overhead minimal.
  */
 class CachedEventReader<E> implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
-    private final List<E> eventCache;
+    private final Object[] eventCache;
     private final Map<String, String> outputProperties;
+    private final long estimatedSize;
 
-    public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
-        this.eventCache = Collections.unmodifiableList(eventCache);
+    public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties, long estimatedSize) {
+        this.eventCache = eventCache.toArray();
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
+        this.estimatedSize = estimatedSize;
     }
 
+    @SuppressWarnings("unchecked")
     public List<E> getEventCache() {
-        return this.eventCache;
+        return Collections.unmodifiableList((List<E>)Arrays.asList(this.eventCache));
     }
 
     public Map<String, String> getOutputProperties() {
         return this.outputProperties;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return The number of cached events
+     */
+    public int getEventCount() {
+        return this.eventCache.length;
+    }
+
+    /**
+     * @return The approximate heap size of the cached events in bytes
+     */
+    public long getEstimatedSize() {
+        return this.estimatedSize;
+    }
+}
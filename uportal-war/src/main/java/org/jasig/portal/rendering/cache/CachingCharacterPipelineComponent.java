@@ -19,11 +19,16 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
 
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.CharacterEventTypes;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 
 /**
@@ -34,6 +39,66 @@ import org.jasig.portal.rendering.CharacterPipelineComponent;
  */
 public class CachingCharacterPipelineComponent extends CachingPipelineComponent<CharacterEventReader, CharacterEvent> implements CharacterPipelineComponent {
     
+    /**
+     * Adjacent character data is merged into a single de-duplicated {@link CharacterDataEvent}. Empty
+     * character data marks a chunk-point and is never merged so that chunked strings stay shareable
+     * between users.
+     */
+    @Override
+    protected List<CharacterEvent> compactEvents(List<CharacterEvent> events) {
+        final List<CharacterEvent> compactedEvents = new ArrayList<CharacterEvent>(events.size());
+        
+        final StringBuilder data = new StringBuilder();
+        CharacterEvent pendingEvent = null;
+        for (final CharacterEvent event : events) {
+            if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+                final String eventData = ((CharacterDataEvent)event).getData();
+                if (eventData.length() > 0) {
+                    if (pendingEvent != null) {
+                        data.append(((CharacterDataEvent)pendingEvent).getData());
+                        pendingEvent = null;
+                    }
+                    if (data.length() == 0) {
+                        //Keep the original event around in case there is nothing to merge it with
+                        pendingEvent = event;
+                    }
+                    else {
+                        data.append(eventData);
+                    }
+                    continue;
+                }
+            }
+            
+            addPendingData(compactedEvents, pendingEvent, data);
+            pendingEvent = null;
+            compactedEvents.add(event);
+        }
+        addPendingData(compactedEvents, pendingEvent, data);
+        
+        return compactedEvents;
+    }
+    
+    private void addPendingData(List<CharacterEvent> compactedEvents, CharacterEvent pendingEvent, StringBuilder data) {
+        if (pendingEvent != null) {
+            compactedEvents.add(pendingEvent);
+        }
+        else if (data.length() > 0) {
+            compactedEvents.add(CharacterDataEventImpl.create(data.toString()));
+            data.setLength(0);
+        }
+    }
+
+    @Override
+    protected long estimateEventSize(CharacterEvent event) {
+        if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+            //event + String + char[]
+            return 24 + 40 + ((CharacterDataEvent)event).getData().length() * 2;
+        }
+        
+        //placeholder event + reference to portlet window id
+        return 32;
+    }
+
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
@@ -19,11 +19,18 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,9 +48,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.google.common.base.Throwables;
 
 /**
  * Component that caches events from a wrapped component
+ * <p>
+ * Cache misses are populated single-flight: while one request is reading the events for a
+ * {@link CacheKey} from the wrapped component, other requests that miss on the same key wait
+ * for that result instead of running the wrapped pipeline themselves.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -54,6 +68,10 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
     private ResourcesElementsProvider resourcesElementsProvider;
     private Ehcache cache;
     private String beanName;
+    private PipelineEventCacheStatsBean cacheStats = new PipelineEventCacheStatsBean();
+    private final ConcurrentMap<CacheKey, FutureTask<CachedEventReader<E>>> inFlightLoads = new ConcurrentHashMap<CacheKey, FutureTask<CachedEventReader<E>>>();
+    private boolean singleFlight = true;
+    private long singleFlightWaitTimeout = 30000;
     
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
@@ -63,6 +81,32 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
     public final void setCache(Ehcache cache) {
         this.cache = cache;
     }
+
+    /**
+     * Stats bean to record the size of created cache entries in, components that share a cache
+     * should share a stats bean.
+     */
+    public final void setCacheStats(PipelineEventCacheStatsBean cacheStats) {
+        this.cacheStats = cacheStats;
+    }
+    
+    /**
+     * If concurrent cache misses for the same key should wait for a single load of the wrapped
+     * component, defaults to true.
+     */
+    @Value("${org.jasig.portal.rendering.cache.CachingPipelineComponent.singleFlight:true}")
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * Maximum time in milliseconds a request waits for another request's in-flight load of the same
+     * key before loading the events itself, defaults to 30000.
+     */
+    @Value("${org.jasig.portal.rendering.cache.CachingPipelineComponent.singleFlightWaitTimeout:30000}")
+    public void setSingleFlightWaitTimeout(long singleFlightWaitTimeout) {
+        this.singleFlightWaitTimeout = singleFlightWaitTimeout;
+    }
     
     @Override
     public void setBeanName(String name) {
@@ -95,24 +139,12 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
 
         //If there was a cached reader return it immediately
         if (cachedEventReader == null) {
-            //No cached data for key, call target component to get events and an updated cache key
-            logger.debug("{} - No cached events found for key {}, calling parent", this.beanName, cacheKey);
-            final PipelineEventReader<R, E> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
-
-            //Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
-            for (final E event : pipelineEventReader) {
-                //TODO add de-duplication logic here
-                eventCache.add(event);
+            if (this.singleFlight) {
+                cachedEventReader = this.loadEventsSingleFlight(cacheKey, request, response);
+            }
+            else {
+                cachedEventReader = this.loadEvents(cacheKey, request, response);
             }
-
-            final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-            cachedEventReader = new CachedEventReader<E>(eventCache, new LinkedHashMap<String, String>(outputProperties));
-
-            //Cache the buffer
-            element = new Element(cacheKey, cachedEventReader);
-            this.cache.put(element);
-            logger.debug("{} - Cached {} events for key {}", this.beanName, eventCache.size(), cacheKey);
         }
         else {
             logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
@@ -125,6 +157,114 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
     
+    /**
+     * Load the events for the key, coalescing concurrent loads of the same key into a single call
+     * to the wrapped component. If the in-flight load fails or takes longer than the wait timeout
+     * the waiting request falls back to loading the events itself.
+     */
+    protected final CachedEventReader<E> loadEventsSingleFlight(final CacheKey cacheKey, final HttpServletRequest request, final HttpServletResponse response) {
+        final FutureTask<CachedEventReader<E>> load = new FutureTask<CachedEventReader<E>>(new Callable<CachedEventReader<E>>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public CachedEventReader<E> call() throws Exception {
+                //Another request may have populated the cache between the miss and claiming the load
+                final Element element = cache.get(cacheKey);
+                if (element != null && element.getObjectValue() != null) {
+                    return (CachedEventReader<E>)element.getObjectValue();
+                }
+                return loadEvents(cacheKey, request, response);
+            }
+        });
+        
+        final FutureTask<CachedEventReader<E>> inFlightLoad = this.inFlightLoads.putIfAbsent(cacheKey, load);
+        if (inFlightLoad == null) {
+            //This request owns the load
+            try {
+                load.run();
+            }
+            finally {
+                this.inFlightLoads.remove(cacheKey, load);
+            }
+            
+            try {
+                return load.get();
+            }
+            catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+            catch (InterruptedException e) {
+                //Can't happen, the load has already completed
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        logger.debug("{} - Waiting for in-flight load of events for key {}", this.beanName, cacheKey);
+        this.cacheStats.loadCoalesced();
+        try {
+            return inFlightLoad.get(this.singleFlightWaitTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e) {
+            logger.debug("{} - In-flight load failed for key {}, loading events directly", this.beanName, cacheKey);
+        }
+        catch (TimeoutException e) {
+            logger.warn("{} - Timed out after {}ms waiting for in-flight load of key {}, loading events directly", 
+                    new Object[] { this.beanName, this.singleFlightWaitTimeout, cacheKey });
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.debug("{} - Interrupted waiting for in-flight load of key {}, loading events directly", this.beanName, cacheKey);
+        }
+        
+        return this.loadEvents(cacheKey, request, response);
+    }
+    
+    /**
+     * Read all events for the key from the wrapped component, compact them and store them in the cache
+     */
+    protected final CachedEventReader<E> loadEvents(CacheKey cacheKey, HttpServletRequest request, HttpServletResponse response) {
+        //No cached data for key, call target component to get events and an updated cache key
+        logger.debug("{} - No cached events found for key {}, calling parent", this.beanName, cacheKey);
+        final PipelineEventReader<R, E> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
+
+        //Copy the events from the reader into a buffer to be cached
+        final List<E> eventBuffer = new ArrayList<E>();
+        for (final E event : pipelineEventReader) {
+            eventBuffer.add(event);
+        }
+        
+        //Merge and de-duplicate the events before caching them
+        final List<E> eventCache = this.compactEvents(eventBuffer);
+        long estimatedSize = 0;
+        for (final E event : eventCache) {
+            estimatedSize += this.estimateEventSize(event);
+        }
+
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        final CachedEventReader<E> cachedEventReader = new CachedEventReader<E>(eventCache, new LinkedHashMap<String, String>(outputProperties), estimatedSize);
+        this.cacheStats.entryCached(eventBuffer.size(), cachedEventReader);
+
+        //Cache the buffer
+        this.cache.put(new Element(cacheKey, cachedEventReader));
+        logger.debug("{} - Cached {} events ({} before compaction, ~{} bytes) for key {}", 
+                new Object[] { this.beanName, eventCache.size(), eventBuffer.size(), estimatedSize, cacheKey });
+        
+        return cachedEventReader;
+    }
+    
+    /**
+     * Merge adjacent events and replace events with shared equivalent instances where possible before
+     * the events are cached. Returns the events unmodified by default.
+     */
+    protected List<E> compactEvents(List<E> events) {
+        return events;
+    }
+    
+    /**
+     * @return The approximate heap size of the event in bytes
+     */
+    protected abstract long estimateEventSize(E event);
+    
     //Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
 }
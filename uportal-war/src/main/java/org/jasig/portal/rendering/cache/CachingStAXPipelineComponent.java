@@ -19,14 +19,33 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import org.jasig.portal.rendering.StAXPipelineComponent;
 import org.jasig.portal.xml.stream.XMLEventBufferReader;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
  * component that can cache StAX pipeline events
  * 
@@ -34,9 +53,209 @@ import org.jasig.portal.xml.stream.XMLEventBufferReader;
  * @version $Revision$
  */
 public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEventReader, XMLEvent> implements StAXPipelineComponent {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+    
+    //Weak caches of immutable events shared by all cached event buffers, the caches use weak values so they never retain events
+    private static final Interner<PrefixedName> NAME_INTERNER = Interners.newWeakInterner();
+    private static final Cache<Map.Entry<PrefixedName, String>, Attribute> WEAK_ATTRIBUTE_CACHE = CacheBuilder.newBuilder().weakValues().build();
+    private static final Cache<Map.Entry<String, String>, Namespace> WEAK_NAMESPACE_CACHE = CacheBuilder.newBuilder().weakValues().build();
+    private static final Cache<PrefixedName, EndElement> WEAK_END_ELEMENT_CACHE = CacheBuilder.newBuilder().weakValues().build();
+    private static final Cache<String, Characters> WEAK_CHARACTERS_CACHE = CacheBuilder.newBuilder().weakValues().build();
+
+    /**
+     * Adjacent character events are merged and element names, attributes, namespaces, end elements
+     * and character data are replaced with shared instances.
+     */
+    @Override
+    protected List<XMLEvent> compactEvents(List<XMLEvent> events) {
+        final List<XMLEvent> compactedEvents = new ArrayList<XMLEvent>(events.size());
+        
+        final StringBuilder data = new StringBuilder();
+        for (final XMLEvent event : events) {
+            if (isMergeableCharacters(event)) {
+                data.append(event.asCharacters().getData());
+                continue;
+            }
+            
+            if (data.length() > 0) {
+                compactedEvents.add(this.internCharacters(data.toString()));
+                data.setLength(0);
+            }
+            
+            if (event.isStartElement()) {
+                compactedEvents.add(this.internStartElement(event.asStartElement()));
+            }
+            else if (event.isEndElement()) {
+                compactedEvents.add(this.internEndElement(event.asEndElement()));
+            }
+            else {
+                compactedEvents.add(event);
+            }
+        }
+        
+        if (data.length() > 0) {
+            compactedEvents.add(this.internCharacters(data.toString()));
+        }
+        
+        return compactedEvents;
+    }
+    
+    private boolean isMergeableCharacters(XMLEvent event) {
+        if (!event.isCharacters()) {
+            return false;
+        }
+        
+        final Characters characters = event.asCharacters();
+        return !characters.isCData() && !characters.isIgnorableWhiteSpace();
+    }
+    
+    private Characters internCharacters(final String data) {
+        return getShared(WEAK_CHARACTERS_CACHE, data, new Callable<Characters>() {
+            @Override
+            public Characters call() throws Exception {
+                synchronized (EVENT_FACTORY) {
+                    return EVENT_FACTORY.createCharacters(data);
+                }
+            }
+        });
+    }
+    
+    @SuppressWarnings("unchecked")
+    private StartElement internStartElement(StartElement startElement) {
+        final List<Attribute> attributes = new ArrayList<Attribute>();
+        for (final Iterator<Attribute> attributeItr = startElement.getAttributes(); attributeItr.hasNext(); ) {
+            final Attribute attribute = attributeItr.next();
+            final Map.Entry<PrefixedName, String> key = new SimpleImmutableEntry<PrefixedName, String>(internName(attribute.getName()), attribute.getValue());
+            attributes.add(getShared(WEAK_ATTRIBUTE_CACHE, key, new Callable<Attribute>() {
+                @Override
+                public Attribute call() throws Exception {
+                    synchronized (EVENT_FACTORY) {
+                        return EVENT_FACTORY.createAttribute(key.getKey().getName(), key.getValue());
+                    }
+                }
+            }));
+        }
+        
+        final List<Namespace> namespaces = new ArrayList<Namespace>();
+        for (final Iterator<Namespace> namespaceItr = startElement.getNamespaces(); namespaceItr.hasNext(); ) {
+            final Namespace namespace = namespaceItr.next();
+            final Map.Entry<String, String> key = new SimpleImmutableEntry<String, String>(namespace.getPrefix(), namespace.getNamespaceURI());
+            namespaces.add(getShared(WEAK_NAMESPACE_CACHE, key, new Callable<Namespace>() {
+                @Override
+                public Namespace call() throws Exception {
+                    synchronized (EVENT_FACTORY) {
+                        return EVENT_FACTORY.createNamespace(key.getKey(), key.getValue());
+                    }
+                }
+            }));
+        }
+        
+        final QName name = internName(startElement.getName()).getName();
+        
+        //The factory stamps its current location on the events it creates, all event creation locks
+        //the factory so the location of this element doesn't leak into shared events
+        synchronized (EVENT_FACTORY) {
+            EVENT_FACTORY.setLocation(startElement.getLocation());
+            try {
+                return EVENT_FACTORY.createStartElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(), 
+                        attributes.iterator(), namespaces.iterator(), startElement.getNamespaceContext());
+            }
+            finally {
+                EVENT_FACTORY.setLocation(null);
+            }
+        }
+    }
+    
+    private EndElement internEndElement(final EndElement endElement) {
+        if (endElement.getNamespaces().hasNext()) {
+            //End elements that close namespace scopes are rare, don't bother sharing them
+            return endElement;
+        }
+        
+        return getShared(WEAK_END_ELEMENT_CACHE, internName(endElement.getName()), new Callable<EndElement>() {
+            @Override
+            public EndElement call() throws Exception {
+                return endElement;
+            }
+        });
+    }
+    
+    private static PrefixedName internName(QName name) {
+        return NAME_INTERNER.intern(new PrefixedName(name));
+    }
+    
+    private static <K, V> V getShared(Cache<K, V> cache, K key, Callable<V> loader) {
+        try {
+            return cache.get(key, loader);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to create shared event for: " + key, e.getCause());
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    protected long estimateEventSize(XMLEvent event) {
+        if (event.isCharacters()) {
+            //event + String + char[]
+            return 32 + 40 + event.asCharacters().getData().length() * 2;
+        }
+        
+        if (event.isStartElement()) {
+            //event + attribute list, attributes and namespaces are shared so only count the references
+            final StartElement startElement = event.asStartElement();
+            long size = 48;
+            for (final Iterator<Attribute> attributeItr = startElement.getAttributes(); attributeItr.hasNext(); attributeItr.next()) {
+                size += 8;
+            }
+            return size;
+        }
+        
+        return 32;
+    }
 
     @Override
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
         return new XMLEventBufferReader(eventCache);
     }
+    
+    /**
+     * Key for shared names and events, {@link QName#equals(Object)} ignores the prefix but the shared events
+     * are written out with the prefix of the name they were created from.
+     */
+    private static final class PrefixedName {
+        private final QName name;
+        private final int hash;
+        
+        public PrefixedName(QName name) {
+            this.name = name;
+            this.hash = 31 * name.hashCode() + name.getPrefix().hashCode();
+        }
+
+        public QName getName() {
+            return this.name;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PrefixedName)) {
+                return false;
+            }
+            final QName other = ((PrefixedName) obj).name;
+            return this.name.equals(other) && this.name.getPrefix().equals(other.getPrefix());
+        }
+
+        @Override
+        public String toString() {
+            return this.name.getPrefix() + ":" + this.name;
+        }
+    }
 }
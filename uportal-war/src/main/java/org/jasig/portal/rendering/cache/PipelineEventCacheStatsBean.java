@@ -0,0 +1,127 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the number of events and the approximate heap size of the entries created
+ * by a {@link CachingPipelineComponent}. Exposed via JMX.
+ */
+public class PipelineEventCacheStatsBean {
+    private final AtomicLong entryCount = new AtomicLong();
+    private final AtomicLong sourceEventCount = new AtomicLong();
+    private final AtomicLong cachedEventCount = new AtomicLong();
+    private final AtomicLong totalEntrySize = new AtomicLong();
+    private volatile long lastEntrySize = 0;
+    private volatile long maxEntrySize = 0;
+    private final AtomicLong coalescedLoadCount = new AtomicLong();
+    
+    void entryCached(int sourceEvents, CachedEventReader<?> cachedEventReader) {
+        final long entrySize = cachedEventReader.getEstimatedSize();
+        
+        this.entryCount.incrementAndGet();
+        this.sourceEventCount.addAndGet(sourceEvents);
+        this.cachedEventCount.addAndGet(cachedEventReader.getEventCount());
+        this.totalEntrySize.addAndGet(entrySize);
+        this.lastEntrySize = entrySize;
+        if (entrySize > this.maxEntrySize) {
+            this.maxEntrySize = entrySize;
+        }
+    }
+
+    void loadCoalesced() {
+        this.coalescedLoadCount.incrementAndGet();
+    }
+
+    /**
+     * @return Number of entries that have been created
+     */
+    public long getEntryCount() {
+        return this.entryCount.get();
+    }
+
+    /**
+     * @return Number of events read from the wrapped components
+     */
+    public long getSourceEventCount() {
+        return this.sourceEventCount.get();
+    }
+
+    /**
+     * @return Number of events stored after compaction
+     */
+    public long getCachedEventCount() {
+        return this.cachedEventCount.get();
+    }
+    
+    /**
+     * @return Ratio of cached events to source events, lower is better
+     */
+    public double getCompactionRatio() {
+        final long sourceEvents = this.sourceEventCount.get();
+        if (sourceEvents == 0) {
+            return 1;
+        }
+        return (double)this.cachedEventCount.get() / sourceEvents;
+    }
+
+    /**
+     * @return Average approximate heap size of an entry in bytes
+     */
+    public long getAverageEntrySize() {
+        final long entries = this.entryCount.get();
+        if (entries == 0) {
+            return 0;
+        }
+        return this.totalEntrySize.get() / entries;
+    }
+
+    /**
+     * @return Approximate heap size of the most recently created entry in bytes
+     */
+    public long getLastEntrySize() {
+        return this.lastEntrySize;
+    }
+
+    /**
+     * @return Approximate heap size of the largest entry created in bytes
+     */
+    public long getMaxEntrySize() {
+        return this.maxEntrySize;
+    }
+    
+    /**
+     * @return Number of cache misses that waited on another request's in-flight load instead of calling the wrapped component
+     */
+    public long getCoalescedLoadCount() {
+        return this.coalescedLoadCount.get();
+    }
+    
+    public void reset() {
+        this.entryCount.set(0);
+        this.sourceEventCount.set(0);
+        this.cachedEventCount.set(0);
+        this.totalEntrySize.set(0);
+        this.lastEntrySize = 0;
+        this.maxEntrySize = 0;
+        this.coalescedLoadCount.set(0);
+    }
+}
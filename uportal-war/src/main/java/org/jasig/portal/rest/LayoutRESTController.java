@@ -24,11 +24,13 @@ import java.util.List;
 
 import javax.portlet.WindowState;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.IUserPreferencesManager;
 import org.jasig.portal.IUserProfile;
 import org.jasig.portal.layout.IUserLayoutStore;
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.layout.dlm.DistributedUserLayout;
 import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
 import org.jasig.portal.portlet.om.IPortletDefinition;
@@ -44,6 +46,7 @@ import org.jasig.portal.url.IPortletUrlBuilder;
 import org.jasig.portal.url.UrlType;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
+import org.jasig.portal.utils.web.PortalWebUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -95,14 +98,22 @@ public class LayoutRESTController {
         this.portletDao = portletDao;
     }
     
+    private IUserLayoutVersionService userLayoutVersionService;
+    
+    @Autowired(required = true)
+    public void setUserLayoutVersionService(IUserLayoutVersionService userLayoutVersionService) {
+        this.userLayoutVersionService = userLayoutVersionService;
+    }
+    
     /**
      * A REST call to get a json feed of the current users layout
      * @param request The servlet request. Utilized to get the users instance and eventually there layout
+     * @param response The servlet response. Answered with 304 Not Modified if the client has the current layout version
      * @param tab The tab name of which you would like to filter; optional; if not provided, will return entire layout.
      * @return json feed of the layout
      */
     @RequestMapping(value="/layoutDoc", method = RequestMethod.GET)
-    public ModelAndView getRESTController(HttpServletRequest request, @RequestParam(value = "tab", required = false) String tab) {
+    public ModelAndView getRESTController(HttpServletRequest request, HttpServletResponse response, @RequestParam(value = "tab", required = false) String tab) {
         final IPerson person = personManager.getPerson(request);
         List<LayoutPortlet> portlets = new ArrayList<LayoutPortlet>();
         
@@ -114,6 +125,12 @@ public class LayoutRESTController {
             final IUserPreferencesManager upm = ui.getPreferencesManager();
 
             final IUserProfile profile = upm.getUserProfile();
+            
+            final String entityTag = this.userLayoutVersionService.getLayoutEntityTag(person.getID(), profile.getProfileId());
+            if (PortalWebUtils.checkNotModified(request, response, entityTag)) {
+                return null;
+            }
+            
             final DistributedUserLayout userLayout = userLayoutStore.getUserLayout(person, profile);
             Document document = userLayout.getLayout();
             
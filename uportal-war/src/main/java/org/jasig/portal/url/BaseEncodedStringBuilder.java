@@ -54,6 +54,11 @@ public abstract class BaseEncodedStringBuilder implements Serializable, Cloneabl
     }
     
     protected final String encode(String s) {
+        //Most URL parts only contain characters URLEncoder leaves alone, skip the encoder and the copy it makes
+        if (isUnreserved(s)) {
+            return s;
+        }
+        
         try {
             return URLEncoder.encode(s, this.encoding);
         }
@@ -62,6 +67,21 @@ public abstract class BaseEncodedStringBuilder implements Serializable, Cloneabl
         }
     }
 
+    /**
+     * @return true if {@link URLEncoder} would return the string unchanged
+     */
+    static boolean isUnreserved(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || 
+                    c == '.' || c == '-' || c == '*' || c == '_')) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+
     public String getEncoding() {
         return encoding;
     }
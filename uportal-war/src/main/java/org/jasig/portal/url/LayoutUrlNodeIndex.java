@@ -0,0 +1,137 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.url;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Lookups the URL syntax needs from a user's layout, computed in a single pass over one version of the
+ * layout document so that URL parsing and generation don't have to walk the layout for every request.
+ * Instances are immutable.
+ */
+final class LayoutUrlNodeIndex {
+    private static final String FOLDER = "folder";
+    private static final String CHANNEL = "channel";
+    
+    private final String layoutCacheKey;
+    /**
+     * node ID -> ID of the tab (child of a root level folder) containing it
+     */
+    private final Map<String, String> tabIds = new HashMap<String, String>();
+    /**
+     * folder ID -> (fname -> ID of the first channel with that fname in the folder)
+     */
+    private final Map<String, Map<String, String>> subscribeIds = new HashMap<String, Map<String, String>>();
+    
+    public LayoutUrlNodeIndex(String layoutCacheKey, Document layout) {
+        this.layoutCacheKey = layoutCacheKey;
+        
+        final List<String> folderIds = new ArrayList<String>();
+        
+        // '/layout' - layouts
+        for (Node root = layout.getFirstChild(); root != null; root = root.getNextSibling()) {
+            // '/layout/folder' - root/header/footer folders
+            for (Node rootFolder = root.getFirstChild(); rootFolder != null; rootFolder = rootFolder.getNextSibling()) {
+                if (!FOLDER.equals(rootFolder.getNodeName())) {
+                    continue;
+                }
+                
+                final String rootFolderId = ((Element) rootFolder).getAttribute("ID");
+                folderIds.add(rootFolderId);
+                
+                // '/layout/folder/folder' - tabs
+                for (Node tab = rootFolder.getFirstChild(); tab != null; tab = tab.getNextSibling()) {
+                    final String nodeName = tab.getNodeName();
+                    if (FOLDER.equals(nodeName) || CHANNEL.equals(nodeName)) {
+                        final String tabId = ((Element) tab).getAttribute("ID");
+                        this.indexNode((Element) tab, tabId, folderIds);
+                    }
+                }
+                
+                folderIds.remove(folderIds.size() - 1);
+            }
+        }
+    }
+    
+    private void indexNode(Element node, String tabId, List<String> folderIds) {
+        final String nodeId = node.getAttribute("ID");
+        
+        //First tab in document order wins, matching a top down search of the layout
+        if (!this.tabIds.containsKey(nodeId)) {
+            this.tabIds.put(nodeId, tabId);
+        }
+        
+        if (CHANNEL.equals(node.getNodeName())) {
+            final String fname = node.getAttribute("fname");
+            for (final String folderId : folderIds) {
+                Map<String, String> folderSubscribeIds = this.subscribeIds.get(folderId);
+                if (folderSubscribeIds == null) {
+                    folderSubscribeIds = new HashMap<String, String>();
+                    this.subscribeIds.put(folderId, folderSubscribeIds);
+                }
+                if (!folderSubscribeIds.containsKey(fname)) {
+                    folderSubscribeIds.put(fname, nodeId);
+                }
+            }
+            return;
+        }
+        
+        folderIds.add(nodeId);
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            final String nodeName = child.getNodeName();
+            if (FOLDER.equals(nodeName) || CHANNEL.equals(nodeName)) {
+                this.indexNode((Element) child, tabId, folderIds);
+            }
+        }
+        folderIds.remove(folderIds.size() - 1);
+    }
+    
+    /**
+     * @return The layout cache key of the layout version this index was built from
+     */
+    public String getLayoutCacheKey() {
+        return this.layoutCacheKey;
+    }
+    
+    /**
+     * @return The ID of the tab that is or contains the node, null if the node isn't in a tab
+     */
+    public String getTabId(String layoutNodeId) {
+        return this.tabIds.get(layoutNodeId);
+    }
+    
+    /**
+     * @return The ID of the first channel with the fname under the folder, null if there is none
+     */
+    public String getSubscribeId(String folderId, String fname) {
+        final Map<String, String> folderSubscribeIds = this.subscribeIds.get(folderId);
+        if (folderSubscribeIds == null) {
+            return null;
+        }
+        return folderSubscribeIds.get(fname);
+    }
+}
@@ -57,6 +57,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Maps tabs and portlets to folder names and back. Handles a single set of tabs and uses tab IDs for folder names.
@@ -82,6 +84,11 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEntityRegistry portletEntityRegistry;
     
+    /**
+     * Index of the current version of each user's layout, weak keys so indexes go away with the user's session
+     */
+    private final Cache<IUserLayoutManager, LayoutUrlNodeIndex> layoutUrlNodeIndexes = CacheBuilder.newBuilder().weakKeys().build();
+    
     @Autowired
     public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
         this.portletWindowRegistry = portletWindowRegistry;
@@ -186,9 +193,16 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
         final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
-        final IUserLayout userLayout = userLayoutManager.getUserLayout();
         
-        final String tabId = userLayout.findNodeId(new PortletTabIdResolver(layoutNodeId));
+        final String tabId;
+        final LayoutUrlNodeIndex layoutUrlNodeIndex = this.getLayoutUrlNodeIndex(userLayoutManager);
+        if (layoutUrlNodeIndex != null) {
+            tabId = layoutUrlNodeIndex.getTabId(layoutNodeId);
+        }
+        else {
+            final IUserLayout userLayout = userLayoutManager.getUserLayout();
+            tabId = userLayout.findNodeId(new PortletTabIdResolver(layoutNodeId));
+        }
         
         if (StringUtils.isEmpty(tabId)) {
             return Collections.emptyList();
@@ -376,7 +390,13 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         	final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
         	
         	//First look for the layout node only under the specified folder 
-        	subscribeId = userLayoutManager.getSubscribeId(targetedLayoutNodeId, fname);
+        	final LayoutUrlNodeIndex layoutUrlNodeIndex = this.getLayoutUrlNodeIndex(userLayoutManager);
+        	if (layoutUrlNodeIndex != null) {
+        	    subscribeId = layoutUrlNodeIndex.getSubscribeId(targetedLayoutNodeId, fname);
+        	}
+        	else {
+        	    subscribeId = userLayoutManager.getSubscribeId(targetedLayoutNodeId, fname);
+        	}
         }
 
         //Find a subscribeId based on the fname
@@ -395,4 +415,24 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         return portletWindow.getPortletWindowId();
     }
 
+    /**
+     * Get the index of the current version of the user's layout, building it if the layout changed since
+     * the index was last built.
+     * 
+     * @return The index, null if the layout manager doesn't provide a cache key to version its layout by
+     */
+    protected LayoutUrlNodeIndex getLayoutUrlNodeIndex(IUserLayoutManager userLayoutManager) {
+        final String layoutCacheKey = userLayoutManager.getCacheKey();
+        if (layoutCacheKey == null) {
+            return null;
+        }
+        
+        LayoutUrlNodeIndex layoutUrlNodeIndex = this.layoutUrlNodeIndexes.getIfPresent(userLayoutManager);
+        if (layoutUrlNodeIndex == null || !layoutCacheKey.equals(layoutUrlNodeIndex.getLayoutCacheKey())) {
+            layoutUrlNodeIndex = new LayoutUrlNodeIndex(layoutCacheKey, userLayoutManager.getUserLayoutDOM());
+            this.layoutUrlNodeIndexes.put(userLayoutManager, layoutUrlNodeIndex);
+        }
+        
+        return layoutUrlNodeIndex;
+    }
 }
@@ -23,7 +23,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -45,7 +44,7 @@ public final class UrlStringBuilder extends BaseEncodedStringBuilder {
     private final String host;
     private final Integer port;
     private final String context;
-    private final List<String> path = new LinkedList<String>();
+    private final List<String> path = new ArrayList<String>();
     private final Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
     
     /**
@@ -323,7 +322,8 @@ public final class UrlStringBuilder extends BaseEncodedStringBuilder {
      */
     @Override
     public String toString() {
-        final StringBuilder url = new StringBuilder();
+        //Sized for a typical portal URL to avoid growing the buffer while appending
+        final StringBuilder url = new StringBuilder(128);
         
         //Add protocol://host:port if they are set
         if (this.host != null) {
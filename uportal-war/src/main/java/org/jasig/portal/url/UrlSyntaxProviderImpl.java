@@ -21,6 +21,7 @@ package org.jasig.portal.url;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -33,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -54,6 +56,7 @@ import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
 import org.jasig.portal.portlet.rendering.IPortletRenderer;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
+import org.jasig.portal.utils.ConcurrentMapUtils;
 import org.jasig.portal.utils.Tuple;
 import org.jasig.portal.utils.web.PortalWebUtils;
 import org.jasig.portal.xml.xpath.XPathOperations;
@@ -109,10 +112,10 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
     static final String FOLDER_PATH_PREFIX = "f";
     static final String REQUEST_TYPE_SUFFIX = ".uP";
     
-    private static final Pattern SLASH_PATTERN = Pattern.compile(SLASH);
     private static final String PORTAL_CANONICAL_URL = UrlSyntaxProviderImpl.class.getName() + ".PORTAL_CANONICAL_URL";
     private static final String PORTAL_REQUEST_INFO_ATTR = UrlSyntaxProviderImpl.class.getName() + ".PORTAL_REQUEST_INFO"; 
     private static final String PORTAL_REQUEST_PARSING_IN_PROGRESS_ATTR = UrlSyntaxProviderImpl.class.getName() + ".PORTAL_REQUEST_PARSING_IN_PROGRESS";
+    private static final String PORTLET_URL_TEMPLATES_ATTR = UrlSyntaxProviderImpl.class.getName() + ".PORTLET_URL_TEMPLATES";
 
     /**
      * Utility enum used for parsing parameters that can appear multiple times on one URL and may or may not
@@ -328,7 +331,7 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
             IPortletWindowId targetedPortletWindowId = null;
             PortletRequestInfoImpl targetedPortletRequestInfo = null;
             
-            final String[] requestPathParts = SLASH_PATTERN.split(requestPath);
+            final String[] requestPathParts = splitPath(requestPath);
 
             UrlState requestedUrlState = null;
             ParseStep parseStep = ParseStep.FOLDER;
@@ -979,9 +982,11 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
             final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, targetedPortletWindowId);
             final IPortletEntity portletEntity = portletWindow.getPortletEntity();
             
+            //Folder path and portlet name only depend on the window, re-use them for every URL to the window in the request
+            final PortletUrlTemplate portletUrlTemplate = this.getPortletUrlTemplate(request, urlNodeSyntaxHelper, portletEntity, targetedPortletWindowId);
+            
             //Add folder information if available: /f/tabId
-            final String channelSubscribeId = portletEntity.getLayoutNodeId();
-            final List<String> folderNames = urlNodeSyntaxHelper.getFolderNamesForLayoutNode(request, channelSubscribeId);
+            final List<String> folderNames = portletUrlTemplate.getFolderNames();
             if (!folderNames.isEmpty()) {
                 url.addPath(FOLDER_PATH_PREFIX);
                 for (final String folderName : folderNames) {
@@ -1002,7 +1007,7 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
             //Resource requests will never have a requested window state
             urlState = this.determineUrlState(portletWindow, targetedPortletUrlBuilder);
             
-            final String targetedPortletString = urlNodeSyntaxHelper.getFolderNameForPortlet(request, targetedPortletWindowId);
+            final String targetedPortletString = portletUrlTemplate.getTargetedPortletString();
             
             //If a non-normal render url or an action/resource url stick the portlet info in the path 
             if ((urlType == UrlType.RENDER && urlState != UrlState.NORMAL) || urlType == UrlType.ACTION || urlType == UrlType.RESOURCE) {
@@ -1058,6 +1063,27 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
         return url.toString();
     }
 
+    /**
+     * Get the URL template for the portlet window, creating it the first time a URL targets the window during the request
+     */
+    protected PortletUrlTemplate getPortletUrlTemplate(HttpServletRequest request, IUrlNodeSyntaxHelper urlNodeSyntaxHelper, 
+            IPortletEntity portletEntity, IPortletWindowId portletWindowId) {
+        
+        //URLs can be generated by concurrent portlet workers so the template map must be thread-safe
+        final ConcurrentMap<IPortletWindowId, PortletUrlTemplate> portletUrlTemplates = PortalWebUtils.getMapRequestAttribute(request, PORTLET_URL_TEMPLATES_ATTR);
+        
+        PortletUrlTemplate portletUrlTemplate = portletUrlTemplates.get(portletWindowId);
+        if (portletUrlTemplate == null) {
+            final String channelSubscribeId = portletEntity.getLayoutNodeId();
+            final List<String> folderNames = urlNodeSyntaxHelper.getFolderNamesForLayoutNode(request, channelSubscribeId);
+            final String targetedPortletString = urlNodeSyntaxHelper.getFolderNameForPortlet(request, portletWindowId);
+            
+            portletUrlTemplate = ConcurrentMapUtils.putIfAbsent(portletUrlTemplates, portletWindowId, new PortletUrlTemplate(folderNames, targetedPortletString));
+        }
+        
+        return portletUrlTemplate;
+    }
+
     /**
      * Add the provided portlet url builder data to the url string builder
      */
@@ -1254,6 +1280,58 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
 
     }
 
+    /**
+     * Split the request path on '/' with the same results as {@link Pattern#split(CharSequence)}, leading empty
+     * parts are kept and trailing empty parts are dropped. Avoids the regex matcher on every request.
+     */
+    static String[] splitPath(String path) {
+        //No separator, the whole input is the only part
+        if (path.indexOf('/') < 0) {
+            return new String[] { path };
+        }
+        
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        
+        final List<String> parts = new ArrayList<String>();
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0 && slash < end) {
+            parts.add(path.substring(start, slash));
+            start = slash + 1;
+        }
+        
+        if (start < end) {
+            parts.add(path.substring(start, end));
+        }
+        
+        return parts.toArray(new String[parts.size()]);
+    }
+
+    /**
+     * Parts of a portlet URL that only depend on the targeted window, shared by all URLs generated for the
+     * window during a request.
+     */
+    protected static final class PortletUrlTemplate {
+        private final List<String> folderNames;
+        private final String targetedPortletString;
+        
+        public PortletUrlTemplate(List<String> folderNames, String targetedPortletString) {
+            this.folderNames = folderNames;
+            this.targetedPortletString = targetedPortletString;
+        }
+
+        public List<String> getFolderNames() {
+            return this.folderNames;
+        }
+
+        public String getTargetedPortletString() {
+            return this.targetedPortletString;
+        }
+    }
+
     private static final class ContentTuple {
 
         private static final Pattern FOLDER_PARSING_PATTERN = Pattern.compile(".*/f/([a-zA-Z0-9_]+)[\\./]?.*");
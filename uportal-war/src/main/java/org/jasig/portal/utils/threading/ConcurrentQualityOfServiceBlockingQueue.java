@@ -0,0 +1,608 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.utils.threading;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jasig.portal.utils.ConcurrentMapUtils;
+
+/**
+ * Lower contention alternative to {@link QualityOfServiceBlockingQueue} with the same keyed semantics. Elements are
+ * placed into lock-free sub-queues based on the key returned for each element by {@link #getElementKey(Object)} and
+ * {@link #getNextElementKey()} determines the order in which the sub-queues are drained.
+ * <p/>
+ * Like {@link java.util.concurrent.LinkedBlockingQueue} producers and consumers use separate locks. Adding an element
+ * only takes a lock to wake a waiting consumer when the queue was empty or to wait for capacity when the queue is full.
+ * Removing elements is serialized on a single take lock which guarantees that {@link #getNextElementKey()} is never
+ * called concurrently. {@link #peek()} is handled the same way as {@link QualityOfServiceBlockingQueue}, the peeked
+ * element will be the element returned by the next removal.
+ * <p/>
+ * {@link #size()} is updated after an element is added to its sub-queue so it may briefly lag the contents of the
+ * sub-queues while elements are being added.
+ * 
+ * @param <K> The type of key used for grouping elements in the queue
+ * @param <T> The type of elements in the queue
+ */
+public abstract class ConcurrentQualityOfServiceBlockingQueue<K, T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private final ConcurrentMap<K, Queue<T>> keyedQueues = new ConcurrentHashMap<K, Queue<T>>();
+    private final Set<K> queueKeySet = Collections.unmodifiableSet(this.keyedQueues.keySet()); 
+    
+    private final int capacity;
+    
+    //Number of elements available to consumers, incremented after an element is added to its sub-queue
+    private final AtomicInteger count = new AtomicInteger();
+    //Remaining capacity, decremented before an element is added to its sub-queue
+    private final AtomicInteger permits;
+    
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final Condition notEmpty = takeLock.newCondition();
+    private final ReentrantLock putLock = new ReentrantLock();
+    private final Condition notFull = putLock.newCondition();
+    
+    //MUST only be accessed while holding the takeLock
+    private K peekedKey = null;
+    
+    public ConcurrentQualityOfServiceBlockingQueue() {
+        this(Integer.MAX_VALUE);
+    }
+    
+    public ConcurrentQualityOfServiceBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        
+        this.capacity = capacity;
+        this.permits = new AtomicInteger(capacity);
+    }
+
+    /**
+     * @return the key for the specified element
+     */
+    protected abstract K getElementKey(T e);
+    
+    /**
+     * Get the next key to remove an element from.
+     * 
+     * This method will only be called if there are elements in the queue and will never be called concurrently.
+     * It must only return a key for which {@link #isKeyEmpty(Object)} returns false;
+     */
+    protected abstract K getNextElementKey();
+    
+    /**
+     * @return A read only Set of the keys in the queue
+     */
+    public final Set<K> getKeySet() {
+        return queueKeySet;
+    }
+    
+    /**
+     * @return true if there are no elements for the specified key
+     */
+    public final boolean isKeyEmpty(K key) {
+        final Queue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return true;
+        }
+        
+        return queue.isEmpty();
+    }
+    
+    /**
+     * @return The number of elements in the queue for the specified key
+     */
+    public final int getKeySize(K key) {
+        final Queue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+        
+        return queue.size();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#offer(java.lang.Object)
+     */
+    @Override
+    public final boolean offer(T e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        if (!this.tryAcquirePermit()) {
+            return false;
+        }
+        
+        this.enqueue(e);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+     */
+    @Override
+    public final void put(T e) throws InterruptedException {
+        this.offer(e, -1, TimeUnit.NANOSECONDS);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public final boolean offer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        if (!this.tryAcquirePermit()) {
+            //Full, wait for a consumer to release capacity. A negative timeout waits forever
+            long nanos = unit.toNanos(timeout);
+            this.putLock.lockInterruptibly();
+            try {
+                while (!this.tryAcquirePermit()) {
+                    if (timeout < 0) {
+                        this.notFull.await();
+                    }
+                    else {
+                        if (nanos <= 0) {
+                            return false;
+                        }
+                        nanos = this.notFull.awaitNanos(nanos);
+                    }
+                }
+                
+                //Cascade the notification if there is still capacity
+                if (this.permits.get() > 0) {
+                    this.notFull.signal();
+                }
+            }
+            finally {
+                this.putLock.unlock();
+            }
+        }
+        
+        this.enqueue(e);
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#take()
+     */
+    @Override
+    public final T take() throws InterruptedException {
+        return this.poll(-1, TimeUnit.NANOSECONDS);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public final T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        
+        final T e;
+        this.takeLock.lockInterruptibly();
+        try {
+            //Wait for an element to be available to return, a negative timeout waits forever
+            while (this.count.get() <= 0) {
+                if (timeout < 0) {
+                    this.notEmpty.await();
+                }
+                else {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = this.notEmpty.awaitNanos(nanos);
+                }
+            }
+            
+            e = this.dequeue();
+        }
+        finally {
+            this.takeLock.unlock();
+        }
+        
+        this.signalNotFull();
+        return e;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#poll()
+     */
+    @Override
+    public final T poll() {
+        //Short circuit without locking
+        if (this.count.get() <= 0) {
+            return null;
+        }
+        
+        final T e;
+        this.takeLock.lock();
+        try {
+            if (this.count.get() <= 0) {
+                return null;
+            }
+            
+            e = this.dequeue();
+        }
+        finally {
+            this.takeLock.unlock();
+        }
+        
+        this.signalNotFull();
+        return e;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Queue#peek()
+     */
+    @Override
+    public final T peek() {
+        //Short circuit without locking
+        if (this.count.get() <= 0) {
+            return null;
+        }
+        
+        this.takeLock.lock();
+        try {
+            if (this.count.get() <= 0) {
+                return null;
+            }
+            
+            if (this.peekedKey == null) {
+                this.peekedKey = this.getNextElementKey();
+            }
+            
+            return this.getQueueForNextKey(this.peekedKey).peek();
+        }
+        finally {
+            this.takeLock.unlock();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+     */
+    @Override
+    public final int drainTo(Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+     */
+    @Override
+    public final int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        
+        //Short circuit without locking
+        if (this.count.get() <= 0) {
+            return 0;
+        }
+        
+        int drained = 0;
+        this.takeLock.lock();
+        try {
+            while (drained < maxElements && this.count.get() > 0) {
+                c.add(this.dequeue());
+                drained++;
+            }
+        }
+        finally {
+            this.takeLock.unlock();
+        }
+        
+        if (drained > 0) {
+            this.signalNotFull();
+        }
+        return drained;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#remove(java.lang.Object)
+     */
+    @Override
+    public final boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final Queue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return false;
+        }
+        
+        this.takeLock.lock();
+        try {
+            if (!queue.remove(o)) {
+                return false;
+            }
+            
+            this.elementRemoved(queue);
+        }
+        finally {
+            this.takeLock.unlock();
+        }
+        
+        this.signalNotFull();
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#contains(java.lang.Object)
+     */
+    @Override
+    public final boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final Queue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return false;
+        }
+        
+        return queue.contains(o);
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+     */
+    @Override
+    public final int remainingCapacity() {
+        return Math.max(0, this.permits.get());
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Collection#size()
+     */
+    @Override
+    public final int size() {
+        return Math.max(0, this.count.get());
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Collection#iterator()
+     */
+    @Override
+    public final Iterator<T> iterator() {
+        return new ElementIterator();
+    }
+    
+    /**
+     * Reserve capacity for an element
+     */
+    private boolean tryAcquirePermit() {
+        while (true) {
+            final int available = this.permits.get();
+            if (available <= 0) {
+                return false;
+            }
+            if (this.permits.compareAndSet(available, available - 1)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * Add the element to its sub-queue and make it visible to consumers, a permit must have been acquired
+     */
+    private void enqueue(T e) {
+        this.getOrCreateQueue(e).add(e);
+        
+        final int c = this.count.getAndIncrement();
+        if (c == 0) {
+            //Queue was empty, consumers may be waiting
+            this.takeLock.lock();
+            try {
+                this.notEmpty.signal();
+            }
+            finally {
+                this.takeLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Remove the next element, this MUST be called while {@link #takeLock} is held and {@link #count} is greater than 0
+     */
+    private T dequeue() {
+        final K key;
+        if (this.peekedKey != null) {
+            key = this.peekedKey;
+            this.peekedKey = null;
+        }
+        else {
+            key = this.getNextElementKey();
+        }
+        
+        final Queue<T> queue = this.getQueueForNextKey(key);
+        final T e = queue.poll();
+        
+        final int c = this.count.getAndDecrement();
+        this.permits.incrementAndGet();
+        if (c > 1) {
+            //Cascade the notification to other waiting consumers
+            this.notEmpty.signal();
+        }
+        
+        return e;
+    }
+    
+    /**
+     * Update the counts after an element is removed from a sub-queue outside of {@link #dequeue()}, this MUST
+     * be called while {@link #takeLock} is held
+     */
+    private void elementRemoved(Queue<T> queue) {
+        this.count.decrementAndGet();
+        this.permits.incrementAndGet();
+        
+        if (this.peekedKey != null && queue.isEmpty() && queue == this.keyedQueues.get(this.peekedKey)) {
+            //The peeked element is gone
+            this.peekedKey = null;
+        }
+    }
+    
+    /**
+     * Wake a producer waiting for capacity, MUST NOT be called while {@link #takeLock} is held
+     */
+    private void signalNotFull() {
+        if (this.capacity == Integer.MAX_VALUE) {
+            //Producers never wait on an unbounded queue
+            return;
+        }
+        
+        this.putLock.lock();
+        try {
+            this.notFull.signal();
+        }
+        finally {
+            this.putLock.unlock();
+        }
+    }
+    
+    /**
+     * @return The sub-queue for a key returned by {@link #getNextElementKey()}, verifying its contract
+     */
+    private Queue<T> getQueueForNextKey(K key) {
+        final Queue<T> queue = this.keyedQueues.get(key);
+        if (queue == null || queue.isEmpty()) {
+            throw new IllegalStateException("getNextElementKey returned key='" + key + "' but there are no elements available for the key. This violates the contract specified for getNextElementKey: " + this.toString());
+        }
+        return queue;
+    }
+    
+    /**
+     * @return The Queue to use for the specified element, created if it doesn't exist yet
+     */
+    private Queue<T> getOrCreateQueue(T e) {
+        final K key = this.getElementKey(e);
+        Queue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<T>();
+            queue = ConcurrentMapUtils.putIfAbsent(this.keyedQueues, key, queue);
+        }
+        return queue;
+    }
+    
+    /**
+     * Iterates over the Queue's in the keyedQueues Map
+     */
+    private final class ElementIterator implements Iterator<T> {
+        private final Iterator<Queue<T>> queueIterator;
+        private Queue<T> queue = null;
+        private Iterator<T> elementIterator = null;
+        
+        public ElementIterator() {
+            this.queueIterator = keyedQueues.values().iterator();
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#hasNext()
+         */
+        @Override
+        public boolean hasNext() {
+            while (this.elementIterator == null || !this.elementIterator.hasNext()) {
+                if (!this.queueIterator.hasNext()) {
+                    return false;
+                }
+                
+                this.queue = this.queueIterator.next();
+                this.elementIterator = this.queue.iterator();
+            }
+            
+            return true;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#next()
+         */
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            
+            return this.elementIterator.next();
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.Iterator#remove()
+         */
+        @Override
+        public void remove() {
+            takeLock.lock();
+            try {
+                this.elementIterator.remove();
+                elementRemoved(this.queue);
+            }
+            finally {
+                takeLock.unlock();
+            }
+            
+            signalNotFull();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder str = new StringBuilder((this.size() * 50) + 2);
+        
+        str.append("{");
+        
+        for (final Iterator<Entry<K, Queue<T>>> entryItr = this.keyedQueues.entrySet().iterator(); entryItr.hasNext(); ) {
+            final Entry<K, Queue<T>> entry = entryItr.next();
+            final K key = entry.getKey();
+            final Queue<T> queue = entry.getValue();
+            str.append(key).append("=").append(queue.size());
+            
+            if (entryItr.hasNext()) {
+                str.append(", ");
+            }
+        }
+        
+        str.append("}");
+        return str.toString();
+    }
+}
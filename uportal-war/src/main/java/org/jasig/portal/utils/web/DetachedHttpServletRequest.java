@@ -0,0 +1,554 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.web;
+
+import java.io.BufferedReader;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A copy of a {@link HttpServletRequest} that stays usable after the original request completes and is recycled
+ * by the container. Attributes, headers, parameters, cookies and path information are copied when the detached
+ * request is created, attribute changes are local to the copy. The request body is not available and container
+ * roles can not be checked, {@link #isUserInRole(String)} always returns false.
+ */
+public class DetachedHttpServletRequest implements HttpServletRequest {
+    private static final String RFC1123_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    
+    private final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+    private final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+    private final List<Locale> locales = new ArrayList<Locale>();
+    private final Cookie[] cookies;
+    private final ServletContext servletContext;
+    private final HttpSession session;
+    private final String authType;
+    private final String remoteUser;
+    private final Principal userPrincipal;
+    private final String contentType;
+    private final int contentLength;
+    private final String method;
+    private final String protocol;
+    private final String scheme;
+    private final String serverName;
+    private final int serverPort;
+    private final boolean secure;
+    private final String remoteAddr;
+    private final String remoteHost;
+    private final int remotePort;
+    private final String localName;
+    private final String localAddr;
+    private final int localPort;
+    private final String contextPath;
+    private final String servletPath;
+    private final String pathInfo;
+    private final String pathTranslated;
+    private final String queryString;
+    private final String requestURI;
+    private final String requestURL;
+    private final String requestedSessionId;
+    private final boolean requestedSessionIdValid;
+    private final boolean requestedSessionIdFromCookie;
+    private final boolean requestedSessionIdFromURL;
+    private volatile String characterEncoding;
+    
+    @SuppressWarnings("unchecked")
+    public DetachedHttpServletRequest(HttpServletRequest request) {
+        Validate.notNull(request, "request can not be null");
+        
+        for (final Enumeration<String> attributeNames = request.getAttributeNames(); attributeNames.hasMoreElements();) {
+            final String name = attributeNames.nextElement();
+            final Object value = request.getAttribute(name);
+            if (value != null) {
+                this.attributes.put(name, value);
+            }
+        }
+        
+        for (final Enumeration<String> headerNames = request.getHeaderNames(); headerNames.hasMoreElements();) {
+            final String name = headerNames.nextElement();
+            final List<String> values = new ArrayList<String>();
+            for (final Enumeration<String> headerValues = request.getHeaders(name); headerValues.hasMoreElements();) {
+                values.add(headerValues.nextElement());
+            }
+            this.headers.put(name, Collections.unmodifiableList(values));
+        }
+        
+        for (final Map.Entry<String, String[]> parameterEntry : ((Map<String, String[]>) request.getParameterMap()).entrySet()) {
+            this.parameters.put(parameterEntry.getKey(), parameterEntry.getValue().clone());
+        }
+        
+        for (final Enumeration<Locale> requestLocales = request.getLocales(); requestLocales.hasMoreElements();) {
+            this.locales.add(requestLocales.nextElement());
+        }
+        
+        final Cookie[] requestCookies = request.getCookies();
+        this.cookies = requestCookies != null ? requestCookies.clone() : null;
+        
+        this.servletContext = request.getServletContext();
+        this.session = request.getSession(false);
+        this.authType = request.getAuthType();
+        this.remoteUser = request.getRemoteUser();
+        this.userPrincipal = request.getUserPrincipal();
+        this.characterEncoding = request.getCharacterEncoding();
+        this.contentType = request.getContentType();
+        this.contentLength = request.getContentLength();
+        this.method = request.getMethod();
+        this.protocol = request.getProtocol();
+        this.scheme = request.getScheme();
+        this.serverName = request.getServerName();
+        this.serverPort = request.getServerPort();
+        this.secure = request.isSecure();
+        this.remoteAddr = request.getRemoteAddr();
+        this.remoteHost = request.getRemoteHost();
+        this.remotePort = request.getRemotePort();
+        this.localName = request.getLocalName();
+        this.localAddr = request.getLocalAddr();
+        this.localPort = request.getLocalPort();
+        this.contextPath = request.getContextPath();
+        this.servletPath = request.getServletPath();
+        this.pathInfo = request.getPathInfo();
+        this.pathTranslated = request.getPathTranslated();
+        this.queryString = request.getQueryString();
+        this.requestURI = request.getRequestURI();
+        this.requestURL = request.getRequestURL().toString();
+        this.requestedSessionId = request.getRequestedSessionId();
+        this.requestedSessionIdValid = request.isRequestedSessionIdValid();
+        this.requestedSessionIdFromCookie = request.isRequestedSessionIdFromCookie();
+        this.requestedSessionIdFromURL = request.isRequestedSessionIdFromURL();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return this.attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(this.attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object o) {
+        if (o == null) {
+            this.attributes.remove(name);
+        }
+        else {
+            this.attributes.put(name, o);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        this.attributes.remove(name);
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return this.characterEncoding;
+    }
+
+    @Override
+    public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
+        this.characterEncoding = env;
+    }
+
+    @Override
+    public int getContentLength() {
+        return this.contentLength;
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        throw new IllegalStateException("The request body is not available from a detached request");
+    }
+
+    @Override
+    public BufferedReader getReader() {
+        throw new IllegalStateException("The request body is not available from a detached request");
+    }
+
+    @Override
+    public String getParameter(String name) {
+        final String[] values = this.parameters.get(name);
+        if (values == null || values.length == 0) {
+            return null;
+        }
+        return values[0];
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(this.parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        final String[] values = this.parameters.get(name);
+        return values != null ? values.clone() : null;
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(this.parameters);
+    }
+
+    @Override
+    public String getProtocol() {
+        return this.protocol;
+    }
+
+    @Override
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    @Override
+    public String getServerName() {
+        return this.serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return this.serverPort;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return this.remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return this.remoteHost;
+    }
+
+    @Override
+    public int getRemotePort() {
+        return this.remotePort;
+    }
+
+    @Override
+    public String getLocalName() {
+        return this.localName;
+    }
+
+    @Override
+    public String getLocalAddr() {
+        return this.localAddr;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return this.localPort;
+    }
+
+    @Override
+    public Locale getLocale() {
+        if (this.locales.isEmpty()) {
+            return Locale.getDefault();
+        }
+        return this.locales.get(0);
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        if (this.locales.isEmpty()) {
+            return Collections.enumeration(Collections.singleton(Locale.getDefault()));
+        }
+        return Collections.enumeration(this.locales);
+    }
+
+    @Override
+    public boolean isSecure() {
+        return this.secure;
+    }
+
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path) {
+        if (path == null) {
+            return null;
+        }
+        
+        if (!path.startsWith("/")) {
+            //Resolve relative paths against the servlet path of the request
+            final int lastSlash = this.servletPath.lastIndexOf('/');
+            path = this.servletPath.substring(0, lastSlash + 1) + path;
+        }
+        
+        return this.servletContext.getRequestDispatcher(path);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public String getRealPath(String path) {
+        return this.servletContext.getRealPath(path);
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return this.servletContext;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        throw new IllegalStateException("Async processing is not supported by a detached request");
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        throw new IllegalStateException("Async processing is not supported by a detached request");
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        throw new IllegalStateException("Async processing is not supported by a detached request");
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return DispatcherType.REQUEST;
+    }
+
+    @Override
+    public String getAuthType() {
+        return this.authType;
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        return this.cookies != null ? this.cookies.clone() : null;
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        final String value = this.getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        
+        final SimpleDateFormat dateFormat = new SimpleDateFormat(RFC1123_DATE_FORMAT, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return dateFormat.parse(value).getTime();
+        }
+        catch (ParseException e) {
+            throw new IllegalArgumentException("Header '" + name + "' cannot be converted to a date: '" + value + "'", e);
+        }
+    }
+
+    @Override
+    public String getHeader(String name) {
+        final List<String> values = this.headers.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        final List<String> values = this.headers.get(name);
+        if (values == null) {
+            return Collections.enumeration(Collections.<String>emptyList());
+        }
+        return Collections.enumeration(values);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(this.headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        final String value = this.getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        return Integer.parseInt(value);
+    }
+
+    @Override
+    public String getMethod() {
+        return this.method;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return this.pathInfo;
+    }
+
+    @Override
+    public String getPathTranslated() {
+        return this.pathTranslated;
+    }
+
+    @Override
+    public String getContextPath() {
+        return this.contextPath;
+    }
+
+    @Override
+    public String getQueryString() {
+        return this.queryString;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return this.remoteUser;
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        return false;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return this.userPrincipal;
+    }
+
+    @Override
+    public String getRequestedSessionId() {
+        return this.requestedSessionId;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return this.requestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return new StringBuffer(this.requestURL);
+    }
+
+    @Override
+    public String getServletPath() {
+        return this.servletPath;
+    }
+
+    /**
+     * The session of the original request is returned, a detached request can not create a session.
+     */
+    @Override
+    public HttpSession getSession(boolean create) {
+        if (this.session == null && create) {
+            throw new IllegalStateException("A session can not be created from a detached request");
+        }
+        return this.session;
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return this.getSession(true);
+    }
+
+    @Override
+    public boolean isRequestedSessionIdValid() {
+        return this.requestedSessionIdValid;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromCookie() {
+        return this.requestedSessionIdFromCookie;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromURL() {
+        return this.requestedSessionIdFromURL;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public boolean isRequestedSessionIdFromUrl() {
+        return this.requestedSessionIdFromURL;
+    }
+
+    @Override
+    public boolean authenticate(HttpServletResponse response) throws ServletException {
+        throw new ServletException("Authentication is not supported by a detached request");
+    }
+
+    @Override
+    public void login(String username, String password) throws ServletException {
+        throw new ServletException("Authentication is not supported by a detached request");
+    }
+
+    @Override
+    public void logout() throws ServletException {
+        throw new ServletException("Authentication is not supported by a detached request");
+    }
+
+    @Override
+    public Collection<Part> getParts() throws ServletException {
+        throw new IllegalStateException("The request body is not available from a detached request");
+    }
+
+    @Override
+    public Part getPart(String name) throws ServletException {
+        throw new IllegalStateException("The request body is not available from a detached request");
+    }
+}
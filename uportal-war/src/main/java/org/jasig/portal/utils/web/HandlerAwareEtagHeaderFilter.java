@@ -0,0 +1,42 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.web;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+/**
+ * {@link ShallowEtagHeaderFilter} that leaves responses alone when the handler already set its own entity tag,
+ * such as a layout version stamp that lets the handler answer 304 without rendering the response at all.
+ */
+public class HandlerAwareEtagHeaderFilter extends ShallowEtagHeaderFilter {
+    @Override
+    protected boolean isEligibleForEtag(HttpServletRequest request, HttpServletResponse response,
+            int responseStatusCode, byte[] responseBody) {
+        
+        if (response.containsHeader(PortalWebUtils.HEADER_ETAG)) {
+            return false;
+        }
+        
+        return super.isEligibleForEtag(request, response, responseStatusCode, responseBody);
+    }
+}
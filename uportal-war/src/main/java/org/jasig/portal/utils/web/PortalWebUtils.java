@@ -25,9 +25,11 @@ import java.util.concurrent.ConcurrentMap;
 import javax.portlet.PortletRequest;
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
@@ -45,6 +47,9 @@ public final class PortalWebUtils {
     /** Key for the mutex request session attribute */
     public static final String REQUEST_MUTEX_ATTRIBUTE = PortalWebUtils.class.getName() + ".MUTEX";
     
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    
     /**
      * Return the best available mutex for the given request attributes:
      * that is, an object to synchronize on for the given request attributes.
@@ -128,6 +133,41 @@ public final class PortalWebUtils {
         }
     }
 
+    /**
+     * Set the entity tag of the response and check it against the If-None-Match header of a GET or HEAD request.
+     * If it matches the response status is set to 304 Not Modified and the caller must not write a body.
+     * 
+     * @param entityTag Quoted entity tag for the current state of the requested resource
+     * @return true if the response has been completed as 304 Not Modified
+     */
+    public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String entityTag) {
+        response.setHeader(HEADER_ETAG, entityTag);
+        
+        final String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        
+        final String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        
+        for (String requestEntityTag : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+            requestEntityTag = requestEntityTag.trim();
+            if (requestEntityTag.startsWith("W/")) {
+                requestEntityTag = requestEntityTag.substring(2);
+            }
+            
+            if ("*".equals(requestEntityTag) || entityTag.equals(requestEntityTag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        
+        return false;
+    }
+
     /**
      * Get the request context path from the current request.
      * Copes with both HttpServletRequest and PortletRequest and so usable when handling
@@ -0,0 +1,135 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.locks.Lock;
+
+import org.jasig.portal.concurrency.locking.IClusterLockService.LockStatus;
+import org.jasig.portal.concurrency.locking.IClusterLockService.TryLockFunctionResult;
+import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.base.Function;
+
+/**
+ * Unit tests for JGroupsClusterLockServiceImpl.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JGroupsClusterLockServiceImplTest {
+    private static final Function<ClusterMutex, Boolean> LOCK_FUNCTION = new Function<ClusterMutex, Boolean>() {
+        @Override
+        public Boolean apply(ClusterMutex input) {
+            return Boolean.TRUE;
+        }
+    };
+    
+    @Mock private ClusterLockServiceImpl clusterLockService;
+    @Mock private Lock clusterLock;
+    @Mock private TryLockFunctionResult<Boolean> executedResult;
+    private final ReadableDuration clusterUpdateLockRate = Duration.standardSeconds(20);
+    
+    private Lock availableClusterLock;
+    private JGroupsClusterLockServiceImpl jgroupsClusterLockService;
+    
+    @Before
+    public void setup() {
+        this.jgroupsClusterLockService = new JGroupsClusterLockServiceImpl() {
+            @Override
+            protected Lock getClusterLock(String mutexName) {
+                return availableClusterLock;
+            }
+        };
+        this.jgroupsClusterLockService.setClusterLockService(this.clusterLockService);
+        this.jgroupsClusterLockService.setClusterUpdateLockRate(this.clusterUpdateLockRate);
+    }
+    
+    @Test
+    public void testFallbackWithoutChannel() throws InterruptedException {
+        final LockOptions lockOptions = LockOptions.builder().lastRunDelay(1000);
+        when(this.clusterLockService.doInTryLock("TEST", lockOptions, LOCK_FUNCTION)).thenReturn(this.executedResult);
+        
+        final TryLockFunctionResult<Boolean> result = this.jgroupsClusterLockService.doInTryLock("TEST", lockOptions, LOCK_FUNCTION);
+        
+        assertTrue(result == this.executedResult);
+        verify(this.clusterLockService, never()).doInTryLock(anyString(), any(LockOptions.class), eq(LOCK_FUNCTION), any(ReadableDuration.class));
+    }
+    
+    @Test
+    public void testClusterLockHeldElsewhere() throws InterruptedException {
+        this.availableClusterLock = this.clusterLock;
+        when(this.clusterLock.tryLock()).thenReturn(false);
+        
+        final TryLockFunctionResult<Boolean> result = this.jgroupsClusterLockService.doInTryLock("TEST", LOCK_FUNCTION);
+        
+        assertEquals(LockStatus.SKIPPED_LOCKED, result.getLockStatus());
+        verifyZeroInteractions(this.clusterLockService);
+        verify(this.clusterLock, never()).unlock();
+    }
+    
+    @Test
+    public void testClusterLockAcquired() throws InterruptedException {
+        this.availableClusterLock = this.clusterLock;
+        final LockOptions lockOptions = LockOptions.builder().serverBiasDelay(1000);
+        when(this.clusterLock.tryLock()).thenReturn(true);
+        when(this.clusterLockService.doInTryLock("TEST", lockOptions, LOCK_FUNCTION, this.clusterUpdateLockRate)).thenReturn(this.executedResult);
+        
+        final TryLockFunctionResult<Boolean> result = this.jgroupsClusterLockService.doInTryLock("TEST", lockOptions, LOCK_FUNCTION);
+        
+        assertTrue(result == this.executedResult);
+        final InOrder inOrder = inOrder(this.clusterLock, this.clusterLockService);
+        inOrder.verify(this.clusterLock).tryLock();
+        inOrder.verify(this.clusterLockService).doInTryLock("TEST", lockOptions, LOCK_FUNCTION, this.clusterUpdateLockRate);
+        inOrder.verify(this.clusterLock).unlock();
+    }
+    
+    @Test
+    public void testClusterLockReleasedOnException() throws InterruptedException {
+        this.availableClusterLock = this.clusterLock;
+        final LockOptions lockOptions = new LockOptions();
+        when(this.clusterLock.tryLock()).thenReturn(true);
+        when(this.clusterLockService.doInTryLock("TEST", lockOptions, LOCK_FUNCTION, this.clusterUpdateLockRate)).thenThrow(new IllegalStateException());
+        
+        try {
+            this.jgroupsClusterLockService.doInTryLock("TEST", lockOptions, LOCK_FUNCTION);
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        
+        verify(this.clusterLock).unlock();
+    }
+}
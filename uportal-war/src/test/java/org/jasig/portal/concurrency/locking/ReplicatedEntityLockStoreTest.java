@@ -0,0 +1,376 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.jasig.portal.EntityTypes;
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.IEntityLockService;
+import org.jasig.portal.concurrency.LockingException;
+import org.jasig.portal.groups.IEntityGroup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Unit tests for ReplicatedEntityLockStore.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ReplicatedEntityLockStoreTest {
+    private static final String CACHE_NAME = ReplicatedEntityLockStoreTest.class.getName();
+    
+    @Mock private JdbcOperations jdbcOperations;
+    @Mock private EntityTypes entityTypes;
+    
+    private final ConcurrentMap<String, Lock> clusterLocks = new ConcurrentHashMap<String, Lock>();
+    private final List<ClusterLockStore> servers = new CopyOnWriteArrayList<ClusterLockStore>();
+    private final List<String> cacheNames = new ArrayList<String>();
+    
+    private ReplicatedEntityLockStore lockStore;
+    
+    @Before
+    public void setup() {
+        when(entityTypes.getEntityIDFromType(IEntityGroup.class)).thenReturn(2);
+        
+        lockStore = createLockStore();
+    }
+    
+    @After
+    public void tearDown() {
+        for (final String cacheName : cacheNames) {
+            CacheManager.create().removeCache(cacheName);
+        }
+    }
+    
+    /**
+     * Create a store with its own cache that is a server in the same cluster as the other stores created by
+     * the test
+     */
+    private ReplicatedEntityLockStore createLockStore() {
+        final String cacheName = CACHE_NAME + "." + cacheNames.size();
+        final Cache leaseCache = new Cache(cacheName, 0, false, false, 0, 0);
+        CacheManager.create().addCache(leaseCache);
+        cacheNames.add(cacheName);
+        
+        final ReplicatedEntityLockStore store = new ClusterLockStore();
+        store.setLeaseCache(leaseCache);
+        store.setJdbcOperations(jdbcOperations);
+        store.setEntityTypes(entityTypes);
+        store.setTransactionOperations(new TransactionOperations() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                return action.doInTransaction((TransactionStatus) null);
+            }
+        });
+        return store;
+    }
+    
+    @Test
+    public void testAddFindDelete() throws LockingException {
+        final IEntityLock writeLock = createLock("1", IEntityLockService.WRITE_LOCK, "owner1", 60);
+        final IEntityLock readLock = createLock("2", IEntityLockService.READ_LOCK, "owner1", 60);
+        final IEntityLock otherReadLock = createLock("2", IEntityLockService.READ_LOCK, "owner2", 60);
+        lockStore.add(writeLock);
+        lockStore.add(readLock);
+        lockStore.add(otherReadLock);
+        
+        assertEquals(1, lockStore.find(IEntityGroup.class, "1", null, null, null).length);
+        assertEquals(2, lockStore.find(IEntityGroup.class, "2", null, null, null).length);
+        assertEquals(1, lockStore.find(IEntityGroup.class, "2", null, null, "owner2").length);
+        assertEquals(3, lockStore.find(IEntityGroup.class, null, null, null, null).length);
+        assertEquals(2, lockStore.find(null, null, null, null, "owner1").length);
+        assertEquals(1, lockStore.find(null, null, IEntityLockService.WRITE_LOCK, writeLock.getExpirationTime(), null).length);
+        
+        assertEquals(2, lockStore.findUnexpired(new Date(), IEntityGroup.class, "2", null, null).length);
+        assertEquals(0, lockStore.findUnexpired(new Date(System.currentTimeMillis() + 120000), IEntityGroup.class, "2", null, null).length);
+        
+        lockStore.delete(readLock);
+        final IEntityLock[] locks = lockStore.find(IEntityGroup.class, "2", null, null, null);
+        assertEquals(1, locks.length);
+        assertEquals(otherReadLock, locks[0]);
+        
+        //Expired locks are not stored
+        lockStore.add(createLock("3", IEntityLockService.WRITE_LOCK, "owner1", -1));
+        assertEquals(0, lockStore.find(IEntityGroup.class, "3", null, null, null).length);
+    }
+    
+    @Test
+    public void testUpdate() throws LockingException {
+        final IEntityLock lock = createLock("1", IEntityLockService.READ_LOCK, "owner1", 60);
+        lockStore.add(lock);
+        
+        final Date newExpiration = new Date(System.currentTimeMillis() + 120000);
+        lockStore.update(lock, newExpiration, IEntityLockService.WRITE_LOCK);
+        
+        final IEntityLock[] locks = lockStore.find(IEntityGroup.class, "1", null, null, null);
+        assertEquals(1, locks.length);
+        assertEquals(IEntityLockService.WRITE_LOCK, locks[0].getLockType());
+        assertEquals(newExpiration, locks[0].getExpirationTime());
+        
+        //The original lock no longer exists
+        try {
+            lockStore.update(lock, newExpiration);
+            fail("LockingException expected");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFlushBatchesChanges() throws LockingException {
+        final IEntityLock lock = createLock("1", IEntityLockService.READ_LOCK, "owner1", 60);
+        lockStore.add(lock);
+        lockStore.update(lock, new Date(System.currentTimeMillis() + 120000));
+        lockStore.add(createLock("1", IEntityLockService.READ_LOCK, "owner2", 60));
+        final IEntityLock deletedLock = createLock("2", IEntityLockService.WRITE_LOCK, "owner1", 60);
+        lockStore.add(deletedLock);
+        lockStore.delete(deletedLock);
+        
+        lockStore.flush();
+        
+        final ArgumentCaptor<List> deletes = ArgumentCaptor.forClass(List.class);
+        final ArgumentCaptor<List> inserts = ArgumentCaptor.forClass(List.class);
+        verify(jdbcOperations).batchUpdate(eq(ReplicatedEntityLockStore.DELETE_ENTITY_SQL), deletes.capture());
+        verify(jdbcOperations).batchUpdate(eq(ReplicatedEntityLockStore.INSERT_SQL), inserts.capture());
+        assertEquals(2, deletes.getValue().size());
+        assertEquals(2, inserts.getValue().size());
+        
+        //Nothing changed since the last flush
+        reset(jdbcOperations);
+        lockStore.flush();
+        verifyNoMoreInteractions(jdbcOperations);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFailedFlushIsRetried() throws LockingException {
+        lockStore.add(createLock("1", IEntityLockService.WRITE_LOCK, "owner1", 60));
+        
+        doThrow(new DataAccessResourceFailureException("database down")).when(jdbcOperations).batchUpdate(anyString(), anyListOf(Object[].class));
+        lockStore.flush();
+        
+        reset(jdbcOperations);
+        lockStore.flush();
+        verify(jdbcOperations).batchUpdate(eq(ReplicatedEntityLockStore.DELETE_ENTITY_SQL), anyListOf(Object[].class));
+        verify(jdbcOperations).batchUpdate(eq(ReplicatedEntityLockStore.INSERT_SQL), anyListOf(Object[].class));
+    }
+    
+    @Test
+    public void testConflictingWriteLocksOnTwoServers() throws LockingException {
+        final ReplicatedEntityLockStore otherLockStore = createLockStore();
+        
+        final IEntityLock writeLock = createLock("1", IEntityLockService.WRITE_LOCK, "owner1", 60);
+        lockStore.add(writeLock);
+        assertEquals(1, otherLockStore.find(IEntityGroup.class, "1", null, null, null).length);
+        
+        try {
+            otherLockStore.add(createLock("1", IEntityLockService.WRITE_LOCK, "owner2", 60));
+            fail("LockingException expected");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+        try {
+            otherLockStore.add(createLock("1", IEntityLockService.READ_LOCK, "owner2", 60));
+            fail("LockingException expected");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+        assertEquals(1, lockStore.find(IEntityGroup.class, "1", null, null, null).length);
+        assertEquals(1, otherLockStore.find(IEntityGroup.class, "1", null, null, null).length);
+        
+        lockStore.delete(writeLock);
+        assertEquals(0, otherLockStore.find(IEntityGroup.class, "1", null, null, null).length);
+        otherLockStore.add(createLock("1", IEntityLockService.WRITE_LOCK, "owner2", 60));
+        
+        final IEntityLock[] locks = lockStore.find(IEntityGroup.class, "1", null, null, null);
+        assertEquals(1, locks.length);
+        assertEquals("owner2", locks[0].getLockOwner());
+    }
+    
+    @Test
+    public void testReadLockCantBeConvertedWhileShared() throws LockingException {
+        final ReplicatedEntityLockStore otherLockStore = createLockStore();
+        
+        final IEntityLock readLock = createLock("1", IEntityLockService.READ_LOCK, "owner1", 60);
+        lockStore.add(readLock);
+        otherLockStore.add(createLock("1", IEntityLockService.READ_LOCK, "owner2", 60));
+        
+        try {
+            lockStore.update(readLock, new Date(System.currentTimeMillis() + 120000), IEntityLockService.WRITE_LOCK);
+            fail("LockingException expected");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+        assertEquals(0, otherLockStore.find(IEntityGroup.class, "1", IEntityLockService.WRITE_LOCK, null, null).length);
+    }
+    
+    @Test
+    public void testConcurrentWriteLocksOnTwoServers() throws Exception {
+        final List<ReplicatedEntityLockStore> stores = new ArrayList<ReplicatedEntityLockStore>();
+        stores.add(lockStore);
+        stores.add(createLockStore());
+        
+        final int threads = 8;
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < threads; i++) {
+                final ReplicatedEntityLockStore store = stores.get(i % stores.size());
+                final IEntityLock lock = createLock("1", IEntityLockService.WRITE_LOCK, "owner" + i, 60);
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        try {
+                            store.add(lock);
+                            return true;
+                        }
+                        catch (LockingException e) {
+                            return false;
+                        }
+                    }
+                }));
+            }
+            
+            int granted = 0;
+            for (final Future<Boolean> result : results) {
+                if (result.get()) {
+                    granted++;
+                }
+            }
+            assertEquals(1, granted);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        for (final ReplicatedEntityLockStore store : stores) {
+            assertEquals(1, store.find(IEntityGroup.class, "1", null, null, null).length);
+        }
+    }
+    
+    @Test
+    public void testJoiningServerReceivesLeases() throws LockingException {
+        lockStore.add(createLock("1", IEntityLockService.WRITE_LOCK, "owner1", 60));
+        
+        final ReplicatedEntityLockStore otherLockStore = createLockStore();
+        assertEquals(1, otherLockStore.find(IEntityGroup.class, "1", null, null, null).length);
+        try {
+            otherLockStore.add(createLock("1", IEntityLockService.WRITE_LOCK, "owner2", 60));
+            fail("LockingException expected");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+        
+        //Only the first server loads the locks from the database
+        verify(jdbcOperations).query(eq(ReplicatedEntityLockStore.SELECT_UNEXPIRED_SQL), any(RowMapper.class), any());
+    }
+    
+    private IEntityLock createLock(String entityKey, int lockType, String owner, int durationSecs) {
+        return new EntityLockImpl(IEntityGroup.class, entityKey, lockType, new Date(System.currentTimeMillis() + durationSecs * 1000), owner);
+    }
+    
+    /**
+     * Store that is a server in an in-memory cluster shared by the stores created by a test, the JGroups lock
+     * and channel are replaced by a shared lock per entity and direct calls to the other servers
+     */
+    private class ClusterLockStore extends ReplicatedEntityLockStore {
+        @Override
+        protected boolean joinCluster() throws LockingException {
+            final boolean firstServer = servers.isEmpty();
+            if (!firstServer) {
+                try {
+                    final ByteArrayOutputStream state = new ByteArrayOutputStream();
+                    servers.get(0).writeLeases(state);
+                    this.readLeases(new ByteArrayInputStream(state.toByteArray()));
+                }
+                catch (Exception e) {
+                    throw new LockingException(e);
+                }
+            }
+            servers.add(this);
+            return !firstServer;
+        }
+
+        @Override
+        protected Lock getClusterLock(LeaseKey leaseKey) {
+            final String lockName = leaseKey.getLockName();
+            final Lock lock = new ReentrantLock();
+            final Lock existingLock = clusterLocks.putIfAbsent(lockName, lock);
+            return existingLock != null ? existingLock : lock;
+        }
+
+        @Override
+        protected void replicate(LeaseUpdate leaseUpdate) {
+            for (final ClusterLockStore server : servers) {
+                if (server != this) {
+                    server.applyLeaseUpdate(leaseUpdate);
+                }
+            }
+        }
+    }
+}
@@ -23,7 +23,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+
 import org.jasig.portal.events.PortalEvent.PortalEventBuilder;
+import org.jasig.portal.events.PortletExecutionEvent.PortletExecutionEventBuilder;
+import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.security.IPerson;
 
 
@@ -46,4 +51,13 @@ public final class TestEventFactory {
         final PortalEventBuilder portalEventBuilder = new PortalEventBuilder(source, serverName, eventSessionId, person, null);
         return new LoginEvent(portalEventBuilder, groups, attributes);
     }
+    
+    public static PortletRenderExecutionEvent newPortletRenderExecutionEvent(Object source, String serverName, String eventSessionId, IPerson person,
+            IPortletWindowId portletWindowId, String fname, long executionTimeNano, Map<String, List<String>> parameters) {
+        
+        final PortalEventBuilder portalEventBuilder = new PortalEventBuilder(source, serverName, eventSessionId, person, null);
+        final PortletExecutionEventBuilder portletExecutionEventBuilder = new PortletExecutionEventBuilder(portalEventBuilder, 
+                portletWindowId, fname, executionTimeNano, parameters, WindowState.NORMAL, PortletMode.VIEW);
+        return new PortletRenderExecutionEvent(portletExecutionEventBuilder, false, false);
+    }
 }
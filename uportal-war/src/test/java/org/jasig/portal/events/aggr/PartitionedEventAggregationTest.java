@@ -0,0 +1,222 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Unit tests for PartitionedEventAggregation.
+ */
+public class PartitionedEventAggregationTest {
+    @Mock private TransactionOperations transactionOperations;
+    
+    private final List<TransactionStatus> transactions = Collections.synchronizedList(new ArrayList<TransactionStatus>());
+    private ExecutorService executorService;
+    private volatile boolean failFlush = false;
+    
+    @Before
+    public void setup() {
+        initMocks(this);
+        
+        executorService = Executors.newCachedThreadPool();
+        when(transactionOperations.execute(any(TransactionCallback.class))).then(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final TransactionStatus status = mock(TransactionStatus.class);
+                if (failFlush) {
+                    doThrow(new IllegalStateException("flush failed")).when(status).flush();
+                }
+                transactions.add(status);
+                return ((TransactionCallback<?>)invocation.getArguments()[0]).doInTransaction(status);
+            }
+        });
+    }
+    
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testPartitionAssignment() {
+        final PartitionedEventAggregation partitionedAggregation = new PartitionedEventAggregation(
+                executorService, transactionOperations, Arrays.asList(String.class, Integer.class, Long.class), 2, 10);
+        
+        assertEquals(2, partitionedAggregation.getPartitionCount());
+        assertSame(partitionedAggregation.getEventAggregationContext(String.class), partitionedAggregation.getEventAggregationContext(Long.class));
+        assertNotSame(partitionedAggregation.getEventAggregationContext(String.class), partitionedAggregation.getEventAggregationContext(Integer.class));
+        
+        partitionedAggregation.complete(true);
+        assertEquals(2, transactions.size());
+    }
+
+    @Test
+    public void testWorkRunsInOrderPerAggregator() {
+        final PartitionedEventAggregation partitionedAggregation = new PartitionedEventAggregation(
+                executorService, transactionOperations, Arrays.asList(String.class, Integer.class), 4, 2);
+        
+        final List<Integer> stringWork = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> integerWork = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            final int work = i;
+            expected.add(work);
+            partitionedAggregation.submit(String.class, new Runnable() {
+                @Override
+                public void run() {
+                    stringWork.add(work);
+                }
+            });
+            partitionedAggregation.submit(Integer.class, new Runnable() {
+                @Override
+                public void run() {
+                    integerWork.add(work);
+                }
+            });
+        }
+        
+        partitionedAggregation.complete(true);
+        
+        assertEquals(expected, stringWork);
+        assertEquals(expected, integerWork);
+        assertEquals(2, transactions.size());
+        for (final TransactionStatus status : transactions) {
+            verify(status, never()).setRollbackOnly();
+        }
+    }
+
+    @Test
+    public void testFailureRollsBackAllPartitions() {
+        final PartitionedEventAggregation partitionedAggregation = new PartitionedEventAggregation(
+                executorService, transactionOperations, Arrays.asList(String.class, Integer.class), 2, 10);
+        
+        partitionedAggregation.submit(String.class, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalArgumentException("aggregation failed");
+            }
+        });
+        
+        try {
+            partitionedAggregation.complete(true);
+            fail("complete should fail when a partition has failed");
+        }
+        catch (IllegalStateException e) {
+            assertEquals(IllegalArgumentException.class, e.getCause().getClass());
+        }
+        
+        assertEquals(2, transactions.size());
+        for (final TransactionStatus status : transactions) {
+            verify(status).setRollbackOnly();
+        }
+    }
+
+    @Test
+    public void testCompleteWithoutCommitRollsBack() {
+        final PartitionedEventAggregation partitionedAggregation = new PartitionedEventAggregation(
+                executorService, transactionOperations, Arrays.asList(String.class, Integer.class), 2, 10);
+        
+        partitionedAggregation.complete(false);
+        
+        assertEquals(2, transactions.size());
+        for (final TransactionStatus status : transactions) {
+            verify(status).setRollbackOnly();
+        }
+    }
+
+    @Test
+    public void testAwaitProcessedFailsBeforeCommit() {
+        final PartitionedEventAggregation partitionedAggregation = new PartitionedEventAggregation(
+                executorService, transactionOperations, Arrays.asList(String.class, Integer.class), 2, 10);
+        
+        partitionedAggregation.submit(Integer.class, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalArgumentException("aggregation failed");
+            }
+        });
+        
+        try {
+            partitionedAggregation.awaitProcessed();
+            fail("awaitProcessed should fail when a partition has failed");
+        }
+        catch (IllegalStateException e) {
+            assertEquals(IllegalArgumentException.class, e.getCause().getClass());
+        }
+        
+        //Nothing is committed until the aggregation transaction completes
+        for (final TransactionStatus status : transactions) {
+            verify(status, never()).setRollbackOnly();
+        }
+        
+        partitionedAggregation.complete(false);
+        for (final TransactionStatus status : transactions) {
+            verify(status).setRollbackOnly();
+        }
+    }
+
+    @Test
+    public void testFlushFailureFailsAwaitProcessed() {
+        failFlush = true;
+        final PartitionedEventAggregation partitionedAggregation = new PartitionedEventAggregation(
+                executorService, transactionOperations, Arrays.asList(String.class, Integer.class), 2, 10);
+        
+        try {
+            partitionedAggregation.awaitProcessed();
+            fail("awaitProcessed should fail when a partition fails to flush");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("flush failed", e.getCause().getMessage());
+        }
+        
+        partitionedAggregation.complete(false);
+        assertEquals(2, transactions.size());
+        for (final TransactionStatus status : transactions) {
+            verify(status).setRollbackOnly();
+        }
+    }
+}
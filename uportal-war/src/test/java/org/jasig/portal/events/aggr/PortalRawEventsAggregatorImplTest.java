@@ -24,6 +24,14 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.persistence.EntityManager;
 
 import org.jasig.portal.IPortalInfoProvider;
@@ -152,6 +160,108 @@ public class PortalRawEventsAggregatorImplTest {
         this.portalEventAggregator.setEventAggregationBatchSize(1000);
     }
     
+    @Test
+    public void aggregateRawEventsPartitionCommitFailureCountedOnce()  throws Exception {
+        final ThreadLocal<Boolean> failCommit = new ThreadLocal<Boolean>();
+        when(transactionOperations.execute(any(TransactionCallback.class))).then(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final TransactionStatus status = mock(TransactionStatus.class);
+                failCommit.remove();
+                final Object result = ((TransactionCallback<Object>)invocation.getArguments()[0]).doInTransaction(status);
+                
+                //Simulate a partition transaction that fails on commit
+                if (Boolean.TRUE.equals(failCommit.get())) {
+                    failCommit.remove();
+                    throw new IllegalStateException("Commit failed");
+                }
+                return result;
+            }
+        });
+        when(clusterLockService.isLockOwner(PortalRawEventsAggregator.AGGREGATION_LOCK_NAME)).thenReturn(true);
+        when(portalEventDimensionPopulator.isCheckedDimensions()).thenReturn(true);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true)).thenReturn(eventAggregatorStatus);
+        when(portalInfoProvider.getUniqueServerName()).thenReturn("serverName_abcd");
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(1325881376117l));
+        
+        //Raw events that are not yet marked as aggregated, only cleared if the RawTX commits
+        final List<PortalEvent> rawEvents = new ArrayList<PortalEvent>();
+        rawEvents.add(new MockPortalEvent(this, "serverName", "eventSessionId", person));
+        when(portalEventDao.aggregatePortalEvents(any(DateTime.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                for (final PortalEvent event : rawEvents) {
+                    ((Function<PortalEvent, Boolean>)invocation.getArguments()[3]).apply(event);
+                }
+                return true;
+            }
+        });
+        when(eventSessionDao.getEventSession(any(PortalEvent.class))).thenReturn(eventSession);
+        
+        final CountingAggregator countingAggregator = new CountingAggregator();
+        final FailingCommitAggregator failingCommitAggregator = new FailingCommitAggregator(failCommit);
+        final Set<IPortalEventAggregator<PortalEvent>> aggregators = new LinkedHashSet<IPortalEventAggregator<PortalEvent>>();
+        aggregators.add(countingAggregator);
+        aggregators.add(failingCommitAggregator);
+        
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            this.portalEventAggregator.setPortalEventAggregators(aggregators);
+            this.portalEventAggregator.setAggregationExecutor(executorService);
+            this.portalEventAggregator.setAggregationPartitions(2);
+            
+            //Run aggregation twice, the second run must not see the events of the first
+            for (int run = 0; run < 2; run++) {
+                final EventProcessingResult result = portalEventAggregator.doAggregateRawEvents();
+                assertNotNull(result);
+                assertEquals(run == 0 ? 1 : 0, result.getProcessed());
+                rawEvents.clear();
+            }
+            
+            assertEquals(1, countingAggregator.count.get());
+            assertEquals(1, failingCommitAggregator.count.get());
+        }
+        finally {
+            executorService.shutdownNow();
+            this.portalEventAggregator.setAggregationPartitions(1);
+            this.portalEventAggregator.setAggregationExecutor(null);
+            this.portalEventAggregator.setPortalEventAggregators(new LinkedHashSet<IPortalEventAggregator<PortalEvent>>());
+        }
+    }
+    
+    private static class CountingAggregator implements SimplePortalEventAggregator<PortalEvent> {
+        protected final AtomicInteger count = new AtomicInteger();
+        
+        @Override
+        public boolean supports(Class<? extends PortalEvent> type) {
+            return true;
+        }
+
+        @Override
+        public boolean supports(PortalEvent event) {
+            return true;
+        }
+
+        @Override
+        public void aggregateEvent(PortalEvent e, EventSession eventSession) {
+            this.count.incrementAndGet();
+        }
+    }
+    
+    private static class FailingCommitAggregator extends CountingAggregator {
+        private final ThreadLocal<Boolean> failCommit;
+        
+        public FailingCommitAggregator(ThreadLocal<Boolean> failCommit) {
+            this.failCommit = failCommit;
+        }
+
+        @Override
+        public void aggregateEvent(PortalEvent e, EventSession eventSession) {
+            super.aggregateEvent(e, eventSession);
+            this.failCommit.set(true);
+        }
+    }
+    
     private static class MockPortalEvent extends PortalEvent {
         public MockPortalEvent(Object source, String serverName, String eventSessionId, IPerson person) {
             super(new MockPortalEventBuilder(source, serverName, eventSessionId, person));
@@ -19,11 +19,19 @@
 
 package org.jasig.portal.events.aggr.login;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 import java.util.Collections;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+
+import javax.naming.CompositeName;
 
 import org.apache.commons.lang.RandomStringUtils;
+import org.jasig.portal.concurrency.CallableWithoutResult;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.AggregationIntervalInfo;
 import org.jasig.portal.events.aggr.BaseAggregationPrivateDao;
@@ -31,6 +39,10 @@ import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.JpaBaseAggregationDaoTest;
 import org.jasig.portal.events.aggr.TimeDimension;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.groups.IEntityGroup;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -81,4 +93,80 @@ public class JpaLoginAggregationDaoTest
         final LoginAggregationImpl aggr = loginAggregationDao.createAggregation(key);
         return Collections.<LoginAggregationKey, LoginAggregationImpl>singletonMap(key, aggr);
     }
+
+    @Test
+    public void testEstimatedUniqueLoginsAcrossTransactions() throws Exception {
+        final IEntityGroup entityGroupA = mock(IEntityGroup.class);
+        when(entityGroupA.getServiceName()).thenReturn(new CompositeName("local"));
+        when(entityGroupA.getName()).thenReturn("Group A");
+        when(compositeGroupService.findGroup("local.0")).thenReturn(entityGroupA);
+        
+        final DateTime instant = new DateTime(1326734644000l, DateTimeZone.UTC); //just a random time
+        populateDateTimeDimensions(instant.minusHours(1), instant.plusHours(1), null);
+        
+        //Count the first 50 users in a new aggregation
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final AggregatedGroupMapping groupA = aggregatedGroupLookupDao.getGroupMapping("local.0");
+                final AggregationIntervalInfo fiveMinuteInfo = aggregationIntervalHelper.getIntervalInfo(AggregationInterval.FIVE_MINUTE, instant);
+                
+                final LoginAggregationImpl aggr = createAggregations(fiveMinuteInfo, groupA).values().iterator().next();
+                countUsers(aggr, 0, 50);
+                loginAggregationDao.updateAggregation(aggr);
+            }
+        });
+        
+        //Count 50 more users in the reloaded aggregation, the sketch must include the users from the first transaction
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final LoginAggregationImpl aggr = getFiveMinuteAggregation(instant);
+                assertEquals(50, aggr.getUniqueLoginCount(), 2);
+                
+                countUsers(aggr, 50, 100);
+                loginAggregationDao.updateAggregation(aggr);
+            }
+        });
+        
+        final int uniqueLoginCount = this.executeInTransaction(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                final LoginAggregationImpl aggr = getFiveMinuteAggregation(instant);
+                assertEquals(100, aggr.getUniqueLoginCount(), 4);
+                assertEquals(aggr.getUniqueLoginCount(), aggr.getUniqueLoginSketch().getCardinality());
+                
+                //Users counted in earlier transactions are not counted again
+                countUsers(aggr, 0, 100);
+                loginAggregationDao.updateAggregation(aggr);
+                return aggr.getUniqueLoginCount();
+            }
+        });
+        
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final LoginAggregationImpl aggr = getFiveMinuteAggregation(instant);
+                assertEquals(uniqueLoginCount, aggr.getUniqueLoginCount());
+                assertEquals(uniqueLoginCount, aggr.getUniqueLoginSketch().getCardinality());
+                assertEquals(200, aggr.getLoginCount());
+            }
+        });
+    }
+    
+    private void countUsers(LoginAggregationImpl aggr, int start, int end) {
+        for (int i = start; i < end; i++) {
+            aggr.countUser("user" + i, 10);
+        }
+    }
+    
+    private LoginAggregationImpl getFiveMinuteAggregation(DateTime instant) {
+        final AggregationIntervalInfo fiveMinuteInfo = aggregationIntervalHelper.getIntervalInfo(AggregationInterval.FIVE_MINUTE, instant);
+        final Map<LoginAggregationKey, LoginAggregationImpl> aggrs = loginAggregationDao.getAggregationsForInterval(
+                fiveMinuteInfo.getDateDimension(), 
+                fiveMinuteInfo.getTimeDimension(), 
+                fiveMinuteInfo.getAggregationInterval());
+        assertEquals(1, aggrs.size());
+        return aggrs.values().iterator().next();
+    }
 }
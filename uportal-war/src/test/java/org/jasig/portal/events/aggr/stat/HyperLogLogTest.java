@@ -0,0 +1,121 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for HyperLogLog.
+ */
+public class HyperLogLogTest {
+    
+    @Test
+    public void testPrecisionForError() {
+        assertEquals(12, HyperLogLog.getPrecision(0.02));
+        assertEquals(14, HyperLogLog.getPrecision(0.01));
+        assertEquals(HyperLogLog.MIN_PRECISION, HyperLogLog.getPrecision(0.9));
+        assertEquals(HyperLogLog.MAX_PRECISION, HyperLogLog.getPrecision(0.0001));
+        
+        final HyperLogLog sketch = new HyperLogLog(HyperLogLog.getPrecision(0.02));
+        assertTrue(sketch.getRelativeError() <= 0.02);
+    }
+    
+    @Test
+    public void testCardinalityAccuracy() {
+        final HyperLogLog sketch = new HyperLogLog(12);
+        assertEquals(0, sketch.getCardinality());
+        
+        for (final int cardinality : new int[] { 10, 1000, 10000, 200000 }) {
+            final HyperLogLog counted = new HyperLogLog(12);
+            for (int i = 0; i < cardinality; i++) {
+                counted.offer("user" + i);
+            }
+            
+            //Three standard errors
+            final double allowedError = Math.max(1, cardinality * counted.getRelativeError() * 3);
+            assertEquals("cardinality " + cardinality, cardinality, counted.getCardinality(), allowedError);
+        }
+    }
+    
+    @Test
+    public void testDuplicatesIgnored() {
+        final HyperLogLog sketch = new HyperLogLog(10);
+        for (int i = 0; i < 1000; i++) {
+            sketch.offer("user" + i);
+        }
+        final long cardinality = sketch.getCardinality();
+        
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(sketch.offer("user" + i));
+        }
+        assertEquals(cardinality, sketch.getCardinality());
+    }
+    
+    @Test
+    public void testEncodeRoundTrip() {
+        final HyperLogLog sparse = new HyperLogLog(14);
+        for (int i = 0; i < 100; i++) {
+            sparse.offer("user" + i);
+        }
+        final byte[] sparseData = sparse.toByteArray();
+        assertTrue("few registers must be encoded sparsely: " + sparseData.length, sparseData.length < 500);
+        assertEquals(sparse, HyperLogLog.fromByteArray(sparseData));
+        assertEquals(sparse.getCardinality(), HyperLogLog.fromByteArray(sparseData).getCardinality());
+        
+        final HyperLogLog dense = new HyperLogLog(10);
+        for (int i = 0; i < 50000; i++) {
+            dense.offer("user" + i);
+        }
+        final byte[] denseData = dense.toByteArray();
+        assertEquals(1024 + 3, denseData.length);
+        assertEquals(dense, HyperLogLog.fromByteArray(denseData));
+        assertEquals(dense.getCardinality(), HyperLogLog.fromByteArray(denseData).getCardinality());
+    }
+    
+    @Test
+    public void testMerge() {
+        final HyperLogLog first = new HyperLogLog(12);
+        final HyperLogLog second = new HyperLogLog(12);
+        final HyperLogLog all = new HyperLogLog(12);
+        for (int i = 0; i < 30000; i++) {
+            //Overlapping halves
+            if (i < 20000) {
+                first.offer("user" + i);
+            }
+            if (i >= 10000) {
+                second.offer("user" + i);
+            }
+            all.offer("user" + i);
+        }
+        
+        first.merge(second);
+        assertEquals(all, first);
+        assertEquals(all.getCardinality(), first.getCardinality());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecision() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+}
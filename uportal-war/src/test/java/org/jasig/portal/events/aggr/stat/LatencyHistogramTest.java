@@ -0,0 +1,127 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+    
+    @Test
+    public void testBucketBoundaries() {
+        int previousIndex = -1;
+        for (long value = 0; value < 100000; value++) {
+            final int index = LatencyHistogram.getBucketIndex(value);
+            assertTrue("bucket index must never decrease: " + value, index >= previousIndex);
+            assertTrue("bucket indexes must be contiguous: " + value, index - previousIndex <= 1);
+            previousIndex = index;
+        }
+        
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_VALUE));
+    }
+    
+    @Test
+    public void testPercentileAccuracy() {
+        final Random r = new Random(0);
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            //Log-normal-ish distribution between 1ms and ~10s
+            values[i] = (long) Math.exp(13.8 + r.nextDouble() * 9.2);
+            histogram.recordValue(values[i]);
+        }
+        Arrays.sort(values);
+        
+        assertEquals(values.length, histogram.getTotalCount());
+        for (final double percentile : new double[] { 1, 50, 90, 95, 99, 99.9, 100 }) {
+            final long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            final double actual = histogram.getValueAtPercentile(percentile);
+            assertEquals("p" + percentile, expected, actual, expected * 0.035);
+        }
+    }
+    
+    @Test
+    public void testSmallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.recordValue(i);
+        }
+        
+        assertEquals(5, histogram.getValueAtPercentile(50), 0);
+        assertEquals(10, histogram.getValueAtPercentile(95), 0);
+        assertEquals(1, histogram.getValueAtPercentile(0), 0);
+    }
+    
+    @Test
+    public void testEmptyHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertTrue(Double.isNaN(histogram.getValueAtPercentile(50)));
+        assertEquals(histogram, LatencyHistogram.fromByteArray(histogram.toByteArray()));
+        assertEquals(0, LatencyHistogram.fromByteArray(null).getTotalCount());
+    }
+    
+    @Test
+    public void testEncodingRoundTrip() {
+        final Random r = new Random(1);
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.recordValue(r.nextInt(1000000000));
+        }
+        histogram.recordValue(-5);
+        histogram.recordValue(Double.MAX_VALUE);
+        
+        final byte[] data = histogram.toByteArray();
+        final LatencyHistogram decoded = LatencyHistogram.fromByteArray(data);
+        assertEquals(histogram, decoded);
+        assertEquals(histogram.hashCode(), decoded.hashCode());
+        assertEquals(histogram.getValueAtPercentile(99), decoded.getValueAtPercentile(99), 0);
+        assertEquals(LatencyHistogram.MAX_VALUE, decoded.getValueAtPercentile(100), LatencyHistogram.MAX_VALUE * 0.035);
+    }
+    
+    @Test
+    public void testMerge() {
+        final Random r = new Random(2);
+        final LatencyHistogram combined = new LatencyHistogram();
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            final int value = r.nextInt(100000000);
+            combined.recordValue(value);
+            if (i % 3 == 0) {
+                first.recordValue(value);
+            }
+            else {
+                second.recordValue(value);
+            }
+        }
+        
+        first.merge(second);
+        assertEquals(combined, first);
+        assertEquals(combined.getValueAtPercentile(95), first.getValueAtPercentile(95), 0);
+    }
+}
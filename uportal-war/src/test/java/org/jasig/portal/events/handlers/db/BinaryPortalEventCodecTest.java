@@ -0,0 +1,106 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.jasig.portal.events.LoginEvent;
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.PortletRenderExecutionEvent;
+import org.jasig.portal.events.TestEventFactory;
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.security.SystemPerson;
+import org.jasig.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Unit tests for BinaryPortalEventCodec.
+ */
+public class BinaryPortalEventCodecTest {
+    private final BinaryPortalEventCodec codec = new BinaryPortalEventCodec();
+    private ObjectMapper mapper;
+    
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+    }
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        final LoginEvent loginEvent = TestEventFactory.newLoginEvent(this, "example.com", "1234567890123_system_AAAAAAAAAAA", SystemPerson.INSTANCE, 
+                ImmutableSet.of("Student"), 
+                ImmutableMap.of("username", (List<String>)ImmutableList.of("system"), "roles", (List<String>)ImmutableList.of("student", "employee")));
+        assertRoundTrip(loginEvent, LoginEvent.class);
+        
+        final PortletRenderExecutionEvent renderEvent = newRenderEvent("fname");
+        assertRoundTrip(renderEvent, PortletRenderExecutionEvent.class);
+        assertRoundTrip(renderEvent, PortalEvent.class);
+    }
+    
+    @Test
+    public void testSmallerThanJson() throws Exception {
+        final PortletRenderExecutionEvent renderEvent = newRenderEvent("fname");
+        
+        final int jsonLength = mapper.writeValueAsBytes(renderEvent).length;
+        final int binaryLength = codec.encode(renderEvent).length;
+        assertTrue(binaryLength + " should be less than " + jsonLength, binaryLength < jsonLength);
+    }
+    
+    @Test
+    public void testStringsInterned() throws Exception {
+        final PortletRenderExecutionEvent first = codec.decode(codec.encode(newRenderEvent(new String("fname"))), PortletRenderExecutionEvent.class);
+        final PortletRenderExecutionEvent second = codec.decode(codec.encode(newRenderEvent(new String("fname"))), PortletRenderExecutionEvent.class);
+        
+        assertSame(first.getFname(), second.getFname());
+        assertSame(first.getUserName(), second.getUserName());
+        assertSame(first.getServerId(), second.getServerId());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnsupportedVersion() throws Exception {
+        final byte[] data = codec.encode(newRenderEvent("fname"));
+        data[0] = BinaryPortalEventCodec.FORMAT_VERSION + 1;
+        codec.decode(data, PortalEvent.class);
+    }
+    
+    private PortletRenderExecutionEvent newRenderEvent(String fname) {
+        return TestEventFactory.newPortletRenderExecutionEvent(this, "example.com", "1234567890123_system_AAAAAAAAAAA", SystemPerson.INSTANCE,
+                new MockPortletWindowId("pw1"), fname, 12345, ImmutableMap.<String, List<String>>of());
+    }
+    
+    private void assertRoundTrip(PortalEvent event, Class<? extends PortalEvent> type) throws Exception {
+        final PortalEvent decoded = codec.decode(codec.encode(event), type);
+        
+        assertEquals(event.getClass(), decoded.getClass());
+        assertEquals(mapper.writeValueAsString(event), mapper.writeValueAsString(decoded));
+    }
+}
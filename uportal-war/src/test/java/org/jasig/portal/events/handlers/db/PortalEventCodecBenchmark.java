@@ -0,0 +1,153 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.TestEventFactory;
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.security.SystemPerson;
+import org.jasig.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * JMH benchmark comparing the JSON and {@link PortalEventDataFormat#SMILE} encodings used by
+ * {@link JpaPortalEventStore} to persist raw events. Measures encode and decode throughput over a
+ * batch of {@link #batchSize} portlet render events, the stored size of each batch is printed
+ * during setup.
+ * <p/>
+ * Not run as part of the build, run with: 
+ * <pre>
+ * mvn test-compile
+ * mvn exec:java -Dexec.mainClass=org.jasig.portal.events.handlers.db.PortalEventCodecBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PortalEventCodecBenchmark {
+    @Param({"JSON", "SMILE"})
+    public PortalEventDataFormat format;
+    
+    @Param({"1000"})
+    public int batchSize;
+    
+    private ObjectMapper mapper;
+    private BinaryPortalEventCodec binaryCodec;
+    private List<PortalEvent> events;
+    private List<String> encodedJson;
+    private List<byte[]> encodedBinary;
+    
+    @Setup
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        this.mapper = omfb.getObject();
+        this.binaryCodec = new BinaryPortalEventCodec();
+        
+        this.events = new ArrayList<PortalEvent>(this.batchSize);
+        this.encodedJson = new ArrayList<String>(this.batchSize);
+        this.encodedBinary = new ArrayList<byte[]>(this.batchSize);
+        
+        long totalBytes = 0;
+        for (int i = 0; i < this.batchSize; i++) {
+            final String fname = "portlet-" + (i % 20);
+            final PortalEvent event = TestEventFactory.newPortletRenderExecutionEvent(this, "portal" + (i % 4) + ".example.com", 
+                    "1234567890123_system_" + (i % 50), SystemPerson.INSTANCE, new MockPortletWindowId("pw" + i), fname, 
+                    i * 1000, ImmutableMap.<String, List<String>>of("action", ImmutableList.of("view")));
+            this.events.add(event);
+            
+            if (this.format == PortalEventDataFormat.SMILE) {
+                final byte[] data = this.binaryCodec.encode(event);
+                this.encodedBinary.add(data);
+                totalBytes += data.length;
+            }
+            else {
+                final String data = this.mapper.writeValueAsString(event);
+                this.encodedJson.add(data);
+                totalBytes += data.getBytes("UTF-8").length;
+            }
+        }
+        
+        System.out.println(this.format + " average bytes per event: " + (totalBytes / this.batchSize));
+    }
+    
+    @Benchmark
+    public int encode() throws Exception {
+        int size = 0;
+        for (final PortalEvent event : this.events) {
+            if (this.format == PortalEventDataFormat.SMILE) {
+                size += this.binaryCodec.encode(event).length;
+            }
+            else {
+                size += this.mapper.writeValueAsString(event).length();
+            }
+        }
+        return size;
+    }
+    
+    @Benchmark
+    public int decode() throws Exception {
+        int count = 0;
+        if (this.format == PortalEventDataFormat.SMILE) {
+            for (final byte[] data : this.encodedBinary) {
+                count += this.binaryCodec.decode(data, PortalEvent.class) != null ? 1 : 0;
+            }
+        }
+        else {
+            for (final String data : this.encodedJson) {
+                count += this.mapper.readValue(data, PortalEvent.class) != null ? 1 : 0;
+            }
+        }
+        return count;
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+            .include(PortalEventCodecBenchmark.class.getSimpleName())
+            .build();
+        
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.pags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.groups.pags.testers.AlwaysTrueTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsTester;
+import org.jasig.portal.groups.pags.testers.ValueMissingTester;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.provider.PersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for PersonAttributesGroupEvaluator.
+ */
+public class PersonAttributesGroupEvaluatorTest {
+    private final Map<String, GroupDefinition> groupDefinitions = new LinkedHashMap<String, GroupDefinition>();
+    private IPerson person;
+    
+    @Before
+    public void setUp() {
+        person = new PersonImpl();
+        person.setUserName("testuser");
+        person.setAttribute("affiliation", Arrays.<Object>asList("student", "member"));
+        person.setAttribute("department", "chemistry");
+    }
+    
+    @Test
+    public void testGroupSemantics() {
+        addGroup("everyone", new AlwaysTrueTester("any", "any"));
+        addGroup("students", new StringEqualsTester("affiliation", "student"));
+        addGroup("staff", new StringEqualsTester("affiliation", "staff"));
+        addGroup("noPhone", new ValueMissingTester("phone", null));
+        //No tests, never contains a person
+        addGroup("empty");
+        
+        final PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(groupDefinitions);
+        assertFalse(evaluator.hasVolatileGroups());
+        assertEquals(new HashSet<String>(Arrays.asList("everyone", "students", "noPhone")), evaluator.getGroupKeys(person));
+        
+        for (final GroupDefinition groupDefinition : groupDefinitions.values()) {
+            assertEquals(groupDefinition.getKey(), groupDefinition.contains(person), 
+                    evaluator.getGroupKeys(person).contains(groupDefinition.getKey()));
+        }
+    }
+    
+    @Test
+    public void testAncestorsMustPass() {
+        final GroupDefinition students = addGroup("students", new StringEqualsTester("affiliation", "student"));
+        final GroupDefinition staff = addGroup("staff", new StringEqualsTester("affiliation", "staff"));
+        final GroupDefinition chemistry = addGroup("chemistry", new StringEqualsTester("department", "chemistry"));
+        addGroup("chemistryStudents", new StringEqualsTester("department", "chemistry"));
+        addGroup("chemistryStaff", new StringEqualsTester("department", "chemistry"));
+        
+        students.addMember("chemistryStudents");
+        staff.addMember("chemistryStaff");
+        //Grandparent of chemistryStudents
+        chemistry.addMember("students");
+        
+        final PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(groupDefinitions);
+        assertEquals(new HashSet<String>(Arrays.asList("students", "chemistry", "chemistryStudents")), evaluator.getGroupKeys(person));
+    }
+    
+    @Test
+    public void testMembershipCycle() {
+        final GroupDefinition a = addGroup("a", new StringEqualsTester("department", "chemistry"));
+        final GroupDefinition b = addGroup("b", new StringEqualsTester("department", "chemistry"));
+        a.addMember("b");
+        b.addMember("a");
+        
+        final PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(groupDefinitions);
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")), evaluator.getGroupKeys(person));
+    }
+    
+    @Test
+    public void testSharedTestersEvaluatedOnce() {
+        final AtomicInteger count = new AtomicInteger();
+        final IPerson countingPerson = new PersonImpl() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Object[] getAttributeValues(String key) {
+                if ("department".equals(key)) {
+                    count.incrementAndGet();
+                }
+                return super.getAttributeValues(key);
+            }
+        };
+        countingPerson.setAttribute("department", "chemistry");
+        
+        addGroup("chemistry1", new StringEqualsTester("department", "chemistry"));
+        addGroup("chemistry2", new StringEqualsTester("department", "chemistry"));
+        //Required attribute is missing, tester is never called
+        addGroup("phone", new StringEqualsTester("phone", "555-1234"));
+        
+        final PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(groupDefinitions);
+        assertEquals(new HashSet<String>(Arrays.asList("chemistry1", "chemistry2")), evaluator.getPureGroupKeys(countingPerson));
+        //One attribute presence check and one shared test
+        assertEquals(2, count.get());
+    }
+    
+    @Test
+    public void testCustomTesterSubclassesNotShared() {
+        //Same class, attribute and test value but different configuration
+        addGroup("chemistry", new MatchingTester("department", "chemistry", true));
+        addGroup("notChemistry", new MatchingTester("department", "chemistry", false));
+        
+        final PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(groupDefinitions);
+        assertEquals(Collections.singleton("chemistry"), evaluator.getGroupKeys(person));
+    }
+    
+    @Test
+    public void testVolatileGroups() {
+        addGroup("students", new StringEqualsTester("affiliation", "student"));
+        addGroup("chemistry", new StringEqualsTester("department", "chemistry"));
+        //Not an attribute tester, the result can't be cached
+        addGroup("custom", new IPersonTester() {
+            @Override
+            public boolean test(IPerson person) {
+                return true;
+            }
+        }).addMember("students");
+        
+        final PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(groupDefinitions);
+        assertTrue(evaluator.hasVolatileGroups());
+        //students depends on its custom parent
+        assertEquals(Collections.singleton("chemistry"), evaluator.getPureGroupKeys(person));
+        assertEquals(new HashSet<String>(Arrays.asList("custom", "students")), evaluator.getVolatileGroupKeys(person));
+        
+        assertTrue(evaluator.isVolatileGroup("students"));
+        assertFalse(evaluator.isVolatileGroup("chemistry"));
+        assertFalse(evaluator.isVolatileGroup("unknown"));
+        assertTrue(evaluator.isMember(person, "students"));
+        assertFalse(evaluator.isMember(person, "unknown"));
+    }
+    
+    private GroupDefinition addGroup(String key, IPersonTester... testers) {
+        final GroupDefinition groupDefinition = new GroupDefinition();
+        groupDefinition.setKey(key);
+        if (testers.length > 0) {
+            final TestGroup testGroup = new TestGroup();
+            for (final IPersonTester tester : testers) {
+                testGroup.addTest(tester);
+            }
+            groupDefinition.addTestGroup(testGroup);
+        }
+        groupDefinitions.put(key, groupDefinition);
+        return groupDefinition;
+    }
+    
+    private static final class MatchingTester extends StringEqualsTester {
+        private final boolean match;
+        
+        public MatchingTester(String attribute, String test, boolean match) {
+            super(attribute, test);
+            this.match = match;
+        }
+        
+        @Override
+        public boolean test(String att) {
+            return super.test(att) == match;
+        }
+    }
+}
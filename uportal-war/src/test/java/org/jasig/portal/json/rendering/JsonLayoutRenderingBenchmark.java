@@ -0,0 +1,310 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.json.rendering;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.jasig.portal.IUserPreferencesManager;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.layout.IUserLayoutManager;
+import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
+import org.jasig.portal.layout.node.UserLayoutChannelDescription;
+import org.jasig.portal.layout.node.UserLayoutFolderDescription;
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.portlet.om.IPortletWindow;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.IdentitySwapperManager;
+import org.jasig.portal.url.IPortalUrlBuilder;
+import org.jasig.portal.url.IPortalUrlProvider;
+import org.jasig.portal.url.IPortletUrlBuilder;
+import org.jasig.portal.url.xml.XsltPortalUrlProvider;
+import org.jasig.portal.user.IUserInstance;
+import org.jasig.portal.user.IUserInstanceManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.MessageSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+/**
+ * JMH benchmark comparing the XSLT based layout JSON rendering with {@link StreamingJsonLayoutComponent}.
+ * The XSLT case runs the DLMMobileColumns structure and JsonLayout theme stylesheets over the layout
+ * document, the streaming case renders the same layout through the layout manager API. Both produce
+ * the layout JSON with placeholders for the portlet link and new item count. Portal services are
+ * mocked identically for both.
+ * <p/>
+ * Not run as part of the build, run with:
+ * <pre>
+ * mvn test-compile
+ * mvn exec:java -Dexec.mainClass=org.jasig.portal.json.rendering.JsonLayoutRenderingBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonLayoutRenderingBenchmark {
+    @Param({"5", "20"})
+    public int tabCount;
+
+    private MockHttpServletRequest request;
+    private Document layout;
+    private Templates structureTemplates;
+    private Templates themeTemplates;
+    private XsltPortalUrlProvider xsltPortalUrlProvider;
+    private StreamingJsonLayoutComponent streamingComponent;
+
+    @Setup
+    public void setup() throws Exception {
+        this.request = new MockHttpServletRequest();
+        this.request.setContextPath("/uPortal");
+
+        //Header and footer with 2 portlets, each tab has 2 columns of 5 portlets
+        final StringBuilder layoutXml = new StringBuilder("<layout><folder ID=\"root\" name=\"root\" type=\"root\" hidden=\"false\">");
+        int nodeId = 1;
+        layoutXml.append("<folder ID=\"s0\" name=\"Header\" type=\"header\" hidden=\"false\">");
+        for (int portlet = 0; portlet < 2; portlet++) {
+            appendChannel(layoutXml, nodeId++, "header" + portlet);
+        }
+        layoutXml.append("</folder>");
+        for (int tab = 0; tab < this.tabCount; tab++) {
+            layoutXml.append("<folder ID=\"s").append(tab + 1).append("\" name=\"Tab ").append(tab).append("\" type=\"regular\" hidden=\"false\">");
+            for (int column = 0; column < 2; column++) {
+                layoutXml.append("<folder ID=\"s").append(1000 + tab * 2 + column).append("\" name=\"Column\" type=\"regular\" hidden=\"false\">");
+                for (int portlet = 0; portlet < 5; portlet++) {
+                    appendChannel(layoutXml, nodeId++, "portlet" + (portlet + column * 5));
+                }
+                layoutXml.append("</folder>");
+            }
+            layoutXml.append("</folder>");
+        }
+        layoutXml.append("<folder ID=\"s9999\" name=\"Footer\" type=\"footer\" hidden=\"false\">");
+        for (int portlet = 0; portlet < 2; portlet++) {
+            appendChannel(layoutXml, nodeId++, "footer" + portlet);
+        }
+        layoutXml.append("</folder></folder></layout>");
+
+        this.layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(layoutXml.toString())));
+
+        //Portal services shared by both renderers, stubs are used for services called per portlet as mocks record every invocation
+        final Map<String, IPortletWindow> portletWindows = new HashMap<String, IPortletWindow>();
+        final IPortletWindowRegistry portletWindowRegistry = stub(IPortletWindowRegistry.class, "getOrCreateDefaultPortletWindowByLayoutNodeId", new StubAnswer() {
+            @Override
+            public Object answer(Object[] args) {
+                final String layoutNodeId = (String) args[1];
+                IPortletWindow portletWindow = portletWindows.get(layoutNodeId);
+                if (portletWindow == null) {
+                    portletWindow = stub(IPortletWindow.class, "getPortletWindowId", constant(new MockPortletWindowId("w" + layoutNodeId)));
+                    portletWindows.put(layoutNodeId, portletWindow);
+                }
+                return portletWindow;
+            }
+        });
+        final IPortletUrlBuilder portletUrlBuilder = stub(IPortletUrlBuilder.class, "toString", constant("portletUrlBuilder"));
+        final IPortalUrlBuilder portalUrlBuilder = stub(IPortalUrlBuilder.class, 
+                "getPortletUrlBuilder", constant(portletUrlBuilder),
+                "getUrlString", constant("/uPortal/p/portlet.u1l1n1/detached/render.uP"));
+        final IPortalUrlProvider portalUrlProvider = stub(IPortalUrlProvider.class, "getPortalUrlBuilderByLayoutNode", constant(portalUrlBuilder));
+
+        //XSLT pipeline
+        final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+        final ClassLoader classLoader = this.getClass().getClassLoader();
+        this.structureTemplates = transformerFactory.newTemplates(new StreamSource(classLoader.getResource("layout/structure/mobile-column/mobile-column.xsl").toString()));
+        this.themeTemplates = transformerFactory.newTemplates(new StreamSource(classLoader.getResource("layout/theme/json/json.xsl").toString()));
+        this.xsltPortalUrlProvider = new XsltPortalUrlProvider();
+        this.xsltPortalUrlProvider.setPortalUrlProvider(portalUrlProvider);
+        this.xsltPortalUrlProvider.setPortletWindowRegistry(portletWindowRegistry);
+
+        //Streaming component, layout manager backed by the same document
+        final Map<String, IUserLayoutNodeDescription> nodes = new HashMap<String, IUserLayoutNodeDescription>();
+        final Map<String, List<String>> childIds = new HashMap<String, List<String>>();
+        indexNodes((Element) this.layout.getDocumentElement().getFirstChild(), nodes, childIds);
+
+        final IUserLayoutManager userLayoutManager = stub(IUserLayoutManager.class, 
+                "getRootFolderId", constant("root"),
+                "getCacheKey", constant("layout1"),
+                "getNode", new StubAnswer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        return nodes.get(args[0]);
+                    }
+                },
+                "getChildIds", new StubAnswer() {
+                    @Override
+                    public Object answer(Object[] args) {
+                        final List<String> children = childIds.get(args[0]);
+                        return Collections.enumeration(children != null ? children : Collections.<String>emptyList());
+                    }
+                });
+
+        final IUserPreferencesManager preferencesManager = mock(IUserPreferencesManager.class);
+        when(preferencesManager.getUserLayoutManager()).thenReturn(userLayoutManager);
+        final IPerson person = mock(IPerson.class);
+        when(person.getUserName()).thenReturn("student");
+        final LocaleManager localeManager = mock(LocaleManager.class);
+        when(localeManager.getLocales()).thenReturn(new Locale[] { Locale.US });
+        final IUserInstance userInstance = mock(IUserInstance.class);
+        when(userInstance.getPerson()).thenReturn(person);
+        when(userInstance.getLocaleManager()).thenReturn(localeManager);
+        when(userInstance.getPreferencesManager()).thenReturn(preferencesManager);
+        final IUserInstanceManager userInstanceManager = mock(IUserInstanceManager.class);
+        when(userInstanceManager.getUserInstance(this.request)).thenReturn(userInstance);
+
+        this.streamingComponent = new StreamingJsonLayoutComponent();
+        this.streamingComponent.setUserInstanceManager(userInstanceManager);
+        this.streamingComponent.setPortletWindowRegistry(portletWindowRegistry);
+        this.streamingComponent.setPortalUrlProvider(portalUrlProvider);
+        this.streamingComponent.setIdentitySwapperManager(mock(IdentitySwapperManager.class));
+        this.streamingComponent.setMessageSource(mock(MessageSource.class));
+    }
+
+    /**
+     * Answer for a stubbed interface method
+     */
+    private interface StubAnswer {
+        Object answer(Object[] args);
+    }
+
+    private static StubAnswer constant(final Object value) {
+        return new StubAnswer() {
+            @Override
+            public Object answer(Object[] args) {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Implement the interface with the answers given as method name, {@link StubAnswer} pairs. Other
+     * methods return null.
+     */
+    private static <T> T stub(Class<T> type, Object... methodAnswers) {
+        final Map<String, StubAnswer> answers = new HashMap<String, StubAnswer>();
+        for (int i = 0; i < methodAnswers.length; i += 2) {
+            answers.put((String) methodAnswers[i], (StubAnswer) methodAnswers[i + 1]);
+        }
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                final StubAnswer answer = answers.get(method.getName());
+                return answer != null ? answer.answer(args) : null;
+            }
+        }));
+    }
+
+    private static void appendChannel(StringBuilder layoutXml, int nodeId, String fname) {
+        layoutXml.append("<channel ID=\"n").append(nodeId).append("\" fname=\"").append(fname)
+            .append("\" title=\"Portlet ").append(nodeId).append("\" description=\"Description of portlet ").append(nodeId)
+            .append("\" chanID=\"").append(nodeId).append("\" timeout=\"10000\" name=\"").append(fname).append("\" hidden=\"false\">")
+            .append("<parameter name=\"mobileIconUrl\" value=\"/icons/").append(fname).append(".png\"/></channel>");
+    }
+
+    private static void indexNodes(Element element, Map<String, IUserLayoutNodeDescription> nodes, Map<String, List<String>> childIds) {
+        final String id = element.getAttribute("ID");
+        if ("channel".equals(element.getNodeName())) {
+            nodes.put(id, new UserLayoutChannelDescription(element));
+            return;
+        }
+
+        nodes.put(id, new UserLayoutFolderDescription(element));
+        final List<String> children = new ArrayList<String>();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && !"parameter".equals(child.getNodeName())) {
+                children.add(((Element) child).getAttribute("ID"));
+                indexNodes((Element) child, nodes, childIds);
+            }
+        }
+        childIds.put(id, children);
+    }
+
+    @Benchmark
+    public int xslt() throws Exception {
+        final DOMResult structure = new DOMResult();
+        this.structureTemplates.newTransformer().transform(new DOMSource(this.layout), structure);
+
+        final Transformer themeTransformer = this.themeTemplates.newTransformer();
+        themeTransformer.setParameter(XsltPortalUrlProvider.XSLT_PORTAL_URL_PROVIDER, this.xsltPortalUrlProvider);
+        themeTransformer.setParameter(XsltPortalUrlProvider.CURRENT_REQUEST, this.request);
+        themeTransformer.setParameter("CONTEXT_PATH", "/uPortal");
+        themeTransformer.setParameter("USER_ID", "student");
+        themeTransformer.setParameter("USER_LANG", "en-US");
+        final StringWriter json = new StringWriter();
+        themeTransformer.transform(new DOMSource(structure.getNode()), new StreamResult(json));
+        return json.getBuffer().length();
+    }
+
+    @Benchmark
+    public int streaming() throws Exception {
+        final List<CharacterEvent> events = this.streamingComponent.renderLayout(this.request);
+        return events.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+            .include(JsonLayoutRenderingBenchmark.class.getSimpleName())
+            .build();
+
+        new Runner(options).run();
+    }
+}
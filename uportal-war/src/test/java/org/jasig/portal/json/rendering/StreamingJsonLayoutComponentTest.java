@@ -0,0 +1,267 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.json.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+
+import org.jasig.portal.IUserPreferencesManager;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletLinkPlaceholderEvent;
+import org.jasig.portal.character.stream.events.PortletPlaceholderEvent;
+import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.layout.IUserLayoutManager;
+import org.jasig.portal.layout.node.IUserLayoutChannelDescription;
+import org.jasig.portal.layout.node.IUserLayoutFolderDescription;
+import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
+import org.jasig.portal.layout.node.IUserLayoutNodeDescription.LayoutNodeType;
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.portlet.om.IPortletWindow;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.rendering.PipelineEventReader;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.IdentitySwapperManager;
+import org.jasig.portal.url.IPortalUrlBuilder;
+import org.jasig.portal.url.IPortalUrlProvider;
+import org.jasig.portal.url.IPortletUrlBuilder;
+import org.jasig.portal.url.UrlType;
+import org.jasig.portal.user.IUserInstance;
+import org.jasig.portal.user.IUserInstanceManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.MessageSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unit tests for StreamingJsonLayoutComponent.
+ */
+public class StreamingJsonLayoutComponentTest {
+    @Mock private IUserInstanceManager userInstanceManager;
+    @Mock private IUserInstance userInstance;
+    @Mock private IPerson person;
+    @Mock private LocaleManager localeManager;
+    @Mock private IUserPreferencesManager preferencesManager;
+    @Mock private IUserLayoutManager userLayoutManager;
+    @Mock private IPortletWindowRegistry portletWindowRegistry;
+    @Mock private IPortalUrlProvider portalUrlProvider;
+    @Mock private IdentitySwapperManager identitySwapperManager;
+    @Mock private MessageSource messageSource;
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private StreamingJsonLayoutComponent component;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        request.setContextPath("/uPortal");
+
+        when(userInstanceManager.getUserInstance(request)).thenReturn(userInstance);
+        when(userInstance.getPerson()).thenReturn(person);
+        when(userInstance.getLocaleManager()).thenReturn(localeManager);
+        when(userInstance.getPreferencesManager()).thenReturn(preferencesManager);
+        when(preferencesManager.getUserLayoutManager()).thenReturn(userLayoutManager);
+        when(person.getUserName()).thenReturn("student");
+        when(localeManager.getLocales()).thenReturn(new Locale[] { Locale.US });
+        when(userLayoutManager.getCacheKey()).thenReturn("layout1");
+        when(userLayoutManager.getRootFolderId()).thenReturn("root");
+        when(messageSource.getMessage(eq("Welcome"), any(Object[].class), eq("Welcome"), any(Locale.class))).thenReturn("Bienvenue");
+
+        addFolder("root", null, "root", "header", "u1l1s2", "s6", "footer");
+        addFolder("header", IUserLayoutFolderDescription.HEADER_TYPE, "Header", "h1");
+        addFolder("u1l1s2", IUserLayoutFolderDescription.REGULAR_TYPE, "Welcome", "u1l1s3");
+        addFolder("u1l1s3", IUserLayoutFolderDescription.REGULAR_TYPE, "Column", "n3", "n4", "n5");
+        addFolder("s6", IUserLayoutFolderDescription.REGULAR_TYPE, "Other", "n7");
+        addFolder("footer", IUserLayoutFolderDescription.FOOTER_TYPE, "Footer", "f1");
+
+        addChannel("h1", "login", "Login", null);
+        final IUserLayoutChannelDescription weather = addChannel("n3", "weather", "Weather", null);
+        when(weather.getParameterValue(StreamingJsonLayoutComponent.MOBILE_ICON_URL_PARAMETER)).thenReturn("/weather.png");
+        addChannel("n4", "admin", "Admin", StreamingJsonLayoutComponent.HIDE_FROM_MOBILE_PARAMETER);
+        addChannel("n5", "email", "Email", StreamingJsonLayoutComponent.BLOCK_IMPERSONATION_PARAMETER);
+        addChannel("n7", "news", "My \"News\"", null);
+        addChannel("f1", "about", "About", null);
+
+        when(portletWindowRegistry.getOrCreateDefaultPortletWindowByLayoutNodeId(any(MockHttpServletRequest.class), anyString())).thenAnswer(new Answer<IPortletWindow>() {
+            @Override
+            public IPortletWindow answer(InvocationOnMock invocation) throws Throwable {
+                final IPortletWindow portletWindow = mock(IPortletWindow.class);
+                when(portletWindow.getPortletWindowId()).thenReturn(new MockPortletWindowId("w" + invocation.getArguments()[1]));
+                return portletWindow;
+            }
+        });
+        when(portalUrlProvider.getPortalUrlBuilderByLayoutNode(any(MockHttpServletRequest.class), anyString(), eq(UrlType.RENDER))).thenAnswer(new Answer<IPortalUrlBuilder>() {
+            @Override
+            public IPortalUrlBuilder answer(InvocationOnMock invocation) throws Throwable {
+                final IPortalUrlBuilder portalUrlBuilder = mock(IPortalUrlBuilder.class);
+                when(portalUrlBuilder.getPortletUrlBuilder(any(MockPortletWindowId.class))).thenReturn(mock(IPortletUrlBuilder.class));
+                when(portalUrlBuilder.getUrlString()).thenReturn("/uPortal/p/" + invocation.getArguments()[1] + "/detached/render.uP");
+                return portalUrlBuilder;
+            }
+        });
+
+        component = new StreamingJsonLayoutComponent();
+        component.setUserInstanceManager(userInstanceManager);
+        component.setPortletWindowRegistry(portletWindowRegistry);
+        component.setPortalUrlProvider(portalUrlProvider);
+        component.setIdentitySwapperManager(identitySwapperManager);
+        component.setMessageSource(messageSource);
+    }
+
+    @Test
+    public void testRenderLayout() throws Exception {
+        final JsonNode json = render();
+
+        assertEquals("student", json.get("user").asText());
+        assertEquals("en-US", json.get("locale").asText());
+
+        final JsonNode layout = json.get("layout");
+        assertEquals(1, layout.get("header").get("portlets").size());
+        assertEquals("login", layout.get("header").get("portlets").get(0).get("fname").asText());
+        assertEquals("about", layout.get("footer").get("portlets").get(0).get("fname").asText());
+
+        final JsonNode folders = layout.get("folders");
+        assertEquals(2, folders.size());
+        assertEquals("u1l1s2", folders.get(0).get("id").asText());
+        assertEquals("Bienvenue", folders.get(0).get("title").asText());
+        assertEquals("Other", folders.get(1).get("title").asText());
+
+        //n4 is hidden from mobile
+        final JsonNode welcomePortlets = folders.get(0).get("portlets");
+        assertEquals(2, welcomePortlets.size());
+        final JsonNode weather = welcomePortlets.get(0);
+        assertEquals("weather", weather.get("fname").asText());
+        assertEquals("Weather", weather.get("title").asText());
+        assertEquals("LINK:wn3:/uPortal/p/n3/detached/render.uP", weather.get("url").asText());
+        assertEquals("Weather description", weather.get("description").asText());
+        assertEquals("COUNT:wn3", weather.get("newItemCount").asText());
+        assertEquals("/weather.png", weather.get("iconUrl").asText());
+        assertEquals("/uPortal" + StreamingJsonLayoutComponent.DEFAULT_ICON_PATH, welcomePortlets.get(1).get("iconUrl").asText());
+
+        assertEquals("My \"News\"", folders.get(1).get("portlets").get(0).get("title").asText());
+    }
+
+    @Test
+    public void testImpersonationBlocksPortlets() throws Exception {
+        when(identitySwapperManager.isImpersonating(request)).thenReturn(true);
+
+        final JsonNode welcomePortlets = render().get("layout").get("folders").get(0).get("portlets");
+        assertEquals(1, welcomePortlets.size());
+        assertEquals("weather", welcomePortlets.get(0).get("fname").asText());
+    }
+
+    @Test
+    public void testCacheKeyFollowsLayoutVersion() {
+        final Object cacheKey = component.getCacheKey(request, response);
+        assertEquals(cacheKey, component.getCacheKey(request, response));
+
+        when(userLayoutManager.getCacheKey()).thenReturn("layout2");
+        assertFalse(cacheKey.equals(component.getCacheKey(request, response)));
+    }
+
+    /**
+     * Render the layout replacing each placeholder with a marker naming the placeholder and window
+     */
+    private JsonNode render() throws Exception {
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = component.getEventReader(request, response);
+
+        final StringBuilder json = new StringBuilder();
+        for (final CharacterEvent event : eventReader) {
+            switch (event.getEventType()) {
+                case CHARACTER: {
+                    json.append(((CharacterDataEvent) event).getData());
+                    break;
+                }
+                case PORTLET_LINK: {
+                    final PortletLinkPlaceholderEvent linkEvent = (PortletLinkPlaceholderEvent) event;
+                    json.append("LINK:").append(linkEvent.getPortletWindowId().getStringId()).append(":").append(linkEvent.getDefaultPortletUrl());
+                    break;
+                }
+                case PORTLET_NEW_ITEM_COUNT: {
+                    json.append("COUNT:").append(((PortletPlaceholderEvent) event).getPortletWindowId().getStringId());
+                    break;
+                }
+                default: {
+                    throw new IllegalStateException("Unexpected event " + event);
+                }
+            }
+        }
+
+        return new ObjectMapper().readTree(json.toString());
+    }
+
+    private void addFolder(String id, String type, String name, final String... childIds) {
+        final IUserLayoutFolderDescription folder = mock(IUserLayoutFolderDescription.class);
+        when(folder.getId()).thenReturn(id);
+        when(folder.getType()).thenReturn(LayoutNodeType.FOLDER);
+        when(folder.getFolderType()).thenReturn(type);
+        when(folder.getName()).thenReturn(name);
+        addNode(folder, childIds);
+    }
+
+    private IUserLayoutChannelDescription addChannel(String id, String fname, String title, String trueParameter) {
+        final IUserLayoutChannelDescription channel = mock(IUserLayoutChannelDescription.class);
+        when(channel.getId()).thenReturn(id);
+        when(channel.getType()).thenReturn(LayoutNodeType.PORTLET);
+        when(channel.getFunctionalName()).thenReturn(fname);
+        when(channel.getTitle()).thenReturn(title);
+        when(channel.getDescription()).thenReturn(title + " description");
+        if (trueParameter != null) {
+            when(channel.getParameterValue(trueParameter)).thenReturn("true");
+        }
+        addNode(channel);
+        return channel;
+    }
+
+    private void addNode(IUserLayoutNodeDescription node, final String... childIds) {
+        final String id = node.getId();
+        when(userLayoutManager.getNode(id)).thenReturn(node);
+
+        final List<String> children = Arrays.asList(childIds);
+        when(userLayoutManager.getChildIds(id)).thenAnswer(new Answer<Enumeration<String>>() {
+            @Override
+            public Enumeration<String> answer(InvocationOnMock invocation) throws Throwable {
+                return Collections.enumeration(children);
+            }
+        });
+    }
+}
@@ -64,6 +64,7 @@ public class StylesheetUserPreferencesServiceImplTest {
         final IStylesheetDescriptorDao stylesheetDescriptorDao = mock(IStylesheetDescriptorDao.class);
         final IUserInstanceManager userInstanceManager = mock(IUserInstanceManager.class);
         final IStylesheetUserPreferencesDao stylesheetUserPreferencesDao = mock(IStylesheetUserPreferencesDao.class);
+        final IUserLayoutVersionService userLayoutVersionService = mock(IUserLayoutVersionService.class);
         
         final IUserInstance userInstance = mock(IUserInstance.class);
         when(userInstanceManager.getUserInstance(request)).thenReturn(userInstance);
@@ -108,6 +109,8 @@ public class StylesheetUserPreferencesServiceImplTest {
         when(stylesheetUserPreferencesDao.createStylesheetUserPreferences(stylesheetDescriptor, person, userProfile)).thenReturn(persistentStylesheetUserPreferences);
         when(stylesheetUserPreferencesDao.getStylesheetUserPreferences(stylesheetDescriptor, person, userProfile)).thenReturn(persistentStylesheetUserPreferences);
         when(persistentStylesheetUserPreferences.getStylesheetParameter("skin")).thenReturn(null).thenReturn("red");
+        when(persistentStylesheetUserPreferences.getUserId()).thenReturn(1);
+        when(persistentStylesheetUserPreferences.getProfileId()).thenReturn(2);
         
 
         //Create and initialize service bean
@@ -115,6 +118,7 @@ public class StylesheetUserPreferencesServiceImplTest {
         stylesheetUserPreferencesService.setStylesheetDescriptorDao(stylesheetDescriptorDao);
         stylesheetUserPreferencesService.setUserInstanceManager(userInstanceManager);
         stylesheetUserPreferencesService.setStylesheetUserPreferencesDao(stylesheetUserPreferencesDao);
+        stylesheetUserPreferencesService.setUserLayoutVersionService(userLayoutVersionService);
         
         //Run test
         String actual;
@@ -137,6 +141,7 @@ public class StylesheetUserPreferencesServiceImplTest {
         assertNull(actual);
         actual = stylesheetUserPreferencesService.setStylesheetParameter(request, PreferencesScope.THEME, "skin", "red");
         verify(persistentStylesheetUserPreferences).setStylesheetParameter("skin", "red");
+        verify(userLayoutVersionService).incrementLayoutVersion(1, 2);
         assertNull(actual);
         actual = stylesheetUserPreferencesService.getStylesheetParameter(request, PreferencesScope.THEME, "skin");
         assertEquals("red", actual);
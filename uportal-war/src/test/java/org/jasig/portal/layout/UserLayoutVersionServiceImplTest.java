@@ -0,0 +1,109 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for UserLayoutVersionServiceImpl.
+ */
+public class UserLayoutVersionServiceImplTest {
+    private static final String CACHE_NAME = UserLayoutVersionServiceImplTest.class.getName();
+    
+    private Cache layoutVersionCache;
+    private UserLayoutVersionServiceImpl userLayoutVersionService;
+    
+    @Before
+    public void setup() {
+        layoutVersionCache = new Cache(CACHE_NAME, 100, false, true, 0, 0);
+        CacheManager.create().addCache(layoutVersionCache);
+        
+        userLayoutVersionService = new UserLayoutVersionServiceImpl();
+        userLayoutVersionService.setLayoutVersionCache(layoutVersionCache);
+    }
+    
+    @After
+    public void tearDown() {
+        CacheManager.create().removeCache(CACHE_NAME);
+    }
+    
+    @Test
+    public void testIncrementLayoutVersion() {
+        final long initial = userLayoutVersionService.getLayoutVersion(1, 1);
+        assertEquals(initial, userLayoutVersionService.getLayoutVersion(1, 1));
+        
+        final long incremented = userLayoutVersionService.incrementLayoutVersion(1, 1);
+        assertTrue(incremented > initial);
+        assertEquals(incremented, userLayoutVersionService.getLayoutVersion(1, 1));
+        
+        //Other profiles of the same user are independent
+        final long otherProfile = userLayoutVersionService.getLayoutVersion(1, 2);
+        userLayoutVersionService.incrementLayoutVersion(1, 1);
+        assertEquals(otherProfile, userLayoutVersionService.getLayoutVersion(1, 2));
+    }
+    
+    @Test
+    public void testIncrementAllLayoutVersions() {
+        final long first = userLayoutVersionService.incrementLayoutVersion(1, 1);
+        final long second = userLayoutVersionService.incrementLayoutVersion(2, 1);
+        
+        userLayoutVersionService.incrementAllLayoutVersions();
+        
+        final long firstAfter = userLayoutVersionService.getLayoutVersion(1, 1);
+        final long secondAfter = userLayoutVersionService.getLayoutVersion(2, 1);
+        assertTrue(firstAfter > second);
+        assertTrue(secondAfter > second);
+        assertTrue(userLayoutVersionService.incrementLayoutVersion(1, 1) > firstAfter);
+        assertTrue(first < second);
+    }
+    
+    @Test
+    public void testFloorInvalidatedByAnotherServer() {
+        final long version = userLayoutVersionService.incrementLayoutVersion(1, 1);
+        assertEquals(version, userLayoutVersionService.getLayoutVersion(1, 1));
+        
+        //Another server raising the floor replicates as an invalidation of the local floor
+        layoutVersionCache.remove(UserLayoutVersionServiceImpl.FLOOR_KEY);
+        
+        final long afterInvalidation = userLayoutVersionService.getLayoutVersion(1, 1);
+        assertTrue(afterInvalidation > version);
+        assertEquals(afterInvalidation, userLayoutVersionService.getLayoutVersion(1, 1));
+        assertTrue(userLayoutVersionService.incrementLayoutVersion(1, 1) > afterInvalidation);
+    }
+    
+    @Test
+    public void testEvictedVersionIsReissued() {
+        final String entityTag = userLayoutVersionService.getLayoutEntityTag(1, 1);
+        assertTrue(entityTag, entityTag.startsWith("\"") && entityTag.endsWith("\""));
+        
+        layoutVersionCache.removeAll();
+        
+        assertFalse(entityTag.equals(userLayoutVersionService.getLayoutEntityTag(1, 1)));
+    }
+}
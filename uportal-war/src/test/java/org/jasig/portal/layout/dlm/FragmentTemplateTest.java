@@ -0,0 +1,122 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.when;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Unit tests for FragmentTemplate.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class FragmentTemplateTest {
+    @Mock private IAuthorizationPrincipal ap;
+
+    private Document fragment;
+
+    @Before
+    public void setup() throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        this.fragment = factory.newDocumentBuilder().newDocument();
+
+        final Element layout = this.fragment.createElement("layout");
+        this.fragment.appendChild(layout);
+        final Element root = createFolder("u1l1s1");
+        layout.appendChild(root);
+
+        final Element tab = createFolder("u1l1s2");
+        tab.setAttributeNS(Constants.NS_URI, Constants.ATT_FRAGMENT, "1");
+        root.appendChild(tab);
+
+        tab.appendChild(createChannel("u1l1n3", "10"));
+        tab.appendChild(createChannel("u1l1n4", "11"));
+
+        when(this.ap.canRender("10")).thenReturn(true);
+        when(this.ap.canRender("11")).thenReturn(false);
+    }
+
+    @Test
+    public void testMergeCopiesRenderableNodes() throws Exception {
+        final FragmentTemplate template = FragmentTemplate.create(this.fragment);
+
+        final Document ilf = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        final Element ilfRoot = ilf.createElement("folder");
+        ilf.appendChild(ilfRoot);
+        template.mergeInto(ilfRoot, this.ap);
+
+        final Element tab = ilf.getElementById("u1l1s2");
+        assertNotNull(tab);
+        assertSame(ilf, tab.getOwnerDocument());
+        assertSame(ilfRoot, tab.getParentNode());
+        assertEquals("1", tab.getAttributeNS(Constants.NS_URI, "fragment"));
+
+        final Element channel = ilf.getElementById("u1l1n3");
+        assertNotNull(channel);
+        assertEquals("10", channel.getAttribute("chanID"));
+        assertNull(ilf.getElementById("u1l1n4"));
+        assertEquals(1, tab.getChildNodes().getLength());
+
+        //The source fragment is left untouched
+        assertEquals(2, this.fragment.getElementById("u1l1s2").getChildNodes().getLength());
+    }
+
+    @Test
+    public void testTemplateIsReusable() throws Exception {
+        final FragmentTemplate template = FragmentTemplate.create(this.fragment);
+
+        for (int i = 0; i < 2; i++) {
+            final Document ilf = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            final Element ilfRoot = ilf.createElement("folder");
+            ilf.appendChild(ilfRoot);
+            template.mergeInto(ilfRoot, this.ap);
+            assertNotNull(ilf.getElementById("u1l1n3"));
+        }
+    }
+
+    private Element createFolder(String id) {
+        final Element folder = this.fragment.createElement(Constants.ELM_FOLDER);
+        folder.setAttribute(Constants.ATT_ID, id);
+        folder.setIdAttribute(Constants.ATT_ID, true);
+        return folder;
+    }
+
+    private Element createChannel(String id, String chanId) {
+        final Element channel = this.fragment.createElement(Constants.ELM_CHANNEL);
+        channel.setAttribute(Constants.ATT_ID, id);
+        channel.setIdAttribute(Constants.ATT_ID, true);
+        channel.setAttribute("chanID", chanId);
+        return channel;
+    }
+}
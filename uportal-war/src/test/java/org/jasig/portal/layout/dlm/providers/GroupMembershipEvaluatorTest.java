@@ -0,0 +1,253 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.groups.GroupsException;
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.provider.PersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit tests for GroupMembershipEvaluator.
+ */
+public class GroupMembershipEvaluatorTest {
+    /**
+     * group name -> composite group key, as returned by a group search
+     */
+    private static final Map<String, String> GROUP_KEYS = new LinkedHashMap<String, String>();
+    static {
+        GROUP_KEYS.put("Everyone", "local.0");
+        GROUP_KEYS.put("Students", "local.2");
+        GROUP_KEYS.put("Faculty", "local.9");
+        GROUP_KEYS.put("PAGS Root", "pags.root");
+        GROUP_KEYS.put("Staff", "pags.staff");
+        GROUP_KEYS.put("Admins", "pags.admins");
+    }
+    
+    /**
+     * group key -> keys of the groups and entities it directly contains
+     */
+    private final Map<String, Set<String>> members = new HashMap<String, Set<String>>();
+    private final Map<String, IEntityGroup> groups = new HashMap<String, IEntityGroup>();
+    private final IPerson person = new PersonImpl();
+    private IGroupMember personMember;
+    private int groupMemberLoads;
+    
+    @Before
+    public void setup() {
+        //A local group containing a PAGS group, the person is a direct member of one local and one PAGS group
+        addMembers("local.0", "local.2", "pags.root");
+        addMembers("local.2", "student1");
+        addMembers("local.9");
+        addMembers("pags.root", "pags.staff");
+        addMembers("pags.staff", "student1");
+        addMembers("pags.admins", "local.9");
+        
+        for (final String groupKey : members.keySet()) {
+            groups.put(groupKey, createGroup(groupKey));
+        }
+        personMember = createPersonMember("student1");
+    }
+    
+    @Test
+    public void testContextMatchesGroupMember() {
+        final AudienceEvaluationContext context = new TestAudienceEvaluationContext();
+        
+        for (final String mode : Arrays.asList("memberOf", "deepMemberOf")) {
+            for (final String groupName : GROUP_KEYS.keySet()) {
+                final GroupMembershipEvaluator evaluator = new TestGroupMembershipEvaluator(mode, groupName);
+                assertEquals(mode + " '" + groupName + "'", evaluator.isApplicable(person), evaluator.isApplicable(person, context));
+            }
+        }
+        
+        assertEquals("group member should only be loaded once per context", 1, groupMemberLoads);
+    }
+    
+    @Test
+    public void testMembership() {
+        final AudienceEvaluationContext context = new TestAudienceEvaluationContext();
+        
+        assertTrue(new TestGroupMembershipEvaluator("memberOf", "Students").isApplicable(person, context));
+        assertTrue(new TestGroupMembershipEvaluator("memberOf", "Staff").isApplicable(person, context));
+        assertFalse(new TestGroupMembershipEvaluator("memberOf", "Everyone").isApplicable(person, context));
+        assertFalse(new TestGroupMembershipEvaluator("memberOf", "PAGS Root").isApplicable(person, context));
+        
+        assertTrue(new TestGroupMembershipEvaluator("deepMemberOf", "Everyone").isApplicable(person, context));
+        assertTrue(new TestGroupMembershipEvaluator("deepMemberOf", "PAGS Root").isApplicable(person, context));
+        assertTrue(new TestGroupMembershipEvaluator("deepMemberOf", "Staff").isApplicable(person, context));
+        assertFalse(new TestGroupMembershipEvaluator("deepMemberOf", "Faculty").isApplicable(person, context));
+        assertFalse(new TestGroupMembershipEvaluator("deepMemberOf", "Admins").isApplicable(person, context));
+    }
+    
+    private void addMembers(String groupKey, String... memberKeys) {
+        members.put(groupKey, new LinkedHashSet<String>(Arrays.asList(memberKeys)));
+    }
+    
+    private List<IEntityGroup> getContainingGroups(String memberKey) {
+        final List<IEntityGroup> containingGroups = new ArrayList<IEntityGroup>();
+        for (final Map.Entry<String, Set<String>> membersEntry : members.entrySet()) {
+            if (membersEntry.getValue().contains(memberKey)) {
+                containingGroups.add(groups.get(membersEntry.getKey()));
+            }
+        }
+        return containingGroups;
+    }
+    
+    /**
+     * Walks down from the group through its member groups, like EntityGroupImpl.deepContains
+     */
+    private boolean deepContains(String groupKey, String memberKey) {
+        for (final String childKey : members.get(groupKey)) {
+            if (childKey.equals(memberKey) || (members.containsKey(childKey) && deepContains(childKey, memberKey))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private IEntityGroup createGroup(final String groupKey) {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getKey()).thenReturn(groupKey);
+        try {
+            when(group.deepContains(any(IGroupMember.class))).thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                    final IGroupMember member = (IGroupMember) invocation.getArguments()[0];
+                    return deepContains(groupKey, member.getKey());
+                }
+            });
+            when(group.getContainingGroups()).thenAnswer(new Answer<Object>() {
+                @Override
+                public Object answer(InvocationOnMock invocation) throws Throwable {
+                    return getContainingGroups(groupKey).iterator();
+                }
+            });
+        }
+        catch (GroupsException e) {
+            throw new IllegalStateException(e);
+        }
+        return group;
+    }
+    
+    /**
+     * The legacy checks follow GroupMemberImpl, membership tests walk down from the group while
+     * the containing groups walk up from the member.
+     */
+    private IGroupMember createPersonMember(final String memberKey) {
+        final IGroupMember member = mock(IGroupMember.class);
+        when(member.getKey()).thenReturn(memberKey);
+        try {
+            when(member.isMemberOf(any(IGroupMember.class))).thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                    final IGroupMember group = (IGroupMember) invocation.getArguments()[0];
+                    return members.get(group.getKey()).contains(memberKey);
+                }
+            });
+            when(member.isDeepMemberOf(any(IGroupMember.class))).thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                    final IGroupMember group = (IGroupMember) invocation.getArguments()[0];
+                    return members.get(group.getKey()).contains(memberKey) || group.deepContains(member);
+                }
+            });
+            when(member.getContainingGroups()).thenAnswer(new Answer<Object>() {
+                @Override
+                public Object answer(InvocationOnMock invocation) throws Throwable {
+                    return getContainingGroups(memberKey).iterator();
+                }
+            });
+            when(member.getAllContainingGroups()).thenAnswer(new Answer<Object>() {
+                @Override
+                public Object answer(InvocationOnMock invocation) throws Throwable {
+                    final Set<IEntityGroup> allContainingGroups = new LinkedHashSet<IEntityGroup>();
+                    final List<IEntityGroup> toVisit = getContainingGroups(memberKey);
+                    while (!toVisit.isEmpty()) {
+                        final IEntityGroup group = toVisit.remove(0);
+                        if (allContainingGroups.add(group)) {
+                            toVisit.addAll(getContainingGroups(group.getKey()));
+                        }
+                    }
+                    return allContainingGroups.iterator();
+                }
+            });
+        }
+        catch (GroupsException e) {
+            throw new IllegalStateException(e);
+        }
+        return member;
+    }
+    
+    private class TestAudienceEvaluationContext extends AudienceEvaluationContext {
+        public TestAudienceEvaluationContext() {
+            super(person);
+        }
+
+        @Override
+        protected IGroupMember getGroupMember() throws GroupsException {
+            groupMemberLoads++;
+            return personMember;
+        }
+    }
+    
+    private class TestGroupMembershipEvaluator extends GroupMembershipEvaluator {
+        public TestGroupMembershipEvaluator(String mode, String groupName) {
+            super(mode, groupName);
+        }
+
+        @Override
+        protected String getGroupKey(String groupName) {
+            return GROUP_KEYS.get(groupName);
+        }
+
+        @Override
+        protected IEntityGroup getGroup(String key) {
+            return groups.get(key);
+        }
+
+        @Override
+        protected IGroupMember getGroupMember(EntityIdentifier ei) throws GroupsException {
+            return personMember;
+        }
+    }
+}
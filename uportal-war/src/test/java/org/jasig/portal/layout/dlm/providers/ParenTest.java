@@ -22,6 +22,7 @@ package org.jasig.portal.layout.dlm.providers;
 import junit.framework.TestCase;
 
 import org.dom4j.Element;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
 import org.jasig.portal.layout.dlm.Evaluator;
 import org.jasig.portal.layout.dlm.EvaluatorFactory;
 import org.jasig.portal.security.IPerson;
@@ -60,6 +61,48 @@ public class ParenTest extends TestCase {
 
     }
 
+    public void testContextSharedWithChildren() {
+
+        IPerson p = new PersonImpl();
+        AudienceEvaluationContext context = new AudienceEvaluationContext(p);
+
+        CountingEvaluator first = new CountingEvaluator();
+        CountingEvaluator second = new CountingEvaluator();
+
+        Paren inner = new Paren(Paren.Type.AND);
+        inner.addEvaluator(second);
+        Paren outer = new Paren(Paren.Type.AND);
+        outer.addEvaluator(first);
+        outer.addEvaluator(inner);
+
+        assertTrue(outer.isApplicable(p, context));
+        assertSame(context, first.context);
+        assertSame(context, second.context);
+        assertEquals("input should only be loaded once per context", 1, context.getCachedValue(CountingEvaluator.class));
+
+        // a new evaluation without a context starts over
+        assertTrue(outer.isApplicable(p));
+        assertNotSame(context, first.context);
+        assertEquals(1, first.context.getCachedValue(CountingEvaluator.class));
+
+    }
+
+    private static class CountingEvaluator extends NoUsersEvaluatorFactory {
+
+        private AudienceEvaluationContext context;
+
+        @Override
+        public boolean isApplicable(IPerson person, AudienceEvaluationContext context) {
+            this.context = context;
+            Integer loads = (Integer) context.getCachedValue(CountingEvaluator.class);
+            if (loads == null) {
+                context.setCachedValue(CountingEvaluator.class, 1);
+            }
+            return true;
+        }
+
+    }
+
     private static class NoUsersEvaluatorFactory extends Evaluator {
 
         @Override
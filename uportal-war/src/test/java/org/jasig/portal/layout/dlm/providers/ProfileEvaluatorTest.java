@@ -0,0 +1,94 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm.providers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
+import org.jasig.portal.layout.profile.IProfileMapper;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.spring.locator.ApplicationContextLocator;
+import org.jasig.portal.url.IPortalRequestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.context.ApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Unit tests for ProfileEvaluator.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ProfileEvaluatorTest {
+    @Mock private ApplicationContext applicationContext;
+    @Mock private IPortalRequestUtils portalRequestUtils;
+    @Mock private IProfileMapper profileMapper;
+    @Mock private IPerson person;
+    
+    private final HttpServletRequest request = new MockHttpServletRequest();
+    private ApplicationContextLocator applicationContextLocator;
+    
+    @Before
+    public void setup() throws Exception {
+        when(applicationContext.getBean(IPortalRequestUtils.class)).thenReturn(portalRequestUtils);
+        when(applicationContext.getBean("profileMapper", IProfileMapper.class)).thenReturn(profileMapper);
+        when(portalRequestUtils.getCurrentPortalRequest()).thenReturn(request);
+        
+        applicationContextLocator = new ApplicationContextLocator(applicationContext);
+        applicationContextLocator.afterPropertiesSet();
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        applicationContextLocator.destroy();
+    }
+    
+    @Test
+    public void testProfileMappedOncePerContext() {
+        when(profileMapper.getProfileFname(person, request)).thenReturn("respondr");
+        
+        final AudienceEvaluationContext context = new AudienceEvaluationContext(person);
+        assertTrue(new ProfileEvaluator("respondr").isApplicable(person, context));
+        assertFalse(new ProfileEvaluator("mobile").isApplicable(person, context));
+        assertTrue(new ProfileEvaluator("respondr").isApplicable(person, context));
+        verify(profileMapper, times(1)).getProfileFname(person, request);
+        
+        //Without a context the profile is mapped for each evaluation
+        assertTrue(new ProfileEvaluator("respondr").isApplicable(person));
+        verify(profileMapper, times(2)).getProfileFname(person, request);
+    }
+    
+    @Test
+    public void testNoProfileMappedOncePerContext() {
+        final AudienceEvaluationContext context = new AudienceEvaluationContext(person);
+        assertFalse(new ProfileEvaluator("respondr").isApplicable(person, context));
+        assertFalse(new ProfileEvaluator("mobile").isApplicable(person, context));
+        verify(profileMapper, times(1)).getProfileFname(person, request);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm.providers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.jasig.portal.fragment.subscribe.IUserFragmentSubscription;
+import org.jasig.portal.fragment.subscribe.dao.IUserFragmentSubscriptionDao;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.spring.locator.UserFragmentSubscriptionDaoLocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Unit tests for SubscribedTabEvaluator.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SubscribedTabEvaluatorTest {
+    @Mock private IUserFragmentSubscriptionDao userFragmentSubscriptionDao;
+    @Mock private IPerson person;
+    
+    private UserFragmentSubscriptionDaoLocator userFragmentSubscriptionDaoLocator;
+    
+    @Before
+    public void setup() throws Exception {
+        final IUserFragmentSubscription news = createSubscription("news-lo", true);
+        final IUserFragmentSubscription sports = createSubscription("sports-lo", false);
+        when(userFragmentSubscriptionDao.getUserFragmentInfo(person)).thenReturn(Arrays.asList(news, sports));
+        
+        userFragmentSubscriptionDaoLocator = new UserFragmentSubscriptionDaoLocator(userFragmentSubscriptionDao);
+        userFragmentSubscriptionDaoLocator.afterPropertiesSet();
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        userFragmentSubscriptionDaoLocator.destroy();
+    }
+    
+    @Test
+    public void testSubscriptionsLoadedOncePerContext() {
+        final AudienceEvaluationContext context = new AudienceEvaluationContext(person);
+        assertTrue(new SubscribedTabEvaluator("news-lo").isApplicable(person, context));
+        assertFalse("inactive subscriptions do not apply", new SubscribedTabEvaluator("sports-lo").isApplicable(person, context));
+        assertFalse(new SubscribedTabEvaluator("weather-lo").isApplicable(person, context));
+        verify(userFragmentSubscriptionDao, times(1)).getUserFragmentInfo(person);
+        
+        //Without a context the subscriptions are loaded for each evaluation
+        assertTrue(new SubscribedTabEvaluator("news-lo").isApplicable(person));
+        verify(userFragmentSubscriptionDao, times(2)).getUserFragmentInfo(person);
+    }
+    
+    private static IUserFragmentSubscription createSubscription(String fragmentOwner, boolean active) {
+        final IUserFragmentSubscription subscription = mock(IUserFragmentSubscription.class);
+        when(subscription.getFragmentOwner()).thenReturn(fragmentOwner);
+        when(subscription.isActive()).thenReturn(active);
+        return subscription;
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jasig.portal.layout.simple.LayoutStructureRows.Diff;
+import org.jasig.portal.layout.simple.LayoutStructureRows.StructRow;
+import org.jasig.portal.utils.Tuple;
+import org.junit.Test;
+
+/**
+ * Unit tests for LayoutStructureRows.
+ */
+public class LayoutStructureRowsTest {
+    
+    @Test
+    public void testUnchangedLayout() {
+        final Diff diff = createLayout(2, 3).diff(createLayout(2, 3));
+        assertEquals(0, diff.getChangeCount());
+    }
+    
+    @Test
+    public void testMovedPortlet() {
+        //Swap the order of portlets 2 and 3 in the column
+        final LayoutStructureRows persisted = createLayout(2, 3);
+        final LayoutStructureRows updated = createLayout(3, 2);
+        
+        final Diff diff = updated.diff(persisted);
+        assertEquals(3, diff.getChangeCount());
+        assertEquals(3, diff.getStructUpdates().size());
+        assertTrue(diff.getStructInserts().isEmpty());
+        assertTrue(diff.getStructDeletes().isEmpty());
+        assertTrue(diff.getParamInserts().isEmpty());
+    }
+    
+    @Test
+    public void testAddedAndRemovedRows() {
+        final LayoutStructureRows persisted = createLayout(2, 3);
+        persisted.addParam(3, "dlm:moveAllowed", "false");
+        
+        final LayoutStructureRows updated = new LayoutStructureRows();
+        updated.addStruct(new StructRow(1, 0, 2, null, null, "Column", "regular", "N", "N", "N"));
+        updated.addStruct(new StructRow(2, 4, 0, null, 10, null, "", "N", "N", "N"));
+        updated.addStruct(new StructRow(4, 0, 0, null, 12, null, "", "N", "N", "N"));
+        updated.addParam(2, "dlm:deleteAllowed", "true");
+        updated.addParam(4, "dlm:moveAllowed", "false");
+        
+        final Diff diff = updated.diff(persisted);
+        assertEquals(Arrays.asList(4), structIds(diff.getStructInserts()));
+        assertEquals(Arrays.asList(2), structIds(diff.getStructUpdates()));
+        assertEquals(Arrays.asList(3), diff.getStructDeletes());
+        assertEquals(Tuple.of(4, "dlm:moveAllowed"), diff.getParamInserts().get(0).getKey());
+        assertEquals(Tuple.of(2, "dlm:deleteAllowed"), diff.getParamUpdates().get(0).getKey());
+        assertEquals(Collections.singletonList(Tuple.of(3, "dlm:moveAllowed")), diff.getParamDeletes());
+    }
+    
+    @Test
+    public void testEmptyStringEqualsNull() {
+        //Oracle returns empty strings as null
+        final LayoutStructureRows persisted = new LayoutStructureRows();
+        persisted.addStruct(new StructRow(2, 0, 0, null, 10, null, null, "N", "N", "N"));
+        
+        final LayoutStructureRows updated = new LayoutStructureRows();
+        updated.addStruct(new StructRow(2, 0, 0, " ", 10, null, "", "N", "N", "N"));
+        
+        assertEquals(0, updated.diff(persisted).getChangeCount());
+    }
+    
+    /**
+     * A column with two portlets and a parameter on the first portlet
+     */
+    private LayoutStructureRows createLayout(int firstPortlet, int secondPortlet) {
+        final LayoutStructureRows rows = new LayoutStructureRows();
+        rows.addStruct(new StructRow(1, 0, firstPortlet, null, null, "Column", "regular", "N", "N", "N"));
+        rows.addStruct(new StructRow(firstPortlet, secondPortlet, 0, null, 8 + firstPortlet, null, "", "N", "N", "N"));
+        rows.addStruct(new StructRow(secondPortlet, 0, 0, null, 8 + secondPortlet, null, "", "N", "N", "N"));
+        rows.addParam(2, "dlm:deleteAllowed", "false");
+        return rows;
+    }
+    
+    private List<Integer> structIds(List<StructRow> structs) {
+        final List<Integer> structIds = new ArrayList<Integer>();
+        for (final StructRow struct : structs) {
+            structIds.add(struct.getStructId());
+        }
+        return structIds;
+    }
+}
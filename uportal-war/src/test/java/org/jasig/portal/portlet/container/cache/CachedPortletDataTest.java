@@ -0,0 +1,117 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.container.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.lang.StringUtils;
+import org.jasig.portal.portlet.rendering.PortletRenderResult;
+import org.jasig.portal.portlet.rendering.RenderPortletOutputHandler;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Unit tests for CachedPortletData.
+ */
+public class CachedPortletDataTest {
+    private static final String MARKUP = StringUtils.repeat("<li class=\"news-item\">Café menu updated</li>", 200);
+
+    @Test
+    public void testStringStorageUnchanged() throws Exception {
+        final CachedPortletData<PortletRenderResult> cachedPortletData = newWriterData(MARKUP);
+        
+        assertSame(cachedPortletData, cachedPortletData.encodeOutput(false, -1));
+        assertEquals(MARKUP, replay(cachedPortletData));
+    }
+    
+    @Test
+    public void testWriterOutputAsBytes() throws Exception {
+        final CachedPortletData<PortletRenderResult> cachedPortletData = newWriterData(MARKUP);
+        
+        final CachedPortletData<PortletRenderResult> encoded = cachedPortletData.encodeOutput(true, -1);
+        assertNotSame(cachedPortletData, encoded);
+        assertFalse(encoded.isCompressed());
+        assertEquals(MARKUP, replay(encoded));
+        assertEquals(MARKUP, encoded.getCachedWriterOutput());
+        assertEquals(cachedPortletData.getEtag(), encoded.getEtag());
+        assertEquals(cachedPortletData.getExpirationTime(), encoded.getExpirationTime());
+        assertEquals(cachedPortletData.getTimeStored(), encoded.getTimeStored());
+        
+        //Already encoded, nothing to do
+        assertSame(encoded, encoded.encodeOutput(true, -1));
+    }
+    
+    @Test
+    public void testWriterOutputCompressed() throws Exception {
+        final CachedPortletData<PortletRenderResult> cachedPortletData = newWriterData(MARKUP);
+        
+        final CachedPortletData<PortletRenderResult> encoded = cachedPortletData.encodeOutput(true, 1024);
+        assertTrue(encoded.isCompressed());
+        assertEquals(MARKUP, replay(encoded));
+        assertEquals(MARKUP, encoded.getCachedWriterOutput());
+        
+        assertSame(encoded, encoded.encodeOutput(true, 1024));
+    }
+    
+    @Test
+    public void testSmallOutputNotCompressed() throws Exception {
+        final CachedPortletData<PortletRenderResult> cachedPortletData = newWriterData("<p>small</p>");
+        
+        final CachedPortletData<PortletRenderResult> encoded = cachedPortletData.encodeOutput(true, 1024);
+        assertFalse(encoded.isCompressed());
+        assertEquals("<p>small</p>", replay(encoded));
+    }
+    
+    @Test
+    public void testStreamOutputCompressed() throws Exception {
+        final byte[] output = MARKUP.getBytes(Charsets.UTF_8);
+        final CachedPortletData<Long> cachedPortletData = new CachedPortletData<Long>(
+                1000l, null, output, "application/octet-stream", false, null, 300);
+        
+        //Stream output is already bytes
+        assertSame(cachedPortletData, cachedPortletData.encodeOutput(true, -1));
+        
+        final CachedPortletData<Long> encoded = cachedPortletData.encodeOutput(false, 1024);
+        assertTrue(encoded.isCompressed());
+        assertArrayEquals(output, encoded.getCachedStreamOutput());
+        
+        final RenderPortletOutputHandler outputHandler = new RenderPortletOutputHandler("UTF-8");
+        encoded.replay(outputHandler);
+        assertEquals(MARKUP, outputHandler.getOutput());
+        assertEquals("application/octet-stream", outputHandler.getContentType());
+    }
+    
+    private CachedPortletData<PortletRenderResult> newWriterData(String output) {
+        return new CachedPortletData<PortletRenderResult>(
+                new PortletRenderResult("title", null, 0, 1000l), output, null, "text/html", false, "etag", 300);
+    }
+
+    private String replay(CachedPortletData<PortletRenderResult> cachedPortletData) throws Exception {
+        final RenderPortletOutputHandler outputHandler = new RenderPortletOutputHandler("UTF-8");
+        cachedPortletData.replay(outputHandler);
+        return outputHandler.getOutput();
+    }
+}
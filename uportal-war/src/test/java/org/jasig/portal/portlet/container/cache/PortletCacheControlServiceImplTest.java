@@ -18,6 +18,7 @@
  */
 package org.jasig.portal.portlet.container.cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -35,6 +36,7 @@ import javax.portlet.WindowState;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.mock.portlet.om.MockPortletDefinitionId;
 import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
@@ -345,4 +347,147 @@ public class PortletCacheControlServiceImplTest {
         final CachedPortletResourceData<Long> actualCachedPortletData = secondCacheState.getCachedPortletData();
         assertNotNull(actualCachedPortletData);
     }
+    
+    @Test
+    public void testExpiredRenderNotUsedWithoutStaleWindow() {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicPortlet(httpRequest, portletWindowId);
+        
+        cacheExpiredRenderOutput(httpRequest, portletWindowId);
+        
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(cacheState.isUseCachedData());
+        assertFalse(cacheState.isStale());
+        assertTrue(cacheControlService.getPortletRenderRevalidations(httpRequest).isEmpty());
+    }
+    
+    @Test
+    public void testStaleWhileRevalidateRender() {
+        cacheControlService.setStaleWhileRevalidateTime(60);
+        
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicPortlet(httpRequest, portletWindowId);
+        
+        cacheExpiredRenderOutput(httpRequest, portletWindowId);
+        
+        //Expired output is replayed and only one request gets to refresh it
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> staleCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(staleCacheState.isUseCachedData());
+        assertTrue(staleCacheState.isStale());
+        assertEquals(Collections.singleton(portletWindowId), cacheControlService.getPortletRenderRevalidations(httpRequest));
+        assertTrue(cacheControlService.getPortletRenderHeaderRevalidations(httpRequest).isEmpty());
+        
+        final MockHttpServletRequest concurrentRequest = new MockHttpServletRequest();
+        when(portletWindowRegistry.getPortletWindow(concurrentRequest, portletWindowId)).thenReturn(portletWindow);
+        when(this.urlSyntaxProvider.getPortalRequestInfo(concurrentRequest)).thenReturn(portalRequestInfo);
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> concurrentCacheState = cacheControlService.getPortletRenderState(concurrentRequest, portletWindowId);
+        assertTrue(concurrentCacheState.isUseCachedData());
+        assertTrue(concurrentCacheState.isStale());
+        assertTrue(cacheControlService.getPortletRenderRevalidations(concurrentRequest).isEmpty());
+        
+        //The revalidating render ignores the stale output
+        httpRequest.setAttribute(IPortletCacheControlService.ATTRIBUTE__REVALIDATE_CACHED_DATA, Boolean.TRUE);
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> revalidateCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(revalidateCacheState.isUseCachedData());
+        assertNotNull(revalidateCacheState.getCachedPortletData());
+        
+        final CacheControl cacheControl = revalidateCacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                new PortletRenderResult("title", null, 0, 1000l), "fresh", null, null, true, null, cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, revalidateCacheState, cachedPortletData);
+        httpRequest.removeAttribute(IPortletCacheControlService.ATTRIBUTE__REVALIDATE_CACHED_DATA);
+        
+        //Refreshed output is used as normal
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> freshCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(freshCacheState.isUseCachedData());
+        assertFalse(freshCacheState.isStale());
+    }
+    
+    @Test
+    public void testStaleWhileRevalidateResource() {
+        cacheControlService.setStaleWhileRevalidateTime(60);
+        
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicPortlet(httpRequest, portletWindowId);
+        
+        final CacheState<CachedPortletResourceData<Long>, Long> firstCacheState = cacheControlService.getPortletResourceState(httpRequest, portletWindowId);
+        final CacheControl cacheControl = firstCacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        
+        final CachedPortletData<Long> cachedPortletData = new CachedPortletData<Long>(
+                1000l, "stale", null, "text/plain", true, null, -2);
+        final CachedPortletResourceData<Long> cachedPortletResourceData = new CachedPortletResourceData<Long>(
+                cachedPortletData, Collections.EMPTY_MAP, null, null, null, null);
+        cacheControlService.cachePortletResourceOutput(portletWindowId, httpRequest, firstCacheState, cachedPortletResourceData);
+        
+        //First request claims the refresh and executes the portlet
+        final CacheState<CachedPortletResourceData<Long>, Long> claimingCacheState = cacheControlService.getPortletResourceState(httpRequest, portletWindowId);
+        assertFalse(claimingCacheState.isUseCachedData());
+        
+        //Concurrent requests are served the stale resource
+        final CacheState<CachedPortletResourceData<Long>, Long> staleCacheState = cacheControlService.getPortletResourceState(httpRequest, portletWindowId);
+        assertTrue(staleCacheState.isUseCachedData());
+        assertTrue(staleCacheState.isStale());
+    }
+    
+    @Test
+    public void testCacheRenderAsCompressedBytes() {
+        cacheControlService.setStoreWriterOutputAsBytes(true);
+        cacheControlService.setCompressionThreshold(64);
+        
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicPortlet(httpRequest, portletWindowId);
+        
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> firstCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        final CacheControl cacheControl = firstCacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        
+        final String output = StringUtils.repeat("<p>Cached content</p>", 20);
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                new PortletRenderResult("title", null, 0, 1000l), output, null, null, true, null, cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, firstCacheState, cachedPortletData);
+        
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> secondCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(secondCacheState.isUseCachedData());
+        
+        final CachedPortletData<PortletRenderResult> actualCachedPortletData = secondCacheState.getCachedPortletData();
+        assertTrue(actualCachedPortletData.isCompressed());
+        assertEquals(output, actualCachedPortletData.getCachedWriterOutput());
+    }
+    
+    private void setupPublicPortlet(MockHttpServletRequest httpRequest, MockPortletWindowId portletWindowId) {
+        final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+        
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        
+        when(portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId)).thenReturn(portletWindow);
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDescriptor);
+
+        when(this.urlSyntaxProvider.getPortalRequestInfo(httpRequest)).thenReturn(portalRequestInfo);
+        when(portalRequestInfo.getPortletRequestInfoMap()).thenReturn(Collections.EMPTY_MAP);
+    }
+    
+    /**
+     * Caches render output that expired two seconds ago in an element that is still live
+     */
+    private void cacheExpiredRenderOutput(MockHttpServletRequest httpRequest, MockPortletWindowId portletWindowId) {
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        final CacheControl cacheControl = cacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                new PortletRenderResult("title", null, 0, 1000l), "stale", null, null, true, null, -2);
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, cacheState, cachedPortletData);
+    }
 }
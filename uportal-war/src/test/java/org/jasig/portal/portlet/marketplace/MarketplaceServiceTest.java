@@ -0,0 +1,231 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.marketplace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
+import org.jasig.portal.portlet.registry.IPortletCategoryRegistry;
+import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.rest.layout.MarketplaceEntry;
+import org.jasig.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Unit tests for MarketplaceService.
+ */
+public class MarketplaceServiceTest {
+    private static final String DEFINITION_CACHE = MarketplaceServiceTest.class.getName() + ".definitions";
+    private static final String USER_CACHE = MarketplaceServiceTest.class.getName() + ".users";
+    private static final String ENTRIES_CACHE = MarketplaceServiceTest.class.getName() + ".entries";
+
+    @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private IPortletCategoryRegistry portletCategoryRegistry;
+    @Mock private IPerson firstUser;
+    @Mock private IPerson secondUser;
+
+    private final Map<String, IPortletDefinition> portletDefinitions = new HashMap<String, IPortletDefinition>();
+    private final Set<String> browseablePortletIds = new HashSet<String>();
+    private Cache entriesCache;
+    private MarketplaceService marketplaceService;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        //Entries build their render URL from the current request
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+
+        final CacheManager cacheManager = CacheManager.create();
+        final Cache definitionCache = new Cache(DEFINITION_CACHE, 100, false, true, 0, 0);
+        final Cache userCache = new Cache(USER_CACHE, 100, false, true, 0, 0);
+        entriesCache = new Cache(ENTRIES_CACHE, 100, false, true, 0, 0);
+        cacheManager.addCache(definitionCache);
+        cacheManager.addCache(userCache);
+        cacheManager.addCache(entriesCache);
+
+        marketplaceService = new MarketplaceService() {
+            @Override
+            protected Serializable getAuthorizationEquivalenceKey(IPerson user) {
+                //Both users are in the same equivalence class
+                return "everyone";
+            }
+
+            @Override
+            public boolean mayBrowsePortlet(IPerson user, IPortletDefinition portletDefinition) {
+                return browseablePortletIds.contains(portletDefinition.getPortletDefinitionId().getStringId());
+            }
+
+            @Override
+            public boolean mayAddPortlet(IPerson user, IPortletDefinition portletDefinition) {
+                return true;
+            }
+        };
+        marketplaceService.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        marketplaceService.setPortletCategoryRegistry(portletCategoryRegistry);
+        marketplaceService.setMarketplacePortletDefinitionCache(definitionCache);
+        marketplaceService.setMarketplaceUserPortletDefinitionCache(userCache);
+        marketplaceService.setMarketplaceEquivalenceClassEntriesCache(entriesCache);
+
+        for (int id = 1; id <= 3; id++) {
+            addPortletDefinition(String.valueOf(id), true);
+        }
+        when(portletDefinitionRegistry.getAllPortletDefinitions()).thenAnswer(new Answer<List<IPortletDefinition>>() {
+            @Override
+            public List<IPortletDefinition> answer(InvocationOnMock invocation) {
+                return new ArrayList<IPortletDefinition>(portletDefinitions.values());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+
+        final CacheManager cacheManager = CacheManager.create();
+        cacheManager.removeCache(DEFINITION_CACHE);
+        cacheManager.removeCache(USER_CACHE);
+        cacheManager.removeCache(ENTRIES_CACHE);
+    }
+
+    @Test
+    public void testEntriesNotSharedAcrossUsers() {
+        final Set<MarketplaceEntry> firstEntries = marketplaceService.browseableMarketplaceEntriesFor(firstUser);
+        final Set<MarketplaceEntry> secondEntries = marketplaceService.browseableMarketplaceEntriesFor(secondUser);
+
+        assertEquals(getIds(firstEntries), getIds(secondEntries));
+        assertNotSame(firstEntries.iterator().next(), secondEntries.iterator().next());
+
+        //Computed once for the equivalence class
+        verify(portletDefinitionRegistry, times(1)).getAllPortletDefinitions();
+    }
+
+    @Test
+    public void testChangedPortletReEvaluated() {
+        assertEquals(set("1", "2", "3"), getIds(marketplaceService.browseableMarketplaceEntriesFor(firstUser)));
+
+        browseablePortletIds.remove("2");
+        marketplaceService.portletDefinitionChanged(portletDefinitions.get("2"));
+        addPortletDefinition("4", true);
+        marketplaceService.portletDefinitionChanged(portletDefinitions.get("4"));
+
+        assertEquals(set("1", "3", "4"), getIds(marketplaceService.browseableMarketplaceEntriesFor(secondUser)));
+
+        //Only the changed portlets were loaded again
+        verify(portletDefinitionRegistry, times(1)).getAllPortletDefinitions();
+        verify(portletDefinitionRegistry).getPortletDefinition("2");
+        verify(portletDefinitionRegistry).getPortletDefinition("4");
+    }
+
+    @Test
+    public void testDeletedPortletRemoved() {
+        marketplaceService.browseableMarketplaceEntriesFor(firstUser);
+
+        final IPortletDefinition deleted = portletDefinitions.remove("3");
+        when(portletDefinitionRegistry.getPortletDefinition("3")).thenReturn(null);
+        marketplaceService.portletDefinitionChanged(deleted);
+
+        assertEquals(set("1", "2"), getIds(marketplaceService.browseableMarketplaceEntriesFor(firstUser)));
+        verify(portletDefinitionRegistry, times(1)).getAllPortletDefinitions();
+    }
+
+    @Test
+    public void testPrunedChangeLogRebuilds() {
+        marketplaceService.browseableMarketplaceEntriesFor(firstUser);
+
+        browseablePortletIds.remove("1");
+        for (int change = 0; change <= 1000; change++) {
+            marketplaceService.portletDefinitionChanged(portletDefinitions.get("1"));
+        }
+
+        assertEquals(set("2", "3"), getIds(marketplaceService.browseableMarketplaceEntriesFor(firstUser)));
+        verify(portletDefinitionRegistry, times(2)).getAllPortletDefinitions();
+    }
+
+    @Test
+    public void testChangeOnAnotherServerRebuilds() {
+        marketplaceService.browseableMarketplaceEntriesFor(firstUser);
+        marketplaceService.browseableMarketplaceEntriesFor(firstUser);
+        verify(portletDefinitionRegistry, times(1)).getAllPortletDefinitions();
+
+        //A change on another server replicates as an invalidation of the change stamp
+        browseablePortletIds.remove("1");
+        entriesCache.remove(MarketplaceService.PORTLET_CHANGE_STAMP_KEY);
+
+        assertEquals(set("2", "3"), getIds(marketplaceService.browseableMarketplaceEntriesFor(firstUser)));
+        verify(portletDefinitionRegistry, times(2)).getAllPortletDefinitions();
+    }
+
+    private void addPortletDefinition(String id, boolean browseable) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(id);
+
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portletDefinition.getFName()).thenReturn("portlet" + id);
+        when(portletDefinitionRegistry.getPortletDefinition(id)).thenReturn(portletDefinition);
+
+        portletDefinitions.put(id, portletDefinition);
+        if (browseable) {
+            browseablePortletIds.add(id);
+        }
+    }
+
+    private static Set<String> getIds(Set<MarketplaceEntry> entries) {
+        final Set<String> ids = new HashSet<String>();
+        for (final MarketplaceEntry entry : entries) {
+            ids.add(entry.getId());
+        }
+        return ids;
+    }
+
+    private static Set<String> set(String... ids) {
+        final Set<String> set = new HashSet<String>();
+        for (final String id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
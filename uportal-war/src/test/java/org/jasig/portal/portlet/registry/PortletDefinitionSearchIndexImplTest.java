@@ -0,0 +1,214 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.driver.PortalDriverContainerServices;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
+import org.jasig.portal.portlet.om.IPortletPreference;
+import org.jasig.portal.portlet.om.PortletCategory;
+import org.jasig.portal.portlet.registry.IPortletDefinitionSearchIndex.SearchField;
+import org.jasig.portal.utils.Tuple;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit tests for PortletDefinitionSearchIndexImpl.
+ */
+public class PortletDefinitionSearchIndexImplTest {
+    private static final Set<SearchField> ALL_FIELDS = EnumSet.allOf(SearchField.class);
+    
+    @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private IPortletCategoryRegistry portletCategoryRegistry;
+    @Mock private PortalDriverContainerServices portalDriverContainerServices;
+    @Mock private PortletRegistryService portletRegistryService;
+    @Mock private ExecutorService executorService;
+    
+    private final List<IPortletDefinition> portletDefinitions = new ArrayList<IPortletDefinition>();
+    private PortletDefinitionSearchIndexImpl searchIndex;
+    
+    private IPortletDefinition email;
+    private IPortletDefinition calendar;
+    private IPortletDefinition weather;
+    
+    @Before
+    public void setup() throws PortletContainerException {
+        initMocks(this);
+        
+        when(portletDefinitionRegistry.getAllPortletDefinitions()).thenReturn(portletDefinitions);
+        when(portletDefinitionRegistry.getPortletDescriptorKeys(any(IPortletDefinition.class))).thenReturn(new Tuple<String, String>("/app", "portlet"));
+        when(portalDriverContainerServices.getPortletRegistryService()).thenReturn(portletRegistryService);
+        when(portletRegistryService.getPortlet(anyString(), anyString())).thenThrow(new PortletContainerException("Not deployed"));
+        
+        email = createPortletDefinition("1", "email-preview", "Email Preview", "Shows your unread mail");
+        calendar = createPortletDefinition("2", "calendar", "Calendar", "Course and campus events including email invitations");
+        weather = createPortletDefinition("3", "weather", "Weather", null);
+        
+        final PortletCategory featured = new PortletCategory("local.1");
+        featured.setName("Featured Tools");
+        when(portletCategoryRegistry.getParentCategories(weather)).thenReturn(Collections.singleton(featured));
+        
+        final IPortletPreference caption = mock(IPortletPreference.class);
+        when(caption.getName()).thenReturn("screen_shot1_caption");
+        when(caption.getValues()).thenReturn(new String[] { "Sunny forecast" });
+        when(weather.getPortletPreferences()).thenReturn(Arrays.asList(caption));
+        
+        searchIndex = new PortletDefinitionSearchIndexImpl();
+        searchIndex.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        searchIndex.setPortletCategoryRegistry(portletCategoryRegistry);
+        searchIndex.setPortalDriverContainerServices(portalDriverContainerServices);
+        searchIndex.setExecutorService(executorService);
+        searchIndex.setMaxIndexAge(0);
+    }
+    
+    @Test
+    public void testRankedSearch() {
+        //Title match ranks above description match
+        assertEquals(ids(email, calendar), searchIndex.search("Email", ALL_FIELDS, -1));
+        assertEquals(ids(email), searchIndex.search("email", ALL_FIELDS, 1));
+        assertEquals(ids(email), searchIndex.search("email", EnumSet.of(SearchField.TITLE), -1));
+        
+        //All terms must match
+        assertEquals(ids(calendar), searchIndex.search("campus email", ALL_FIELDS, -1));
+        assertTrue(searchIndex.search("campus weather", ALL_FIELDS, -1).isEmpty());
+        assertTrue(searchIndex.search(" - ", ALL_FIELDS, -1).isEmpty());
+    }
+    
+    @Test
+    public void testPrefixSearch() {
+        assertEquals(ids(weather), searchIndex.search("wea", ALL_FIELDS, -1));
+        assertEquals(ids(email), searchIndex.search("email-pre", ALL_FIELDS, -1));
+        assertEquals(ids(calendar), searchIndex.search("c", EnumSet.of(SearchField.TITLE, SearchField.FNAME), -1));
+        //Prefix matches in the title rank above prefix matches in the description
+        assertEquals(ids(email, calendar), searchIndex.search("e", ALL_FIELDS, -1));
+    }
+    
+    @Test
+    public void testCategoriesAndMarketplaceText() {
+        assertEquals(ids(weather), searchIndex.search("featured", ALL_FIELDS, -1));
+        assertEquals(ids(weather), searchIndex.search("sunny", ALL_FIELDS, -1));
+        assertTrue(searchIndex.search("sunny", EnumSet.of(SearchField.TITLE, SearchField.DESCRIPTION), -1).isEmpty());
+    }
+    
+    @Test
+    public void testIncrementalUpdates() {
+        assertTrue(searchIndex.search("news", ALL_FIELDS, -1).isEmpty());
+        
+        final IPortletDefinition news = createPortletDefinition("4", "news", "Campus News", "Headlines");
+        searchIndex.indexPortletDefinition(news);
+        assertEquals(ids(news), searchIndex.search("news", ALL_FIELDS, -1));
+        
+        when(weather.getTitle()).thenReturn("Forecast");
+        searchIndex.indexPortletDefinition(weather);
+        assertEquals(ids(weather), searchIndex.search("forecast", ALL_FIELDS, -1));
+        
+        searchIndex.removePortletDefinition(email);
+        assertEquals(ids(calendar), searchIndex.search("email", ALL_FIELDS, -1));
+    }
+    
+    @Test
+    public void testStaleIndexRebuiltInBackground() throws Exception {
+        searchIndex.setMaxIndexAge(1);
+        assertEquals(ids(weather), searchIndex.search("weather", ALL_FIELDS, -1));
+        
+        final IPortletDefinition news = createPortletDefinition("4", "news", "Campus News", "Headlines");
+        Thread.sleep(5);
+        
+        //The stale index is searched while the rebuild waits for a thread, only one rebuild is scheduled
+        assertTrue(searchIndex.search("news", ALL_FIELDS, -1).isEmpty());
+        assertTrue(searchIndex.search("news", ALL_FIELDS, -1).isEmpty());
+        final ArgumentCaptor<Runnable> rebuildCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorService).execute(rebuildCaptor.capture());
+        
+        rebuildCaptor.getValue().run();
+        searchIndex.setMaxIndexAge(0);
+        assertEquals(ids(news), searchIndex.search("news", ALL_FIELDS, -1));
+    }
+    
+    @Test
+    public void testChangesDuringRebuildKept() {
+        assertEquals(ids(email, calendar), searchIndex.search("email", ALL_FIELDS, -1));
+        
+        //Simulate updates committed after the rebuild read the registry
+        final IPortletDefinition news = createPortletDefinition("4", "news", "Campus News", "Headlines");
+        portletDefinitions.remove(news);
+        final List<IPortletDefinition> registryContents = new ArrayList<IPortletDefinition>(portletDefinitions);
+        when(portletDefinitionRegistry.getAllPortletDefinitions()).thenAnswer(new Answer<List<IPortletDefinition>>() {
+            @Override
+            public List<IPortletDefinition> answer(InvocationOnMock invocation) throws Throwable {
+                searchIndex.indexPortletDefinition(news);
+                searchIndex.removePortletDefinition(email);
+                return registryContents;
+            }
+        });
+        
+        searchIndex.rebuildIndex();
+        assertEquals(ids(news), searchIndex.search("news", ALL_FIELDS, -1));
+        assertEquals(ids(calendar), searchIndex.search("email", ALL_FIELDS, -1));
+    }
+    
+    private IPortletDefinition createPortletDefinition(String id, String fname, String title, String description) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(id);
+        
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portletDefinition.getFName()).thenReturn(fname);
+        when(portletDefinition.getName()).thenReturn(title);
+        when(portletDefinition.getTitle()).thenReturn(title);
+        when(portletDefinition.getDescription()).thenReturn(description);
+        when(portletDefinition.getPortletPreferences()).thenReturn(Collections.<IPortletPreference>emptyList());
+        when(portletCategoryRegistry.getParentCategories(portletDefinition)).thenReturn(Collections.<PortletCategory>emptySet());
+        
+        portletDefinitions.add(portletDefinition);
+        return portletDefinition;
+    }
+    
+    private static List<IPortletDefinitionId> ids(IPortletDefinition... portletDefinitions) {
+        final List<IPortletDefinitionId> ids = new ArrayList<IPortletDefinitionId>();
+        for (final IPortletDefinition portletDefinition : portletDefinitions) {
+            ids.add(portletDefinition.getPortletDefinitionId());
+        }
+        return ids;
+    }
+}
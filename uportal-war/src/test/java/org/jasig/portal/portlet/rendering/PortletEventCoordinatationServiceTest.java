@@ -22,30 +22,48 @@ package org.jasig.portal.portlet.rendering;
 import static org.mockito.Matchers.anyString;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.portlet.Event;
 import javax.xml.namespace.QName;
 
 import net.sf.ehcache.Ehcache;
 
+import org.apache.pluto.container.driver.PortletRegistryEvent;
 import org.apache.pluto.container.om.portlet.EventDefinition;
 import org.apache.pluto.container.om.portlet.EventDefinitionReference;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.jasig.portal.IUserPreferencesManager;
+import org.jasig.portal.IUserProfile;
+import org.jasig.portal.layout.IUserLayoutManager;
+import org.jasig.portal.layout.IUserLayoutVersionService;
 import org.jasig.portal.mock.portlet.om.MockPortletDefinitionId;
+import org.jasig.portal.portlet.om.IPortletEntity;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.portlet.registry.IPortletEntityRegistry;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.user.IUserInstance;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
 
 /**
  * @author Eric Dalquist
@@ -56,6 +74,8 @@ public class PortletEventCoordinatationServiceTest {
     @InjectMocks private PortletEventCoordinatationService portletEventCoordinatationService = new PortletEventCoordinatationService();
     @Mock private Ehcache supportedEventCache;
     @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private IPortletEntityRegistry portletEntityRegistry;
+    @Mock private IUserLayoutVersionService userLayoutVersionService;
     
     
     @Test
@@ -101,4 +121,103 @@ public class PortletEventCoordinatationServiceTest {
         final boolean supportsEvent = portletEventCoordinatationService.supportsEvent(event, portletDefinitionId);
         assertTrue(supportsEvent);
     }
+    
+    @Test
+    public void testSupportedEventNames() throws Exception {
+        final QName searchRequestName = new QName("https://source.jasig.org/schemas/uportal/search", "SearchRequest");
+        final QName searchResultsName = new QName("https://source.jasig.org/schemas/uportal/search", "SearchResults");
+        final QName aliasedName = new QName("http://example.com/events", "Query");
+        final QName localName = new QName("Refresh");
+        
+        final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(1);
+        final PortletApplicationDefinition portletApplicationDefinition = mock(PortletApplicationDefinition.class);
+        final PortletDefinition portletDefinition = mock(PortletDefinition.class);
+        final EventDefinitionReference searchRequestEventDefinitionReference = mock(EventDefinitionReference.class);
+        final EventDefinitionReference localEventDefinitionReference = mock(EventDefinitionReference.class);
+        final EventDefinition aliasedEventDefinition = mock(EventDefinition.class);
+        final EventDefinition searchResultsEventDefinition = mock(EventDefinition.class);
+        
+        when(searchRequestEventDefinitionReference.getQualifiedName(anyString())).thenReturn(searchRequestName);
+        when(localEventDefinitionReference.getQualifiedName(anyString())).thenReturn(localName);
+        
+        when(aliasedEventDefinition.getQualifiedName(anyString())).thenReturn(aliasedName);
+        when(aliasedEventDefinition.getAliases()).thenReturn(Collections.singletonList(searchRequestName));
+        when(searchResultsEventDefinition.getQualifiedName(anyString())).thenReturn(searchResultsName);
+        
+        when(this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(portletDefinitionId)).thenReturn(portletApplicationDefinition);
+        when(this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDefinition);
+        when(portletApplicationDefinition.getDefaultNamespace()).thenReturn("http://example.com/default");
+        
+        final List<? extends EventDefinition> eventDefinitions = Arrays.asList(aliasedEventDefinition, searchResultsEventDefinition);
+        when(portletApplicationDefinition.getEventDefinitions()).thenReturn((List) eventDefinitions);
+        
+        final List<? extends EventDefinitionReference> supportedProcessingEvents = Arrays.asList(searchRequestEventDefinitionReference, localEventDefinitionReference);
+        when(portletDefinition.getSupportedProcessingEvents()).thenReturn((List) supportedProcessingEvents);
+        
+        final Set<QName> eventNames = portletEventCoordinatationService.getSupportedEventNames(portletDefinitionId);
+        assertEquals(new HashSet<QName>(Arrays.asList(searchRequestName, localName, new QName("http://example.com/default", "Refresh"), aliasedName)), eventNames);
+        
+        //The routing table and supportsEvent must agree
+        for (final QName eventName : Arrays.asList(searchRequestName, searchResultsName, aliasedName, new QName("http://example.com/default", "Refresh"))) {
+            final Event event = mock(Event.class);
+            when(event.getQName()).thenReturn(eventName);
+            assertEquals(eventName.toString(), eventNames.contains(eventName), portletEventCoordinatationService.supportsEvent(event, portletDefinitionId));
+        }
+    }
+    
+    @Test
+    public void testRoutingTableReuse() throws Exception {
+        final QName searchRequestName = new QName("https://source.jasig.org/schemas/uportal/search", "SearchRequest");
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.getSession();
+        
+        final IUserInstance userInstance = mock(IUserInstance.class);
+        final IUserPreferencesManager preferencesManager = mock(IUserPreferencesManager.class);
+        final IUserLayoutManager userLayoutManager = mock(IUserLayoutManager.class);
+        final IPerson person = mock(IPerson.class);
+        final IUserProfile userProfile = mock(IUserProfile.class);
+        when(userInstance.getPreferencesManager()).thenReturn(preferencesManager);
+        when(userInstance.getPerson()).thenReturn(person);
+        when(preferencesManager.getUserLayoutManager()).thenReturn(userLayoutManager);
+        when(preferencesManager.getUserProfile()).thenReturn(userProfile);
+        when(person.getID()).thenReturn(1);
+        when(userProfile.getProfileId()).thenReturn(2);
+        when(userLayoutManager.getAllSubscribedChannels()).thenReturn(new LinkedHashSet<String>(Arrays.asList("n1", "n2")));
+        when(this.userLayoutVersionService.getLayoutVersion(1, 2)).thenReturn(5L);
+        
+        final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(1);
+        final IPortletEntity portletEntity = mock(IPortletEntity.class);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(this.portletEntityRegistry.getOrCreatePortletEntity(request, userInstance, "n1")).thenReturn(portletEntity);
+        
+        final PortletApplicationDefinition portletApplicationDefinition = mock(PortletApplicationDefinition.class);
+        final PortletDefinition portletDefinition = mock(PortletDefinition.class);
+        final EventDefinitionReference searchRequestEventDefinitionReference = mock(EventDefinitionReference.class);
+        when(searchRequestEventDefinitionReference.getQualifiedName(anyString())).thenReturn(searchRequestName);
+        when(this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(portletDefinitionId)).thenReturn(portletApplicationDefinition);
+        when(this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDefinition);
+        final List<? extends EventDefinitionReference> supportedProcessingEvents = Collections.singletonList(searchRequestEventDefinitionReference);
+        when(portletDefinition.getSupportedProcessingEvents()).thenReturn((List) supportedProcessingEvents);
+        
+        final PortletEventRoutingTable routingTable = portletEventCoordinatationService.getPortletEventRoutingTable(request, userInstance);
+        assertEquals(Collections.singletonList("n1"), routingTable.getSubscribers(searchRequestName));
+        assertTrue(routingTable.getSubscribers(new QName("Other")).isEmpty());
+        
+        //Same layout version, table is reused
+        assertSame(routingTable, portletEventCoordinatationService.getPortletEventRoutingTable(request, userInstance));
+        verify(this.portletEntityRegistry, times(1)).getOrCreatePortletEntity(request, userInstance, "n1");
+        
+        //New layout version, table is rebuilt
+        when(this.userLayoutVersionService.getLayoutVersion(1, 2)).thenReturn(6L);
+        final PortletEventRoutingTable newRoutingTable = portletEventCoordinatationService.getPortletEventRoutingTable(request, userInstance);
+        assertNotSame(routingTable, newRoutingTable);
+        assertEquals(Collections.singletonList("n1"), newRoutingTable.getSubscribers(searchRequestName));
+        
+        //Redeployed portlet application, table is rebuilt and cached event support is dropped
+        final PortletRegistryEvent registryEvent = new PortletRegistryEvent();
+        registryEvent.setPortletApplication(portletApplicationDefinition);
+        portletEventCoordinatationService.portletApplicationRegistered(registryEvent);
+        assertNotSame(newRoutingTable, portletEventCoordinatationService.getPortletEventRoutingTable(request, userInstance));
+        verify(this.supportedEventCache).removeAll();
+    }
 }
@@ -0,0 +1,98 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Unit tests for PortletExecutionManager.
+ */
+public class PortletExecutionManagerTest {
+    @Mock private IPortletWindowId firstWindowId;
+    @Mock private IPortletWindowId secondWindowId;
+    @Mock private IPortletRenderExecutionWorker firstWorker;
+    @Mock private IPortletRenderExecutionWorker secondWorker;
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private PortletExecutionManager portletExecutionManager;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        portletExecutionManager = new PortletExecutionManager();
+        portletExecutionManager.getPortletRenderingMap(request).put(firstWindowId, firstWorker);
+        portletExecutionManager.getPortletRenderingMap(request).put(secondWindowId, secondWorker);
+    }
+
+    @Test
+    public void testWaitForPortletRenderRegistersOneCallbackPerWorker() throws InterruptedException {
+        final Set<IPortletWindowId> portletWindowIds = new LinkedHashSet<IPortletWindowId>(Arrays.asList(firstWindowId, secondWindowId));
+
+        assertNull(portletExecutionManager.waitForPortletRender(portletWindowIds, 1, request, response));
+        assertNull(portletExecutionManager.waitForPortletRender(portletWindowIds, 1, request, response));
+
+        final ArgumentCaptor<Runnable> firstCallback = ArgumentCaptor.forClass(Runnable.class);
+        verify(firstWorker, times(1)).addCompletionCallback(firstCallback.capture());
+        final ArgumentCaptor<Runnable> secondCallback = ArgumentCaptor.forClass(Runnable.class);
+        verify(secondWorker, times(1)).addCompletionCallback(secondCallback.capture());
+
+        //Completions are returned in completion order
+        secondCallback.getValue().run();
+        firstCallback.getValue().run();
+        assertEquals(secondWindowId, portletExecutionManager.waitForPortletRender(portletWindowIds, 1000, request, response));
+        portletWindowIds.remove(secondWindowId);
+        assertEquals(firstWindowId, portletExecutionManager.waitForPortletRender(portletWindowIds, 1000, request, response));
+    }
+
+    @Test
+    public void testWaitForPortletRenderSkipsPortletsNoLongerWaitedOn() throws InterruptedException {
+        final Set<IPortletWindowId> portletWindowIds = new LinkedHashSet<IPortletWindowId>(Arrays.asList(firstWindowId, secondWindowId));
+        assertNull(portletExecutionManager.waitForPortletRender(portletWindowIds, 1, request, response));
+
+        final ArgumentCaptor<Runnable> firstCallback = ArgumentCaptor.forClass(Runnable.class);
+        verify(firstWorker).addCompletionCallback(firstCallback.capture());
+
+        //The first portlet is no longer waited on when it completes
+        portletWindowIds.remove(firstWindowId);
+        firstCallback.getValue().run();
+        assertNull(portletExecutionManager.waitForPortletRender(portletWindowIds, 1, request, response));
+        verify(secondWorker, times(1)).addCompletionCallback(any(Runnable.class));
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.portlet.rendering.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Unit tests for AdaptivePortletSchedulingPolicy.
+ */
+public class AdaptivePortletSchedulingPolicyTest {
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private ThreadPoolExecutor portletThreadPool;
+    private AdaptivePortletSchedulingPolicy schedulingPolicy;
+    
+    @Before
+    public void setup() {
+        portletThreadPool = new ThreadPoolExecutor(0, 20, 1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        
+        schedulingPolicy = new AdaptivePortletSchedulingPolicy();
+        schedulingPolicy.setPortletThreadPool(portletThreadPool);
+        schedulingPolicy.setPercentPermittedSlowByFname(.1);
+        schedulingPolicy.setMinimumSamples(2);
+    }
+    
+    @After
+    public void tearDown() {
+        portletThreadPool.shutdownNow();
+    }
+    
+    @Test
+    public void testHealthyPortletNotThrottled() {
+        execute("fast", 30, 1000);
+        execute("fast", 50, 1000);
+        
+        assertFalse(schedulingPolicy.isThrottled("fast"));
+        assertEquals(Integer.MAX_VALUE, schedulingPolicy.getWorkerLimit("fast"));
+        assertEquals(Long.valueOf(40), schedulingPolicy.getAverageExecutionTimes().get("fast"));
+        assertEquals(Collections.emptyMap(), schedulingPolicy.getThrottledPortlets());
+    }
+    
+    @Test
+    public void testSlowPortletLimited() {
+        //Not enough samples to classify
+        execute("slow", 3000, 5000);
+        assertFalse(schedulingPolicy.isThrottled("slow"));
+
+        execute("slow", 3000, 5000);
+        assertTrue(schedulingPolicy.isThrottled("slow"));
+        assertEquals(2, schedulingPolicy.getWorkerLimit("slow"));
+        assertEquals(Collections.singletonMap("slow", 2), new HashMap<String, Integer>(schedulingPolicy.getThrottledPortlets()));
+    }
+    
+    @Test
+    public void testSlowPortletQueued() throws Exception {
+        execute("slow", 3000, 5000);
+        execute("slow", 3000, 5000);
+        
+        final ExecutorService executorService = schedulingPolicy.getExecutorService();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(2);
+        final Future<String> first = submit(executorService, "slow", started, release);
+        final Future<String> second = submit(executorService, "slow", started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        
+        //Third is over the limit of 2 and waits for a worker of the same fname to complete
+        final CountDownLatch thirdStarted = new CountDownLatch(1);
+        final Future<String> third = submit(executorService, "slow", thirdStarted, new CountDownLatch(0));
+        assertFalse(thirdStarted.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(2), schedulingPolicy.getActiveWorkerCounts().get("slow"));
+        assertEquals(Integer.valueOf(1), schedulingPolicy.getQueuedWorkerCounts().get("slow"));
+        assertEquals(Long.valueOf(1), schedulingPolicy.getQueuedExecutionCounts().get("slow"));
+        
+        //Healthy portlets are not queued behind the slow portlet
+        final CountDownLatch fastStarted = new CountDownLatch(1);
+        final Future<String> fast = submit(executorService, "fast", fastStarted, new CountDownLatch(0));
+        assertEquals("done", fast.get(5, TimeUnit.SECONDS));
+        
+        release.countDown();
+        assertEquals("done", first.get(5, TimeUnit.SECONDS));
+        assertEquals("done", second.get(5, TimeUnit.SECONDS));
+        assertEquals("done", third.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(0), schedulingPolicy.getQueuedWorkerCounts().get("slow"));
+    }
+    
+    @Test
+    public void testCancelledQueuedExecutionSkipped() throws Exception {
+        schedulingPolicy.setPercentPermittedSlowByFname(.05);
+        execute("slow", 3000, 5000);
+        execute("slow", 3000, 5000);
+        assertEquals(1, schedulingPolicy.getWorkerLimit("slow"));
+        
+        final ExecutorService executorService = schedulingPolicy.getExecutorService();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final Future<String> first = submit(executorService, "slow", started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        
+        final CountDownLatch timedOutStarted = new CountDownLatch(1);
+        final Future<String> timedOut = submit(executorService, "slow", timedOutStarted, new CountDownLatch(0));
+        final Future<String> next = submit(executorService, "slow", new CountDownLatch(1), new CountDownLatch(0));
+        timedOut.cancel(true);
+        
+        release.countDown();
+        assertEquals("done", first.get(5, TimeUnit.SECONDS));
+        assertEquals("done", next.get(5, TimeUnit.SECONDS));
+        assertEquals(1, timedOutStarted.getCount());
+    }
+    
+    @Test
+    public void testTimingOutPortletLimited() {
+        execute("remote", 100, 1000);
+        execute("remote", 1500, 1000);
+        
+        assertEquals(Long.valueOf(50), schedulingPolicy.getTimeoutPercentages().get("remote"));
+        assertTrue(schedulingPolicy.isThrottled("remote"));
+    }
+    
+    @Test
+    public void testDisabledByDefault() {
+        schedulingPolicy = new AdaptivePortletSchedulingPolicy();
+        schedulingPolicy.setPortletThreadPool(portletThreadPool);
+        schedulingPolicy.setMinimumSamples(2);
+        execute("slow", 3000, 5000);
+        execute("slow", 3000, 5000);
+        
+        assertEquals(0, schedulingPolicy.getPercentPermittedSlowByFname(), 0);
+        assertFalse(schedulingPolicy.isThrottled("slow"));
+        assertEquals(Integer.MAX_VALUE, schedulingPolicy.getWorkerLimit("slow"));
+    }
+    
+    private void execute(String fname, long duration, long timeout) {
+        final StubExecutionContext context = new StubExecutionContext(fname);
+        schedulingPolicy.preSubmit(request, response, context);
+        schedulingPolicy.preExecution(request, response, context);
+        context.duration = duration;
+        context.timeout = timeout;
+        schedulingPolicy.postExecution(request, response, context, null);
+    }
+    
+    private Future<String> submit(ExecutorService executorService, String fname, CountDownLatch started, CountDownLatch release) {
+        //Submitted as a Callable the same way PortletExecutionWorker does
+        final Callable<String> callable = new PortletExecutionCallable<String>(new StubExecutionContext(fname), new BlockingCallable(started, release));
+        return executorService.submit(callable);
+    }
+    
+    private static final class BlockingCallable implements Callable<String> {
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+        
+        public BlockingCallable(CountDownLatch started, CountDownLatch release) {
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public String call() throws Exception {
+            started.countDown();
+            release.await();
+            return "done";
+        }
+    }
+    
+    private static final class StubExecutionContext implements IPortletExecutionContext {
+        private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        private final String fname;
+        private long duration;
+        private long timeout;
+        
+        public StubExecutionContext(String fname) {
+            this.fname = fname;
+        }
+
+        @Override
+        public ExecutionType getExecutionType() {
+            return ExecutionType.RENDER;
+        }
+
+        @Override
+        public Object setExecutionAttribute(String name, Object value) {
+            return attributes.put(name, value);
+        }
+
+        @Override
+        public Object getExecutionAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public IPortletWindowId getPortletWindowId() {
+            return null;
+        }
+
+        @Override
+        public String getPortletFname() {
+            return fname;
+        }
+
+        @Override
+        public boolean isSubmitted() {
+            return true;
+        }
+
+        @Override
+        public boolean isStarted() {
+            return true;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return duration > 0;
+        }
+
+        @Override
+        public long getSubmittedTime() {
+            return 0;
+        }
+
+        @Override
+        public long getStartedTime() {
+            return 0;
+        }
+
+        @Override
+        public long getCompleteTime() {
+            return duration;
+        }
+
+        @Override
+        public long getWait() {
+            return 0;
+        }
+
+        @Override
+        public long getDuration() {
+            return duration;
+        }
+
+        @Override
+        public long getApplicableTimeout() {
+            return timeout;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jasig.portal.character.stream.CharacterEventBufferReader;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Unit tests for PortletRenderingIncorporationComponent.
+ */
+public class PortletRenderingIncorporationComponentTest {
+    @Mock private IPortletExecutionManager portletExecutionManager;
+    @Mock private CharacterPipelineComponent wrappedComponent;
+    @Mock private IPortletWindowId fastWindowId;
+    @Mock private IPortletWindowId slowWindowId;
+    @Mock private IPortletWindowId slowerWindowId;
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private PortletRenderingIncorporationComponent component;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        when(fastWindowId.getStringId()).thenReturn("fast");
+        when(slowWindowId.getStringId()).thenReturn("slow");
+        when(slowerWindowId.getStringId()).thenReturn("slower");
+
+        final List<CharacterEvent> events = Arrays.<CharacterEvent>asList(
+                CharacterDataEventImpl.create("<body>"),
+                new PortletContentPlaceholderEventImpl(slowerWindowId),
+                new PortletContentPlaceholderEventImpl(slowWindowId),
+                new PortletContentPlaceholderEventImpl(fastWindowId),
+                CharacterDataEventImpl.create("<p>footer</p></body></html>"));
+        final CharacterEventReader eventReader = new CharacterEventBufferReader(events.listIterator());
+        when(wrappedComponent.getEventReader(request, response)).thenReturn(
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(eventReader));
+
+        when(portletExecutionManager.getPortletOutput(slowerWindowId, request, response)).thenReturn("SLOWER");
+        when(portletExecutionManager.getPortletOutput(slowWindowId, request, response)).thenReturn("SLOW");
+        when(portletExecutionManager.getPortletOutput(fastWindowId, request, response)).thenReturn("FAST");
+        when(portletExecutionManager.getPortletRenderTimeout(slowerWindowId, request)).thenReturn(60000l);
+        when(portletExecutionManager.getPortletRenderTimeout(slowWindowId, request)).thenReturn(60000l);
+        when(portletExecutionManager.getPortletRenderTimeout(fastWindowId, request)).thenReturn(60000l);
+
+        component = new PortletRenderingIncorporationComponent();
+        component.setWrappedComponent(wrappedComponent);
+        component.setPortletExecutionManager(portletExecutionManager);
+    }
+
+    @Test
+    public void testInlineRendering() {
+        when(portletExecutionManager.isPortletRenderComplete(slowerWindowId, request, response)).thenReturn(false);
+        when(portletExecutionManager.isPortletRenderComplete(slowWindowId, request, response)).thenReturn(false);
+        when(portletExecutionManager.isPortletRenderComplete(fastWindowId, request, response)).thenReturn(true);
+
+        assertEquals(Arrays.asList("<body>", "SLOWER", "SLOW", "FAST", "<p>footer</p></body></html>"), readAll());
+    }
+
+    @Test
+    public void testDeferredRendering() throws InterruptedException {
+        component.setDeferIncompletePortlets(true);
+
+        //both slow portlets are incomplete at their placeholders, the slow portlet completes first
+        when(portletExecutionManager.isPortletRenderComplete(slowerWindowId, request, response)).thenReturn(false);
+        when(portletExecutionManager.isPortletRenderComplete(slowWindowId, request, response)).thenReturn(false);
+        when(portletExecutionManager.isPortletRenderComplete(fastWindowId, request, response)).thenReturn(true);
+        when(portletExecutionManager.waitForPortletRender(anyCollectionOf(IPortletWindowId.class), anyLong(), eq(request), eq(response)))
+            .thenReturn(slowWindowId, slowerWindowId);
+
+        final List<String> output = readAll();
+        assertEquals(8, output.size());
+        assertEquals("<body>", output.get(0));
+        assertEquals("<div id=\"up-deferred-portlet_slower\" class=\"up-portlet-deferred\"></div>", output.get(1));
+        assertEquals("<div id=\"up-deferred-portlet_slow\" class=\"up-portlet-deferred\"></div>", output.get(2));
+        assertEquals("FAST", output.get(3));
+        assertEquals("<p>footer</p>", output.get(4));
+        assertTrue(output.get(5), output.get(5).startsWith("<div id=\"up-deferred-portlet-content_slow\" style=\"display:none\">SLOW</div><script"));
+        assertTrue(output.get(6), output.get(6).startsWith("<div id=\"up-deferred-portlet-content_slower\" style=\"display:none\">SLOWER</div><script"));
+        assertEquals("</body></html>", output.get(7));
+    }
+
+    @Test
+    public void testDeferredRenderingIgnoresPortletBodyEndTag() throws InterruptedException {
+        component.setDeferIncompletePortlets(true);
+
+        //the closing body tag in the fast portlet's output must not be used to place the deferred content
+        when(portletExecutionManager.getPortletOutput(fastWindowId, request, response)).thenReturn("<pre>FAST</body></pre>");
+        when(portletExecutionManager.isPortletRenderComplete(slowerWindowId, request, response)).thenReturn(false);
+        when(portletExecutionManager.isPortletRenderComplete(slowWindowId, request, response)).thenReturn(false);
+        when(portletExecutionManager.isPortletRenderComplete(fastWindowId, request, response)).thenReturn(true);
+        when(portletExecutionManager.waitForPortletRender(anyCollectionOf(IPortletWindowId.class), anyLong(), eq(request), eq(response)))
+            .thenReturn(slowWindowId, slowerWindowId);
+
+        final List<String> output = readAll();
+        assertEquals(8, output.size());
+        assertEquals("<pre>FAST</body></pre>", output.get(3));
+        assertEquals("<p>footer</p>", output.get(4));
+        assertTrue(output.get(5), output.get(5).contains(">SLOW</div>"));
+        assertTrue(output.get(6), output.get(6).contains(">SLOWER</div>"));
+        assertEquals("</body></html>", output.get(7));
+    }
+
+    @Test
+    public void testDeferredRenderingTimeout() throws InterruptedException {
+        component.setDeferIncompletePortlets(true);
+
+        //neither slow portlet completes before the deadline, they are written in document order
+        when(portletExecutionManager.isPortletRenderComplete(slowerWindowId, request, response)).thenReturn(false);
+        when(portletExecutionManager.isPortletRenderComplete(slowWindowId, request, response)).thenReturn(false);
+        when(portletExecutionManager.isPortletRenderComplete(fastWindowId, request, response)).thenReturn(true);
+        when(portletExecutionManager.waitForPortletRender(anyCollectionOf(IPortletWindowId.class), anyLong(), eq(request), eq(response)))
+            .thenReturn(null);
+
+        final List<String> output = readAll();
+        assertEquals(8, output.size());
+        assertTrue(output.get(5), output.get(5).contains(">SLOWER</div>"));
+        assertTrue(output.get(6), output.get(6).contains(">SLOW</div>"));
+        assertEquals("</body></html>", output.get(7));
+    }
+
+    private List<String> readAll() {
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader = component.getEventReader(request, response);
+
+        final List<String> output = new ArrayList<String>();
+        for (final CharacterEvent event : pipelineEventReader) {
+            output.add(((CharacterDataEvent) event).getData());
+        }
+        return output;
+    }
+}
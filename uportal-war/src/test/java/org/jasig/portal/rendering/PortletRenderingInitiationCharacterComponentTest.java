@@ -0,0 +1,104 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jasig.portal.character.stream.CharacterEventBufferReader;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.character.stream.events.PortletLinkPlaceholderEventImpl;
+import org.jasig.portal.character.stream.events.PortletNewItemCountPlaceholderEventImpl;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Unit tests for PortletRenderingInitiationCharacterComponent.
+ */
+public class PortletRenderingInitiationCharacterComponentTest {
+    @Mock private IPortletExecutionManager portletExecutionManager;
+    @Mock private CharacterPipelineComponent wrappedComponent;
+    @Mock private IPortletWindowId contentWindowId;
+    @Mock private IPortletWindowId linkWindowId;
+    @Mock private IPortletWindowId newItemCountWindowId;
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private PortletRenderingInitiationCharacterComponent component;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        final List<CharacterEvent> events = Arrays.<CharacterEvent>asList(
+                new PortletContentPlaceholderEventImpl(contentWindowId),
+                new PortletLinkPlaceholderEventImpl(linkWindowId, "/p/link"),
+                new PortletNewItemCountPlaceholderEventImpl(newItemCountWindowId));
+        final CharacterEventReader eventReader = new CharacterEventBufferReader(events.listIterator());
+        when(wrappedComponent.getEventReader(request, response)).thenReturn(
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(eventReader));
+
+        component = new PortletRenderingInitiationCharacterComponent();
+        component.setWrappedComponent(wrappedComponent);
+        component.setPortletExecutionManager(portletExecutionManager);
+    }
+
+    @Test
+    public void testPlaceholderRendersNotStartedByDefault() {
+        assertEquals(3, countEvents(component.getEventReader(request, response)));
+
+        verify(portletExecutionManager).startPortletRender(contentWindowId, request, response);
+        verify(portletExecutionManager, never()).startPortletRender(linkWindowId, request, response);
+        verify(portletExecutionManager, never()).startPortletRender(newItemCountWindowId, request, response);
+    }
+
+    @Test
+    public void testPlaceholderRendersStarted() {
+        component.setInitiateRenderForPlaceholders(true);
+        assertEquals(3, countEvents(component.getEventReader(request, response)));
+
+        verify(portletExecutionManager).startPortletRender(contentWindowId, request, response);
+        verify(portletExecutionManager).startPortletRender(linkWindowId, request, response);
+        verify(portletExecutionManager).startPortletRender(newItemCountWindowId, request, response);
+    }
+
+    private static int countEvents(PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader) {
+        final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
+        int count = 0;
+        while (eventReader.hasNext()) {
+            eventReader.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintWriter;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Unit tests for RenderingOutputBuffer.
+ */
+public class RenderingOutputBufferTest {
+
+    @Test
+    public void testCoalescesUntilThreshold() throws Exception {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final PrintWriter writer = response.getWriter();
+        final RenderingOutputBuffer outputBuffer = new RenderingOutputBuffer(writer, response, 10);
+
+        outputBuffer.write("abc");
+        outputBuffer.write("def");
+        assertEquals("", response.getContentAsString());
+        assertEquals(0, outputBuffer.getFlushCount());
+
+        outputBuffer.write("ghij");
+        assertEquals("abcdefghij", response.getContentAsString());
+        assertEquals(1, outputBuffer.getFlushCount());
+        assertEquals(10, outputBuffer.getFlushedBytes());
+    }
+
+    @Test
+    public void testChunkPointFlushes() throws Exception {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final RenderingOutputBuffer outputBuffer = new RenderingOutputBuffer(response.getWriter(), response, 1024);
+
+        outputBuffer.write("<html>");
+        outputBuffer.write("");
+        assertEquals("<html>", response.getContentAsString());
+
+        //Empty buffer doesn't count as a flush
+        outputBuffer.write("");
+        outputBuffer.flush();
+        assertEquals(1, outputBuffer.getFlushCount());
+    }
+
+    @Test
+    public void testFlushPendingOutput() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final RenderingOutputBuffer outputBuffer = new RenderingOutputBuffer(response.getWriter(), response, 1024);
+
+        //No buffer bound
+        RenderingOutputBuffer.flushPendingOutput(request);
+
+        outputBuffer.bind(request);
+        outputBuffer.write("<body>");
+        RenderingOutputBuffer.flushPendingOutput(request);
+        assertEquals("<body>", response.getContentAsString());
+
+        outputBuffer.unbind(request);
+        outputBuffer.write("<div>");
+        RenderingOutputBuffer.flushPendingOutput(request);
+        assertEquals("<body>", response.getContentAsString());
+    }
+
+    @Test
+    public void testImmediateMode() throws Exception {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final RenderingOutputBuffer outputBuffer = new RenderingOutputBuffer(response.getWriter(), response, 0);
+
+        outputBuffer.write("a");
+        outputBuffer.write("b");
+        assertEquals("ab", response.getContentAsString());
+        assertEquals(2, outputBuffer.getFlushCount());
+    }
+
+    @Test
+    public void testUtf8Length() {
+        assertEquals(3, RenderingOutputBuffer.utf8Length("abc"));
+        assertEquals(2, RenderingOutputBuffer.utf8Length("\u00e9"));
+        assertEquals(3, RenderingOutputBuffer.utf8Length("\u20ac"));
+        assertEquals(4, RenderingOutputBuffer.utf8Length("\ud83d\ude00"));
+    }
+}
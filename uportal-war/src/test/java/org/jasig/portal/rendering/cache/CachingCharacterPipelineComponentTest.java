@@ -19,22 +19,38 @@
 
 package org.jasig.portal.rendering.cache;
 
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.notNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 import org.jasig.portal.rendering.PipelineEventReader;
 import org.jasig.portal.rendering.PipelineEventReaderImpl;
@@ -65,7 +81,7 @@ public class CachingCharacterPipelineComponentTest {
         
         expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
         expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
-        expect(cache.get(cacheKey)).andReturn(null);
+        expect(cache.get(cacheKey)).andReturn(null).times(2);
         expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
         cache.put((Element)notNull());
         expectLastCall();
@@ -91,7 +107,7 @@ public class CachingCharacterPipelineComponentTest {
         final MockHttpServletRequest mockReq = new MockHttpServletRequest();
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
         final CacheKey cacheKey = CacheKey.build("testCacheKey");
-        final CachedEventReader<CharacterEvent> eventReader = new CachedEventReader<CharacterEvent>(Collections.EMPTY_LIST, Collections.EMPTY_MAP);
+        final CachedEventReader<CharacterEvent> eventReader = new CachedEventReader<CharacterEvent>(Collections.EMPTY_LIST, Collections.EMPTY_MAP, 0);
         final Element cacheElement = new Element(cacheKey, eventReader);
         
         final Ehcache cache = createMock(Ehcache.class);
@@ -117,4 +133,105 @@ public class CachingCharacterPipelineComponentTest {
         
         verify(cache, targetComponent, elementsProvider);
     }
+    
+    @Test
+    public void testConcurrentCacheMissSingleFlight() throws Exception {
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoad = new CountDownLatch(1);
+        final AtomicInteger loadCount = new AtomicInteger();
+        
+        final CharacterPipelineComponent targetComponent = new CharacterPipelineComponent() {
+            @Override
+            public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
+                return cacheKey;
+            }
+            
+            @Override
+            public PipelineEventReader<CharacterEventReader, CharacterEvent> getEventReader(HttpServletRequest request, HttpServletResponse response) {
+                loadCount.incrementAndGet();
+                loadStarted.countDown();
+                try {
+                    releaseLoad.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                
+                final List<CharacterEvent> events = Arrays.<CharacterEvent>asList(CharacterDataEventImpl.create("<html>"));
+                return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(new CharacterEventBufferReader(events.listIterator()));
+            }
+        };
+        
+        final Ehcache cache = createNiceMock(Ehcache.class);
+        final ResourcesElementsProvider elementsProvider = createMock(ResourcesElementsProvider.class);
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED).anyTimes();
+        expect(cache.get(anyObject())).andReturn(null).anyTimes();
+        replay(cache, elementsProvider);
+        
+        final PipelineEventCacheStatsBean cacheStats = new PipelineEventCacheStatsBean();
+        final CachingCharacterPipelineComponent cachingComponent = new CachingCharacterPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setCacheStats(cacheStats);
+        cachingComponent.setWrappedComponent(targetComponent);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+        
+        final Callable<CharacterEvent> render = new Callable<CharacterEvent>() {
+            @Override
+            public CharacterEvent call() throws Exception {
+                final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = 
+                        cachingComponent.getEventReader(new MockHttpServletRequest(), new MockHttpServletResponse());
+                return eventReader.getEventReader().next();
+            }
+        };
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<CharacterEvent> first = executor.submit(render);
+            Assert.assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+            final Future<CharacterEvent> second = executor.submit(render);
+            
+            //Wait for the second request to start waiting on the in-flight load
+            final long waitUntil = System.currentTimeMillis() + 10000;
+            while (cacheStats.getCoalescedLoadCount() == 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(1);
+            }
+            releaseLoad.countDown();
+            
+            Assert.assertEquals(CharacterDataEventImpl.create("<html>"), first.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(CharacterDataEventImpl.create("<html>"), second.get(10, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        Assert.assertEquals(1, loadCount.get());
+        Assert.assertEquals(1, cacheStats.getCoalescedLoadCount());
+        Assert.assertEquals(1, cacheStats.getEntryCount());
+    }
+    
+    @Test
+    public void testCompactEvents() {
+        final IPortletWindowId portletWindowId = createMock(IPortletWindowId.class);
+        final CharacterEvent placeholder = new PortletContentPlaceholderEventImpl(portletWindowId);
+        
+        final List<CharacterEvent> events = Arrays.<CharacterEvent>asList(
+                CharacterDataEventImpl.create("<html>"),
+                CharacterDataEventImpl.create("<body>"),
+                CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                CharacterDataEventImpl.create("<div>"),
+                placeholder,
+                CharacterDataEventImpl.create("</div>"),
+                CharacterDataEventImpl.create("</body>"));
+        
+        final CachingCharacterPipelineComponent cachingComponent = new CachingCharacterPipelineComponent();
+        final List<CharacterEvent> compactedEvents = cachingComponent.compactEvents(events);
+        
+        Assert.assertEquals(Arrays.<CharacterEvent>asList(
+                CharacterDataEventImpl.create("<html><body>"),
+                CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                CharacterDataEventImpl.create("<div>"),
+                placeholder,
+                CharacterDataEventImpl.create("</div></body>")), compactedEvents);
+    }
 }
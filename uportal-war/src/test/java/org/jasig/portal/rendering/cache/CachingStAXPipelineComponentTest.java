@@ -26,10 +26,18 @@ import static org.easymock.EasyMock.notNull;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import net.sf.ehcache.Ehcache;
@@ -66,7 +74,7 @@ public class CachingStAXPipelineComponentTest {
         
         expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED);
         expect(targetComponent.getCacheKey(mockReq, mockRes)).andReturn(cacheKey);
-        expect(cache.get(cacheKey)).andReturn(null);
+        expect(cache.get(cacheKey)).andReturn(null).times(2);
         expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(eventReader);
         cache.put((Element)notNull());
         expectLastCall();
@@ -92,7 +100,7 @@ public class CachingStAXPipelineComponentTest {
         final MockHttpServletRequest mockReq = new MockHttpServletRequest();
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
         final CacheKey cacheKey = CacheKey.build("testCacheKey");
-        final CachedEventReader<XMLEvent> eventReader = new CachedEventReader<XMLEvent>(Collections.EMPTY_LIST, Collections.EMPTY_MAP);
+        final CachedEventReader<XMLEvent> eventReader = new CachedEventReader<XMLEvent>(Collections.EMPTY_LIST, Collections.EMPTY_MAP, 0);
         final Element cacheElement = new Element(cacheKey, eventReader);
         
         final Ehcache cache = createMock(Ehcache.class);
@@ -118,4 +126,88 @@ public class CachingStAXPipelineComponentTest {
         
         verify(cache, targetComponent, elementsProvider);
     }
+    
+    @Test
+    public void testCompactEvents() {
+        final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+        final List<XMLEvent> events = Arrays.<XMLEvent>asList(
+                eventFactory.createStartElement(new QName("layout"), 
+                        Collections.singleton(eventFactory.createAttribute("ID", "s1")).iterator(), null),
+                eventFactory.createCharacters("foo"),
+                eventFactory.createCharacters("bar"),
+                eventFactory.createEndElement(new QName("layout"), null),
+                eventFactory.createStartElement(new QName("layout"), 
+                        Collections.singleton(eventFactory.createAttribute("ID", "s1")).iterator(), null),
+                eventFactory.createCData("baz"),
+                eventFactory.createEndElement(new QName("layout"), null));
+        
+        final CachingStAXPipelineComponent cachingComponent = new CachingStAXPipelineComponent();
+        final List<XMLEvent> compactedEvents = cachingComponent.compactEvents(events);
+        
+        Assert.assertEquals(6, compactedEvents.size());
+        Assert.assertEquals("foobar", compactedEvents.get(1).asCharacters().getData());
+        Assert.assertTrue(compactedEvents.get(4).asCharacters().isCData());
+        
+        //Attributes and end elements are shared
+        final StartElement first = compactedEvents.get(0).asStartElement();
+        final StartElement second = compactedEvents.get(3).asStartElement();
+        Assert.assertSame(first.getAttributeByName(new QName("ID")), second.getAttributeByName(new QName("ID")));
+        Assert.assertSame(compactedEvents.get(2), compactedEvents.get(5));
+    }
+    
+    @Test
+    public void testCompactEventsKeepsLocationAndNamespaceContext() throws Exception {
+        final XMLEventReader eventReader = XMLInputFactory.newFactory().createXMLEventReader(
+                new StringReader("<layout xmlns:dlm=\"urn:dlm\">\n  <folder dlm:id=\"s1\"/>\n</layout>"));
+        final List<XMLEvent> events = new ArrayList<XMLEvent>();
+        while (eventReader.hasNext()) {
+            events.add(eventReader.nextEvent());
+        }
+        
+        final CachingStAXPipelineComponent cachingComponent = new CachingStAXPipelineComponent();
+        final List<XMLEvent> compactedEvents = cachingComponent.compactEvents(events);
+        
+        StartElement folder = null;
+        for (final XMLEvent event : compactedEvents) {
+            if (event.isStartElement() && "folder".equals(event.asStartElement().getName().getLocalPart())) {
+                folder = event.asStartElement();
+            }
+        }
+        
+        Assert.assertNotNull(folder);
+        Assert.assertEquals(2, folder.getLocation().getLineNumber());
+        Assert.assertEquals("urn:dlm", folder.getNamespaceContext().getNamespaceURI("dlm"));
+        Assert.assertEquals("s1", folder.getAttributeByName(new QName("urn:dlm", "id")).getValue());
+    }
+    
+    @Test
+    public void testCompactEventsKeepsPrefixes() throws Exception {
+        final CachingStAXPipelineComponent cachingComponent = new CachingStAXPipelineComponent();
+        final List<XMLEvent> first = cachingComponent.compactEvents(readEvents("<a:layout xmlns:a=\"urn:x\" a:id=\"s1\"></a:layout>"));
+        final List<XMLEvent> second = cachingComponent.compactEvents(readEvents("<b:layout xmlns:b=\"urn:x\" b:id=\"s1\"></b:layout>"));
+        
+        //Both documents use the same qualified names but each must keep its own prefix
+        Assert.assertEquals("<a:layout xmlns:a=\"urn:x\" a:id=\"s1\"></a:layout>", writeEvents(first));
+        Assert.assertEquals("<b:layout xmlns:b=\"urn:x\" b:id=\"s1\"></b:layout>", writeEvents(second));
+    }
+    
+    private List<XMLEvent> readEvents(String xml) throws Exception {
+        final XMLEventReader eventReader = XMLInputFactory.newFactory().createXMLEventReader(new StringReader(xml));
+        final List<XMLEvent> events = new ArrayList<XMLEvent>();
+        while (eventReader.hasNext()) {
+            final XMLEvent event = eventReader.nextEvent();
+            if (event.isStartElement() || event.isEndElement()) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+    
+    private String writeEvents(List<XMLEvent> events) throws Exception {
+        final StringWriter writer = new StringWriter();
+        for (final XMLEvent event : events) {
+            event.writeAsEncodedUnicode(writer);
+        }
+        return writer.toString();
+    }
 }
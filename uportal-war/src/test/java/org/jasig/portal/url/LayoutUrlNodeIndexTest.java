@@ -0,0 +1,84 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.url;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Unit tests for LayoutUrlNodeIndex.
+ */
+public class LayoutUrlNodeIndexTest {
+    private static final String LAYOUT = 
+            "<layout>" +
+            "<folder ID=\"root\">" +
+                "<folder ID=\"header\"><channel ID=\"n1\" fname=\"login\"/></folder>" +
+                "<folder ID=\"s1\">" +
+                    "<folder ID=\"s1c1\"><channel ID=\"n2\" fname=\"weather\"/><channel ID=\"n3\" fname=\"news\"/></folder>" +
+                    "<folder ID=\"s1c2\"><channel ID=\"n4\" fname=\"weather\"/></folder>" +
+                "</folder>" +
+                "<folder ID=\"s2\">" +
+                    "<folder ID=\"s2c1\"><channel ID=\"n5\" fname=\"news\"/></folder>" +
+                "</folder>" +
+            "</folder>" +
+            "</layout>";
+    
+    private LayoutUrlNodeIndex index;
+    
+    @Before
+    public void setup() throws Exception {
+        final Document layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(LAYOUT)));
+        index = new LayoutUrlNodeIndex("key1", layout);
+    }
+    
+    @Test
+    public void testTabIds() {
+        assertEquals("key1", index.getLayoutCacheKey());
+        assertEquals("s1", index.getTabId("s1"));
+        assertEquals("s1", index.getTabId("s1c2"));
+        assertEquals("s1", index.getTabId("n3"));
+        assertEquals("s2", index.getTabId("n5"));
+        assertEquals("header", index.getTabId("n1"));
+        assertNull(index.getTabId("root"));
+        assertNull(index.getTabId("missing"));
+    }
+    
+    @Test
+    public void testSubscribeIds() {
+        //First match in document order under the folder
+        assertEquals("n2", index.getSubscribeId("s1", "weather"));
+        assertEquals("n2", index.getSubscribeId("root", "weather"));
+        assertEquals("n4", index.getSubscribeId("s1c2", "weather"));
+        assertEquals("n3", index.getSubscribeId("s1", "news"));
+        assertEquals("n5", index.getSubscribeId("s2", "news"));
+        assertEquals("n3", index.getSubscribeId("root", "news"));
+        assertNull(index.getSubscribeId("s2", "weather"));
+        assertNull(index.getSubscribeId("missing", "weather"));
+    }
+}
@@ -164,4 +164,15 @@ public class UrlStringBuilderTest {
         final String url2 = builder2.toString();
         Assert.assertEquals("/?p1=v1&p1=&p1=v2&p2=va%2C%3F&p2=v+b", url2);
     }
+
+    @Test
+    public void testEncodingFastPath() {
+        final UrlStringBuilder builder = new UrlStringBuilder("UTF-8", null);
+        builder.addPath("f", "u12l1s5", "p", "weather.u12l1n7", "max", "render.uP");
+        builder.addParameter("pP_a-b*c", "x y", "a/b", "\u00e9");
+        Assert.assertEquals("/f/u12l1s5/p/weather.u12l1n7/max/render.uP?pP_a-b*c=x+y&pP_a-b*c=a%2Fb&pP_a-b*c=%C3%A9", builder.toString());
+        
+        Assert.assertTrue(BaseEncodedStringBuilder.isUnreserved("render.uP"));
+        Assert.assertFalse(BaseEncodedStringBuilder.isUnreserved("a~b"));
+    }
 }
@@ -0,0 +1,134 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.url;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * JMH benchmark for the hot paths of {@link UrlSyntaxProviderImpl}. Compares the regex path split with
+ * {@link UrlSyntaxProviderImpl#splitPath(String)}, an XPath search of the layout with the
+ * {@link LayoutUrlNodeIndex} lookups {@link SingleTabUrlNodeSyntaxHelper} uses and measures building a
+ * typical portlet URL with {@link UrlStringBuilder}.
+ * <p/>
+ * Not run as part of the build, run with: 
+ * <pre>
+ * mvn test-compile
+ * mvn exec:java -Dexec.mainClass=org.jasig.portal.url.UrlSyntaxBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UrlSyntaxBenchmark {
+    private static final Pattern SLASH_PATTERN = Pattern.compile("/");
+    private static final String REQUEST_PATH = "/f/u12l1s5/p/weather.u12l1n27/max/action.uP";
+    
+    private Document layout;
+    private XPathExpression subscribeIdExpression;
+    private LayoutUrlNodeIndex layoutUrlNodeIndex;
+    
+    @Setup
+    public void setup() throws Exception {
+        //10 tabs with 2 columns of 5 portlets each
+        final StringBuilder layoutXml = new StringBuilder("<layout><folder ID=\"u12l1s1\">");
+        int nodeId = 1;
+        for (int tab = 0; tab < 10; tab++) {
+            layoutXml.append("<folder ID=\"u12l1s").append(tab + 5).append("\">");
+            for (int column = 0; column < 2; column++) {
+                layoutXml.append("<folder ID=\"u12l1s").append(100 + tab * 2 + column).append("\">");
+                for (int portlet = 0; portlet < 5; portlet++) {
+                    layoutXml.append("<channel ID=\"u12l1n").append(nodeId++).append("\" fname=\"portlet").append(portlet + column * 5).append("\"/>");
+                }
+                layoutXml.append("</folder>");
+            }
+            layoutXml.append("</folder>");
+        }
+        layoutXml.append("</folder></layout>");
+        
+        this.layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(layoutXml.toString())));
+        this.subscribeIdExpression = XPathFactory.newInstance().newXPath().compile("//folder[@ID='u12l1s9']/descendant::channel[@fname='portlet7']/@ID");
+        this.layoutUrlNodeIndex = new LayoutUrlNodeIndex("key", this.layout);
+    }
+    
+    @Benchmark
+    public int splitPathRegex() {
+        return SLASH_PATTERN.split(REQUEST_PATH).length;
+    }
+    
+    @Benchmark
+    public int splitPathPrecompiled() {
+        return UrlSyntaxProviderImpl.splitPath(REQUEST_PATH).length;
+    }
+    
+    @Benchmark
+    public Object subscribeIdXPath() throws Exception {
+        return this.subscribeIdExpression.evaluate(this.layout, XPathConstants.STRING);
+    }
+    
+    @Benchmark
+    public String subscribeIdIndexed() {
+        return this.layoutUrlNodeIndex.getSubscribeId("u12l1s9", "portlet7");
+    }
+    
+    @Benchmark
+    public String generatePortletUrl() {
+        final UrlStringBuilder url = new UrlStringBuilder("UTF-8", "uPortal");
+        url.addPath(UrlSyntaxProviderImpl.FOLDER_PATH_PREFIX, "u12l1s5", UrlSyntaxProviderImpl.PORTLET_PATH_PREFIX, "weather.u12l1n27");
+        url.addPath("max", "action.uP");
+        url.addParameter("pP_action", "showForecast");
+        url.addParameter("pP_zip", "53711");
+        return url.toString();
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+            .include(UrlSyntaxBenchmark.class.getSimpleName())
+            .build();
+        
+        new Runner(options).run();
+    }
+}
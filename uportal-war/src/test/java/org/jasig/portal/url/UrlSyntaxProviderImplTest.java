@@ -1007,4 +1007,16 @@ public class UrlSyntaxProviderImplTest {
                         "/uPortal/f/welcome/p/uportal-links.u32l1n12/max/render.uP"));
     }
 
+    /**
+     * splitPath must produce exactly what the regex split it replaced produced
+     */
+    @Test
+    public void testSplitPathMatchesPatternSplit() {
+        final java.util.regex.Pattern slashPattern = java.util.regex.Pattern.compile("/");
+        for (final String path : Arrays.asList("", "/", "//", "a", "/a", "a/", "/a/", "//a", "a//b", "/a//",
+                "/f/u12l1s5/p/weather.u12l1n7/max/render.uP", "/f/welcome/normal/render.uP/")) {
+            assertEquals(path, Arrays.asList(slashPattern.split(path)), Arrays.asList(UrlSyntaxProviderImpl.splitPath(path)));
+        }
+    }
+
 }
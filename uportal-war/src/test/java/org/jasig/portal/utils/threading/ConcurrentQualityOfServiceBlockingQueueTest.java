@@ -0,0 +1,225 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.utils.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for ConcurrentQualityOfServiceBlockingQueue.
+ */
+public class ConcurrentQualityOfServiceBlockingQueueTest {
+    
+    @Test
+    public void testKeyedRoundRobin() {
+        final RoundRobinQueue queue = new RoundRobinQueue(10);
+        queue.addAll(Arrays.asList("a1", "a2", "a3", "b1", "c1", "c2"));
+        
+        assertEquals(6, queue.size());
+        assertEquals(3, queue.getKeySize("a"));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), queue.getKeySet());
+        
+        final String peeked = queue.peek();
+        assertEquals(peeked, queue.peek());
+        assertEquals(peeked, queue.poll());
+        
+        final List<String> drained = new ArrayList<String>();
+        queue.drainTo(drained);
+        assertEquals(5, drained.size());
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.isKeyEmpty("a"));
+        assertNull(queue.poll());
+        
+        //Each key is visited once per round and elements within a key stay in FIFO order
+        final List<String> all = new ArrayList<String>();
+        all.add(peeked);
+        all.addAll(drained);
+        assertEquals(3, new HashSet<String>(all.subList(0, 3)).size());
+        assertEquals(Arrays.asList("a1", "a2", "a3"), filter(all, "a"));
+        assertEquals(Arrays.asList("c1", "c2"), filter(all, "c"));
+    }
+    
+    @Test
+    public void testCapacity() throws Exception {
+        final RoundRobinQueue queue = new RoundRobinQueue(2);
+        assertTrue(queue.offer("a1"));
+        assertTrue(queue.offer("b1"));
+        assertFalse(queue.offer("c1"));
+        assertFalse(queue.offer("c1", 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+        
+        assertTrue(queue.remove("a1"));
+        assertFalse(queue.remove("a1"));
+        assertEquals(1, queue.remainingCapacity());
+        assertTrue(queue.offer("c1"));
+        assertTrue(queue.contains("c1"));
+        
+        final Iterator<String> itr = queue.iterator();
+        itr.next();
+        itr.remove();
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.remainingCapacity());
+    }
+    
+    @Test
+    public void testBlockingTakeAndPut() throws Exception {
+        final RoundRobinQueue queue = new RoundRobinQueue(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> taken = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return queue.take();
+                }
+            });
+            
+            queue.put("a1");
+            assertEquals("a1", taken.get(10, TimeUnit.SECONDS));
+            
+            queue.put("b1");
+            final Future<?> put = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    queue.put("c1");
+                    return null;
+                }
+            });
+            
+            assertEquals("b1", queue.poll(10, TimeUnit.SECONDS));
+            put.get(10, TimeUnit.SECONDS);
+            assertEquals("c1", queue.poll(10, TimeUnit.SECONDS));
+            assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final int producers = 4;
+        final int consumers = 4;
+        final int elementsPerProducer = 10000;
+        final RoundRobinQueue queue = new RoundRobinQueue(100);
+        
+        final ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        try {
+            final List<Future<List<String>>> consumed = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < consumers; i++) {
+                consumed.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        final List<String> elements = new ArrayList<String>();
+                        for (String e = queue.poll(1, TimeUnit.SECONDS); e != null; e = queue.poll(1, TimeUnit.SECONDS)) {
+                            elements.add(e);
+                        }
+                        return elements;
+                    }
+                }));
+            }
+            
+            for (int i = 0; i < producers; i++) {
+                final String key = Character.toString((char)('a' + i));
+                executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int e = 0; e < elementsPerProducer; e++) {
+                            queue.put(key + e);
+                        }
+                        return null;
+                    }
+                });
+            }
+            
+            final Set<String> all = new HashSet<String>();
+            int total = 0;
+            for (final Future<List<String>> future : consumed) {
+                final List<String> elements = future.get(60, TimeUnit.SECONDS);
+                all.addAll(elements);
+                total += elements.size();
+            }
+            
+            assertEquals(producers * elementsPerProducer, total);
+            assertEquals(producers * elementsPerProducer, all.size());
+            assertEquals(0, queue.size());
+            assertEquals(100, queue.remainingCapacity());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private static List<String> filter(List<String> elements, String key) {
+        final List<String> filtered = new ArrayList<String>();
+        for (final String e : elements) {
+            if (e.startsWith(key)) {
+                filtered.add(e);
+            }
+        }
+        return filtered;
+    }
+    
+    /**
+     * Keys elements by their first character and visits keys round robin
+     */
+    private static final class RoundRobinQueue extends ConcurrentQualityOfServiceBlockingQueue<String, String> {
+        private Iterator<String> keyIterator = this.getKeySet().iterator();
+        
+        public RoundRobinQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return e.substring(0, 1);
+        }
+
+        @Override
+        protected String getNextElementKey() {
+            while (true) {
+                if (!this.keyIterator.hasNext()) {
+                    this.keyIterator = this.getKeySet().iterator();
+                }
+                
+                final String key = this.keyIterator.next();
+                if (!this.isKeyEmpty(key)) {
+                    return key;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.jasig.portal.utils.threading;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark comparing {@link QualityOfServiceBlockingQueue} and {@link ConcurrentQualityOfServiceBlockingQueue}
+ * throughput with different numbers of producer and consumer threads. Elements are spread over {@link #keys} keys
+ * that are visited round robin, the same way {@link org.jasig.portal.portlet.rendering.worker.PortletWorkerExecutionQueue}
+ * visits portlet fnames.
+ * <p/>
+ * Not run as part of the build, run with: 
+ * <pre>
+ * mvn test-compile
+ * mvn exec:java -Dexec.mainClass=org.jasig.portal.utils.threading.QualityOfServiceBlockingQueueBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class QualityOfServiceBlockingQueueBenchmark {
+    @Param({"locking", "concurrent"})
+    public String implementation;
+    
+    @Param({"16"})
+    public int keys;
+    
+    private BlockingQueue<Integer> queue;
+    
+    @Setup
+    public void setup() {
+        if ("locking".equals(this.implementation)) {
+            this.queue = new LockingRoundRobinQueue(1024);
+        }
+        else {
+            this.queue = new ConcurrentRoundRobinQueue(1024);
+        }
+    }
+    
+    private boolean offer() {
+        return this.queue.offer(ThreadLocalRandom.current().nextInt(this.keys));
+    }
+    
+    private Integer poll() {
+        return this.queue.poll();
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public boolean p1c1Offer() {
+        return this.offer();
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public Integer p1c1Poll() {
+        return this.poll();
+    }
+
+    @Benchmark
+    @Group("p4c4")
+    @GroupThreads(4)
+    public boolean p4c4Offer() {
+        return this.offer();
+    }
+
+    @Benchmark
+    @Group("p4c4")
+    @GroupThreads(4)
+    public Integer p4c4Poll() {
+        return this.poll();
+    }
+
+    @Benchmark
+    @Group("p16c4")
+    @GroupThreads(16)
+    public boolean p16c4Offer() {
+        return this.offer();
+    }
+
+    @Benchmark
+    @Group("p16c4")
+    @GroupThreads(4)
+    public Integer p16c4Poll() {
+        return this.poll();
+    }
+
+    @Benchmark
+    @Group("p4c16")
+    @GroupThreads(4)
+    public boolean p4c16Offer() {
+        return this.offer();
+    }
+
+    @Benchmark
+    @Group("p4c16")
+    @GroupThreads(16)
+    public Integer p4c16Poll() {
+        return this.poll();
+    }
+
+    @Benchmark
+    @Group("p16c16")
+    @GroupThreads(16)
+    public boolean p16c16Offer() {
+        return this.offer();
+    }
+
+    @Benchmark
+    @Group("p16c16")
+    @GroupThreads(16)
+    public Integer p16c16Poll() {
+        return this.poll();
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(QualityOfServiceBlockingQueueBenchmark.class.getSimpleName())
+                .build();
+        
+        new Runner(options).run();
+    }
+    
+    /**
+     * Visits the non-empty keys of a queue round robin
+     */
+    private static final class RoundRobinKeySelector {
+        private final Set<Integer> keySet;
+        private final KeyedQueue queue;
+        private Iterator<Integer> keyIterator;
+        
+        public RoundRobinKeySelector(Set<Integer> keySet, KeyedQueue queue) {
+            this.keySet = keySet;
+            this.queue = queue;
+            this.keyIterator = keySet.iterator();
+        }
+        
+        public Integer nextKey() {
+            while (true) {
+                if (!this.keyIterator.hasNext()) {
+                    this.keyIterator = this.keySet.iterator();
+                }
+                
+                final Integer key = this.keyIterator.next();
+                if (!this.queue.isKeyEmpty(key)) {
+                    return key;
+                }
+            }
+        }
+    }
+    
+    private interface KeyedQueue {
+        boolean isKeyEmpty(Integer key);
+    }
+    
+    private static final class LockingRoundRobinQueue extends QualityOfServiceBlockingQueue<Integer, Integer> implements KeyedQueue {
+        private final RoundRobinKeySelector keySelector = new RoundRobinKeySelector(this.getKeySet(), this);
+        
+        public LockingRoundRobinQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected Integer getElementKey(Integer e) {
+            return e;
+        }
+
+        @Override
+        protected Integer getNextElementKey() {
+            return this.keySelector.nextKey();
+        }
+    }
+    
+    private static final class ConcurrentRoundRobinQueue extends ConcurrentQualityOfServiceBlockingQueue<Integer, Integer> implements KeyedQueue {
+        private final RoundRobinKeySelector keySelector = new RoundRobinKeySelector(this.getKeySet(), this);
+        
+        public ConcurrentRoundRobinQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected Integer getElementKey(Integer e) {
+            return e;
+        }
+
+        @Override
+        protected Integer getNextElementKey() {
+            return this.keySelector.nextKey();
+        }
+    }
+}
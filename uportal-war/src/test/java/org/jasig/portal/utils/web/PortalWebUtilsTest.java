@@ -0,0 +1,56 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Unit tests for PortalWebUtils.
+ */
+public class PortalWebUtilsTest {
+    @Test
+    public void testCheckNotModified() {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/layoutDoc");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        
+        assertFalse(PortalWebUtils.checkNotModified(request, response, "\"v2\""));
+        assertEquals("\"v2\"", response.getHeader("ETag"));
+        assertEquals(200, response.getStatus());
+        
+        request.addHeader("If-None-Match", "\"v1\", W/\"v2\"");
+        response = new MockHttpServletResponse();
+        assertTrue(PortalWebUtils.checkNotModified(request, response, "\"v2\""));
+        assertEquals(304, response.getStatus());
+        
+        response = new MockHttpServletResponse();
+        assertFalse(PortalWebUtils.checkNotModified(request, response, "\"v3\""));
+        assertEquals(200, response.getStatus());
+        
+        request.setMethod("POST");
+        response = new MockHttpServletResponse();
+        assertFalse(PortalWebUtils.checkNotModified(request, response, "\"v2\""));
+    }
+}